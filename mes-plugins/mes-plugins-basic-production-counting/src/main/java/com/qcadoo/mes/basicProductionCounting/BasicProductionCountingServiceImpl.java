@@ -41,6 +41,9 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.ArrayListMultimap;
@@ -118,6 +121,9 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Override
     public void updateProductionCountingQuantitiesAndOperationRuns(final Entity order) {
         final Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -263,11 +269,19 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     }
 
     private void createProductionCountingOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
+        // operation runs have no hooks nor validators, so they are inserted in one batch
+        List<SqlParameterSource> inserts = Lists.newArrayList();
+
         for (Entry<Long, BigDecimal> operationRun : operationRuns.entrySet()) {
-            Entity technologyOperationComponent = productQuantitiesService.getTechnologyOperationComponent(operationRun.getKey());
-            BigDecimal runs = operationRun.getValue();
+            inserts.add(new MapSqlParameterSource().addValue("orderId", order.getId())
+                    .addValue("technologyOperationComponentId", operationRun.getKey())
+                    .addValue("runs", numberService.setScaleWithDefaultMathContext(operationRun.getValue())));
+        }
 
-            createProductionCountingOperationRun(order, technologyOperationComponent, runs);
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO basicproductioncounting_productioncountingoperationrun "
+                    + "(order_id, technologyoperationcomponent_id, runs) VALUES (:orderId, :technologyOperationComponentId, :runs)",
+                    inserts.toArray(new SqlParameterSource[inserts.size()]));
         }
     }
 
@@ -371,76 +385,99 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     }
 
     private void updateProductionCountingOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
-        for (Entry<Long, BigDecimal> operationRun : operationRuns.entrySet()) {
-            Entity technologyOperationComponent = productQuantitiesService.getTechnologyOperationComponent(operationRun.getKey());
-            BigDecimal runs = operationRun.getValue();
+        Map<Long, Entity> productionCountingOperationRuns = Maps.newHashMap();
 
-            updateProductionCountingOperationRun(order, technologyOperationComponent, runs);
+        for (Entity productionCountingOperationRun : getProductionCountingOperationRunDD().find()
+                .add(SearchRestrictions.belongsTo(ProductionCountingOperationRunFields.ORDER, order))
+                .addOrder(SearchOrders.asc("id")).list().getEntities()) {
+            productionCountingOperationRuns.putIfAbsent(productionCountingOperationRun
+                    .getBelongsToField(ProductionCountingOperationRunFields.TECHNOLOGY_OPERATION_COMPONENT).getId(),
+                    productionCountingOperationRun);
         }
-    }
 
-    private void updateProductionCountingOperationRun(final Entity order, final Entity technologyOperationComponent,
-            final BigDecimal runs) {
-        Entity productionCountingOperationRun = getProductionCountingOperationRunDD().find()
-                .add(SearchRestrictions.belongsTo(ProductionCountingOperationRunFields.ORDER, order))
-                .add(SearchRestrictions.belongsTo(ProductionCountingOperationRunFields.TECHNOLOGY_OPERATION_COMPONENT,
-                        technologyOperationComponent))
-                .setMaxResults(1).uniqueResult();
+        List<SqlParameterSource> updates = Lists.newArrayList();
+
+        for (Entry<Long, BigDecimal> operationRun : operationRuns.entrySet()) {
+            Entity productionCountingOperationRun = productionCountingOperationRuns.get(operationRun.getKey());
+            BigDecimal runs = numberService.setScaleWithDefaultMathContext(operationRun.getValue());
 
-        if (productionCountingOperationRun != null) {
-            productionCountingOperationRun.setField(ProductionCountingOperationRunFields.ORDER, order);
-            productionCountingOperationRun.setField(ProductionCountingOperationRunFields.TECHNOLOGY_OPERATION_COMPONENT,
-                    technologyOperationComponent);
-            productionCountingOperationRun.setField(ProductionCountingOperationRunFields.RUNS, runs);
+            if (productionCountingOperationRun != null && !BigDecimalUtils.valueEquals(runs,
+                    productionCountingOperationRun.getDecimalField(ProductionCountingOperationRunFields.RUNS))) {
+                updates.add(new MapSqlParameterSource().addValue("id", productionCountingOperationRun.getId()).addValue("runs",
+                        runs));
+            }
+        }
 
-            productionCountingOperationRun.getDataDefinition().save(productionCountingOperationRun);
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE basicproductioncounting_productioncountingoperationrun SET runs = :runs WHERE id = :id",
+                    updates.toArray(new SqlParameterSource[updates.size()]));
         }
     }
 
     private void updateProductionCountingQuantities(final Entity order,
             final OperationProductComponentWithQuantityContainer productComponentQuantities,
             final Set<OperationProductComponentHolder> nonComponents) {
+        Map<ProductionCountingQuantityKey, Entity> productionCountingQuantities = Maps.newHashMap();
+
+        for (Entity productionCountingQuantity : getProductionCountingQuantityDD().find()
+                .add(SearchRestrictions.belongsTo(ProductionCountingQuantityFields.ORDER, order))
+                .addOrder(SearchOrders.asc("id")).list().getEntities()) {
+            Entity technologyOperationComponent = productionCountingQuantity
+                    .getBelongsToField(ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT);
+
+            productionCountingQuantities.putIfAbsent(
+                    new ProductionCountingQuantityKey(
+                            Objects.isNull(technologyOperationComponent) ? null : technologyOperationComponent.getId(),
+                            productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT).getId(),
+                            productionCountingQuantity.getStringField(ProductionCountingQuantityFields.ROLE)),
+                    productionCountingQuantity);
+        }
+
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentQuantity : productComponentQuantities.asMap()
                 .entrySet()) {
             OperationProductComponentHolder operationProductComponentHolder = productComponentQuantity.getKey();
             BigDecimal plannedQuantity = productComponentQuantity.getValue();
 
-            Entity technologyOperationComponent = operationProductComponentHolder.getTechnologyOperationComponent();
-            Entity product = operationProductComponentHolder.getProduct();
-
             String role = getRole(operationProductComponentHolder);
 
             boolean isNonComponent = nonComponents.contains(operationProductComponentHolder);
 
-            updateProductionCountingQuantity(order, technologyOperationComponent, product, role, isNonComponent, plannedQuantity);
+            updateProductionCountingQuantity(productionCountingQuantities.get(
+                    new ProductionCountingQuantityKey(operationProductComponentHolder.getTechnologyOperationComponentId(),
+                            operationProductComponentHolder.getProductId(), role)),
+                    isNonComponent, plannedQuantity);
         }
 
-        updateProductionCountingQuantity(order, getOrderTechnologyOperationComponent(order),
-                order.getBelongsToField(OrderFields.PRODUCT), ProductionCountingQuantityRole.PRODUCED.getStringValue(), false,
-                order.getDecimalField(OrderFields.PLANNED_QUANTITY));
+        Entity orderTechnologyOperationComponent = getOrderTechnologyOperationComponent(order);
+
+        updateProductionCountingQuantity(
+                productionCountingQuantities.get(new ProductionCountingQuantityKey(
+                        Objects.isNull(orderTechnologyOperationComponent) ? null : orderTechnologyOperationComponent.getId(),
+                        order.getBelongsToField(OrderFields.PRODUCT).getId(),
+                        ProductionCountingQuantityRole.PRODUCED.getStringValue())),
+                false, order.getDecimalField(OrderFields.PLANNED_QUANTITY));
     }
 
-    private void updateProductionCountingQuantity(final Entity order, final Entity technologyOperationComponent,
-            final Entity product, final String role, final boolean isNonComponent, final BigDecimal plannedQuantity) {
-        Entity productionCountingQuantity = getProductionCountingQuantityDD().find()
-                .add(SearchRestrictions.belongsTo(ProductionCountingQuantityFields.ORDER, order))
-                .add(SearchRestrictions.belongsTo(ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT,
-                        technologyOperationComponent))
-                .add(SearchRestrictions.belongsTo(ProductionCountingQuantityFields.PRODUCT, product))
-                .add(SearchRestrictions.eq(ProductionCountingQuantityFields.ROLE, role)).setMaxResults(1).uniqueResult();
-
-        if (productionCountingQuantity != null) {
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.ORDER, order);
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT,
-                    technologyOperationComponent);
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.PRODUCT, product);
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.ROLE, role);
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.IS_NON_COMPONENT, isNonComponent);
-            productionCountingQuantity.setField(ProductionCountingQuantityFields.PLANNED_QUANTITY,
-                    numberService.setScaleWithDefaultMathContext(plannedQuantity));
-
-            productionCountingQuantity.getDataDefinition().save(productionCountingQuantity);
+    private void updateProductionCountingQuantity(final Entity productionCountingQuantity, final boolean isNonComponent,
+            final BigDecimal plannedQuantity) {
+        if (productionCountingQuantity == null) {
+            return;
+        }
+
+        BigDecimal scaledPlannedQuantity = numberService.setScaleWithDefaultMathContext(plannedQuantity);
+
+        if (BigDecimalUtils.valueEquals(scaledPlannedQuantity,
+                productionCountingQuantity.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY))
+                && isNonComponent == productionCountingQuantity
+                        .getBooleanField(ProductionCountingQuantityFields.IS_NON_COMPONENT)) {
+            return;
         }
+
+        productionCountingQuantity.setField(ProductionCountingQuantityFields.IS_NON_COMPONENT, isNonComponent);
+        productionCountingQuantity.setField(ProductionCountingQuantityFields.PLANNED_QUANTITY, scaledPlannedQuantity);
+
+        productionCountingQuantity.getDataDefinition().save(productionCountingQuantity);
     }
 
     private Entity prepareBasicProductionCounting(final Entity order, final Entity product) {
@@ -694,4 +731,40 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         }
     }
 
-}
\ No newline at end of file
+    private static final class ProductionCountingQuantityKey {
+
+        private final Long technologyOperationComponentId;
+
+        private final Long productId;
+
+        private final String role;
+
+        ProductionCountingQuantityKey(final Long technologyOperationComponentId, final Long productId, final String role) {
+            this.technologyOperationComponentId = technologyOperationComponentId;
+            this.productId = productId;
+            this.role = role;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ProductionCountingQuantityKey)) {
+                return false;
+            }
+
+            ProductionCountingQuantityKey other = (ProductionCountingQuantityKey) obj;
+
+            return Objects.equals(technologyOperationComponentId, other.technologyOperationComponentId)
+                    && Objects.equals(productId, other.productId) && Objects.equals(role, other.role);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(technologyOperationComponentId, productId, role);
+        }
+
+    }
+
+}
@@ -85,11 +85,14 @@ public abstract class BasicLookupController<R> {
             @RequestParam(defaultValue = "1", required = false, value = "page") Integer page,
             @RequestParam(value = "rows") int perPage,
             @RequestParam(defaultValue = "0", required = false, value = "context") Long context,
+            @RequestParam(required = false, value = "keysetValue") String keysetValue,
+            @RequestParam(required = false, value = "keysetId") Long keysetId,
             R record) {
 
         String query = getQueryForRecords(context);
 
-        return lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, getQueryParameters(context, record));
+        return lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, getQueryParameters(context, record),
+                GridPaging.keyset(keysetValue, keysetId));
     }
 
     protected Map<String, Object> getQueryParameters(Long context, R record) {
@@ -32,6 +32,10 @@ import com.qcadoo.plugin.api.Module;
 @Component
 public class BasicOnStartupService extends Module {
 
+    private static final String L_REPORT_JOB_SQL = "/basic/model/data/reportJob.sql";
+
+    private static final String L_PRODUCT_NODE_NUMBER_INDEXES = "/basic/model/data/productNodeNumberIndexes.sql";
+
     @Autowired
     private CountryLoader countryLoader;
 
@@ -56,6 +60,28 @@ public class BasicOnStartupService extends Module {
     @Autowired
     private ExchangeRatesUpdateService exchangeRatesUpdateService;
 
+    @Autowired
+    private SqlIndexesLoader sqlIndexesLoader;
+
+    @Autowired
+    private NumberSequenceService numberSequenceService;
+
+    @Override
+    public void enableOnStartup() {
+        sqlIndexesLoader.loadSql(SqlIndexesLoader.BASIC_TYPEAHEAD_INDEXES);
+        sqlIndexesLoader.loadSql(L_REPORT_JOB_SQL);
+        sqlIndexesLoader.loadSql(L_PRODUCT_NODE_NUMBER_INDEXES);
+        numberSequenceService.createNumberSequences();
+    }
+
+    @Override
+    public void enable() {
+        sqlIndexesLoader.loadSql(SqlIndexesLoader.BASIC_TYPEAHEAD_INDEXES);
+        sqlIndexesLoader.loadSql(L_REPORT_JOB_SQL);
+        sqlIndexesLoader.loadSql(L_PRODUCT_NODE_NUMBER_INDEXES);
+        numberSequenceService.createNumberSequences();
+    }
+
     @Override
     @Transactional
     public void multiTenantEnable() {
@@ -0,0 +1,55 @@
+package com.qcadoo.mes.basic;
+
+/**
+ * Paging options for {@link LookupUtils#getGridResponse}.
+ *
+ * By default grids are paged with LIMIT/OFFSET and an exact record count. When keyset values (sort column value and id of
+ * the last row of previous page, as returned in {@link GridResponse}) are given, the next page is read with a seek
+ * condition instead of OFFSET, so its cost does not depend on page depth. With cached count enabled (meant for grids of
+ * large result sets only) the record count is computed on first page only and reused for next pages for a short time.
+ */
+public class GridPaging {
+
+    private static final GridPaging OFFSET = new GridPaging(null, null, false);
+
+    private final String keysetValue;
+
+    private final Long keysetId;
+
+    private final boolean cachedCount;
+
+    private GridPaging(final String keysetValue, final Long keysetId, final boolean cachedCount) {
+        this.keysetValue = keysetValue;
+        this.keysetId = keysetId;
+        this.cachedCount = cachedCount;
+    }
+
+    public static GridPaging offset() {
+        return OFFSET;
+    }
+
+    public static GridPaging keyset(final String keysetValue, final Long keysetId) {
+        return new GridPaging(keysetValue, keysetId, false);
+    }
+
+    public GridPaging withCachedCount() {
+        return new GridPaging(keysetValue, keysetId, true);
+    }
+
+    public String getKeysetValue() {
+        return keysetValue;
+    }
+
+    public Long getKeysetId() {
+        return keysetId;
+    }
+
+    public boolean isKeyset() {
+        return keysetId != null;
+    }
+
+    public boolean isCachedCount() {
+        return cachedCount;
+    }
+
+}
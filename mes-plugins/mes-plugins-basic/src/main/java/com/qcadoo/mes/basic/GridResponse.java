@@ -8,6 +8,9 @@ public class GridResponse<T> {
     private int total;
     private int records;
     private List<T> rows;
+    private Object keysetValue;
+    private Long keysetId;
+    private boolean approximateRecords;
 
     public GridResponse() {
     }
@@ -51,4 +54,28 @@ public class GridResponse<T> {
         this.rows = rows;
     }
 
+    public Object getKeysetValue() {
+        return keysetValue;
+    }
+
+    public void setKeysetValue(Object keysetValue) {
+        this.keysetValue = keysetValue;
+    }
+
+    public Long getKeysetId() {
+        return keysetId;
+    }
+
+    public void setKeysetId(Long keysetId) {
+        this.keysetId = keysetId;
+    }
+
+    public boolean isApproximateRecords() {
+        return approximateRecords;
+    }
+
+    public void setApproximateRecords(boolean approximateRecords) {
+        this.approximateRecords = approximateRecords;
+    }
+
 }
@@ -1,12 +1,20 @@
 package com.qcadoo.mes.basic;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,10 +23,24 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 
 @Service
 public class LookupUtils {
 
+    private static final String ID = "id";
+
+    private static final String KEYSET_VALUE_PARAMETER = "keysetValue";
+
+    private static final String KEYSET_ID_PARAMETER = "keysetId";
+
+    private static final ConcurrentMap<Class<?>, Map<String, Field>> FIELDS_CACHE = new ConcurrentHashMap<>();
+
+    private final Cache<String, Integer> countsCache = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(30, TimeUnit.SECONDS).build();
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -27,57 +49,202 @@ public class LookupUtils {
     }
 
     public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage, R recordExample, Map<String, Object> parameters) {
+        return getGridResponse(query, sidx, sord, page, perPage, recordExample, parameters, GridPaging.offset());
+    }
+
+    public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage, R recordExample, Map<String, Object> parameters, GridPaging paging) {
         sidx = sidx != null ? sidx.toLowerCase() : "";
         sord = sord != null ? sord.toLowerCase() : "";
 
+        Map<String, Field> fields = getFields(recordExample.getClass());
+
         Preconditions.checkState(Arrays.asList("asc", "desc", "").contains(sord));
-        Preconditions.checkState(Arrays.asList(recordExample.getClass().getDeclaredFields()).stream().map(Field::getName).map(String::toLowerCase).collect(Collectors.toList()).contains(sidx));
+        Preconditions.checkState(fields.containsKey(sidx));
 
-        query += addQueryWhereForObject(recordExample);
+        String where = addQueryWhereForObject(recordExample);
+
+        query += where;
 
         parameters.putAll(getParametersForObject(recordExample));
 
         String queryCount = String.format(query, "COUNT(*)", "");
-        String queryRecords = String.format(query, "*", "ORDER BY " + sidx + " " + sord) + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
+        Integer countRecords = getCount(queryCount, parameters, page, paging);
+
+        Field sortField = fields.get(sidx);
+        Field idField = fields.get(ID);
+
+        List<R> records;
+
+        if (paging.isKeyset() && idField != null && isKeysetSortable(sortField)) {
+            String queryRecords = String.format(query + addQueryKeysetCondition(where.isEmpty(), sidx, sord, paging), "*", "")
+                    + String.format(" ORDER BY %s %s, %s %s LIMIT %d", sidx, sord, ID, sord, perPage);
+
+            parameters.put(KEYSET_VALUE_PARAMETER, convertKeysetValue(sortField, paging.getKeysetValue()));
+            parameters.put(KEYSET_ID_PARAMETER, paging.getKeysetId());
+
+            records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+
+        } else {
+            String orderBy = (idField == null || ID.equals(sidx)) ? String.format(" ORDER BY %s %s", sidx, sord)
+                    : String.format(" ORDER BY %s %s, %s %s", sidx, sord, ID, sord);
+            String queryRecords = String.format(query, "*", "") + orderBy
+                    + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
+
+            records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+        }
+
+        GridResponse<R> gridResponse = new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
+
+        gridResponse.setApproximateRecords(paging.isCachedCount() && page > 1);
+
+        if (!records.isEmpty() && idField != null && isKeysetSortable(sortField)) {
+            R lastRecord = records.get(records.size() - 1);
 
-        Integer countRecords = jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
-        List<R> records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+            gridResponse.setKeysetValue(getFieldValue(sortField, lastRecord));
+            gridResponse.setKeysetId(getKeysetId(idField, lastRecord));
+        }
+
+        return gridResponse;
+    }
+
+    private Integer getCount(String queryCount, Map<String, Object> parameters, Integer page, GridPaging paging) {
+        if (!paging.isCachedCount()) {
+            return jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
+        }
+
+        String key = MultiTenantUtil.getCurrentTenantId() + "|" + queryCount + new TreeMap<>(parameters);
+
+        Integer countRecords = page > 1 ? countsCache.getIfPresent(key) : null;
+
+        if (countRecords == null) {
+            countRecords = jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
+
+            countsCache.put(key, countRecords);
+        }
 
-        return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
+        return countRecords;
+    }
+
+    private String addQueryKeysetCondition(boolean withoutWhere, String sidx, String sord, GridPaging paging) {
+        String operator = "desc".equals(sord) ? "<" : ">";
+        String condition;
+
+        if (ID.equals(sidx)) {
+            condition = String.format("%s %s :%s", ID, operator, KEYSET_ID_PARAMETER);
+
+        } else if (paging.getKeysetValue() == null) {
+            // postgres puts nulls last in ascending order and first in descending order
+            condition = String.format("%s IS NULL AND %s %s :%s", sidx, ID, operator, KEYSET_ID_PARAMETER);
+
+            if ("desc".equals(sord)) {
+                condition = String.format("(%s IS NOT NULL OR (%s))", sidx, condition);
+            }
+
+        } else {
+            condition = String.format("(%s %s :%s OR (%s = :%s AND %s %s :%s)", sidx, operator, KEYSET_VALUE_PARAMETER, sidx,
+                    KEYSET_VALUE_PARAMETER, ID, operator, KEYSET_ID_PARAMETER);
+
+            if ("desc".equals(sord)) {
+                condition += ")";
+
+            } else {
+                condition += String.format(" OR %s IS NULL)", sidx);
+            }
+        }
+
+        return (withoutWhere ? " WHERE " : " AND ") + condition;
+    }
+
+    private boolean isKeysetSortable(Field field) {
+        Class<?> type = field.getType();
+
+        return Number.class.isAssignableFrom(type) || String.class.equals(type) || Date.class.isAssignableFrom(type)
+                || Boolean.class.equals(type);
+    }
+
+    private Object convertKeysetValue(Field field, String value) {
+        if (value == null) {
+            return null;
+        }
+
+        Class<?> type = field.getType();
+
+        if (String.class.equals(type)) {
+            return value;
+
+        } else if (Boolean.class.equals(type)) {
+            return Boolean.valueOf(value);
+
+        } else if (Date.class.isAssignableFrom(type)) {
+            return new Date(Long.parseLong(value));
+
+        } else if (Long.class.equals(type)) {
+            return Long.valueOf(value);
+
+        } else if (Integer.class.equals(type)) {
+            return Integer.valueOf(value);
+
+        } else {
+            return new BigDecimal(value);
+        }
+    }
+
+    private Object getFieldValue(Field field, Object object) {
+        try {
+            return field.get(object);
+
+        } catch (IllegalArgumentException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private Long getKeysetId(Field idField, Object object) {
+        Object value = getFieldValue(idField, object);
+
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    private Map<String, Field> getFields(Class<?> clazz) {
+        return FIELDS_CACHE.computeIfAbsent(clazz, key -> {
+            Map<String, Field> fields = new LinkedHashMap<>();
+
+            for (Field field : key.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    field.setAccessible(true);
+                    fields.put(field.getName().toLowerCase(), field);
+                }
+            }
+
+            return Collections.unmodifiableMap(fields);
+        });
     }
 
     private String addQueryWhereForObject(Object object) {
         List<String> items = new ArrayList<>();
 
         if (object != null) {
-            for (Field field : object.getClass().getDeclaredFields()) {
-                try {
-                    field.setAccessible(true);
-                    Object value = field.get(object);
-                    if (value != null) {
-                        if (value instanceof Number) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+            for (Field field : getFields(object.getClass()).values()) {
+                Object value = getFieldValue(field, object);
+                if (value != null) {
+                    if (value instanceof Number) {
+                        items.add(String.format("%s = :%s", field.getName(), field.getName()));
 
-                        } else if (value instanceof Date) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+                    } else if (value instanceof Date) {
+                        items.add(String.format("%s = :%s", field.getName(), field.getName()));
 
-                        } else if (value instanceof Boolean) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+                    } else if (value instanceof Boolean) {
+                        items.add(String.format("%s = :%s", field.getName(), field.getName()));
 
-                        } else if (value instanceof String) {
-                            SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
+                    } else if (value instanceof String) {
+                        SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
 
-                            if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
-                                items.add(String.format("lower(%s) = lower(:%s)", field.getName(), field.getName()));
+                        if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
+                            items.add(String.format("lower(%s) = lower(:%s)", field.getName(), field.getName()));
 
-                            } else {
-                                items.add(String.format("lower(%s) like lower(:%s)", field.getName(), field.getName()));
-                            }
+                        } else {
+                            items.add(String.format("lower(%s) like lower(:%s)", field.getName(), field.getName()));
                         }
                     }
-
-                } catch (IllegalArgumentException | IllegalAccessException ex) {
-                    throw new RuntimeException(ex);
                 }
             }
         }
@@ -95,28 +262,22 @@ public class LookupUtils {
         Map<String, Object> parameters = new HashMap<>();
 
         if (object != null) {
-            for (Field field : object.getClass().getDeclaredFields()) {
-                try {
-                    field.setAccessible(true);
-                    Object value = field.get(object);
-                    if (value != null) {
-                        if (value instanceof String) {
-                            SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
-
-                            if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
-                                parameters.put(field.getName(), value);
+            for (Field field : getFields(object.getClass()).values()) {
+                Object value = getFieldValue(field, object);
+                if (value != null) {
+                    if (value instanceof String) {
+                        SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
 
-                            } else {
-                                parameters.put(field.getName(), "%" + value + "%");
-                            }
+                        if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
+                            parameters.put(field.getName(), value);
 
                         } else {
-                            parameters.put(field.getName(), value);
+                            parameters.put(field.getName(), "%" + value + "%");
                         }
-                    }
 
-                } catch (IllegalArgumentException | IllegalAccessException ex) {
-                    throw new RuntimeException(ex);
+                    } else {
+                        parameters.put(field.getName(), value);
+                    }
                 }
             }
         }
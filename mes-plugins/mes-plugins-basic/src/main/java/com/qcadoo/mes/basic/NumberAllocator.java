@@ -0,0 +1,127 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Allocates numbers of form prefix + zero padded counter (like
+ * {@link com.qcadoo.view.api.utils.NumberGeneratorService#generateNumberWithPrefix(String, String, int, String)}) from a
+ * counter kept per (plugin, model, prefix) by {@link NumberSequenceService}.
+ *
+ * Counter is advanced in its own short transaction, by blocks, so each node takes numbers from its own block (kept per
+ * tenant) without querying existing numbers. Existing numbers are read only once, to seed the counter of a new prefix.
+ * Numbers of blocks not used before restart are skipped.
+ */
+@Service
+public class NumberAllocator {
+
+    private static final int L_BLOCK_SIZE = 20;
+
+    @Autowired
+    private NumberSequenceService numberSequenceService;
+
+    // by tenant, plugin, model and prefix
+    private final ConcurrentMap<String, NumberBlock> numberBlocks = new ConcurrentHashMap<>();
+
+    public String generateNumberWithPrefix(final String pluginIdentifier, final String modelName, final int digitsNumber,
+            final String prefix) {
+        return reserveNumbers(pluginIdentifier, modelName, digitsNumber, prefix, 1).get(0);
+    }
+
+    /**
+     * Reserves given quantity of consecutive numbers (if not interrupted by end of node's block) with given prefix.
+     *
+     * @param pluginIdentifier
+     *            plugin identifier of model
+     * @param modelName
+     *            model name, model has to have number field
+     * @param digitsNumber
+     *            minimal number of digits of counter
+     * @param prefix
+     *            prefix of numbers
+     * @param quantity
+     *            quantity of numbers
+     * @return reserved numbers
+     */
+    public List<String> reserveNumbers(final String pluginIdentifier, final String modelName, final int digitsNumber,
+            final String prefix, final int quantity) {
+        Preconditions.checkArgument(quantity > 0, "Quantity of numbers has to be positive");
+
+        NumberBlock numberBlock = numberBlocks.computeIfAbsent(
+                getCurrentTenantId() + "|" + pluginIdentifier + "." + modelName + "." + prefix, key -> new NumberBlock());
+
+        List<String> numbers = Lists.newArrayListWithCapacity(quantity);
+
+        synchronized (numberBlock) {
+            while (numbers.size() < quantity) {
+                if (numberBlock.isExhausted()) {
+                    long size = Math.max(L_BLOCK_SIZE, quantity - numbers.size());
+                    long last = numberSequenceService.allocateBlock(pluginIdentifier, modelName, prefix, size);
+
+                    numberBlock.reset(last - size + 1, last);
+                }
+
+                numbers.add(prefix + String.format("%0" + digitsNumber + "d", numberBlock.next()));
+            }
+        }
+
+        return numbers;
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private static class NumberBlock {
+
+        private long next = 1;
+
+        private long last = 0;
+
+        boolean isExhausted() {
+            return next > last;
+        }
+
+        long next() {
+            return next++;
+        }
+
+        void reset(final long first, final long last) {
+            this.next = first;
+            this.last = last;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Counters of {@link NumberAllocator}, kept per (plugin, model, prefix) in basic_numbersequence table.
+ */
+@Service
+public class NumberSequenceService {
+
+    private static final String L_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS basic_numbersequence (pluginidentifier "
+            + "character varying(255) NOT NULL, modelname character varying(255) NOT NULL, prefix character varying(1024) "
+            + "NOT NULL, lastnumber bigint NOT NULL, PRIMARY KEY (pluginidentifier, modelname, prefix))";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void createNumberSequences() {
+        jdbcTemplate.getJdbcOperations().execute(L_CREATE_TABLE);
+    }
+
+    /**
+     * Advances counter of given prefix by given size, in its own transaction, so the counter row is not locked until the
+     * end of caller's transaction and allocated block stays allocated if caller's transaction is rolled back.
+     *
+     * @return last number of allocated block
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public long allocateBlock(final String pluginIdentifier, final String modelName, final String prefix, final long size) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("pluginIdentifier", pluginIdentifier);
+        params.addValue("modelName", modelName);
+        params.addValue("prefix", prefix);
+        params.addValue("size", size);
+
+        List<Long> lastNumbers = jdbcTemplate.queryForList("UPDATE basic_numbersequence SET lastnumber = lastnumber + :size "
+                + "WHERE pluginidentifier = :pluginIdentifier AND modelname = :modelName AND prefix = :prefix "
+                + "RETURNING lastnumber", params, Long.class);
+
+        if (!lastNumbers.isEmpty()) {
+            return lastNumbers.get(0);
+        }
+
+        params.addValue("seed", getHighestExistingNumber(pluginIdentifier, modelName, prefix));
+
+        return jdbcTemplate.queryForObject("INSERT INTO basic_numbersequence (pluginidentifier, modelname, prefix, lastnumber) "
+                + "VALUES (:pluginIdentifier, :modelName, :prefix, :seed + :size) "
+                + "ON CONFLICT (pluginidentifier, modelname, prefix) "
+                + "DO UPDATE SET lastnumber = basic_numbersequence.lastnumber + :size RETURNING lastnumber", params, Long.class);
+    }
+
+    private long getHighestExistingNumber(final String pluginIdentifier, final String modelName, final String prefix) {
+        String table = (pluginIdentifier + "_" + modelName).toLowerCase();
+
+        Preconditions.checkArgument(table.matches("[a-z0-9_]+"), "Invalid model: " + table);
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("prefix", prefix);
+        params.addValue("prefixLength", prefix.length());
+
+        Long highestNumber = jdbcTemplate.queryForObject("SELECT MAX(CAST(suffix AS numeric)) FROM (SELECT "
+                + "substring(number FROM :prefixLength + 1) AS suffix FROM " + table + " WHERE left(number, :prefixLength) = "
+                + ":prefix) numbers WHERE suffix ~ '^[0-9]{1,18}$'", params, Long.class);
+
+        return highestNumber == null ? 0L : highestNumber;
+    }
+
+}
@@ -45,6 +45,21 @@ public interface ShiftsService {
 
     Date findDateToForOrder(final Date dateFrom, final long seconds);
 
+    /**
+     * Same as {@link #findDateFromForOrder(Date, long)} and {@link #findDateToForOrder(Date, long)}, but counting working time
+     * of shifts assigned to given production line only, with timetable exceptions of that line. When no shifts are assigned
+     * to the line, working time of all shifts is counted.
+     */
+    Date findDateFromForOrder(final Date dateTo, final long seconds, final Entity productionLine);
+
+    Date findDateToForOrder(final Date dateFrom, final long seconds, final Entity productionLine);
+
+    /**
+     * Drops cached working time calendar used by {@link #findDateToForOrder(Date, long)} and
+     * {@link #findDateFromForOrder(Date, long)}, has to be called when shifts or their timetable exceptions change.
+     */
+    void invalidateShiftCalendar();
+
     List<ShiftHour> getHoursForShift(final Entity shift, final Date dateFrom, final Date dateTo);
 
     Entity getShiftFromDateWithTime(final Date date);
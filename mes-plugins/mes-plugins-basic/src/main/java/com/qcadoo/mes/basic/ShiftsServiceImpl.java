@@ -33,16 +33,17 @@ import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftCalendarIndex;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FieldComponent;
 import com.qcadoo.view.api.components.FormComponent;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
@@ -61,6 +62,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -82,8 +85,6 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String TYPE_FIELD = "type";
 
-    private static final String TIMETABLE_EXCEPTIONS_FIELD = "timetableExceptions";
-
     private static final String HOURS_LITERAL = "Hours";
 
     private static final String WORKING_LITERAL = "Working";
@@ -92,18 +93,21 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String FROM_DATE_FIELD = "fromDate";
 
-    private static final long STEP = DateTimeConstants.MILLIS_PER_WEEK;
-
     private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
     private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
+    private static final String L_SHIFTS = "shifts";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private TimetableExceptionService timetableExceptionService;
 
+    // calendars of all shifts (production line id null) and of shifts of production lines, per tenant
+    private final ConcurrentMap<CalendarKey, ShiftCalendarIndex> shiftCalendarIndexes = new ConcurrentHashMap<>();
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -510,70 +514,94 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForOrder(final Date dateFrom, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
-        }
+        return findDateToForOrder(dateFrom, seconds, null);
+    }
 
-        long start = dateFrom.getTime();
-        long remaining = seconds;
+    @Override
+    public Date findDateToForOrder(final Date dateFrom, final long seconds, final Entity productionLine) {
+        ShiftCalendarIndex shiftCalendarIndex = getShiftCalendarIndex(productionLine);
 
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(start), new Date(start + STEP));
+        if (!shiftCalendarIndex.hasShifts() || (seconds < 0)) {
+            return null;
+        }
 
-            for (ShiftsServiceImpl.ShiftHour hour : hours) {
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
+        return shiftCalendarIndex.addWorkingTime(dateFrom, seconds).orElse(null);
+    }
 
-                if (diff >= remaining) {
-                    return new Date(hour.getDateFrom().getTime() + (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
+    @Override
+    public Date findDateFromForOrder(final Date dateTo, final long seconds) {
+        return findDateFromForOrder(dateTo, seconds, null);
+    }
 
-            start += STEP;
+    @Override
+    public Date findDateFromForOrder(final Date dateTo, final long seconds, final Entity productionLine) {
+        ShiftCalendarIndex shiftCalendarIndex = getShiftCalendarIndex(productionLine);
 
-            if (start > MAX_TIMESTAMP) {
-                return null;
-            }
+        if (!shiftCalendarIndex.hasShifts() || (seconds < 0)) {
+            return null;
         }
 
-        return null;
+        return shiftCalendarIndex.subtractWorkingTime(dateTo, seconds).orElse(null);
     }
 
     @Override
-    public Date findDateFromForOrder(final Date dateTo, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
+    public void invalidateShiftCalendar() {
+        shiftCalendarIndexes.values().forEach(ShiftCalendarIndex::invalidate);
+    }
+
+    private ShiftCalendarIndex getShiftCalendarIndex(final Entity productionLine) {
+        ShiftCalendarIndex allShiftsCalendarIndex = shiftCalendarIndexes.computeIfAbsent(
+                new CalendarKey(MultiTenantUtil.getCurrentTenantId(), null),
+                key -> new ShiftCalendarIndex(this::getHoursForAllShifts, this::shiftsExist, MIN_TIMESTAMP, MAX_TIMESTAMP));
+
+        if (Objects.isNull(productionLine)) {
+            return allShiftsCalendarIndex;
         }
 
-        long stop = dateTo.getTime();
-        long remaining = seconds;
+        DataDefinition productionLineDD = productionLine.getDataDefinition();
+        Long productionLineId = productionLine.getId();
 
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(stop - STEP), new Date(stop));
+        ShiftCalendarIndex productionLineCalendarIndex = shiftCalendarIndexes.computeIfAbsent(
+                new CalendarKey(MultiTenantUtil.getCurrentTenantId(), productionLineId),
+                key -> new ShiftCalendarIndex(
+                        (dateFrom, dateTo) -> getHoursForProductionLine(productionLineDD.get(productionLineId), dateFrom, dateTo),
+                        () -> !getShiftsOfProductionLine(productionLineDD.get(productionLineId)).isEmpty(), MIN_TIMESTAMP,
+                        MAX_TIMESTAMP));
 
-            for (int i = hours.size() - 1; i >= 0; i--) {
-                ShiftsServiceImpl.ShiftHour hour = hours.get(i);
+        // production line without assigned shifts works in all shifts
+        if (productionLineCalendarIndex.hasShifts()) {
+            return productionLineCalendarIndex;
+        }
 
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
+        return allShiftsCalendarIndex;
+    }
 
-                if (diff >= remaining) {
-                    return new Date(hour.getDateTo().getTime() - (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
+    private boolean shiftsExist() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
+                .getTotalNumberOfEntities() > 0;
+    }
 
-            stop -= STEP;
+    private List<Entity> getShiftsOfProductionLine(final Entity productionLine) {
+        if (Objects.isNull(productionLine)) {
+            return Collections.emptyList();
+        }
 
-            if (stop < MIN_TIMESTAMP) {
-                return null;
-            }
+        List<Entity> shifts = productionLine.getManyToManyField(L_SHIFTS);
+
+        return Objects.isNull(shifts) ? Collections.emptyList() : shifts;
+    }
+
+    private List<ShiftHour> getHoursForProductionLine(final Entity productionLine, final Date dateFrom, final Date dateTo) {
+        List<ShiftHour> hours = Lists.newArrayList();
+
+        for (Entity shift : getShiftsOfProductionLine(productionLine)) {
+            hours.addAll(getHoursForShift(shift,
+                    timetableExceptionService.findForProductionLineAndShift(productionLine, shift), dateFrom, dateTo));
         }
 
-        return null;
+        Collections.sort(hours, new ShiftHoursComparator());
+
+        return mergeOverlappedHours(hours);
     }
 
     @Override
@@ -594,6 +622,11 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public List<ShiftHour> getHoursForShift(final Entity shift, final Date dateFrom, final Date dateTo) {
+        return getHoursForShift(shift, getTimetableExceptions(shift), dateFrom, dateTo);
+    }
+
+    private List<ShiftHour> getHoursForShift(final Entity shift, final List<Entity> exceptions, final Date dateFrom,
+            final Date dateTo) {
         List<ShiftHour> hours = Lists.newArrayList();
 
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_MONDAY, 1));
@@ -604,8 +637,6 @@ public class ShiftsServiceImpl implements ShiftsService {
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_SATURDAY, 6));
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_SUNDAY, 7));
 
-        List<Entity> exceptions = shift.getHasManyField(TIMETABLE_EXCEPTIONS_FIELD);
-
         addWorkTimeExceptions(hours, exceptions);
         removeFreeTimeExceptions(hours, exceptions);
 
@@ -614,6 +645,12 @@ public class ShiftsServiceImpl implements ShiftsService {
         return removeHoursOutOfRange(mergeOverlappedHours(hours), dateFrom, dateTo);
     }
 
+    private List<Entity> getTimetableExceptions(final Entity shift) {
+        List<Entity> exceptions = shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+
+        return Objects.isNull(exceptions) ? Collections.emptyList() : exceptions;
+    }
+
     public List<ShiftHour> removeHoursOutOfRange(final List<ShiftHour> hours, final Date dateFrom, final Date dateTo) {
         List<ShiftHour> list = Lists.newArrayList();
 
@@ -903,6 +940,38 @@ public class ShiftsServiceImpl implements ShiftsService {
     }
 
     // TODO replace this class with Interval or our DateRange/TimeRange
+    private static final class CalendarKey {
+
+        private final int tenantId;
+
+        private final Long productionLineId;
+
+        CalendarKey(final int tenantId, final Long productionLineId) {
+            this.tenantId = tenantId;
+            this.productionLineId = productionLineId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CalendarKey)) {
+                return false;
+            }
+
+            CalendarKey other = (CalendarKey) obj;
+
+            return tenantId == other.tenantId && Objects.equals(productionLineId, other.productionLineId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenantId, productionLineId);
+        }
+
+    }
+
     public static class ShiftHour {
 
         private final Date dateTo;
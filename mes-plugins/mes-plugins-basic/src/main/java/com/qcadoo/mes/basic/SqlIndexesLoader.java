@@ -0,0 +1,74 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+@Component
+public class SqlIndexesLoader {
+
+    public static final String BASIC_TYPEAHEAD_INDEXES = "/basic/model/data/typeaheadIndexes.sql";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Executes statements (indexes, sequences) defined in given classpath sql file. Every statement has to be idempotent
+     * (IF NOT EXISTS). Missing file or failing statement is rethrown, so plugin enabling fails instead of running without them.
+     */
+    public void loadSql(final String sqlFile) {
+        for (String statement : getStatements(sqlFile)) {
+            jdbcTemplate.getJdbcOperations().execute(statement);
+        }
+    }
+
+    private List<String> getStatements(final String sqlFile) {
+        try (InputStream inputStream = SqlIndexesLoader.class.getResourceAsStream(sqlFile)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Sql file not found: " + sqlFile);
+            }
+
+            String sql = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)).lines()
+                    .filter(line -> !line.trim().startsWith("--")).collect(Collectors.joining("\n"));
+
+            return Arrays.stream(sql.split(";")).map(String::trim).filter(StringUtils::isNotEmpty).collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -88,6 +88,8 @@ public final class BasicConstants {
 
     public static final String MODEL_LOG = "log";
 
+    public static final String MODEL_REPORT_JOB = "reportJob";
+
     // VIEW
 
     public static final String VIEW_MACHINE_DETAILS = "machineDetails";
@@ -32,28 +32,16 @@ public class DataProvider {
     @Autowired
     private DictionaryService dictionaryService;
 
-    public static final int MAX_RESULTS = 20;
+    @Autowired
+    private TypeaheadSearchService typeaheadSearchService;
 
-    private String prepareProductsQuery() {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query ;";
-    }
+    public static final int MAX_RESULTS = 20;
 
     private String prepareProductsQueryWithLimit(int limit) {
         return "SELECT product.id AS id, product.number AS code, product.number AS number, product.name AS name "
                 + "FROM basic_product product WHERE product.active = true AND product.number ilike :query LIMIT " + limit + ";";
     }
 
-    private String prepareAdditionalCodeQuery(final String productnumber) {
-        String productNumberCondition = Strings.isNullOrEmpty(productnumber) ? ""
-                : "AND product.number = '" + productnumber + "'";
-
-        return "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
-                + "FROM basic_additionalcode additionalcode "
-                + "JOIN basic_product product ON (additionalcode.product_id = product.id " + productNumberCondition + ")"
-                + "WHERE additionalcode.code ilike :query;";
-    }
-
     private String prepareAdditionalCodeQueryWithLimit(int limit) {
         return "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
                 + "FROM basic_additionalcode additionalcode "
@@ -61,11 +49,6 @@ public class DataProvider {
                 + "WHERE additionalcode.code ilike :query LIMIT " + limit + ";";
     }
 
-    private String preparePalletNumbersQuery() {
-        return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
-                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query;";
-    }
-
     private String preparePalletNumbersQueryWithLimit(int limit) {
         return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
                 + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query LIMIT "
@@ -80,17 +63,40 @@ public class DataProvider {
         return jdbcTemplate.queryForObject(countQuery, paramMap, Integer.class);
     }
 
+    private String prepareProductsTypeaheadQuery() {
+        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.name AS name "
+                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query";
+    }
+
+    private String prepareAdditionalCodeTypeaheadQuery() {
+        return "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
+                + "FROM basic_additionalcode additionalcode "
+                + "JOIN basic_product product ON (additionalcode.product_id = product.id AND (product.number = :productnumber OR COALESCE(:productnumber,'')='' )) "
+                + "WHERE additionalcode.code ilike :query";
+    }
+
+    private String preparePalletNumbersTypeaheadQuery() {
+        return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
+                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query";
+    }
+
     public DataResponse getProductsResponseByQuery(final String query) {
-        return getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap());
+        return typeaheadSearchService.search("products", prepareProductsTypeaheadQuery(), "product.number", query,
+                Maps.newHashMap(), ProductDTO.class, ProductDTO::getNumber);
     }
 
     public DataResponse getAdditionalCodesResponseByQuery(final String query, final String productnumber) {
-        return getDataResponse(query, prepareAdditionalCodeQuery(productnumber), getAdditionalCodesByQuery(query, productnumber),
-                Maps.newHashMap());
+        Map<String, Object> paramMap = Maps.newHashMap();
+
+        paramMap.put("productnumber", Strings.nullToEmpty(productnumber));
+
+        return typeaheadSearchService.search("additionalCodes", prepareAdditionalCodeTypeaheadQuery(), "additionalcode.code",
+                query, paramMap, AdditionalCodeDTO.class, AdditionalCodeDTO::getCode);
     }
 
     public DataResponse getPalletNumbersResponseByQuery(final String query) {
-        return getDataResponse(query, preparePalletNumbersQuery(), getPalletNumbersByQuery(query), Maps.newHashMap());
+        return typeaheadSearchService.search("palletNumbers", preparePalletNumbersTypeaheadQuery(), "palletnumber.number", query,
+                Maps.newHashMap(), PalletNumberDTO.class, PalletNumberDTO::getNumber);
     }
 
     public DataResponse getDataResponse(final String query, final String preparedQuery, final List<? extends AbstractDTO> entities,
@@ -0,0 +1,176 @@
+package com.qcadoo.mes.basic.controllers.dataProvider;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Typeahead search answering "top N plus has-more" with a single query (LIMIT N + 1), prefix matches ranked first (using
+ * the same lower() expression as prefix indexes), unless other order is given.
+ *
+ * Results are kept per tenant and user for a few seconds, so repeated keystrokes are served from memory. When the result of a shorter
+ * prefix of the query was complete (no more results), the longer query is answered by narrowing it in memory.
+ */
+@Service
+public class TypeaheadSearchService {
+
+    private static final String L_QUERY = "query";
+
+    private static final String L_PREFIX = "typeaheadPrefix";
+
+    private final Cache<String, TypeaheadResult> recentResults = CacheBuilder.newBuilder().maximumSize(5000)
+            .expireAfterWrite(10, TimeUnit.SECONDS).build();
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SecurityService securityService;
+
+    /**
+     * @param searchName
+     *            name distinguishing searches in cache
+     * @param preparedQuery
+     *            query without ORDER BY and LIMIT, filtering searched column with ":query" parameter (e.g. "number ilike :query")
+     * @param searchedColumn
+     *            searched column expression used for ordering
+     * @param query
+     *            typed text
+     * @param paramMap
+     *            additional query parameters
+     * @param dtoClass
+     *            result dto class
+     * @param searchedValue
+     *            dto value of searched column
+     */
+    public <T extends AbstractDTO> DataResponse search(final String searchName, final String preparedQuery,
+            final String searchedColumn, final String query, final Map<String, Object> paramMap, final Class<T> dtoClass,
+            final Function<T, String> searchedValue) {
+        return search(searchName, preparedQuery, searchedColumn, null, query, paramMap, dtoClass, searchedValue);
+    }
+
+    /**
+     * @param orderByClause
+     *            ORDER BY clause of results, kept instead of ranking prefix matches first, or null
+     * @see #search(String, String, String, String, Map, Class, Function)
+     */
+    public <T extends AbstractDTO> DataResponse search(final String searchName, final String preparedQuery,
+            final String searchedColumn, final String orderByClause, final String query, final Map<String, Object> paramMap,
+            final Class<T> dtoClass, final Function<T, String> searchedValue) {
+        String text = Strings.nullToEmpty(query);
+        String keyPrefix = MultiTenantUtil.getCurrentTenantId() + "|" + securityService.getCurrentUserName() + '|' + searchName
+                + '|' + new TreeMap<>(paramMap) + '|';
+        String key = keyPrefix + text.toLowerCase(Locale.ROOT);
+
+        TypeaheadResult result = recentResults.getIfPresent(key);
+
+        if (result == null) {
+            result = narrowRecentResult(keyPrefix, text, searchedValue, orderByClause == null);
+        }
+
+        if (result == null) {
+            result = executeSearch(preparedQuery, searchedColumn, orderByClause, text, paramMap, dtoClass);
+        }
+
+        recentResults.put(key, result);
+
+        DataResponse dataResponse = new DataResponse(result.entities, result.entities.size());
+
+        dataResponse.setHasMoreResults(result.hasMore);
+
+        return dataResponse;
+    }
+
+    private <T extends AbstractDTO> TypeaheadResult executeSearch(final String preparedQuery, final String searchedColumn,
+            final String orderByClause, final String text, final Map<String, Object> paramMap, final Class<T> dtoClass) {
+        Map<String, Object> parameters = Maps.newHashMap(paramMap);
+
+        parameters.put(L_QUERY, "%" + text + "%");
+
+        String sql;
+
+        if (orderByClause == null) {
+            String lowerColumn = "lower(" + searchedColumn + ")";
+
+            sql = preparedQuery + " ORDER BY " + lowerColumn + " LIKE :" + L_PREFIX + " DESC, " + lowerColumn;
+
+            parameters.put(L_PREFIX, text.toLowerCase(Locale.ROOT) + "%");
+        } else {
+            sql = preparedQuery + " " + orderByClause;
+        }
+
+        sql = sql + " LIMIT " + (DataProvider.MAX_RESULTS + 1);
+
+        List<T> entities = jdbcTemplate.query(sql, parameters, BeanPropertyRowMapper.newInstance(dtoClass));
+
+        boolean hasMore = entities.size() > DataProvider.MAX_RESULTS;
+
+        return new TypeaheadResult(hasMore ? entities.subList(0, DataProvider.MAX_RESULTS) : entities, hasMore);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends AbstractDTO> TypeaheadResult narrowRecentResult(final String keyPrefix, final String text,
+            final Function<T, String> searchedValue, final boolean rankPrefixMatches) {
+        if (text.contains("%") || text.contains("_")) {
+            return null;
+        }
+
+        String lowerText = text.toLowerCase(Locale.ROOT);
+
+        for (int length = lowerText.length() - 1; length >= 0; length--) {
+            TypeaheadResult shorter = recentResults.getIfPresent(keyPrefix + lowerText.substring(0, length));
+
+            if (shorter != null && !shorter.hasMore) {
+                Stream<T> entities = ((List<T>) shorter.entities).stream()
+                        .filter(entity -> lowerValue(searchedValue, entity).contains(lowerText));
+
+                if (rankPrefixMatches) {
+                    entities = entities.sorted(Comparator.comparing(entity -> !lowerValue(searchedValue, entity).startsWith(
+                            lowerText)));
+                }
+
+                return new TypeaheadResult(entities.collect(Collectors.toList()), false);
+            }
+        }
+
+        return null;
+    }
+
+    private <T extends AbstractDTO> String lowerValue(final Function<T, String> searchedValue, final T entity) {
+        return Strings.nullToEmpty(searchedValue.apply(entity)).toLowerCase(Locale.ROOT);
+    }
+
+    private static class TypeaheadResult {
+
+        private final List<? extends AbstractDTO> entities;
+
+        private final boolean hasMore;
+
+        TypeaheadResult(final List<? extends AbstractDTO> entities, final boolean hasMore) {
+            this.entities = entities;
+            this.hasMore = hasMore;
+        }
+
+    }
+
+}
@@ -10,6 +10,8 @@ public class DataResponse {
 
     private int numberOfResults;
 
+    private boolean hasMoreResults;
+
     public int getNumberOfResults() {
         return numberOfResults;
     }
@@ -18,6 +20,14 @@ public class DataResponse {
         this.numberOfResults = numberOfResults;
     }
 
+    public boolean isHasMoreResults() {
+        return hasMoreResults;
+    }
+
+    public void setHasMoreResults(boolean hasMoreResults) {
+        this.hasMoreResults = hasMoreResults;
+    }
+
     public List<? extends AbstractDTO> getEntities() {
         return entities;
     }
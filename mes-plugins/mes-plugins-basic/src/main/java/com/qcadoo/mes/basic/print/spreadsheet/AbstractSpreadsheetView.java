@@ -0,0 +1,88 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.web.servlet.view.AbstractView;
+
+/**
+ * Base view for spreadsheet reports, which writes rows directly to the response instead of building the whole workbook in
+ * memory. Report is generated as xlsx, or as csv when request contains format=csv parameter.
+ */
+public abstract class AbstractSpreadsheetView extends AbstractView {
+
+    public static final String FORMAT_PARAMETER = "format";
+
+    public static final String CSV_FORMAT = "csv";
+
+    private static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private static final String CSV_CONTENT_TYPE = "text/csv; charset=UTF-8";
+
+    public AbstractSpreadsheetView() {
+        setContentType(XLSX_CONTENT_TYPE);
+    }
+
+    @Override
+    protected boolean generatesDownloadContent() {
+        return true;
+    }
+
+    @Override
+    protected final void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+            final HttpServletResponse response) throws Exception {
+        Locale locale = LocaleContextHolder.getLocale();
+        boolean csv = CSV_FORMAT.equalsIgnoreCase(request.getParameter(FORMAT_PARAMETER));
+
+        response.setContentType(csv ? CSV_CONTENT_TYPE : XLSX_CONTENT_TYPE);
+
+        String fileName = getFileName(model, locale);
+
+        if (fileName != null) {
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + (csv ? ".csv" : ".xlsx") + "\"");
+        }
+
+        try (SpreadsheetWriter writer = csv ? new CsvSpreadsheetWriter(response.getOutputStream())
+                : new XlsxSpreadsheetWriter(response.getOutputStream())) {
+            buildDocument(model, writer, locale);
+        }
+    }
+
+    /**
+     * @return file name without extension, or null when response shouldn't be marked as an attachment
+     */
+    protected String getFileName(final Map<String, Object> model, final Locale locale) {
+        return null;
+    }
+
+    protected abstract void buildDocument(final Map<String, Object> model, final SpreadsheetWriter writer, final Locale locale)
+            throws Exception;
+
+}
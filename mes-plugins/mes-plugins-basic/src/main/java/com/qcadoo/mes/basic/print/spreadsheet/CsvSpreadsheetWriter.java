@@ -0,0 +1,192 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Csv fallback of {@link XlsxSpreadsheetWriter}. Each row is written out as soon as the next one is created, styles and
+ * column widths are ignored and sheets are written one after another, separated by an empty line.
+ */
+public class CsvSpreadsheetWriter implements SpreadsheetWriter {
+
+    private static final char SEPARATOR = ';';
+
+    private static final char QUOTE = '"';
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private final Writer writer;
+
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat(DATE_TIME_FORMAT);
+
+    private final Map<Integer, String> rowValues = Maps.newTreeMap();
+
+    private boolean rowPending;
+
+    private boolean sheetCreated;
+
+    public CsvSpreadsheetWriter(final OutputStream outputStream) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        // lets Excel recognize the encoding
+        writer.write(BYTE_ORDER_MARK);
+    }
+
+    @Override
+    public void createSheet(final String name) {
+        if (sheetCreated) {
+            flushRow();
+            writeLine("");
+        }
+
+        sheetCreated = true;
+    }
+
+    @Override
+    public void setColumnWidth(final int column, final int width) {
+    }
+
+    @Override
+    public SpreadsheetRow createRow() {
+        flushRow();
+
+        rowPending = true;
+
+        return new CsvSpreadsheetRow();
+    }
+
+    @Override
+    public void skipRows(final int count) {
+        flushRow();
+
+        for (int i = 0; i < count; i++) {
+            writeLine("");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushRow();
+
+        writer.flush();
+    }
+
+    private void flushRow() {
+        if (!rowPending) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder();
+        int column = 0;
+
+        for (Map.Entry<Integer, String> value : rowValues.entrySet()) {
+            for (; column < value.getKey(); column++) {
+                line.append(SEPARATOR);
+            }
+
+            line.append(value.getValue());
+        }
+
+        writeLine(line.toString());
+
+        rowValues.clear();
+        rowPending = false;
+    }
+
+    private void writeLine(final String line) {
+        try {
+            writer.write(line);
+            writer.write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private String format(final Object value) {
+        String text;
+
+        if (value == null) {
+            return "";
+        } else if (value instanceof BigDecimal) {
+            text = ((BigDecimal) value).toPlainString();
+        } else if (value instanceof Date) {
+            text = dateTimeFormat.format((Date) value);
+        } else if (value instanceof Duration) {
+            long seconds = ((Duration) value).getSeconds();
+
+            text = String.format("%d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+        } else {
+            text = value.toString();
+        }
+
+        return quote(text);
+    }
+
+    private String quote(final String text) {
+        if (text.indexOf(SEPARATOR) < 0 && text.indexOf(QUOTE) < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+
+        return QUOTE + text.replace(String.valueOf(QUOTE), String.valueOf(QUOTE) + QUOTE) + QUOTE;
+    }
+
+    private class CsvSpreadsheetRow implements SpreadsheetRow {
+
+        @Override
+        public SpreadsheetRow setValue(final int column, final Object value) {
+            rowValues.put(column, format(value));
+
+            return this;
+        }
+
+        @Override
+        public SpreadsheetRow setValue(final int column, final Object value, final SpreadsheetStyle style) {
+            return setValue(column, value);
+        }
+
+        @Override
+        public SpreadsheetRow setHeight(final short height) {
+            return this;
+        }
+
+    }
+
+}
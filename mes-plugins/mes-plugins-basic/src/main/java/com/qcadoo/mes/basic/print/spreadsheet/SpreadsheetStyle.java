@@ -0,0 +1,152 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.util.Objects;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+
+/**
+ * Immutable description of a cell style. Equal styles are mapped to the same workbook style, so styles can be created freely
+ * while writing rows without growing the workbook's style table.
+ */
+public final class SpreadsheetStyle {
+
+    public static final SpreadsheetStyle DEFAULT = new SpreadsheetStyle(false, null, CellStyle.ALIGN_GENERAL, false, false,
+            null, false, false);
+
+    private final boolean bold;
+
+    private final String dataFormat;
+
+    private final short alignment;
+
+    private final boolean verticalCenter;
+
+    private final boolean wrapText;
+
+    private final Short fillColor;
+
+    private final boolean borderTop;
+
+    private final boolean borders;
+
+    private SpreadsheetStyle(final boolean bold, final String dataFormat, final short alignment, final boolean verticalCenter,
+            final boolean wrapText, final Short fillColor, final boolean borderTop, final boolean borders) {
+        this.bold = bold;
+        this.dataFormat = dataFormat;
+        this.alignment = alignment;
+        this.verticalCenter = verticalCenter;
+        this.wrapText = wrapText;
+        this.fillColor = fillColor;
+        this.borderTop = borderTop;
+        this.borders = borders;
+    }
+
+    public SpreadsheetStyle bold() {
+        return new SpreadsheetStyle(true, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle withDataFormat(final String dataFormat) {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle withAlignment(final short alignment) {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle verticalCenter() {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, true, wrapText, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle wrapText() {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, true, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle withFillColor(final short fillColor) {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, borders);
+    }
+
+    public SpreadsheetStyle withBorderTop() {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, true, borders);
+    }
+
+    public SpreadsheetStyle withBorders() {
+        return new SpreadsheetStyle(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, true);
+    }
+
+    public boolean isBold() {
+        return bold;
+    }
+
+    public String getDataFormat() {
+        return dataFormat;
+    }
+
+    public short getAlignment() {
+        return alignment;
+    }
+
+    public boolean isVerticalCenter() {
+        return verticalCenter;
+    }
+
+    public boolean isWrapText() {
+        return wrapText;
+    }
+
+    public Short getFillColor() {
+        return fillColor;
+    }
+
+    public boolean isBorderTop() {
+        return borderTop || borders;
+    }
+
+    public boolean isBorders() {
+        return borders;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof SpreadsheetStyle)) {
+            return false;
+        }
+
+        SpreadsheetStyle other = (SpreadsheetStyle) object;
+
+        return bold == other.bold && alignment == other.alignment && verticalCenter == other.verticalCenter
+                && wrapText == other.wrapText && borderTop == other.borderTop && borders == other.borders
+                && Objects.equals(dataFormat, other.dataFormat) && Objects.equals(fillColor, other.fillColor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bold, dataFormat, alignment, verticalCenter, wrapText, fillColor, borderTop, borders);
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.io.Closeable;
+
+/**
+ * Writes spreadsheet rows one after another, without keeping already written rows in memory.
+ *
+ * Rows can be filled only until next row is created, so all cells of a row have to be set before moving to the next one.
+ * Supported cell values are {@link String}, {@link Number}, {@link java.util.Date}, {@link Boolean} and
+ * {@link java.time.Duration}; null values leave the cell empty.
+ */
+public interface SpreadsheetWriter extends Closeable {
+
+    void createSheet(final String name);
+
+    void setColumnWidth(final int column, final int width);
+
+    SpreadsheetRow createRow();
+
+    /**
+     * Skips given number of rows, leaving them empty.
+     */
+    void skipRows(final int count);
+
+}
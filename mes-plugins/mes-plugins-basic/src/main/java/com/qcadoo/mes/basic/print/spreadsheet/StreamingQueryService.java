@@ -0,0 +1,101 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs report queries with a bounded fetch size, so rows are read from a database cursor in portions and passed on one by one
+ * instead of loading the whole result into a list. Queries are run in a read only transaction, which PostgreSQL requires to
+ * use a cursor.
+ */
+@Service
+public class StreamingQueryService {
+
+    private static final int FETCH_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(((JdbcTemplate) jdbcTemplate.getJdbcOperations()).getDataSource());
+        cursorTemplate.setFetchSize(FETCH_SIZE);
+
+        cursorJdbcTemplate = new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+
+    @Transactional(readOnly = true)
+    public void query(final String query, final Map<String, ?> parameters, final RowCallbackHandler rowCallbackHandler) {
+        cursorJdbcTemplate.query(query, parameters, rowCallbackHandler);
+    }
+
+    @Transactional(readOnly = true)
+    public <T> void query(final String query, final Map<String, ?> parameters, final RowMapper<T> rowMapper,
+            final Consumer<T> consumer) {
+        cursorJdbcTemplate.query(query, parameters, (RowCallbackHandler) resultSet -> consumer.accept(rowMapper.mapRow(
+                resultSet, resultSet.getRow())));
+    }
+
+    /**
+     * Passes on rows grouped by given key; query has to be ordered so rows with the same key come one after another.
+     */
+    @Transactional(readOnly = true)
+    public <T, K> void queryGrouped(final String query, final Map<String, ?> parameters, final RowMapper<T> rowMapper,
+            final Function<T, K> keyFunction, final Consumer<List<T>> groupConsumer) {
+        List<T> group = Lists.newArrayList();
+
+        query(query, parameters, rowMapper, row -> {
+            if (!group.isEmpty() && !Objects.equals(keyFunction.apply(group.get(0)), keyFunction.apply(row))) {
+                groupConsumer.accept(Lists.newArrayList(group));
+                group.clear();
+            }
+
+            group.add(row);
+        });
+
+        if (!group.isEmpty()) {
+            groupConsumer.accept(group);
+        }
+    }
+
+}
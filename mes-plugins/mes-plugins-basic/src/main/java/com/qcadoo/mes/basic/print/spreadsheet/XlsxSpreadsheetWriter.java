@@ -0,0 +1,212 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.spreadsheet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFFont;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Xlsx writer based on {@link SXSSFWorkbook}: only the last {@link #ROW_WINDOW_SIZE} rows are kept in memory, older rows are
+ * flushed to a compressed temporary file, which is removed on {@link #close()}.
+ */
+public class XlsxSpreadsheetWriter implements SpreadsheetWriter {
+
+    public static final int ROW_WINDOW_SIZE = 100;
+
+    private static final double SECONDS_PER_DAY = 86400.0D;
+
+    private final OutputStream outputStream;
+
+    private final SXSSFWorkbook workbook;
+
+    private final Map<SpreadsheetStyle, CellStyle> styles = Maps.newHashMap();
+
+    private Font boldFont;
+
+    private Sheet sheet;
+
+    private int rowNumber;
+
+    public XlsxSpreadsheetWriter(final OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.workbook = new SXSSFWorkbook(ROW_WINDOW_SIZE);
+
+        workbook.setCompressTempFiles(true);
+
+        Font defaultFont = workbook.getFontAt((short) 0);
+        defaultFont.setFontName(HSSFFont.FONT_ARIAL);
+        defaultFont.setFontHeightInPoints((short) 10);
+    }
+
+    @Override
+    public void createSheet(final String name) {
+        sheet = workbook.createSheet(name);
+        rowNumber = 0;
+    }
+
+    @Override
+    public void setColumnWidth(final int column, final int width) {
+        getSheet().setColumnWidth(column, width);
+    }
+
+    @Override
+    public SpreadsheetRow createRow() {
+        return new XlsxSpreadsheetRow(getSheet().createRow(rowNumber++));
+    }
+
+    @Override
+    public void skipRows(final int count) {
+        rowNumber += count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            workbook.write(outputStream);
+            outputStream.flush();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    private Sheet getSheet() {
+        Preconditions.checkState(sheet != null, "Sheet has to be created before writing rows");
+
+        return sheet;
+    }
+
+    private CellStyle getCellStyle(final SpreadsheetStyle style) {
+        return styles.computeIfAbsent(style, this::createCellStyle);
+    }
+
+    private CellStyle createCellStyle(final SpreadsheetStyle style) {
+        CellStyle cellStyle = workbook.createCellStyle();
+
+        if (style.isBold()) {
+            cellStyle.setFont(getBoldFont());
+        }
+        if (style.getDataFormat() != null) {
+            cellStyle.setDataFormat(workbook.createDataFormat().getFormat(style.getDataFormat()));
+        }
+
+        cellStyle.setAlignment(style.getAlignment());
+
+        if (style.isVerticalCenter()) {
+            cellStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
+        }
+
+        cellStyle.setWrapText(style.isWrapText());
+
+        if (style.getFillColor() != null) {
+            cellStyle.setFillForegroundColor(style.getFillColor());
+            cellStyle.setFillPattern(CellStyle.SOLID_FOREGROUND);
+        }
+        if (style.isBorderTop()) {
+            cellStyle.setBorderTop(CellStyle.BORDER_THIN);
+        }
+        if (style.isBorders()) {
+            cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
+            cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
+            cellStyle.setBorderRight(CellStyle.BORDER_THIN);
+        }
+
+        return cellStyle;
+    }
+
+    private Font getBoldFont() {
+        if (boldFont == null) {
+            boldFont = workbook.createFont();
+            boldFont.setFontName(HSSFFont.FONT_ARIAL);
+            boldFont.setFontHeightInPoints((short) 10);
+            boldFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
+        }
+
+        return boldFont;
+    }
+
+    private class XlsxSpreadsheetRow implements SpreadsheetRow {
+
+        private final Row row;
+
+        XlsxSpreadsheetRow(final Row row) {
+            this.row = row;
+        }
+
+        @Override
+        public SpreadsheetRow setValue(final int column, final Object value) {
+            return setValue(column, value, SpreadsheetStyle.DEFAULT);
+        }
+
+        @Override
+        public SpreadsheetRow setValue(final int column, final Object value, final SpreadsheetStyle style) {
+            Cell cell = row.createCell(column);
+
+            if (!SpreadsheetStyle.DEFAULT.equals(style)) {
+                cell.setCellStyle(getCellStyle(style));
+            }
+
+            if (value instanceof String) {
+                cell.setCellValue((String) value);
+            } else if (value instanceof BigDecimal) {
+                cell.setCellValue(((BigDecimal) value).doubleValue());
+            } else if (value instanceof Number) {
+                cell.setCellValue(((Number) value).doubleValue());
+            } else if (value instanceof Date) {
+                cell.setCellValue((Date) value);
+            } else if (value instanceof Boolean) {
+                cell.setCellValue((Boolean) value);
+            } else if (value instanceof Duration) {
+                cell.setCellValue(((Duration) value).getSeconds() / SECONDS_PER_DAY);
+            } else if (value != null) {
+                cell.setCellValue(value.toString());
+            }
+
+            return this;
+        }
+
+        @Override
+        public SpreadsheetRow setHeight(final short height) {
+            row.setHeight(height);
+
+            return this;
+        }
+
+    }
+
+}
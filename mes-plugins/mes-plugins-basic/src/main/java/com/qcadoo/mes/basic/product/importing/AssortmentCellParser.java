@@ -31,6 +31,7 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
 import java.util.function.Consumer;
 
 @Component
@@ -48,13 +49,15 @@ class AssortmentCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity assortment = getAssortmentDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq("name", cellValue))
-                .uniqueResult();
-        if (null != assortment) {
-            valueConsumer.accept(assortment);
+    public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Optional<Entity> assortment = lookups.find(BasicConstants.MODEL_ASSORTMENT, cellValue, name ->
+                getAssortmentDataDefinition()
+                        .find()
+                        .add(SearchRestrictions.eq("name", name))
+                        .uniqueResult());
+        if (assortment.isPresent()) {
+            valueConsumer.accept(assortment.get());
         } else {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
@@ -46,7 +46,8 @@ class BigDecimalCellParser implements CellParser {
     private static final Locale POLISH_LOCALE = new Locale("pl");
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
+    public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+            Consumer<Object> valueConsumer) {
         Locale locale = LocaleContextHolder.getLocale();
 
         if (validateDecimalFormat(cellValue, locale, errorsAccessor)) {
@@ -25,11 +25,7 @@ package com.qcadoo.mes.basic.product.importing;
 
 import com.qcadoo.model.api.Entity;
 import org.apache.commons.lang3.builder.ToStringBuilder;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.springframework.context.i18n.LocaleContextHolder;
 
-import java.util.Locale;
 import java.util.function.Consumer;
 
 abstract class CellBinder {
@@ -48,12 +44,6 @@ abstract class CellBinder {
         return new RequiredCellBinder(fieldName, cellParser);
     }
 
-    private static String formatCell(final Cell cell) {
-        Locale locale = LocaleContextHolder.getLocale();
-        final DataFormatter dataFormatter = new DataFormatter(null == locale ? Locale.getDefault() : locale);
-        return dataFormatter.formatCellValue(cell).trim();
-    }
-
     public static CellBinder optional(String fieldName, CellParser cellParser) {
         return new OptionalCellBinder(fieldName, cellParser);
     }
@@ -71,7 +61,7 @@ abstract class CellBinder {
         return cellParser;
     }
 
-    abstract void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor);
+    abstract void bind(String cellValue, Entity entity, ImportLookups lookups, BindingErrorsAccessor errorsAccessor);
 
     public String getFieldName() {
         return fieldName;
@@ -80,7 +70,8 @@ abstract class CellBinder {
     private static class DefaultCellParser implements CellParser {
 
         @Override
-        public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
+        public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                          Consumer<Object> valueConsumer) {
             valueConsumer.accept(cellValue);
         }
     }
@@ -96,9 +87,9 @@ abstract class CellBinder {
         }
 
         @Override
-        public void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor) {
-            if (cell != null) {
-                getCellParser().parse(formatCell(cell), errorsAccessor, o -> entity.setField(getFieldName(), o));
+        public void bind(String cellValue, Entity entity, ImportLookups lookups, BindingErrorsAccessor errorsAccessor) {
+            if (cellValue != null) {
+                getCellParser().parse(cellValue, lookups, errorsAccessor, o -> entity.setField(getFieldName(), o));
             }
         }
     }
@@ -114,11 +105,11 @@ abstract class CellBinder {
         }
 
         @Override
-        public void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor) {
-            if (cell == null) {
+        public void bind(String cellValue, Entity entity, ImportLookups lookups, BindingErrorsAccessor errorsAccessor) {
+            if (cellValue == null) {
                 errorsAccessor.addError("qcadooView.validate.field.error.missing");
             } else {
-                getCellParser().parse(formatCell(cell), errorsAccessor, o -> entity.setField(getFieldName(), o));
+                getCellParser().parse(cellValue, lookups, errorsAccessor, o -> entity.setField(getFieldName(), o));
             }
         }
     }
@@ -26,5 +26,5 @@ package com.qcadoo.mes.basic.product.importing;
 import java.util.function.Consumer;
 
 interface CellParser {
-    void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer);
+    void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer);
 }
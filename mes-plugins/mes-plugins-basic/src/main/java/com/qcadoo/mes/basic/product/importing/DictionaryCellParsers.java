@@ -28,6 +28,7 @@ import com.qcadoo.model.api.Entity;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
 import java.util.function.Consumer;
 
 import static com.qcadoo.model.api.search.SearchRestrictions.*;
@@ -35,6 +36,8 @@ import static com.qcadoo.model.api.search.SearchRestrictions.*;
 @Component
 class DictionaryCellParsers {
 
+    private static final String L_DICTIONARY = "dictionary";
+
     private final DataDefinitionService dataDefinitionService;
 
     @Autowired
@@ -59,12 +62,15 @@ class DictionaryCellParsers {
         }
 
         @Override
-        public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-            Entity categoryItem = dataDefinitionService
-                    .get("qcadooModel", "dictionaryItem")
-                    .find()
-                    .add(and(eq("name", cellValue), belongsTo("dictionary", getProductCategoryDictionary())))
-                    .uniqueResult();
+        public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                          Consumer<Object> valueConsumer) {
+            Optional<Entity> dictionary = lookups.find(L_DICTIONARY, dictionaryName, name -> getProductCategoryDictionary());
+            Entity categoryItem = lookups.find(dictionaryName, cellValue, name ->
+                    dataDefinitionService
+                            .get("qcadooModel", "dictionaryItem")
+                            .find()
+                            .add(and(eq("name", name), belongsTo("dictionary", dictionary.orElse(null))))
+                            .uniqueResult()).orElse(null);
             if (null == categoryItem) {
                 errorsAccessor.addError("qcadooView.validate.field.error.invalidDictionaryItem");
             } else if (!categoryItem.isActive()) {
@@ -45,7 +45,8 @@ class GlobalTypeOfMaterialCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
+    public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
         if (!StringUtils.isBlank(cellValue)) {
             Optional<GlobalTypeOfMaterial> match = Arrays.stream(GlobalTypeOfMaterial.values())
                     .filter(gtom ->
@@ -0,0 +1,47 @@
+/*
+ * **************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * **************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import com.qcadoo.model.api.Entity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Entities looked up while importing a single file, so each dictionary item, company, assortment or product family is
+ * searched for once per import instead of once per cell.
+ */
+class ImportLookups {
+
+    private final Map<String, Map<String, Optional<Entity>>> lookups = new HashMap<>();
+
+    Optional<Entity> find(final String lookupName, final String key, final Function<String, Entity> loader) {
+        return lookups
+                .computeIfAbsent(lookupName, name -> new HashMap<>())
+                .computeIfAbsent(key, k -> Optional.ofNullable(loader.apply(k)));
+    }
+
+}
@@ -33,6 +33,7 @@ import java.util.Set;
 public class ImportStatus {
 
     private int rowsProcessed;
+    private int rowsImported;
     private Set<ImportError> errors = new HashSet<>();
 
     public int getRowsProcessed() {
@@ -43,6 +44,17 @@ public class ImportStatus {
         rowsProcessed++;
     }
 
+    /**
+     * @return number of committed rows, lower than rows processed when import was stopped because of errors
+     */
+    public int getRowsImported() {
+        return rowsImported;
+    }
+
+    void addRowsImported(int rows) {
+        rowsImported += rows;
+    }
+
     public boolean hasErrors() {
         return !CollectionUtils.isEmpty(errors);
     }
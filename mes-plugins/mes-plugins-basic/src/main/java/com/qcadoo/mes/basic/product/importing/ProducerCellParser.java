@@ -32,6 +32,7 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
 import java.util.function.Consumer;
 
 @Component
@@ -49,13 +50,15 @@ class ProducerCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity companyCandidate = getCompanyDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq(CompanyFields.NUMBER, cellValue))
-                .uniqueResult();
-        if (null != companyCandidate) {
-            valueConsumer.accept(companyCandidate);
+    public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Optional<Entity> companyCandidate = lookups.find(BasicConstants.MODEL_COMPANY, cellValue, number ->
+                getCompanyDataDefinition()
+                        .find()
+                        .add(SearchRestrictions.eq(CompanyFields.NUMBER, number))
+                        .uniqueResult());
+        if (companyCandidate.isPresent()) {
+            valueConsumer.accept(companyCandidate.get());
         } else {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
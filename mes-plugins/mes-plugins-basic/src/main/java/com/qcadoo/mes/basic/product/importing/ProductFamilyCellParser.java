@@ -52,11 +52,13 @@ class ProductFamilyCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity familyProductCandidate = getProductDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq(ProductFields.NUMBER, cellValue))
-                .uniqueResult();
+    public void parse(String cellValue, ImportLookups lookups, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Entity familyProductCandidate = lookups.find(BasicConstants.MODEL_PRODUCT, cellValue, number ->
+                getProductDataDefinition()
+                        .find()
+                        .add(SearchRestrictions.eq(ProductFields.NUMBER, number))
+                        .uniqueResult()).orElse(null);
 
         if (null == familyProductCandidate) {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
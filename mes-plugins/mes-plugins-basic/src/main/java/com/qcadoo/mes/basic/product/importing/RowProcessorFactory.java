@@ -30,7 +30,6 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.validators.ErrorMessage;
-import org.apache.poi.ss.usermodel.Cell;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -65,13 +64,14 @@ class RowProcessorFactory {
         return entity;
     }
 
-    RowProcessor create(final ImportStatus importStatus, int rowIndex) {
-        return new RowProcessorImpl(importStatus, createEntityWithDefaultValues(), rowIndex);
+    RowProcessor create(final ImportStatus importStatus, final ImportLookups lookups, int rowIndex) {
+        return new RowProcessorImpl(importStatus, lookups, createEntityWithDefaultValues(), rowIndex);
     }
 
     private class RowProcessorImpl implements RowProcessor {
 
         private final ImportStatus importStatus;
+        private final ImportLookups lookups;
         private final Entity entity;
         private final int currentRow;
         private boolean finished;
@@ -79,8 +79,9 @@ class RowProcessorFactory {
         private boolean empty = true;
         private List<ImportError> rowErrors = new ArrayList<>();
 
-        RowProcessorImpl(ImportStatus importStatus, Entity entity, int rowIndx) {
+        RowProcessorImpl(ImportStatus importStatus, ImportLookups lookups, Entity entity, int rowIndx) {
             this.importStatus = importStatus;
+            this.lookups = lookups;
             this.entity = entity;
             this.currentRow = rowIndx;
         }
@@ -91,15 +92,16 @@ class RowProcessorFactory {
         }
 
         @Override
-        public void append(final Cell cell) {
+        public void append(final String cellValue) {
             assureNotProcessedYet();
-            if (null != cell) {
+            if (null != cellValue) {
                 empty = false;
             }
             final CellBinder binder = cellBinderRegistry.getCellBinder(index++);
             binder.bind(
-                    cell,
+                    cellValue,
                     entity,
+                    lookups,
                     errorCode -> rowErrors.add(new ImportError(currentRow, binder.getFieldName(), errorCode))
             );
         }
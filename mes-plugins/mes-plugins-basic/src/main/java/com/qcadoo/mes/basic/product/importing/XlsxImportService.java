@@ -23,17 +23,43 @@
  */
 package com.qcadoo.mes.basic.product.importing;
 
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 @Service
 public class XlsxImportService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(XlsxImportService.class);
+
+    private static final int CHUNK_SIZE = 500;
+
     private final RowProcessorFactory rowProcessorFactory;
 
     @Autowired
@@ -41,32 +67,142 @@ public class XlsxImportService {
         this.rowProcessorFactory = rowProcessorFactory;
     }
 
-    @Transactional
-    public ImportStatus importFrom(final XSSFWorkbook workbook) {
-
+    /**
+     * Streams rows of the first sheet instead of loading the whole workbook and imports them in chunks, each committed in
+     * its own transaction. Import stops at the first chunk containing errors, that chunk is rolled back and the rows
+     * committed before it are reported by {@link ImportStatus#getRowsImported()}.
+     */
+    public ImportStatus importFrom(final File file) throws IOException {
         ImportStatus importStatus = new ImportStatus();
-        XSSFSheet sheet = workbook.getSheetAt(0);
+        ChunkingRowHandler rowHandler = new ChunkingRowHandler(importStatus);
 
-        for (int rowIndex = SpreadsheetSchemaInfo.START_ROW_INDEX; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
+        try {
+            OPCPackage opcPackage = OPCPackage.open(file, PackageAccess.READ);
 
-            Row row = sheet.getRow(rowIndex);
-            if (row == null) { // This whole row is empty
-                break;
-            }
-            final RowProcessor rowProcessor = rowProcessorFactory.create(importStatus, rowIndex);
-            for (int colIndex = 0; colIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER; colIndex++) {
-                rowProcessor.append(row.getCell(colIndex, Row.RETURN_BLANK_AS_NULL));
+            try {
+                XSSFReader reader = new XSSFReader(opcPackage);
+                XMLReader parser = SAXHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null,
+                        new ReadOnlySharedStringsTable(opcPackage), rowHandler, createDataFormatter(), false));
+
+                try (InputStream sheet = reader.getSheetsData().next()) {
+                    parser.parse(new InputSource(sheet));
+                } catch (EndOfRowsException e) {
+                    // We are done. Empty row was reached or a chunk failed
+                }
+
+                rowHandler.flush();
+            } finally {
+                opcPackage.revert();
             }
-            if (rowProcessor.isEmpty()) {
-                break; // We are done. The whole row was empty so stop processing
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to read spreadsheet", e);
+        }
+
+        return importStatus;
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private void importChunk(final ImportStatus importStatus, final ImportLookups lookups, final List<String[]> rows,
+                             final int firstRowIndex) {
+        int rowIndex = firstRowIndex;
+
+        for (String[] values : rows) {
+            final RowProcessor rowProcessor = rowProcessorFactory.create(importStatus, lookups, rowIndex++);
+            for (String value : values) {
+                rowProcessor.append(value);
             }
             rowProcessor.process();
         }
 
-        if (importStatus.hasErrors()) { // We have to rollback transaction here
+        if (importStatus.hasErrors()) {
             TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        } else {
+            importStatus.addRowsImported(rows.size());
+        }
+    }
+
+    private DataFormatter createDataFormatter() {
+        Locale locale = LocaleContextHolder.getLocale();
+        return new DataFormatter(null == locale ? Locale.getDefault() : locale);
+    }
+
+    private static class EndOfRowsException extends RuntimeException {
+
+        EndOfRowsException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private class ChunkingRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final ImportStatus importStatus;
+        private final ImportLookups lookups = new ImportLookups();
+        private final List<String[]> rows = new ArrayList<>(CHUNK_SIZE);
+        private int nextRowIndex = SpreadsheetSchemaInfo.START_ROW_INDEX;
+        private String[] values;
+
+        ChunkingRowHandler(ImportStatus importStatus) {
+            this.importStatus = importStatus;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            if (rowNum < SpreadsheetSchemaInfo.START_ROW_INDEX) {
+                values = null;
+            } else if (rowNum != nextRowIndex) { // Rows in between are empty
+                throw new EndOfRowsException();
+            } else {
+                values = new String[SpreadsheetSchemaInfo.COLUMN_NUMBER];
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            if (null == values || null == cellReference || null == formattedValue) {
+                return;
+            }
+            int colIndex = new CellReference(cellReference).getCol();
+            if (colIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER) {
+                values[colIndex] = formattedValue.trim();
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (null == values) {
+                return;
+            }
+            boolean empty = true;
+            for (String value : values) {
+                empty &= null == value;
+            }
+            if (empty) {
+                throw new EndOfRowsException();
+            }
+            rows.add(values);
+            nextRowIndex++;
+            if (rows.size() >= CHUNK_SIZE && !flush()) {
+                throw new EndOfRowsException();
+            }
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+            // not used in import
+        }
+
+        boolean flush() {
+            if (!rows.isEmpty()) {
+                importChunk(importStatus, lookups, rows, nextRowIndex - rows.size());
+                rows.clear();
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Products import: " + importStatus.getRowsImported() + " rows imported");
+                }
+            }
+            return !importStatus.hasErrors();
         }
-        return importStatus;
     }
 
 }
@@ -0,0 +1,64 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.reportJobs;
+
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+/**
+ * Generates documents of one report type in the background, see {@link ReportJobService#submit(String, Long, String, Locale)}.
+ */
+public interface ReportJobHandler {
+
+    String getReportType();
+
+    /**
+     * @return maximal number of reports of this type generated at the same time
+     */
+    default int getConcurrencyLimit() {
+        return 1;
+    }
+
+    /**
+     * Generates documents of report entity with given id.
+     *
+     * @param entityId
+     *            id of report entity
+     * @param locale
+     *            locale of user which requested the report
+     * @param progress
+     *            receives progress of generation, in percents
+     */
+    void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception;
+
+    /**
+     * Called after generation failed, e.g. to take back generated flag, worker and date set when the report was submitted.
+     *
+     * @param entityId
+     *            id of report entity
+     */
+    default void onFailure(final Long entityId) {
+    }
+
+}
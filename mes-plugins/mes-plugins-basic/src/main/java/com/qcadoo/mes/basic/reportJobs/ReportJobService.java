@@ -0,0 +1,434 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.reportJobs;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ReportJobStatus;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
+
+/**
+ * Queue of reports generated in the background, instead of on the thread of the request which asked for them.
+ *
+ * Jobs are persisted in reportJob model with their status and progress. They are generated by a bounded pool of workers, with
+ * at most {@link ReportJobHandler#getConcurrencyLimit()} jobs of the same report type at a time; jobs over the limits wait in
+ * the queue. A job requested again for the same entity and parameters while it is still queued or running is not duplicated
+ * (basic_reportjob_pending_idx). Users are notified about finished jobs by {@link ReportJobsNotification}.
+ *
+ * A job is generated in the tenant it was submitted in, with security context and locale of the submitting user. That context
+ * lives only in memory of the node which accepted the job, so only that node dispatches it; jobs lost with a restarted node
+ * are failed after {@value #L_STALE_JOB_HOURS} hours.
+ *
+ * Entity id is kept in bigint column not mapped in reportJob model (see reportJob.sql), so it is accessed only with SQL.
+ */
+@Service
+public class ReportJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReportJobService.class);
+
+    private static final int L_WORKERS = 4;
+
+    private static final int L_STALE_JOB_HOURS = 12;
+
+    private static final String L_ID = "id";
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(L_WORKERS,
+            new ThreadFactoryBuilder().setNameFormat("report-job-%d").setDaemon(true).build());
+
+    // jobs are claimed and handed to workers outside of transactions of requests and workers
+    private final ExecutorService dispatcher = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("report-job-dispatcher").setDaemon(true).build());
+
+    private final Map<String, Integer> runningJobsByType = Maps.newHashMap();
+
+    // security contexts of users who submitted queued jobs, by tenant and job id
+    private final ConcurrentMap<String, SecurityContext> securityContexts = Maps.newConcurrentMap();
+
+    private int runningJobs;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired(required = false)
+    private List<ReportJobHandler> reportJobHandlers = Lists.newArrayList();
+
+    /**
+     * Queues generation of report of given type for given entity. Generation starts after commit of current transaction.
+     *
+     * @return new job, or job queued or running for the same report type, entity and parameters
+     */
+    public Entity submit(final String reportType, final Long entityId, final String parameters, final Locale locale) {
+        Preconditions.checkArgument(getHandler(reportType).isPresent(), "Unknown report type: " + reportType);
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("reportType", reportType);
+        params.put("entityId", entityId);
+        params.put("parameters", parameters);
+        params.put("locale", locale.toLanguageTag());
+        params.put("status", ReportJobStatus.QUEUED.getStringValue());
+        params.put("userId", securityService.getCurrentUserId());
+        params.put("createDate", new Date());
+
+        // concurrent submit of the same job waits for this one and then inserts nothing
+        List<Long> reportJobIds = jdbcTemplate.queryForList(
+                "INSERT INTO basic_reportjob (reporttype, entityid, parameters, locale, status, progress, user_id, createdate, "
+                        + "notified) VALUES (:reportType, :entityId, :parameters, :locale, :status, 0, :userId, :createDate, false) "
+                        + "ON CONFLICT DO NOTHING RETURNING id",
+                params, Long.class);
+
+        if (reportJobIds.isEmpty()) {
+            return getPendingReportJob(reportType, entityId, parameters);
+        }
+
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+        String jobKey = getJobKey(tenantId, reportJobIds.get(0));
+
+        securityContexts.put(jobKey, SecurityContextHolder.getContext());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                        dispatcher.execute(() -> dispatchReportJobsTrigger(tenantId));
+                    } else {
+                        securityContexts.remove(jobKey);
+                    }
+                }
+
+            });
+        } else {
+            dispatcher.execute(() -> dispatchReportJobsTrigger(tenantId));
+        }
+
+        return getReportJobDD().get(reportJobIds.get(0));
+    }
+
+    /**
+     * @return true if report of given type is queued or running for given entity, so its files are not complete yet
+     */
+    public boolean isPending(final String reportType, final Long entityId) {
+        Map<String, Object> params = getPendingParams(reportType, entityId);
+
+        return jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM basic_reportjob WHERE reporttype = :reportType "
+                + "AND entityid = :entityId AND status IN (:statuses))", params, Boolean.class);
+    }
+
+    /**
+     * Checks that report of given type is not queued or running for entity of given form or grid, adding message to it
+     * otherwise.
+     *
+     * @return true if report can be printed
+     */
+    public boolean checkIfNotPending(final ComponentState state, final String reportType) {
+        Long entityId = (Long) state.getFieldValue();
+
+        if (entityId != null && isPending(reportType, entityId)) {
+            state.addMessage("basic.reportJob.pending", MessageType.INFO);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks finished and failed jobs of current user as notified.
+     *
+     * @return statuses of jobs which were not notified yet
+     */
+    public List<String> takeFinishedReportJobsOfCurrentUser() {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("userId", securityService.getCurrentUserId());
+        params.put("statuses",
+                Lists.newArrayList(ReportJobStatus.FINISHED.getStringValue(), ReportJobStatus.FAILED.getStringValue()));
+
+        return jdbcTemplate.queryForList("UPDATE basic_reportjob SET notified = true "
+                + "WHERE user_id = :userId AND notified = false AND status IN (:statuses) RETURNING status", params, String.class);
+    }
+
+    public void dispatchReportJobsTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                failStaleReportJobs();
+                dispatchReportJobs();
+            }
+
+        });
+    }
+
+    private void dispatchReportJobsTrigger(final int tenantId) {
+        multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                dispatchReportJobs();
+            }
+
+        });
+    }
+
+    private synchronized void dispatchReportJobs() {
+        if (runningJobs >= L_WORKERS) {
+            return;
+        }
+
+        List<Map<String, Object>> queuedReportJobs = jdbcTemplate.queryForList(
+                "SELECT id, reporttype, entityid, locale FROM basic_reportjob WHERE status = :queued ORDER BY id",
+                Collections.singletonMap("queued", ReportJobStatus.QUEUED.getStringValue()));
+
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+
+        for (Map<String, Object> reportJob : queuedReportJobs) {
+            if (runningJobs >= L_WORKERS) {
+                return;
+            }
+
+            Long reportJobId = ((Number) reportJob.get(L_ID)).longValue();
+            String jobKey = getJobKey(tenantId, reportJobId);
+            String reportType = (String) reportJob.get("reporttype");
+            Optional<ReportJobHandler> handler = getHandler(reportType);
+
+            // job submitted on another node
+            if (!securityContexts.containsKey(jobKey)) {
+                continue;
+            }
+
+            if (!handler.isPresent() || runningJobsByType.getOrDefault(reportType, 0) >= handler.get().getConcurrencyLimit()
+                    || !claim(reportJobId)) {
+                continue;
+            }
+
+            runningJobs++;
+            runningJobsByType.merge(reportType, 1, Integer::sum);
+
+            SecurityContext securityContext = securityContexts.remove(jobKey);
+            Long entityId = ((Number) reportJob.get("entityid")).longValue();
+            Locale locale = Locale.forLanguageTag((String) reportJob.get("locale"));
+
+            workers.execute(() -> run(tenantId, securityContext, reportJobId, entityId, locale, handler.get()));
+        }
+    }
+
+    private boolean claim(final Long reportJobId) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put(L_ID, reportJobId);
+        params.put("queued", ReportJobStatus.QUEUED.getStringValue());
+        params.put("running", ReportJobStatus.RUNNING.getStringValue());
+        params.put("startDate", new Date());
+
+        return jdbcTemplate.update(
+                "UPDATE basic_reportjob SET status = :running, startdate = :startDate WHERE id = :id AND status = :queued",
+                params) == 1;
+    }
+
+    private void run(final int tenantId, final SecurityContext securityContext, final Long reportJobId, final Long entityId,
+            final Locale locale, final ReportJobHandler handler) {
+        SecurityContextHolder.setContext(securityContext);
+        LocaleContextHolder.setLocale(locale);
+
+        try {
+            multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+                @Override
+                public void invoke() {
+                    generate(reportJobId, entityId, locale, handler);
+                }
+
+            });
+        } finally {
+            SecurityContextHolder.clearContext();
+            LocaleContextHolder.resetLocaleContext();
+
+            release(handler.getReportType());
+        }
+
+        dispatchReportJobsTrigger();
+    }
+
+    private void generate(final Long reportJobId, final Long entityId, final Locale locale, final ReportJobHandler handler) {
+        try {
+            handler.generate(entityId, locale, progress -> updateProgress(reportJobId, progress));
+
+            finish(reportJobId, ReportJobStatus.FINISHED, null);
+        } catch (Exception e) {
+            LOG.error(String.format("Error when generating %s report for entity %d", handler.getReportType(), entityId), e);
+
+            finish(reportJobId, ReportJobStatus.FAILED, e.getMessage());
+
+            try {
+                handler.onFailure(entityId);
+            } catch (Exception onFailureException) {
+                LOG.error(String.format("Error when reverting %s report for entity %d", handler.getReportType(), entityId),
+                        onFailureException);
+            }
+        }
+    }
+
+    private synchronized void release(final String reportType) {
+        runningJobs--;
+        runningJobsByType.merge(reportType, -1, Integer::sum);
+    }
+
+    private void updateProgress(final Long reportJobId, final int progress) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put(L_ID, reportJobId);
+        params.put("progress", Math.max(0, Math.min(progress, 100)));
+
+        jdbcTemplate.update("UPDATE basic_reportjob SET progress = :progress WHERE id = :id", params);
+    }
+
+    private void finish(final Long reportJobId, final ReportJobStatus status, final String errorMessage) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put(L_ID, reportJobId);
+        params.put("status", status.getStringValue());
+        params.put("finishDate", new Date());
+        params.put("errorMessage", errorMessage);
+
+        if (ReportJobStatus.FINISHED.equals(status)) {
+            jdbcTemplate.update("UPDATE basic_reportjob SET status = :status, progress = 100, finishdate = :finishDate, "
+                    + "errormessage = :errorMessage WHERE id = :id", params);
+        } else {
+            jdbcTemplate.update("UPDATE basic_reportjob SET status = :status, finishdate = :finishDate, "
+                    + "errormessage = :errorMessage WHERE id = :id", params);
+        }
+    }
+
+    // jobs left queued or running by a node which was stopped
+    private void failStaleReportJobs() {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("queued", ReportJobStatus.QUEUED.getStringValue());
+        params.put("running", ReportJobStatus.RUNNING.getStringValue());
+        params.put("failed", ReportJobStatus.FAILED.getStringValue());
+        params.put("staleDate", new DateTime().minusHours(L_STALE_JOB_HOURS).toDate());
+        params.put("finishDate", new Date());
+
+        List<Long> staleReportJobIds = jdbcTemplate.queryForList("UPDATE basic_reportjob SET status = :failed, "
+                + "finishdate = :finishDate, errormessage = 'Generation was interrupted' "
+                + "WHERE (status = :running AND startdate < :staleDate) OR (status = :queued AND createdate < :staleDate) "
+                + "RETURNING id", params, Long.class);
+
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+
+        staleReportJobIds.forEach(reportJobId -> securityContexts.remove(getJobKey(tenantId, reportJobId)));
+    }
+
+    private Entity getPendingReportJob(final String reportType, final Long entityId, final String parameters) {
+        Map<String, Object> params = getPendingParams(reportType, entityId);
+
+        params.put("parameters", parameters);
+
+        String query = "SELECT id FROM basic_reportjob WHERE reporttype = :reportType AND entityid = :entityId "
+                + "AND status IN (:statuses) AND " + (parameters == null ? "parameters IS NULL" : "parameters = :parameters")
+                + " LIMIT 1";
+
+        List<Long> reportJobIds = jdbcTemplate.queryForList(query, params, Long.class);
+
+        return reportJobIds.isEmpty() ? null : getReportJobDD().get(reportJobIds.get(0));
+    }
+
+    private Map<String, Object> getPendingParams(final String reportType, final Long entityId) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("reportType", reportType);
+        params.put("entityId", entityId);
+        params.put("statuses",
+                Lists.newArrayList(ReportJobStatus.QUEUED.getStringValue(), ReportJobStatus.RUNNING.getStringValue()));
+
+        return params;
+    }
+
+    private String getJobKey(final int tenantId, final Long reportJobId) {
+        return tenantId + "|" + reportJobId;
+    }
+
+    private Optional<ReportJobHandler> getHandler(final String reportType) {
+        return reportJobHandlers.stream().filter(handler -> handler.getReportType().equals(reportType)).findFirst();
+    }
+
+    private DataDefinition getReportJobDD() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_REPORT_JOB);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        workers.shutdownNow();
+    }
+
+}
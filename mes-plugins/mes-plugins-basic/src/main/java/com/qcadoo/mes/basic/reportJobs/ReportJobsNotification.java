@@ -0,0 +1,71 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.reportJobs;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Component;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.constants.ReportJobStatus;
+import com.qcadoo.view.api.notifications.Notification;
+import com.qcadoo.view.api.notifications.NotificationDataComponent;
+import com.qcadoo.view.api.notifications.NotificationType;
+
+@Component
+public class ReportJobsNotification implements NotificationDataComponent {
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private ReportJobService reportJobService;
+
+    @Override
+    public Optional<Notification> registerNotification() {
+        List<String> statuses = reportJobService.takeFinishedReportJobsOfCurrentUser();
+
+        if (statuses.isEmpty()) {
+            return Optional.empty();
+        }
+
+        long failed = statuses.stream().filter(ReportJobStatus.FAILED.getStringValue()::equals).count();
+
+        String message;
+
+        if (failed > 0) {
+            message = translationService.translate("basic.reportJob.notification.failed", LocaleContextHolder.getLocale(),
+                    String.valueOf(failed));
+        } else {
+            message = translationService.translate("basic.reportJob.notification.finished", LocaleContextHolder.getLocale(),
+                    String.valueOf(statuses.size()));
+        }
+
+        return Optional.of(new Notification(NotificationType.information, message, true, true));
+    }
+
+}
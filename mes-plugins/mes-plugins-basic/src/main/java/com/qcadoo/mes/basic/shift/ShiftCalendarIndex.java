@@ -0,0 +1,322 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+import org.joda.time.DateTime;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+
+/**
+ * Calendar of working time of all shifts or of shifts of one production line, kept as sorted arrays of working intervals
+ * with prefix sums of their durations.
+ *
+ * Intervals are built lazily per calendar year (using given loader, so timetable exceptions are applied the same way as in
+ * {@link com.qcadoo.mes.basic.ShiftsService#getHoursForAllShifts(Date, Date)}) and kept until {@link #invalidate()} is called
+ * by shift and timetable exception hooks. Adding or subtracting working time is a binary search within a year instead of
+ * walking the calendar week by week.
+ */
+public class ShiftCalendarIndex {
+
+    private final BiFunction<Date, Date, List<ShiftHour>> hoursLoader;
+
+    private final BooleanSupplier shiftsExistSupplier;
+
+    private final long minTimestamp;
+
+    private final long maxTimestamp;
+
+    private final ConcurrentMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    private long generation;
+
+    private volatile Boolean shiftsExist;
+
+    public ShiftCalendarIndex(final BiFunction<Date, Date, List<ShiftHour>> hoursLoader,
+            final BooleanSupplier shiftsExistSupplier, final long minTimestamp, final long maxTimestamp) {
+        this.hoursLoader = hoursLoader;
+        this.shiftsExistSupplier = shiftsExistSupplier;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    public boolean hasShifts() {
+        Boolean exist = shiftsExist;
+
+        if (exist == null) {
+            exist = shiftsExistSupplier.getAsBoolean();
+            shiftsExist = exist;
+        }
+
+        return exist;
+    }
+
+    /**
+     * @return date at which given number of working seconds, counted from dateFrom, elapses
+     */
+    public Optional<Date> addWorkingTime(final Date dateFrom, final long seconds) {
+        long position = dateFrom.getTime();
+        long remaining = seconds * 1000;
+        int year = yearOf(position);
+
+        while (yearStart(year) < maxTimestamp) {
+            Segment segment = getSegment(year);
+            int first = segment.firstEndingAfter(position);
+
+            if (first < segment.size()) {
+                long base = segment.prefix[first] + Math.max(0, position - segment.starts[first]);
+                long target = base + remaining;
+
+                if (target <= segment.total()) {
+                    int index = segment.firstReaching(target, first);
+
+                    return Optional.of(new Date(segment.starts[index] + (target - segment.prefix[index])));
+                }
+
+                remaining -= segment.total() - base;
+            }
+
+            year++;
+            position = yearStart(year);
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * @return date from which given number of working seconds elapses at dateTo
+     */
+    public Optional<Date> subtractWorkingTime(final Date dateTo, final long seconds) {
+        long position = dateTo.getTime();
+        long remaining = seconds * 1000;
+        int year = yearOf(position);
+
+        while (yearStart(year + 1) > minTimestamp) {
+            Segment segment = getSegment(year);
+            int last = segment.lastStartingBefore(position);
+
+            if (last >= 0) {
+                long base = segment.prefix[last] + Math.min(segment.ends[last], position) - segment.starts[last];
+                long target = base - remaining;
+
+                if (target >= 0) {
+                    int index = segment.lastNotExceeding(target, last);
+
+                    return Optional.of(new Date(segment.starts[index] + (target - segment.prefix[index])));
+                }
+
+                remaining -= base;
+            }
+
+            year--;
+            position = yearStart(year + 1);
+        }
+
+        return Optional.empty();
+    }
+
+    public void invalidate() {
+        clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    clear();
+                }
+
+            });
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        segments.clear();
+        shiftsExist = null;
+    }
+
+    private Segment getSegment(final int year) {
+        Segment segment = segments.get(year);
+
+        if (segment == null) {
+            long loadedGeneration;
+
+            synchronized (this) {
+                loadedGeneration = generation;
+            }
+
+            segment = buildSegment(year);
+
+            synchronized (this) {
+                if (loadedGeneration == generation) {
+                    segments.putIfAbsent(year, segment);
+                }
+            }
+        }
+
+        return segment;
+    }
+
+    private Segment buildSegment(final int year) {
+        long from = yearStart(year);
+        long to = yearStart(year + 1);
+
+        // hours of previous day are loaded too, so night shifts starting on December 31st are included
+        List<ShiftHour> hours = hoursLoader.apply(new DateTime(from).minusDays(1).toDate(), new Date(to));
+
+        long[] starts = new long[hours.size()];
+        long[] ends = new long[hours.size()];
+        int size = 0;
+
+        for (ShiftHour hour : hours) {
+            long start = Math.max(hour.getDateFrom().getTime(), from);
+            long end = Math.min(hour.getDateTo().getTime(), to);
+
+            if (start < end) {
+                starts[size] = start;
+                ends[size] = end;
+                size++;
+            }
+        }
+
+        return new Segment(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    private static int yearOf(final long timestamp) {
+        return new DateTime(timestamp).getYear();
+    }
+
+    private static long yearStart(final int year) {
+        return new DateTime(year, 1, 1, 0, 0, 0, 0).getMillis();
+    }
+
+    private static class Segment {
+
+        private final long[] starts;
+
+        private final long[] ends;
+
+        // prefix[i] - working time before i-th interval, prefix[size] - working time of whole segment
+        private final long[] prefix;
+
+        Segment(final long[] starts, final long[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+            this.prefix = new long[starts.length + 1];
+
+            for (int i = 0; i < starts.length; i++) {
+                prefix[i + 1] = prefix[i] + ends[i] - starts[i];
+            }
+        }
+
+        int size() {
+            return starts.length;
+        }
+
+        long total() {
+            return prefix[starts.length];
+        }
+
+        int firstEndingAfter(final long position) {
+            int low = 0;
+            int high = starts.length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (ends[middle] > position) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            return low;
+        }
+
+        int lastStartingBefore(final long position) {
+            int low = 0;
+            int high = starts.length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (starts[middle] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low - 1;
+        }
+
+        int firstReaching(final long target, final int from) {
+            int low = from;
+            int high = starts.length - 1;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (prefix[middle + 1] >= target) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            return low;
+        }
+
+        int lastNotExceeding(final long target, final int to) {
+            int low = 0;
+            int high = to;
+
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+
+                if (prefix[middle] <= target) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return low;
+        }
+
+    }
+
+}
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.basic.tree;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -37,8 +38,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static com.qcadoo.mes.basic.constants.ProductFamilyElementType.PARTICULAR_PRODUCT;
 import static com.qcadoo.mes.basic.constants.ProductFamilyElementType.PRODUCTS_FAMILY;
@@ -69,11 +70,6 @@ public class ProductNumberingServiceImpl implements ProductNumberingService {
     @Override
     public void generateNodeNumber(final Entity product) {
         Entity parent = product.getBelongsToField(PARENT);
-
-        generateNodeNumber(product, parent, false);
-    }
-
-    private void generateNodeNumber(final Entity product, final Entity parent, final boolean doSave) {
         String entityType = product.getStringField(ENTITY_TYPE);
 
         if (PRODUCTS_FAMILY.getStringValue().equals(entityType)) {
@@ -81,10 +77,6 @@ public class ProductNumberingServiceImpl implements ProductNumberingService {
         } else if (PARTICULAR_PRODUCT.getStringValue().equals(entityType)) {
             generateNodeNumberForParticularProduct(product, parent);
         }
-
-        if (doSave) {
-            product.getDataDefinition().save(product);
-        }
     }
 
     private void generateNodeNumberForParticularProduct(final Entity product, final Entity parent) {
@@ -111,45 +103,55 @@ public class ProductNumberingServiceImpl implements ProductNumberingService {
     }
 
     private void updateNodeNumber(final Entity product, final Entity parent) {
+        if (product.getId() == null) {
+            return;
+        }
+
+        Entity existingProduct = getProductDD().get(product.getId());
+
         String entityType = product.getStringField(ENTITY_TYPE);
 
-        if (product.getId() != null) {
-            if (checkIfParentHasChanged(product, parent)) {
-                if (checkIfEntityTypeHasChanged(product, entityType)) {
-                    if (PRODUCTS_FAMILY.getStringValue().equals(entityType)) {
-                        generateNodeNumberForProductsFamily(product, parent);
-                    } else if (PARTICULAR_PRODUCT.getStringValue().equals(entityType)) {
-                        generateNodeNumberForParticularProduct(product, parent);
-                        updateProductFamilyChildrensNodeNumbers(product, null);
-                    }
-                } else {
-                    if (PRODUCTS_FAMILY.getStringValue().equals(entityType)) {
-                        generateNodeNumberForProductsFamily(product, parent);
-                        updateProductFamilyChildrensNodeNumbers(product, product);
-                    } else if (PARTICULAR_PRODUCT.getStringValue().equals(entityType)) {
-                        generateNodeNumberForParticularProduct(product, parent);
-                    }
-                }
-            } else {
-                if (checkIfEntityTypeHasChanged(product, entityType)) {
-                    if (PRODUCTS_FAMILY.getStringValue().equals(entityType)) {
-                        generateNodeNumberForProductsFamily(product, parent);
-                    } else if (PARTICULAR_PRODUCT.getStringValue().equals(entityType)) {
-                        updateProductFamilyChildrensNodeNumbers(product, null);
-                    }
-                }
+        boolean parentHasChanged = checkIfParentHasChanged(existingProduct, parent);
+        boolean entityTypeHasChanged = checkIfEntityTypeHasChanged(existingProduct, entityType);
+
+        if (PRODUCTS_FAMILY.getStringValue().equals(entityType)) {
+            if (parentHasChanged || entityTypeHasChanged) {
+                generateNodeNumberForProductsFamily(product, parent);
+            }
+            if (parentHasChanged && !entityTypeHasChanged) {
+                renumberDescendants(existingProduct.getStringField(NODE_NUMBER), product.getStringField(NODE_NUMBER));
             }
+        } else if (PARTICULAR_PRODUCT.getStringValue().equals(entityType) && parentHasChanged) {
+            generateNodeNumberForParticularProduct(product, parent);
         }
+
+        // children of products family changed to particular product are detached and renumbered by their own saves, see
+        // ProductHooks#clearFamilyFromProductWhenTypeIsChanged
     }
 
-    private void updateProductFamilyChildrensNodeNumbers(final Entity product, final Entity parent) {
-        List<Entity> productFamilyChildrens = product.getHasManyField(PRODUCT_FAMILY_CHILDRENS);
+    /**
+     * Moves whole subtree of products family to new node number with one update, replacing prefix of descendants' node
+     * numbers, so their relative numbering is kept and no save hooks are fired.
+     */
+    private void renumberDescendants(final String oldNodeNumber, final String newNodeNumber) {
+        if (StringUtils.isEmpty(oldNodeNumber) || oldNodeNumber.equals(newNodeNumber)) {
+            return;
+        }
 
-        for (Entity productFamilyChildren : productFamilyChildrens) {
-            generateNodeNumber(productFamilyChildren, parent, true);
+        StringBuilder query = new StringBuilder();
 
-            updateProductFamilyChildrensNodeNumbers(productFamilyChildren, productFamilyChildren);
-        }
+        query.append("UPDATE basic_product SET nodenumber = :newNodeNumber || substring(nodenumber FROM :suffixStart) ");
+        query.append("WHERE nodenumber LIKE :pattern");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("newNodeNumber", newNodeNumber);
+        params.put("suffixStart", oldNodeNumber.length() + 1);
+        params.put("pattern", oldNodeNumber + ".%");
+
+        int updated = jdbcTemplate.update(query.toString(), params);
+
+        LOG.debug("Renumbered {} descendants of products family from {} to {}", updated, oldNodeNumber, newNodeNumber);
     }
 
     private String getNextRootNodeNumber() {
@@ -182,40 +184,33 @@ public class ProductNumberingServiceImpl implements ProductNumberingService {
     private String getNextNodeNumber(final Entity parent) {
         String parentNodeNumber = parent.getStringField(NODE_NUMBER);
 
-        Entity product = parent.getHasManyField(PRODUCT_FAMILY_CHILDRENS).find()
-                .add(SearchRestrictions.like(NODE_NUMBER, parentNodeNumber + "%")).addOrder(SearchOrders.desc(NODE_NUMBER))
-                .setMaxResults(1).uniqueResult();
+        return parentNodeNumber.concat(".").concat(String.valueOf(getMaxChildNumber(parentNodeNumber) + 1));
+    }
 
-        String nodeNumber = null;
-        Integer number = null;
+    /**
+     * Gets max number of direct children of given node number, using prefix index of node numbers.
+     */
+    private int getMaxChildNumber(final String parentNodeNumber) {
+        StringBuilder query = new StringBuilder();
 
-        if (product == null) {
-            number = 1;
+        query.append("SELECT max(substring(nodenumber FROM :suffixStart)::int) FROM basic_product ");
+        query.append("WHERE nodenumber LIKE :pattern AND strpos(substring(nodenumber FROM :suffixStart), '.') = 0");
 
-            nodeNumber = parentNodeNumber.concat(".").concat(number.toString());
-        } else {
+        Map<String, Object> params = Maps.newHashMap();
 
-            int size = parentNodeNumber.split("\\.").length + 1;
-            StringBuilder query = new StringBuilder();
+        params.put("suffixStart", parentNodeNumber.length() + 2);
+        params.put("pattern", parentNodeNumber + ".%");
 
-            query.append("SELECT max((regexp_split_to_array(nodenumber, E'\\\\.'))["+size+"] ::int) + 1 ");
-            query.append("FROM basic_product WHERE nodenumber like '");
-            query.append(parentNodeNumber);
-            query.append(".%'");
-            number = jdbcTemplate.queryForObject(query.toString(), Collections.emptyMap(), Integer.class);
-            nodeNumber = parentNodeNumber.concat(".").concat(number.toString());
-        }
+        Integer number = jdbcTemplate.queryForObject(query.toString(), params, Integer.class);
 
-        return nodeNumber;
+        return number == null ? 0 : number;
     }
 
     private boolean checkIfNodeNumberIsUnique(final String nodeNumber) {
         return getProductDD().find().add(SearchRestrictions.eq(NODE_NUMBER, nodeNumber)).setMaxResults(1).uniqueResult() != null;
     }
 
-    private boolean checkIfParentHasChanged(final Entity product, final Entity parent) {
-        Entity existingProduct = getProductDD().get(product.getId());
-
+    private boolean checkIfParentHasChanged(final Entity existingProduct, final Entity parent) {
         Entity existingParent = existingProduct.getBelongsToField(PARENT);
 
         if ((parent == null) && (existingParent == null)) {
@@ -227,9 +222,7 @@ public class ProductNumberingServiceImpl implements ProductNumberingService {
         }
     }
 
-    private boolean checkIfEntityTypeHasChanged(final Entity product, final String entityType) {
-        Entity existingProduct = getProductDD().get(product.getId());
-
+    private boolean checkIfEntityTypeHasChanged(final Entity existingProduct, final String entityType) {
         String existingEntityType = existingProduct.getStringField(ENTITY_TYPE);
 
         return !existingEntityType.equals(entityType);
@@ -0,0 +1,271 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Entities users are notified about (like new maintenance events or draft documents), kept in memory per tenant with a value
+ * deciding which users see them, so notification polls count them without querying database.
+ *
+ * Entities are loaded with given loader on first use. Counts are kept per key (like user's factory or locations) matching
+ * values with given matcher, and updated incrementally. Hooks report changed entities with {@link #put(Long, Object)} and
+ * {@link #remove(Long)}, or with {@link #loadCreated()} when id is not known yet (new entity); changes are applied after
+ * commit of their transaction. {@link #reload()} is called periodically, as a safety net for changes made outside of hooks.
+ *
+ * @param <K>
+ *            key of counts
+ * @param <V>
+ *            value of entities
+ */
+public class NotifiedEntitiesIndex<K, V> {
+
+    private static final int L_MAX_COUNTS = 1000;
+
+    private final Function<Long, Map<Long, V>> loader;
+
+    private final BiPredicate<K, V> matcher;
+
+    private final ConcurrentMap<Integer, TenantEntities> tenantEntities = new ConcurrentHashMap<>();
+
+    /**
+     * @param loader
+     *            loads entities with id greater than given one, by id
+     * @param matcher
+     *            decides if entity with given value is counted for given key
+     */
+    public NotifiedEntitiesIndex(final Function<Long, Map<Long, V>> loader, final BiPredicate<K, V> matcher) {
+        this.loader = loader;
+        this.matcher = matcher;
+    }
+
+    public int count(final K key) {
+        return getTenantEntities().count(key);
+    }
+
+    public void put(final Long id, final V value) {
+        TenantEntities entities = getTenantEntities();
+
+        afterCommit(() -> entities.put(id, value));
+    }
+
+    public void remove(final Long id) {
+        TenantEntities entities = getTenantEntities();
+
+        afterCommit(() -> entities.remove(id));
+    }
+
+    /**
+     * Loads entities created since last load of all entities, after commit of new entity, which id is not known in hooks.
+     */
+    public void loadCreated() {
+        TenantEntities entities = getTenantEntities();
+
+        afterCommit(entities::loadCreated);
+    }
+
+    /**
+     * @return true if loaded entities of current tenant differed from entities kept in memory, not loaded ones are skipped
+     */
+    public boolean reload() {
+        TenantEntities entities = tenantEntities.get(getCurrentTenantId());
+
+        return Objects.nonNull(entities) && entities.reload();
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private TenantEntities getTenantEntities() {
+        return tenantEntities.computeIfAbsent(getCurrentTenantId(), tenantId -> new TenantEntities());
+    }
+
+    private void afterCommit(final Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private class TenantEntities {
+
+        private Map<Long, V> entities;
+
+        // highest id of last load of all entities, entities created later are loaded by loadCreated
+        private long loadedId;
+
+        // removed since last load of all entities, so entities loaded by loadCreated before removal are not put back
+        private final Set<Long> removedIds = Sets.newHashSet();
+
+        private final Map<K, Integer> counts = Maps.newHashMap();
+
+        private long generation;
+
+        int count(final K key) {
+            synchronized (this) {
+                if (Objects.nonNull(entities)) {
+                    return getCount(key);
+                }
+            }
+
+            Map<Long, V> loaded = load();
+
+            synchronized (this) {
+                return Objects.nonNull(entities) ? getCount(key) : countMatching(loaded, key);
+            }
+        }
+
+        synchronized void put(final Long id, final V value) {
+            generation++;
+            removedIds.remove(id);
+
+            if (Objects.nonNull(entities)) {
+                putEntity(id, value);
+            }
+        }
+
+        synchronized void remove(final Long id) {
+            generation++;
+            removedIds.add(id);
+
+            if (Objects.nonNull(entities) && entities.containsKey(id)) {
+                V previous = entities.remove(id);
+
+                counts.replaceAll((key, count) -> matcher.test(key, previous) ? count - 1 : count);
+            }
+        }
+
+        void loadCreated() {
+            long createdAfterId;
+
+            synchronized (this) {
+                if (Objects.isNull(entities)) {
+                    return;
+                }
+
+                createdAfterId = loadedId;
+            }
+
+            Map<Long, V> created = loader.apply(createdAfterId);
+
+            synchronized (this) {
+                if (Objects.isNull(entities)) {
+                    return;
+                }
+
+                created.forEach((id, value) -> {
+                    if (!entities.containsKey(id) && !removedIds.contains(id)) {
+                        putEntity(id, value);
+                    }
+                });
+            }
+        }
+
+        boolean reload() {
+            Map<Long, V> previous;
+
+            synchronized (this) {
+                previous = Objects.isNull(entities) ? null : Maps.newHashMap(entities);
+            }
+
+            Map<Long, V> loaded = load();
+
+            return Objects.nonNull(previous) && !previous.equals(loaded);
+        }
+
+        private Map<Long, V> load() {
+            long loadedGeneration;
+
+            synchronized (this) {
+                loadedGeneration = generation;
+            }
+
+            Map<Long, V> loaded = Maps.newHashMap(loader.apply(0L));
+
+            synchronized (this) {
+                // changed while loading, loaded entities may miss the change - they will be loaded again with the next count
+                if (loadedGeneration == generation) {
+                    entities = loaded;
+                    loadedId = loaded.keySet().stream().mapToLong(Long::longValue).max().orElse(0L);
+                    removedIds.clear();
+                    counts.clear();
+                }
+            }
+
+            return loaded;
+        }
+
+        private void putEntity(final Long id, final V value) {
+            boolean existed = entities.containsKey(id);
+            V previous = entities.put(id, value);
+
+            counts.replaceAll((key, count) -> count + (matcher.test(key, value) ? 1 : 0)
+                    - (existed && matcher.test(key, previous) ? 1 : 0));
+        }
+
+        private int getCount(final K key) {
+            Integer count = counts.get(key);
+
+            if (Objects.isNull(count)) {
+                if (counts.size() >= L_MAX_COUNTS) {
+                    counts.clear();
+                }
+
+                count = countMatching(entities, key);
+
+                counts.put(key, count);
+            }
+
+            return count;
+        }
+
+        private int countMatching(final Map<Long, V> matched, final K key) {
+            return (int) matched.values().stream().filter(value -> matcher.test(key, value)).count();
+        }
+
+    }
+
+}
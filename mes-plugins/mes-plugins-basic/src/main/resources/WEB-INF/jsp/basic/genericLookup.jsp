@@ -12,6 +12,7 @@ String ctx = request.getContextPath();
     <script type="text/javascript" src="/qcadooView/public/js/core/qcd/core/messagesController.js?ver=${buildNumber}"></script>
     <script src="/qcadooView/public/js/crud/qcd/components/jqGrid/jquery.jqGrid.min.js?ver=${buildNumber}"></script>
     <script src="/qcadooView/public/js/crud/qcd/components/jqGrid/angular.js?ver=${buildNumber}"></script>
+    <script src="/basic/public/js/gridKeysetPaging.js?ver=${buildNumber}"></script>
     <script src="/basic/public/js/genericLookupOptions.js?ver=${buildNumber}"></script>
 
     <c:choose>
@@ -0,0 +1,3 @@
+-- Prefix index serving lookups and renumbering of products families tree by node number.
+
+CREATE INDEX IF NOT EXISTS basic_product_nodenumber_prefix_idx ON basic_product (nodenumber text_pattern_ops);
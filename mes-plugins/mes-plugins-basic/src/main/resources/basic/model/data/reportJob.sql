@@ -0,0 +1,9 @@
+-- Id of entity the report is generated for, not mapped in reportJob model, which has no field type for bigint ids.
+
+ALTER TABLE basic_reportjob ADD COLUMN IF NOT EXISTS entityid bigint NOT NULL;
+ALTER TABLE basic_reportjob ALTER COLUMN entityid TYPE bigint;
+
+-- At most one queued or running job of the same report type, entity and parameters, see ReportJobService.submit.
+
+CREATE UNIQUE INDEX IF NOT EXISTS basic_reportjob_pending_idx ON basic_reportjob (reporttype, entityid, COALESCE(parameters, ''))
+    WHERE status IN ('01queued', '02running');
@@ -0,0 +1,15 @@
+-- Indexes supporting typeahead (DataProvider) and lookup grid searches.
+-- Trigram indexes serve infix ILIKE/LIKE '%q%' searches, text_pattern_ops indexes serve prefix ranking.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS basic_product_number_trgm_idx ON basic_product USING gin (number gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS basic_product_lower_number_trgm_idx ON basic_product USING gin (lower(number) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS basic_product_lower_name_trgm_idx ON basic_product USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS basic_product_lower_number_prefix_idx ON basic_product (lower(number) text_pattern_ops);
+
+CREATE INDEX IF NOT EXISTS basic_additionalcode_code_trgm_idx ON basic_additionalcode USING gin (code gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS basic_additionalcode_lower_code_trgm_idx ON basic_additionalcode USING gin (lower(code) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS basic_palletnumber_number_trgm_idx ON basic_palletnumber USING gin (number gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS basic_palletnumber_lower_number_trgm_idx ON basic_palletnumber USING gin (lower(number) gin_trgm_ops);
@@ -109,6 +109,8 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                 }
             };
 
+            angular.extend(config, keysetPagingOptions());
+
             $http({
                 method: 'GET',
                 url: '/rest/' + $scope.recordName + '/config'
@@ -0,0 +1,51 @@
+/*
+ * Keyset paging for jqGrid grids backed by LookupUtils.getGridResponse.
+ *
+ * Server returns sort value and id of the last row of every page (keysetValue, keysetId). They are sent back only when
+ * the next page is requested with the same sorting, filters and page size, so the next page is read with a seek condition
+ * instead of OFFSET. Any other request (first page, jump to page, changed sorting or filters) uses offset paging.
+ */
+function keysetPagingOptions() {
+    var lastPage = null;
+    var requestKey = null;
+
+    function getRequestKey(postData) {
+        var key = {};
+
+        for (var name in postData) {
+            if (postData.hasOwnProperty(name) && name !== 'page' && name !== 'nd' && name !== 'keysetValue'
+                    && name !== 'keysetId') {
+                key[name] = postData[name];
+            }
+        }
+
+        return JSON.stringify(key);
+    }
+
+    return {
+        serializeGridData: function (postData) {
+            delete postData.keysetValue;
+            delete postData.keysetId;
+
+            requestKey = getRequestKey(postData);
+
+            if (lastPage && lastPage.key === requestKey && lastPage.page + 1 === parseInt(postData.page, 10)
+                    && lastPage.keysetId !== null && lastPage.keysetId !== undefined) {
+                if (lastPage.keysetValue !== null && lastPage.keysetValue !== undefined) {
+                    postData.keysetValue = lastPage.keysetValue;
+                }
+                postData.keysetId = lastPage.keysetId;
+            }
+
+            return postData;
+        },
+        beforeProcessing: function (data) {
+            lastPage = {
+                key: requestKey,
+                page: parseInt(data.page, 10),
+                keysetValue: data.keysetValue,
+                keysetId: data.keysetId
+            };
+        }
+    };
+}
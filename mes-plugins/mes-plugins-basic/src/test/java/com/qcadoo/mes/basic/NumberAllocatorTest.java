@@ -0,0 +1,135 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+public class NumberAllocatorTest {
+
+    private static final String L_PLUGIN_IDENTIFIER = "orders";
+
+    private static final String L_MODEL_NAME = "order";
+
+    private static final String L_PREFIX = "MO1-";
+
+    private NumberAllocator numberAllocator;
+
+    @Mock
+    private NumberSequenceService numberSequenceService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        numberAllocator = spy(new NumberAllocator());
+
+        ReflectionTestUtils.setField(numberAllocator, "numberSequenceService", numberSequenceService);
+
+        doReturn(1).when(numberAllocator).getCurrentTenantId();
+    }
+
+    @Test
+    public void shouldGenerateNumbersFromOneBlock() {
+        // given
+        given(numberSequenceService.allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L)).willReturn(27L);
+
+        // when
+        String first = numberAllocator.generateNumberWithPrefix(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX);
+        String second = numberAllocator.generateNumberWithPrefix(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX);
+
+        // then
+        assertEquals("MO1-008", first);
+        assertEquals("MO1-009", second);
+
+        verify(numberSequenceService, times(1)).allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L);
+    }
+
+    @Test
+    public void shouldAllocateNextBlockWhenBlockIsExhausted() {
+        // given
+        given(numberSequenceService.allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L)).willReturn(20L, 60L);
+
+        numberAllocator.reserveNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX, 15);
+
+        // when
+        List<String> numbers = numberAllocator.reserveNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX, 25);
+
+        // then
+        assertEquals(Lists.newArrayList("MO1-016", "MO1-017", "MO1-018", "MO1-019", "MO1-020"), numbers.subList(0, 5));
+        assertEquals("MO1-041", numbers.get(5));
+        assertEquals("MO1-060", numbers.get(24));
+
+        verify(numberSequenceService, times(2)).allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L);
+    }
+
+    @Test
+    public void shouldAllocateWholeQuantityInOneBlock() {
+        // given
+        given(numberSequenceService.allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 50L)).willReturn(50L);
+
+        // when
+        List<String> numbers = numberAllocator.reserveNumbers(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX, 50);
+
+        // then
+        assertEquals(50, numbers.size());
+        assertEquals("MO1-001", numbers.get(0));
+        assertEquals("MO1-050", numbers.get(49));
+
+        verify(numberSequenceService, times(1)).allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 50L);
+    }
+
+    @Test
+    public void shouldKeepBlocksPerTenant() {
+        // given
+        given(numberSequenceService.allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L)).willReturn(20L, 40L);
+
+        numberAllocator.generateNumberWithPrefix(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX);
+
+        doReturn(2).when(numberAllocator).getCurrentTenantId();
+
+        // when
+        String number = numberAllocator.generateNumberWithPrefix(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, 3, L_PREFIX);
+
+        // then
+        assertEquals("MO1-021", number);
+
+        verify(numberSequenceService, times(2)).allocateBlock(L_PLUGIN_IDENTIFIER, L_MODEL_NAME, L_PREFIX, 20L);
+    }
+
+}
@@ -33,16 +33,17 @@ import java.util.List;
 
 import junit.framework.Assert;
 
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.Lists;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchResult;
 
@@ -57,11 +58,15 @@ public class ShiftsServiceTest {
     private DataDefinition dataDefinition;
 
     @Mock
-    private Entity entity, shift, exception;
+    private TimetableExceptionService timetableExceptionService;
 
-    List<Entity> shifts = new ArrayList<Entity>();
+    @Mock
+    private DataDefinition productionLineDD;
 
-    List<Entity> exceptions;
+    @Mock
+    private Entity entity, shift, productionLine, exception;
+
+    List<Entity> shifts = new ArrayList<Entity>();
 
     @org.junit.Before
     public void init() {
@@ -69,12 +74,14 @@ public class ShiftsServiceTest {
         MockitoAnnotations.initMocks(this);
 
         ReflectionTestUtils.setField(shiftsService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(shiftsService, "timetableExceptionService", timetableExceptionService);
     }
 
-    private EntityList mockEntityList(List<Entity> list) {
-        EntityList entityList = mock(EntityList.class);
-        when(entityList.iterator()).thenReturn(list.iterator());
-        return entityList;
+    private void mockShiftWorkingEveryDay(final Entity shift, final String hours) {
+        for (String day : new String[] { "monday", "tuesday", "wensday", "thursday", "friday", "saturday", "sunday" }) {
+            when(shift.getField(day + "Working")).thenReturn(true);
+            when(shift.getStringField(day + "Hours")).thenReturn(hours);
+        }
     }
 
     @Test
@@ -175,8 +182,6 @@ public class ShiftsServiceTest {
         // given
         Date dateTo = mock(Date.class);
         shifts.add(shift);
-        exceptions = mockEntityList(new ArrayList<Entity>());
-        exceptions.add(exception);
         String hours = "07:00-15:00";
         SearchCriteriaBuilder builder = mock(SearchCriteriaBuilder.class);
         SearchResult result = mock(SearchResult.class);
@@ -200,10 +205,61 @@ public class ShiftsServiceTest {
         when(shift.getStringField("saturdayHours")).thenReturn(hours);
         when(shift.getField("sundayWorking")).thenReturn(true);
         when(shift.getStringField("sundayHours")).thenReturn(hours);
-
-        when(shift.getHasManyField("timetableExceptions")).thenReturn((EntityList) exceptions);
         // when
         shiftsService.findDateFromForOrder(dateTo, 123L);
         // then
     }
+
+    @Test
+    public void shouldFindDateToForProductionLineWithItsTimetableExceptions() throws Exception {
+        // given
+        mockShiftWorkingEveryDay(shift, "07:00-15:00");
+
+        when(productionLine.getId()).thenReturn(1L);
+        when(productionLine.getDataDefinition()).thenReturn(productionLineDD);
+        when(productionLineDD.get(1L)).thenReturn(productionLine);
+        when(productionLine.getManyToManyField("shifts")).thenReturn(Lists.newArrayList(shift));
+
+        when(exception.getStringField("type")).thenReturn("01freeTime");
+        when(exception.getField("fromDate")).thenReturn(new DateTime(2020, 1, 7, 0, 0, 0, 0).toDate());
+        when(exception.getField("toDate")).thenReturn(new DateTime(2020, 1, 8, 0, 0, 0, 0).toDate());
+        when(timetableExceptionService.findForProductionLineAndShift(productionLine, shift)).thenReturn(
+                Lists.newArrayList(exception));
+
+        Date dateFrom = new DateTime(2020, 1, 6, 7, 0, 0, 0).toDate();
+        long seconds = 9 * 3600L;
+
+        // when
+        Date dateTo = shiftsService.findDateToForOrder(dateFrom, seconds, productionLine);
+        Date dateFromForDateTo = shiftsService.findDateFromForOrder(dateTo, seconds, productionLine);
+
+        // then
+        assertEquals(new DateTime(2020, 1, 8, 8, 0, 0, 0).toDate(), dateTo);
+        assertEquals(dateFrom, dateFromForDateTo);
+    }
+
+    @Test
+    public void shouldUseAllShiftsWhenProductionLineHasNoShifts() throws Exception {
+        // given
+        mockShiftWorkingEveryDay(shift, "07:00-15:00");
+
+        SearchCriteriaBuilder builder = mock(SearchCriteriaBuilder.class);
+        SearchResult result = mock(SearchResult.class);
+        when(dataDefinitionService.get("basic", "shift")).thenReturn(dataDefinition);
+        when(dataDefinition.find()).thenReturn(builder);
+        when(builder.list()).thenReturn(result);
+        when(result.getTotalNumberOfEntities()).thenReturn(1);
+        when(result.getEntities()).thenReturn(Lists.newArrayList(shift));
+
+        when(productionLine.getId()).thenReturn(1L);
+        when(productionLine.getDataDefinition()).thenReturn(productionLineDD);
+        when(productionLineDD.get(1L)).thenReturn(productionLine);
+        when(productionLine.getManyToManyField("shifts")).thenReturn(Lists.<Entity> newArrayList());
+
+        // when
+        Date dateTo = shiftsService.findDateToForOrder(new DateTime(2020, 1, 6, 7, 0, 0, 0).toDate(), 3600L, productionLine);
+
+        // then
+        assertEquals(new DateTime(2020, 1, 6, 8, 0, 0, 0).toDate(), dateTo);
+    }
 }
@@ -0,0 +1,153 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+
+public class ShiftCalendarIndexTest {
+
+    private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0).getMillis();
+
+    private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0).getMillis();
+
+    private static final long HOUR = 3600L;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private ShiftCalendarIndex shiftCalendarIndex;
+
+    @Before
+    public final void init() {
+        shiftCalendarIndex = new ShiftCalendarIndex(this::getDailyHours, () -> true, MIN_TIMESTAMP, MAX_TIMESTAMP);
+    }
+
+    private List<ShiftHour> getDailyHours(final Date dateFrom, final Date dateTo) {
+        loads.incrementAndGet();
+
+        List<ShiftHour> hours = Lists.newArrayList();
+
+        for (LocalDate day = new LocalDate(dateFrom); !day.toDateTimeAtStartOfDay().toDate().after(dateTo); day = day
+                .plusDays(1)) {
+            hours.add(new ShiftHour(day.toDateTime(new LocalTime(8, 0)).toDate(), day.toDateTime(
+                    new LocalTime(16, 0)).toDate()));
+        }
+
+        return hours;
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeWithinDay() {
+        // when
+        Date result = shiftCalendarIndex.addWorkingTime(new DateTime(2016, 3, 1, 7, 0).toDate(), HOUR).get();
+
+        // then
+        assertEquals(new DateTime(2016, 3, 1, 9, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeOverManyDays() {
+        // when
+        Date result = shiftCalendarIndex.addWorkingTime(new DateTime(2016, 3, 1, 15, 0).toDate(), 10 * HOUR).get();
+
+        // then
+        assertEquals(new DateTime(2016, 3, 3, 9, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeOverYearBoundary() {
+        // when
+        Date result = shiftCalendarIndex.addWorkingTime(new DateTime(2016, 12, 31, 15, 0).toDate(), 2 * HOUR).get();
+
+        // then
+        assertEquals(new DateTime(2017, 1, 1, 9, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldReturnStartOfNextWorkingTimeForZeroSeconds() {
+        // when
+        Date result = shiftCalendarIndex.addWorkingTime(new DateTime(2016, 3, 1, 17, 0).toDate(), 0).get();
+
+        // then
+        assertEquals(new DateTime(2016, 3, 2, 8, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldSubtractWorkingTime() {
+        // when
+        Date result = shiftCalendarIndex.subtractWorkingTime(new DateTime(2016, 3, 2, 9, 0).toDate(), 2 * HOUR).get();
+
+        // then
+        assertEquals(new DateTime(2016, 3, 1, 15, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldSubtractWorkingTimeOverYearBoundary() {
+        // when
+        Date result = shiftCalendarIndex.subtractWorkingTime(new DateTime(2017, 1, 1, 9, 0).toDate(), 3 * HOUR).get();
+
+        // then
+        assertEquals(new DateTime(2016, 12, 31, 14, 0).toDate(), result);
+    }
+
+    @Test
+    public final void shouldNotFindDateBeforeMinimalTimestamp() {
+        // when
+        boolean found = shiftCalendarIndex.subtractWorkingTime(new DateTime(1999, 6, 1, 9, 0).toDate(), HOUR).isPresent();
+
+        // then
+        assertFalse(found);
+    }
+
+    @Test
+    public final void shouldReuseCalendarUntilInvalidated() {
+        // when
+        shiftCalendarIndex.addWorkingTime(new DateTime(2016, 3, 1, 7, 0).toDate(), HOUR);
+        shiftCalendarIndex.addWorkingTime(new DateTime(2016, 5, 1, 7, 0).toDate(), HOUR);
+
+        // then
+        assertEquals(1, loads.get());
+
+        // when
+        shiftCalendarIndex.invalidate();
+        shiftCalendarIndex.addWorkingTime(new DateTime(2016, 5, 1, 7, 0).toDate(), HOUR);
+
+        // then
+        assertEquals(2, loads.get());
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class NotifiedEntitiesIndexTest {
+
+    private static final String L_FACTORY_A = "A";
+
+    private static final String L_FACTORY_B = "B";
+
+    private NotifiedEntitiesIndex<String, String> notifiedEntitiesIndex;
+
+    private final Map<Integer, Map<Long, String>> database = Maps.newHashMap();
+
+    private final List<Long> loadedAfterIds = Lists.newArrayList();
+
+    private int tenantId = 1;
+
+    @Before
+    public void init() {
+        notifiedEntitiesIndex = spy(new NotifiedEntitiesIndex<String, String>(this::load, String::equals));
+
+        doReturn(1).when(notifiedEntitiesIndex).getCurrentTenantId();
+
+        database.put(1, Maps.newHashMap());
+        database.put(2, Maps.newHashMap());
+
+        store(1L, L_FACTORY_A);
+        store(2L, L_FACTORY_B);
+        store(3L, L_FACTORY_A);
+    }
+
+    private Map<Long, String> load(final Long createdAfterId) {
+        loadedAfterIds.add(createdAfterId);
+
+        return database.get(tenantId).entrySet().stream().filter(entity -> entity.getKey() > createdAfterId)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private void store(final Long id, final String factory) {
+        database.get(tenantId).put(id, factory);
+    }
+
+    private void switchTenant(final int tenantId) {
+        this.tenantId = tenantId;
+
+        doReturn(tenantId).when(notifiedEntitiesIndex).getCurrentTenantId();
+    }
+
+    @Test
+    public void shouldCountMatchingEntitiesPerKey() {
+        // when
+        int countA = notifiedEntitiesIndex.count(L_FACTORY_A);
+        int countB = notifiedEntitiesIndex.count(L_FACTORY_B);
+
+        // then
+        assertEquals(2, countA);
+        assertEquals(1, countB);
+        assertEquals(Lists.newArrayList(0L), loadedAfterIds);
+    }
+
+    @Test
+    public void shouldUpdateCountsIncrementally() {
+        // given
+        notifiedEntitiesIndex.count(L_FACTORY_A);
+        notifiedEntitiesIndex.count(L_FACTORY_B);
+
+        // when
+        notifiedEntitiesIndex.put(4L, L_FACTORY_A);
+        notifiedEntitiesIndex.put(1L, L_FACTORY_B);
+        notifiedEntitiesIndex.remove(2L);
+
+        // then
+        assertEquals(2, notifiedEntitiesIndex.count(L_FACTORY_A));
+        assertEquals(1, notifiedEntitiesIndex.count(L_FACTORY_B));
+        assertEquals(Lists.newArrayList(0L), loadedAfterIds);
+    }
+
+    @Test
+    public void shouldLoadOnlyCreatedEntities() {
+        // given
+        notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        store(4L, L_FACTORY_A);
+
+        // when
+        notifiedEntitiesIndex.loadCreated();
+
+        // then
+        assertEquals(3, notifiedEntitiesIndex.count(L_FACTORY_A));
+        assertEquals(Lists.newArrayList(0L, 3L), loadedAfterIds);
+    }
+
+    @Test
+    public void shouldNotPutBackRemovedEntitiesWhenLoadingCreated() {
+        // given
+        notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        store(4L, L_FACTORY_A);
+        store(5L, L_FACTORY_A);
+
+        notifiedEntitiesIndex.remove(4L);
+
+        // when
+        notifiedEntitiesIndex.loadCreated();
+
+        // then
+        assertEquals(3, notifiedEntitiesIndex.count(L_FACTORY_A));
+    }
+
+    @Test
+    public void shouldKeepEntitiesPerTenant() {
+        // given
+        notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        switchTenant(2);
+        store(7L, L_FACTORY_A);
+
+        // when
+        int countInOtherTenant = notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        notifiedEntitiesIndex.put(8L, L_FACTORY_A);
+
+        switchTenant(1);
+
+        int count = notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        // then
+        assertEquals(1, countInOtherTenant);
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void shouldReloadOnlyLoadedTenants() {
+        // given
+        notifiedEntitiesIndex.count(L_FACTORY_A);
+
+        store(4L, L_FACTORY_B);
+
+        // when
+        boolean reloaded = notifiedEntitiesIndex.reload();
+
+        switchTenant(2);
+
+        boolean reloadedInOtherTenant = notifiedEntitiesIndex.reload();
+
+        // then
+        assertTrue(reloaded);
+        assertFalse(reloadedInOtherTenant);
+        assertEquals(Lists.newArrayList(0L, 0L), loadedAfterIds);
+
+        switchTenant(1);
+
+        assertEquals(2, notifiedEntitiesIndex.count(L_FACTORY_B));
+    }
+
+}
@@ -23,6 +23,10 @@
  */
 package com.qcadoo.mes.cmmsMachineParts;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.util.NotifiedEntitiesIndex;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventFields;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventType;
@@ -31,22 +35,43 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.constants.QcadooSecurityConstants;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MaintenanceEventService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MaintenanceEventService.class);
+
+    private static final String L_ID = "id";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    // events with sound notifications, by id, with id of their factory, counted by user's factory
+    private final NotifiedEntitiesIndex<Optional<Long>, Long> eventsToNotification = new NotifiedEntitiesIndex<>(
+            this::loadEventsToNotification, (factoryId, eventFactoryId) -> !factoryId.isPresent()
+                    || factoryId.get().equals(eventFactoryId));
+
+    private final Cache<Long, Optional<Long>> userFactories = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.MINUTES).build();
+
     public boolean existOpenFailrueForObjectFromEvent(final Entity event) {
 
         return !getExistingEventsForEvent(event, MaintenanceEventType.FAILURE.getStringValue()).isEmpty();
@@ -112,26 +137,74 @@ public class MaintenanceEventService {
         return Optional.of(plannedEvents.get(0));
     }
 
+    /**
+     * Answered from memory, see {@link #updateEventToNotification(Entity)}.
+     */
     public boolean existsNewEventsToNotification(Long currentUserId) {
-        Entity user = dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER, QcadooSecurityConstants.MODEL_USER)
-                .get(currentUserId);
-        Entity factory = user.getBelongsToField("factory");
+        return eventsToNotification.count(getUserFactoryId(currentUserId)) > 0;
+    }
+
+    /**
+     * Updates events to notification after commit of saved event, called by its hooks.
+     */
+    public void updateEventToNotification(final Entity event) {
+        boolean soundNotifications = event.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS);
 
-       SearchCriteriaBuilder scb = getMaintenanceEventDD()
-                .find()
-                .setProjection(SearchProjections.alias(SearchProjections.rowCount(), "countrows"))
-                .add(SearchRestrictions.eq(MaintenanceEventFields.SOUND_NOTIFICATIONS, true));
+        if (Objects.isNull(event.getId())) {
+            if (soundNotifications) {
+                eventsToNotification.loadCreated();
+            }
+        } else if (soundNotifications) {
+            Entity factory = event.getBelongsToField(MaintenanceEventFields.FACTORY);
 
-        if (factory != null) {
-            scb = scb.add(SearchRestrictions.belongsTo("factory", factory));
+            eventsToNotification.put(event.getId(), Objects.isNull(factory) ? null : factory.getId());
+        } else {
+            eventsToNotification.remove(event.getId());
         }
+    }
 
-        scb = scb.addOrder(SearchOrders.asc("countrows"));
+    public void removeEventToNotification(final Entity event) {
+        eventsToNotification.remove(event.getId());
+    }
+
+    public void reloadEventsToNotificationTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                if (eventsToNotification.reload()) {
+                    LOG.warn("Maintenance events to notification differed from database, reloaded");
+                }
+            }
+
+        });
+    }
+
+    private Map<Long, Long> loadEventsToNotification(final Long createdAfterId) {
+        Map<Long, Long> events = Maps.newHashMap();
+
+        for (Entity event : getMaintenanceEventDD().find()
+                .add(SearchRestrictions.eq(MaintenanceEventFields.SOUND_NOTIFICATIONS, true))
+                .add(SearchRestrictions.gt(L_ID, createdAfterId)).list().getEntities()) {
+            Entity factory = event.getBelongsToField(MaintenanceEventFields.FACTORY);
+
+            events.put(event.getId(), Objects.isNull(factory) ? null : factory.getId());
+        }
+
+        return events;
+    }
 
-        Entity entity = scb.setFirstResult(0).setMaxResults(1).uniqueResult();
-        if (entity.getLongField("countrows") > 0) {
-            return true;
+    private Optional<Long> getUserFactoryId(final Long userId) {
+        try {
+            return userFactories.get(userId, () -> {
+                Entity user = dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER,
+                        QcadooSecurityConstants.MODEL_USER).get(userId);
+                Entity factory = user.getBelongsToField("factory");
+
+                return Optional.ofNullable(factory).map(Entity::getId);
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
         }
-        return false;
     }
 }
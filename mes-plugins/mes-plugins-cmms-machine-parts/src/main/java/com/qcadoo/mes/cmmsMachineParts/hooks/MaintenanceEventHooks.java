@@ -28,6 +28,7 @@ import org.springframework.stereotype.Service;
 
 import com.google.common.base.Strings;
 import com.qcadoo.mes.basic.constants.StaffFields;
+import com.qcadoo.mes.cmmsMachineParts.MaintenanceEventService;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventFields;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventState;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventStateChangeDescriber;
@@ -44,6 +45,9 @@ public class MaintenanceEventHooks {
     @Autowired
     private StateChangeEntityBuilder stateChangeEntityBuilder;
 
+    @Autowired
+    private MaintenanceEventService maintenanceEventService;
+
     public void onCreate(final DataDefinition eventDD, final Entity event) {
         setInitialState(event);
     }
@@ -60,6 +64,12 @@ public class MaintenanceEventHooks {
         if (!MaintenanceEventState.NEW.getStringValue().equals(event.getStringField(MaintenanceEventFields.STATE))) {
             event.setField(MaintenanceEventFields.SOUND_NOTIFICATIONS, false);
         }
+        maintenanceEventService.updateEventToNotification(event);
+    }
+
+    public boolean onDelete(final DataDefinition eventDD, final Entity event) {
+        maintenanceEventService.removeEventToNotification(event);
+        return true;
     }
 
     private void setInitialState(final Entity event) {
@@ -2,299 +2,133 @@ package com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetRow;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetStyle;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetWriter;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MachinePartDTO;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MaintenanceEventDTO;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.StateChangeDTO;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.WorkTimeDTO;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventStateStringValues;
-import com.qcadoo.model.api.NumberService;
-import org.apache.poi.hssf.util.HSSFColor;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.xssf.usermodel.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @Service
 public class MaintenanceEventsXlsService {
 
-    private static final Pattern TIME_SEPARATOR_PATTERN = Pattern.compile(":");
+    private static final SpreadsheetStyle HEADER_STYLE = SpreadsheetStyle.DEFAULT.bold();
 
-    @Autowired
-    private TranslationService translationService;
+    private static final SpreadsheetStyle NUMBER_STYLE = SpreadsheetStyle.DEFAULT.withDataFormat("0.00###");
+
+    private static final SpreadsheetStyle DATE_TIME_STYLE = SpreadsheetStyle.DEFAULT.withDataFormat("yyyy-mm-dd hh:mm");
+
+    private static final SpreadsheetStyle TIME_STYLE = SpreadsheetStyle.DEFAULT.withDataFormat("[HH]:MM:SS");
 
     @Autowired
-    private NumberService numberService;
+    private TranslationService translationService;
 
     @Autowired
     private MaintenanceEventsXLSDataProvider dataProvider;
 
-    public void buildExcelDocument(final XSSFWorkbook xssfWorkbook, final Map<String, Object> filters, final Locale locale) {
-        XSSFSheet sheet = xssfWorkbook.createSheet(translationService.translate("cmmsMachineParts.eventsList.report.title",
-                locale));
-        fillHeaderRow(xssfWorkbook, sheet, 0, locale);
-
-        DataFormat dataFormat = xssfWorkbook.createDataFormat();
-        CellStyle numberStyle = xssfWorkbook.createCellStyle();
-        numberStyle.setDataFormat(dataFormat.getFormat("0.00###"));
-
-        CellStyle dateStyle = xssfWorkbook.createCellStyle();
-        dateStyle.setDataFormat(dataFormat.getFormat("yyyy-mm-dd"));
-
-        CellStyle dateTimeStyle = xssfWorkbook.createCellStyle();
-        dateTimeStyle.setDataFormat(dataFormat.getFormat("yyyy-mm-dd hh:mm"));
-
-        CellStyle timeStyle = xssfWorkbook.createCellStyle();
-        timeStyle.setDataFormat(dataFormat.getFormat("[HH]:MM:SS"));
-
-        List<MaintenanceEventDTO> events = dataProvider.getEvents(filters);
-        int rowCounter = 1;
-        for (MaintenanceEventDTO maintenanceEventDTO : events) {
-            rowCounter = fillEventsRows(xssfWorkbook, sheet, maintenanceEventDTO, rowCounter, numberStyle, dateStyle,
-                    dateTimeStyle, timeStyle, locale);
-        }
+    public void buildExcelDocument(final SpreadsheetWriter writer, final Map<String, Object> filters, final Locale locale) {
+        writer.createSheet(translationService.translate("cmmsMachineParts.eventsList.report.title", locale));
+        fillHeaderRow(writer, locale);
 
+        dataProvider.processEvents(filters, event -> fillEventsRows(writer, event, locale));
     }
 
-    private int fillEventsRows(XSSFWorkbook xssfWorkbook, XSSFSheet sheet, MaintenanceEventDTO event, int rowCounter,
-            CellStyle numberStyle, CellStyle dateStyle, CellStyle dateTimeStyle, CellStyle timeStyle, Locale locale) {
-        int rowCounterCopy = rowCounter;
-        int partsCounter = rowCounterCopy;
-        int realizationsCounter = rowCounterCopy;
-
-        XSSFFont font = xssfWorkbook.createFont();
-        font.setFontHeightInPoints((short) 10);
-        font.setFontName("ARIAL");
-        font.setItalic(false);
-        font.setBold(false);
-        font.setBoldweight(Font.BOLDWEIGHT_NORMAL);
-
-        font.setColor(HSSFColor.BLACK.index);
-
-        XSSFRow eventLine = sheet.createRow(rowCounterCopy);
-
-        XSSFCell number = eventLine.createCell(MaintenanceEventsElementsReportEnum.NUMBER.getPosition());
-        number.setCellValue(event.getNumber());
-        number.getCellStyle().setFont(font);
-
-        XSSFCell type = eventLine.createCell(MaintenanceEventsElementsReportEnum.TYPE.getPosition());
-        type.setCellValue(XlsDataType.getValue(translationService, locale, event.getType()));
-
-        XSSFCell factoryNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.FACTORY_NUMBER.getPosition());
-        factoryNumber.setCellValue(event.getFactoryNumber());
-
-        XSSFCell divisionNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.DIVISION_NUMBER.getPosition());
-        divisionNumber.setCellValue(event.getDivisionNumber());
-
-        XSSFCell productionLineNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.PRODUCTION_LINE_NUMBER
-                .getPosition());
-        productionLineNumber.setCellValue(event.getProductionLineNumber());
-
-        XSSFCell workstationNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.WORKSTATION_NUMBER.getPosition());
-        workstationNumber.setCellValue(event.getWorkstationNumber());
-
-        XSSFCell subassemblyNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.SUNASSEMBY_NUMBER.getPosition());
-        subassemblyNumber.setCellValue(event.getSubassemblyNumber());
-
-        XSSFCell faultTypeName = eventLine.createCell(MaintenanceEventsElementsReportEnum.FAULT_TYPE_NAME.getPosition());
-        faultTypeName.setCellValue(event.getFaultTypeName());
-
-        XSSFCell description = eventLine.createCell(MaintenanceEventsElementsReportEnum.DESCRIPTION.getPosition());
-        description.setCellValue(event.getDescription());
+    private void fillEventsRows(final SpreadsheetWriter writer, final MaintenanceEventDTO event, final Locale locale) {
+        int rowsToAdd = Math.max(event.subListSize(), 1);
 
-        XSSFCell personReceiving = eventLine.createCell(MaintenanceEventsElementsReportEnum.PERSON_RECEIVING.getPosition());
-        personReceiving.setCellValue(event.getPersonReceiving());
+        for (int i = 0; i < rowsToAdd; i++) {
+            SpreadsheetRow eventLine = writer.createRow();
 
-        XSSFCell sourceCost = eventLine.createCell(MaintenanceEventsElementsReportEnum.SOURCE_COST.getPosition());
-        sourceCost.setCellValue(event.getSourceCost());
+            eventLine.setValue(MaintenanceEventsElementsReportEnum.NUMBER.getPosition(), event.getNumber());
 
-        int rowsToAdd = event.subListSize();
-        if (rowsToAdd > 0) {
-            for (int i = 1; i < rowsToAdd; i++) {
-                int r = rowCounterCopy + i;
-                XSSFRow subEventLine = sheet.createRow(r);
-                XSSFCell subnumber = subEventLine.createCell(MaintenanceEventsElementsReportEnum.NUMBER.getPosition());
-                subnumber.setCellValue(event.getNumber());
+            if (i == 0) {
+                fillEventCells(eventLine, event, locale);
             }
-        }
-
-        boolean first = true;
-        if (rowsToAdd > 0) {
-            for (WorkTimeDTO workTime : event.getWorkTimes()) {
-
-                if (first) {
-                    XSSFCell staffWorkTimeWorker = eventLine
-                            .createCell(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_WORKER.getPosition());
-                    staffWorkTimeWorker.setCellValue(workTime.getStaffWorkTimeWorker());
-
-                    XSSFCell staffWorkTimeLaborTime = eventLine
-                            .createCell(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_LABOR_TIME.getPosition());
-                    if (workTime.getStaffWorkTimeLaborTime() != null) {
-                        staffWorkTimeLaborTime.setCellStyle(timeStyle);
-                        staffWorkTimeLaborTime.setCellValue(convertTimeInternal(XlsDataType.getValue(workTime
-                                .getStaffWorkTimeLaborTime())));
-                        staffWorkTimeLaborTime.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    }
-                    first = false;
-
-                } else {
-                    realizationsCounter++;
-                    XSSFRow subEventLine = sheet.getRow(realizationsCounter);
-
-                    XSSFCell staffWorkTimeWorker = subEventLine
-                            .createCell(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_WORKER.getPosition());
-                    staffWorkTimeWorker.setCellValue(workTime.getStaffWorkTimeWorker());
-
-                    XSSFCell staffWorkTimeLaborTime = subEventLine
-                            .createCell(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_LABOR_TIME.getPosition());
-                    if (workTime.getStaffWorkTimeLaborTime() != null) {
-
-                        staffWorkTimeLaborTime.setCellStyle(timeStyle);
-                        staffWorkTimeLaborTime.setCellValue(convertTimeInternal(XlsDataType.getValue(workTime
-                                .getStaffWorkTimeLaborTime())));
-                        staffWorkTimeLaborTime.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    }
-                }
+            if (i < event.getWorkTimes().size()) {
+                fillWorkTimeCells(eventLine, event.getWorkTimes().get(i));
             }
-
-            first = true;
-            for (MachinePartDTO part : event.getMachineParts()) {
-                if (first) {
-                    XSSFCell partNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.PART_NUMBER.getPosition());
-                    partNumber.setCellValue(part.getPartNumber());
-
-                    XSSFCell partName = eventLine.createCell(MaintenanceEventsElementsReportEnum.PART_NAME.getPosition());
-                    partName.setCellValue(part.getPartName());
-
-                    XSSFCell warehouseNumber = eventLine.createCell(MaintenanceEventsElementsReportEnum.WAREHOUSE_NUMBER
-                            .getPosition());
-                    warehouseNumber.setCellValue(part.getWarehouseNumber());
-
-                    XSSFCell partPlannedQuantity = eventLine.createCell(MaintenanceEventsElementsReportEnum.PART_PLANNED_QUANTITY
-                            .getPosition());
-                    partPlannedQuantity.setCellStyle(numberStyle);
-                    partPlannedQuantity.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    if (part.getPartPlannedQuantity() != null) {
-                        partPlannedQuantity.setCellValue(part.getPartPlannedQuantity().setScale(5).doubleValue());
-                    }
-                    XSSFCell partUnit = eventLine.createCell(MaintenanceEventsElementsReportEnum.PART_UNIT.getPosition());
-                    partUnit.setCellValue(part.getPartUnit());
-
-                    XSSFCell value = eventLine.createCell(MaintenanceEventsElementsReportEnum.VALUE.getPosition());
-                    value.setCellStyle(numberStyle);
-                    value.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    if (part.getValue() != null) {
-                        value.setCellValue(part.getValue().setScale(5).doubleValue());
-                    }
-                    first = false;
-
-                } else {
-                    partsCounter++;
-                    XSSFRow subEventLine = sheet.getRow(partsCounter);
-
-                    XSSFCell partNumber = subEventLine.createCell(MaintenanceEventsElementsReportEnum.PART_NUMBER.getPosition());
-                    partNumber.setCellValue(part.getPartNumber());
-
-                    XSSFCell partName = subEventLine.createCell(MaintenanceEventsElementsReportEnum.PART_NAME.getPosition());
-                    partName.setCellValue(part.getPartName());
-
-                    XSSFCell warehouseNumber = subEventLine.createCell(MaintenanceEventsElementsReportEnum.WAREHOUSE_NUMBER
-                            .getPosition());
-                    warehouseNumber.setCellValue(part.getWarehouseNumber());
-
-                    XSSFCell partPlannedQuantity = subEventLine
-                            .createCell(MaintenanceEventsElementsReportEnum.PART_PLANNED_QUANTITY.getPosition());
-                    partPlannedQuantity.setCellStyle(numberStyle);
-                    partPlannedQuantity.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    if (part.getPartPlannedQuantity() != null) {
-                        partPlannedQuantity.setCellValue(part.getPartPlannedQuantity().setScale(5).doubleValue());
-                    }
-                    XSSFCell partUnit = subEventLine.createCell(MaintenanceEventsElementsReportEnum.PART_UNIT.getPosition());
-                    partUnit.setCellValue(part.getPartUnit());
-
-                    XSSFCell value = subEventLine.createCell(MaintenanceEventsElementsReportEnum.VALUE.getPosition());
-                    value.setCellStyle(numberStyle);
-                    value.setCellType(Cell.CELL_TYPE_NUMERIC);
-                    if (part.getValue() != null) {
-                        value.setCellValue(part.getValue().setScale(5).doubleValue());
-                    }
-                }
+            if (i < event.getMachineParts().size()) {
+                fillPartCells(eventLine, event.getMachineParts().get(i));
             }
         }
+    }
 
-        fillStateChanges(event, eventLine, dateStyle, dateTimeStyle, locale);
+    private void fillEventCells(final SpreadsheetRow eventLine, final MaintenanceEventDTO event, final Locale locale) {
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.TYPE.getPosition(),
+                XlsDataType.getValue(translationService, locale, event.getType()));
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.FACTORY_NUMBER.getPosition(), event.getFactoryNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DIVISION_NUMBER.getPosition(), event.getDivisionNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PRODUCTION_LINE_NUMBER.getPosition(),
+                event.getProductionLineNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.WORKSTATION_NUMBER.getPosition(), event.getWorkstationNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.SUNASSEMBY_NUMBER.getPosition(), event.getSubassemblyNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.FAULT_TYPE_NAME.getPosition(), event.getFaultTypeName());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DESCRIPTION.getPosition(), event.getDescription());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PERSON_RECEIVING.getPosition(), event.getPersonReceiving());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.SOURCE_COST.getPosition(), event.getSourceCost());
+
+        fillStateChanges(event, eventLine, locale);
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.SOLUTION_DESCRIPTION.getPosition(),
+                event.getSolutionDescription());
+    }
 
-        XSSFCell solutionDescription = eventLine.createCell(MaintenanceEventsElementsReportEnum.SOLUTION_DESCRIPTION
-                .getPosition());
-        solutionDescription.setCellValue(event.getSolutionDescription());
+    private void fillWorkTimeCells(final SpreadsheetRow eventLine, final WorkTimeDTO workTime) {
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_WORKER.getPosition(),
+                workTime.getStaffWorkTimeWorker());
 
-        if (rowsToAdd > 1) {
-            return rowCounter + rowsToAdd;
+        if (workTime.getStaffWorkTimeLaborTime() != null) {
+            eventLine.setValue(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_LABOR_TIME.getPosition(),
+                    Duration.ofSeconds(workTime.getStaffWorkTimeLaborTime()), TIME_STYLE);
         } else {
-            return rowCounter + 1;
+            eventLine.setValue(MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_LABOR_TIME.getPosition(), null);
         }
-
     }
 
-    private void fillStateChanges(MaintenanceEventDTO event, XSSFRow eventLine, CellStyle dateStyle, CellStyle dateTimeStyle,
-            Locale locale) {
-
-        XSSFCell createDate = eventLine.createCell(MaintenanceEventsElementsReportEnum.CREATE_DATE.getPosition());
-        if (event.getCreateDate() != null) {
-            createDate.setCellValue(event.getCreateDate());
-            createDate.setCellStyle(dateTimeStyle);
-        }
-        XSSFCell createUser = eventLine.createCell(MaintenanceEventsElementsReportEnum.CREATE_USER.getPosition());
-        createUser.setCellValue(event.getCreateUser());
-
-        XSSFCell dateBoot = eventLine.createCell(MaintenanceEventsElementsReportEnum.DATE_BOOT.getPosition());
-        dateBoot.setCellStyle(dateTimeStyle);
-        Date _dateBoot = getDateForState(MaintenanceEventStateStringValues.IN_PROGRESS, event.getStateChange());
-        if (_dateBoot != null) {
-            dateBoot.setCellValue(_dateBoot);
-        }
-        XSSFCell dateBootUser = eventLine.createCell(MaintenanceEventsElementsReportEnum.DATE_BOOT_USER.getPosition());
-        dateBootUser.setCellValue(getWorkerForState(MaintenanceEventStateStringValues.IN_PROGRESS, event.getStateChange()));
-
-        XSSFCell dateApplication = eventLine.createCell(MaintenanceEventsElementsReportEnum.DATE_APPLICATION.getPosition());
-        dateApplication.setCellStyle(dateTimeStyle);
-
-        Date _dateApplication = getDateForState(MaintenanceEventStateStringValues.EDITED, event.getStateChange());
-        if (_dateApplication != null) {
-            dateApplication.setCellValue(_dateApplication);
-        }
-        XSSFCell dateApplicationUser = eventLine.createCell(MaintenanceEventsElementsReportEnum.DATE_APPLICATION_USER
-                .getPosition());
-        dateApplicationUser.setCellValue(getWorkerForState(MaintenanceEventStateStringValues.EDITED, event.getStateChange()));
-
-        XSSFCell dateAcceptance = eventLine.createCell(MaintenanceEventsElementsReportEnum.DATE_ACCEPTANCE.getPosition());
-        dateAcceptance.setCellStyle(dateTimeStyle);
-        Date _dateAcceptance = getDateForState(MaintenanceEventStateStringValues.ACCEPTED, event.getStateChange());
-        if (_dateAcceptance != null) {
-            dateAcceptance.setCellValue(_dateAcceptance);
-        }
-        XSSFCell dateAcceptanceUser = eventLine
-                .createCell(MaintenanceEventsElementsReportEnum.DATE_ACCEPTANCE_USER.getPosition());
-        dateAcceptanceUser.setCellValue(getWorkerForState(MaintenanceEventStateStringValues.ACCEPTED, event.getStateChange()));
-
-        XSSFCell endDate = eventLine.createCell(MaintenanceEventsElementsReportEnum.END_DATE.getPosition());
-        endDate.setCellStyle(dateTimeStyle);
-
-        Date _endDate = getDateForState(MaintenanceEventStateStringValues.CLOSED, event.getStateChange());
-        if (_endDate != null) {
-            endDate.setCellValue(_endDate);
-        }
-        XSSFCell endDateUser = eventLine.createCell(MaintenanceEventsElementsReportEnum.END_DATE_USER.getPosition());
-
-        endDateUser.setCellValue(getWorkerForState(MaintenanceEventStateStringValues.CLOSED, event.getStateChange()));
+    private void fillPartCells(final SpreadsheetRow eventLine, final MachinePartDTO part) {
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PART_NUMBER.getPosition(), part.getPartNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PART_NAME.getPosition(), part.getPartName());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.WAREHOUSE_NUMBER.getPosition(), part.getWarehouseNumber());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PART_PLANNED_QUANTITY.getPosition(),
+                part.getPartPlannedQuantity(), NUMBER_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.PART_UNIT.getPosition(), part.getPartUnit());
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.VALUE.getPosition(), part.getValue(), NUMBER_STYLE);
+    }
 
-        XSSFCell state = eventLine.createCell(MaintenanceEventsElementsReportEnum.STATE.getPosition());
-        state.setCellValue(XlsDataType.getValue(translationService, locale, event.getState()));
+    private void fillStateChanges(final MaintenanceEventDTO event, final SpreadsheetRow eventLine, final Locale locale) {
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.CREATE_DATE.getPosition(), event.getCreateDate(),
+                DATE_TIME_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.CREATE_USER.getPosition(), event.getCreateUser());
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_BOOT.getPosition(),
+                getDateForState(MaintenanceEventStateStringValues.IN_PROGRESS, event.getStateChange()), DATE_TIME_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_BOOT_USER.getPosition(),
+                getWorkerForState(MaintenanceEventStateStringValues.IN_PROGRESS, event.getStateChange()));
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_APPLICATION.getPosition(),
+                getDateForState(MaintenanceEventStateStringValues.EDITED, event.getStateChange()), DATE_TIME_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_APPLICATION_USER.getPosition(),
+                getWorkerForState(MaintenanceEventStateStringValues.EDITED, event.getStateChange()));
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_ACCEPTANCE.getPosition(),
+                getDateForState(MaintenanceEventStateStringValues.ACCEPTED, event.getStateChange()), DATE_TIME_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.DATE_ACCEPTANCE_USER.getPosition(),
+                getWorkerForState(MaintenanceEventStateStringValues.ACCEPTED, event.getStateChange()));
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.END_DATE.getPosition(),
+                getDateForState(MaintenanceEventStateStringValues.CLOSED, event.getStateChange()), DATE_TIME_STYLE);
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.END_DATE_USER.getPosition(),
+                getWorkerForState(MaintenanceEventStateStringValues.CLOSED, event.getStateChange()));
+
+        eventLine.setValue(MaintenanceEventsElementsReportEnum.STATE.getPosition(),
+                XlsDataType.getValue(translationService, locale, event.getState()));
     }
 
     private Date getDateForState(final String state, final List<StateChangeDTO> states) {
@@ -315,41 +149,11 @@ public class MaintenanceEventsXlsService {
         return "";
     }
 
-    private void fillHeaderRow(XSSFWorkbook xssfWorkbook, XSSFSheet sheet, Integer rowNum, Locale locale) {
-        XSSFRow headerLine = sheet.createRow(rowNum);
-
-        XSSFFont font = xssfWorkbook.createFont();
-        font.setFontHeightInPoints((short) 10);
-        font.setFontName("ARIAL");
-        font.setItalic(false);
-        font.setBold(true);
-        font.setBoldweight(Font.BOLDWEIGHT_BOLD);
-
-        font.setColor(HSSFColor.BLACK.index);
-        XSSFCellStyle style = xssfWorkbook.createCellStyle();
-        style.setFont(font);
+    private void fillHeaderRow(final SpreadsheetWriter writer, final Locale locale) {
+        SpreadsheetRow headerLine = writer.createRow();
 
         Lists.newArrayList(MaintenanceEventsElementsReportEnum.values()).forEach(
-                e -> createHeaderCell(e, headerLine, style, locale));
+                e -> headerLine.setValue(e.getPosition(), e.getLabel(translationService, locale), HEADER_STYLE));
     }
 
-    private void createHeaderCell(MaintenanceEventsElementsReportEnum e, XSSFRow headerLine, XSSFCellStyle style, Locale locale) {
-        XSSFCell headerCell = headerLine.createCell(e.getPosition());
-        headerCell.setCellValue(e.getLabel(translationService, locale));
-        headerCell.setCellStyle(style);
-    }
-
-    private double convertTimeInternal(String timeStr) {
-        int len = timeStr.length();
-        String[] parts = TIME_SEPARATOR_PATTERN.split(timeStr);
-        String secStr = parts[2];
-
-        String hourStr = parts[0];
-        String minStr = parts[1];
-        int hours = Integer.parseInt(hourStr);
-        int minutes = Integer.parseInt(minStr);
-        int seconds = Integer.parseInt(secStr);
-        double totalSeconds = (double) (seconds + (minutes + hours * 60) * 60);
-        return totalSeconds / 86400.0D;
-    }
 }
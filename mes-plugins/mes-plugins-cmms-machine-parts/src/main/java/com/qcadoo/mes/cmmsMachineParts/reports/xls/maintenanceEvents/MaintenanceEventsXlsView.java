@@ -1,25 +1,22 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents;
 
-import com.qcadoo.report.api.xls.abstractview.AbstractXLSXView;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.qcadoo.mes.basic.print.spreadsheet.AbstractSpreadsheetView;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetWriter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Component;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
+import java.util.Locale;
 import java.util.Map;
 
 @Component
-public class MaintenanceEventsXlsView extends AbstractXLSXView {
+public class MaintenanceEventsXlsView extends AbstractSpreadsheetView {
 
     @Autowired
     private MaintenanceEventsXlsService maintenanceEventsXlsService;
 
     @Override
-    protected void buildExcelDocument(Map<String, Object> filters, XSSFWorkbook xssfWorkbook, HttpServletRequest request,
-            HttpServletResponse response){
-        maintenanceEventsXlsService.buildExcelDocument(xssfWorkbook, filters, LocaleContextHolder.getLocale());
+    protected void buildDocument(final Map<String, Object> filters, final SpreadsheetWriter writer, final Locale locale) {
+        maintenanceEventsXlsService.buildExcelDocument(writer, filters, locale);
     }
 
 }
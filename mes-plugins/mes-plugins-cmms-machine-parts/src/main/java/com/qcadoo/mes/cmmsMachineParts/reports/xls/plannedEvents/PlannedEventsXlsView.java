@@ -1,25 +1,22 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents;
 
-import com.qcadoo.report.api.xls.abstractview.AbstractXLSXView;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.qcadoo.mes.basic.print.spreadsheet.AbstractSpreadsheetView;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetWriter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Component;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
+import java.util.Locale;
 import java.util.Map;
 
 @Component
-public class PlannedEventsXlsView  extends AbstractXLSXView {
+public class PlannedEventsXlsView  extends AbstractSpreadsheetView {
 
     @Autowired
     private PlannedEventsXlsService plannedEventsXlsService;
 
-    @Override protected void buildExcelDocument(Map<String, Object> filters, XSSFWorkbook xssfWorkbook,
-            HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse){
-        XSSFSheet sheet = xssfWorkbook.createSheet( plannedEventsXlsService.getReportTitle(LocaleContextHolder.getLocale()));
-        plannedEventsXlsService.buildExcelContent(xssfWorkbook, sheet,filters, LocaleContextHolder.getLocale());
+    @Override
+    protected void buildDocument(final Map<String, Object> filters, final SpreadsheetWriter writer, final Locale locale) {
+        writer.createSheet(plannedEventsXlsService.getReportTitle(locale));
+        plannedEventsXlsService.buildExcelContent(writer, filters, locale);
     }
 }
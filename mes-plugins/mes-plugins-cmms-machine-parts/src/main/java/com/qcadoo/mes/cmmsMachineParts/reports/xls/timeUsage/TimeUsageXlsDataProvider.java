@@ -1,22 +1,26 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.timeUsage;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.print.spreadsheet.StreamingQueryService;
 import com.qcadoo.mes.cmmsMachineParts.constants.TimeUsageReportFilterFields;
-import com.qcadoo.mes.cmmsMachineParts.reports.xls.timeUsage.dto.TimeUsageDTO;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.timeUsage.dto.TimeUsageGroupDTO;
 
 @Service
 public class TimeUsageXlsDataProvider {
 
+    private final static String ORDER_BY = " ORDER BY worker, startdate";
+
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private StreamingQueryService streamingQueryService;
 
     private final static String plannedEventQuery = "SELECT staff.surname || ' ' || staff.name AS worker, staff.id AS worker_id, 'planned' AS event_type,\n"
             + "realization.startdate,\n"
@@ -60,9 +64,13 @@ public class TimeUsageXlsDataProvider {
             + "LEFT JOIN basic_division division ON event.division_id=division.id\n"
             + "LEFT JOIN basic_factory factory ON event.factory_id=factory.id\n";
 
-    public List<TimeUsageDTO> getUsages(Map<String, Object> filters) {
-        String query = prepareQuery(filters, plannedEventQuery, maintenanceEventQuery);
-        return jdbcTemplate.query(query, filters, new TimeUsageRowMapper());
+    public void processUsageGroups(final Map<String, Object> filters, final Consumer<TimeUsageGroupDTO> groupConsumer) {
+        String query = prepareQuery(filters, plannedEventQuery, maintenanceEventQuery) + ORDER_BY;
+
+        streamingQueryService.queryGrouped(query, filters, new TimeUsageRowMapper(),
+                usage -> Arrays.asList(usage.getWorker(), usage.getStartDate()),
+                usages -> groupConsumer.accept(new TimeUsageGroupDTO(usages.get(0).getStartDate(), usages.get(0).getWorker(),
+                        usages)));
     }
 
     private String prepareQuery(Map<String, Object> filters, String plannedEventQueryPart, String maintenanceEventQueryPart) {
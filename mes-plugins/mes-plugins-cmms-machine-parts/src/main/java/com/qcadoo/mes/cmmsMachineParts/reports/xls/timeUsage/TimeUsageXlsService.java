@@ -2,27 +2,19 @@ package com.qcadoo.mes.cmmsMachineParts.reports.xls.timeUsage;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFFont;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.IndexedColors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetRow;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetStyle;
+import com.qcadoo.mes.basic.print.spreadsheet.SpreadsheetWriter;
 import com.qcadoo.mes.cmmsMachineParts.constants.PlannedEventFields;
 import com.qcadoo.mes.cmmsMachineParts.constants.PlannedEventType;
 import com.qcadoo.mes.cmmsMachineParts.plannedEvents.factory.EventFieldsForTypeFactory;
@@ -36,6 +28,12 @@ import com.qcadoo.security.constants.QcadooSecurityConstants;
 
 @Service public class TimeUsageXlsService {
 
+    private static final SpreadsheetStyle TITLE_STYLE = SpreadsheetStyle.DEFAULT.bold();
+
+    private static final SpreadsheetStyle HEADER_STYLE = SpreadsheetStyle.DEFAULT.withBorders()
+            .withFillColor(IndexedColors.GREY_25_PERCENT.getIndex()).wrapText().withAlignment(CellStyle.ALIGN_CENTER)
+            .verticalCenter();
+
     @Autowired private TranslationService translationService;
 
     @Autowired
@@ -50,29 +48,24 @@ import com.qcadoo.security.constants.QcadooSecurityConstants;
     @Autowired
     private EventFieldsForTypeFactory fieldsForTypeFactory;
 
-    private ReportStyleFactory reportStyleFactory;
-
     public String getReportTitle(final Locale locale) {
         return translationService.translate(TimeUsageXlsConstants.REPORT_TITLE, locale);
     }
 
-    public void buildExcelContent(final HSSFWorkbook workbook, final HSSFSheet sheet, Map<String, Object> filters,
-            final Locale locale) {
-        reportStyleFactory = new ReportStyleFactory(workbook);
-        List<TimeUsageDTO> usages = timeUsageXLSDataProvider.getUsages((Map<String, Object>) filters.get("filtersMap"));
-        updatePartsAndDescription(usages, locale);
-        fillHeaderData(workbook, sheet, 0, locale, (Map<String, Object>) filters.get("filtersMap"));
-        fillHeaderRow(workbook, sheet, 4, locale);
-        List<TimeUsageGroupDTO> timeUsageGroups = group(usages);
-        int rowCounter = 5;
-        for (TimeUsageGroupDTO timeUsageGroupDTO : timeUsageGroups) {
-            rowCounter = fillTimeUsageRows(workbook, sheet, timeUsageGroupDTO, rowCounter++, locale);
-        }
-        setColumnsWidths(sheet);
+    public void buildExcelContent(final SpreadsheetWriter writer, Map<String, Object> filters, final Locale locale) {
+        fillHeaderData(writer, locale, (Map<String, Object>) filters.get("filtersMap"));
+        writer.skipRows(1);
+        fillHeaderRow(writer, locale);
+        setColumnsWidths(writer);
+
+        timeUsageXLSDataProvider.processUsageGroups((Map<String, Object>) filters.get("filtersMap"), timeUsageGroup -> {
+            updatePartsAndDescription(timeUsageGroup, locale);
+            fillTimeUsageRows(writer, timeUsageGroup, locale);
+        });
     }
 
-    private void updatePartsAndDescription(List<TimeUsageDTO> usages, Locale locale) {
-        for (TimeUsageDTO usage : usages) {
+    private void updatePartsAndDescription(TimeUsageGroupDTO timeUsageGroup, Locale locale) {
+        for (TimeUsageDTO usage : timeUsageGroup.getTimeUsages()) {
             if ("planned".equals(usage.getEventType())) {
                 PlannedEventType type = PlannedEventType.parseString(usage.getType());
                 FieldsForType fields = fieldsForTypeFactory.createFieldsForType(type);
@@ -88,78 +81,40 @@ import com.qcadoo.security.constants.QcadooSecurityConstants;
         }
     }
 
-    private void setColumnsWidths(HSSFSheet sheet) {
-        sheet.setColumnWidth(0, 5000);
-        sheet.setColumnWidth(1, 3500);
-        sheet.setColumnWidth(2, 3500);
-        sheet.setColumnWidth(3, 4000);
-        sheet.setColumnWidth(4, 4000);
-        sheet.setColumnWidth(5, 2500);
-        sheet.setColumnWidth(6, 5000);
-        sheet.setColumnWidth(7, 5000);
-        sheet.setColumnWidth(8, 4000);
-        sheet.setColumnWidth(9, 4000);
-        sheet.setColumnWidth(10, 4500);
-        sheet.setColumnWidth(11, 5000);
-    }
-
-    private List<TimeUsageGroupDTO> group(List<TimeUsageDTO> usages) {
-        List<TimeUsageGroupDTO> groups = Lists.newLinkedList();
-        Map<String, List<TimeUsageDTO>> workerMap = usages.stream().collect(Collectors.groupingBy(TimeUsageDTO::getWorker));
-        for (Entry<String, List<TimeUsageDTO>> entry : workerMap.entrySet()) {
-            Map<Date, List<TimeUsageDTO>> dateMap = entry.getValue().stream()
-                    .collect(Collectors.groupingBy(TimeUsageDTO::getStartDate));
-            for (Date date : dateMap.keySet()) {
-                TimeUsageGroupDTO timeUsageGroup = new TimeUsageGroupDTO(date, entry.getKey(), dateMap.get(date));
-                groups.add(timeUsageGroup);
-            }
-        }
-        return groups.stream().sorted((g1, g2) -> {
-            if (g1.getWorker().equals(g2.getWorker())) {
-                return g1.getDate().compareTo(g2.getDate());
-            } else {
-                return g1.getWorker().compareTo(g2.getWorker());
-            }
-        }).collect(Collectors.toList());
-    }
-
-    private void fillHeaderData(final HSSFWorkbook workbook, final HSSFSheet sheet, Integer rowNum, final Locale locale,
-            Map<String, Object> filters) {
-        Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
-        font.setFontHeightInPoints((short) 10);
-        font.setBoldweight(Font.BOLDWEIGHT_BOLD);
-        HSSFCellStyle style = workbook.createCellStyle();
-        style.setFont(font);
-
-        HSSFRow titleRow = sheet.createRow(0);
-        HSSFCell titleCell = titleRow.createCell(0);
-        titleCell.setCellValue(translationService.translate("cmmsMachineParts.timeUsageReport.report.title", locale));
-        titleCell.setCellStyle(style);
-
-        HSSFRow datesRow = sheet.createRow(1);
-        HSSFCell startingFromLabelCell = datesRow.createCell(0);
-        startingFromLabelCell.setCellValue(translationService.translate("cmmsMachineParts.timeUsageReport.report.startingFrom",
-                locale));
-        startingFromLabelCell.setCellStyle(style);
+    private void setColumnsWidths(SpreadsheetWriter writer) {
+        writer.setColumnWidth(0, 5000);
+        writer.setColumnWidth(1, 3500);
+        writer.setColumnWidth(2, 3500);
+        writer.setColumnWidth(3, 4000);
+        writer.setColumnWidth(4, 4000);
+        writer.setColumnWidth(5, 2500);
+        writer.setColumnWidth(6, 5000);
+        writer.setColumnWidth(7, 5000);
+        writer.setColumnWidth(8, 4000);
+        writer.setColumnWidth(9, 4000);
+        writer.setColumnWidth(10, 4500);
+        writer.setColumnWidth(11, 5000);
+    }
+
+    private void fillHeaderData(final SpreadsheetWriter writer, final Locale locale, Map<String, Object> filters) {
+        SpreadsheetRow titleRow = writer.createRow();
+        titleRow.setValue(0, translationService.translate("cmmsMachineParts.timeUsageReport.report.title", locale), TITLE_STYLE);
+
+        SpreadsheetRow datesRow = writer.createRow();
+        datesRow.setValue(0, translationService.translate("cmmsMachineParts.timeUsageReport.report.startingFrom", locale),
+                TITLE_STYLE);
         if (filters.containsKey("fromDate")) {
-            HSSFCell startingFromCell = datesRow.createCell(1);
-            startingFromCell.setCellValue(getDateOnly((Date) filters.get("fromDate")));
+            datesRow.setValue(1, getDateOnly((Date) filters.get("fromDate")));
         }
-        HSSFCell toLabelCell = datesRow.createCell(2);
-        toLabelCell.setCellValue(translationService.translate("cmmsMachineParts.timeUsageReport.report.to", locale));
-        toLabelCell.setCellStyle(style);
+        datesRow.setValue(2, translationService.translate("cmmsMachineParts.timeUsageReport.report.to", locale), TITLE_STYLE);
         if (filters.containsKey("toDate")) {
-            HSSFCell toCell = datesRow.createCell(3);
-            toCell.setCellValue(getDateOnly((Date) filters.get("toDate")));
+            datesRow.setValue(3, getDateOnly((Date) filters.get("toDate")));
         }
 
-        HSSFRow authorRow = sheet.createRow(2);
-        HSSFCell authorLabelCell = authorRow.createCell(0);
-        authorLabelCell.setCellValue(translationService.translate("cmmsMachineParts.timeUsageReport.report.generatedBy", locale));
-        authorLabelCell.setCellStyle(style);
-        HSSFCell authorCell = authorRow.createCell(1);
-        authorCell.setCellValue(getUserString());
+        SpreadsheetRow authorRow = writer.createRow();
+        authorRow.setValue(0, translationService.translate("cmmsMachineParts.timeUsageReport.report.generatedBy", locale),
+                TITLE_STYLE);
+        authorRow.setValue(1, getUserString());
     }
 
     private String getUserString() {
@@ -174,114 +129,63 @@ import com.qcadoo.security.constants.QcadooSecurityConstants;
         return builder.toString();
     }
 
-    private void fillHeaderRow(final HSSFWorkbook workbook, final HSSFSheet sheet, Integer rowNum, final Locale locale) {
-        HSSFRow headerLine = sheet.createRow(rowNum);
+    private void fillHeaderRow(final SpreadsheetWriter writer, final Locale locale) {
+        SpreadsheetRow headerLine = writer.createRow();
         headerLine.setHeight((short) 800);
-        Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
-        font.setFontHeightInPoints((short) 10);
-        font.setBoldweight(Font.BOLDWEIGHT_NORMAL);
-        HSSFCellStyle style = workbook.createCellStyle();
-        style.setFont(font);
-        style.setBorderBottom(HSSFCellStyle.BORDER_THIN);
-        style.setBorderTop(HSSFCellStyle.BORDER_THIN);
-        style.setBorderLeft(HSSFCellStyle.BORDER_THIN);
-        style.setBorderRight(HSSFCellStyle.BORDER_THIN);
-        style.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-        style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        style.setWrapText(true);
-        style.setAlignment(HSSFCellStyle.ALIGN_CENTER);
-        style.setVerticalAlignment(HSSFCellStyle.VERTICAL_CENTER);
 
         int colNumber = 0;
         for (String column : TimeUsageXlsConstants.ALL_COLUMNS) {
-            HSSFCell headerCell = headerLine.createCell(colNumber);
-            headerCell.setCellValue(translationService.translate(column, locale));
-            headerCell.setCellStyle(style);
+            headerLine.setValue(colNumber, translationService.translate(column, locale), HEADER_STYLE);
             colNumber++;
         }
     }
 
-    private int fillTimeUsageRows(final HSSFWorkbook workbook, final HSSFSheet sheet, final TimeUsageGroupDTO timeUsage,
-            int rowCounter, final Locale locale) {
-        Font font = workbook.createFont();
-        font.setFontName(HSSFFont.FONT_ARIAL);
-        font.setFontHeightInPoints((short) 10);
-        font.setBoldweight(Font.BOLDWEIGHT_NORMAL);
-
-        int usagesCounter = 0;
+    private void fillTimeUsageRows(final SpreadsheetWriter writer, final TimeUsageGroupDTO timeUsage, final Locale locale) {
+        boolean isFirst = true;
 
         for (TimeUsageDTO usage : timeUsage.getTimeUsages()) {
-            HSSFRow usageRow = sheet.createRow(rowCounter + usagesCounter);
-            boolean isFirst = usagesCounter == 0;
-            HSSFCellStyle style = getLeftAlignedStyle(workbook, isFirst, usage);
-            HSSFCellStyle styleRight = getRightAlignedStyle(workbook, isFirst, usage);
+            SpreadsheetRow usageRow = writer.createRow();
+            SpreadsheetStyle style = getStyle(isFirst, usage, CellStyle.ALIGN_LEFT);
+            SpreadsheetStyle styleRight = getStyle(isFirst, usage, CellStyle.ALIGN_RIGHT);
             addNewRow(usageRow, usage, locale, style, styleRight);
             if (isFirst) {
-                addNewCell(usageRow, timeUsage.getDurationSum().toString(), 10, styleRight, true);
-                addNewCell(usageRow, timeUsage.getRegisteredTimeSum().toString(), 11, styleRight, true);
+                usageRow.setValue(10, timeUsage.getDurationSum(), styleRight);
+                usageRow.setValue(11, timeUsage.getRegisteredTimeSum(), styleRight);
             } else {
-                addNewCell(usageRow, "", 10, styleRight, false);
-                addNewCell(usageRow, "", 11, styleRight, false);
+                usageRow.setValue(10, "", styleRight);
+                usageRow.setValue(11, "", styleRight);
             }
-            ++usagesCounter;
-        }
-
-        return rowCounter + usagesCounter;
-    }
-
-    private void addNewRow(HSSFRow usageRow, TimeUsageDTO timeUsage, Locale locale, HSSFCellStyle style,
-            HSSFCellStyle styleAlignRight) {
-        addNewCell(usageRow, timeUsage.getWorker(), 0, style, false);
-        addNewCell(usageRow, getDateOnly(timeUsage.getStartDate()), 1, styleAlignRight, false);
-        addNewCell(usageRow, timeUsage.getNumber(), 2, style, false);
-        addNewCell(usageRow, translationService.translate(timeUsage.getType(), locale), 3, style, false);
-        addNewCell(usageRow, translationService.translate(timeUsage.getState(), locale), 4, style, false);
-        addNewCell(usageRow, timeUsage.getObject(), 5, style, false);
-        addNewCell(usageRow, timeUsage.getParts(), 6, style, false);
-        addNewCell(usageRow, timeUsage.getDescription(), 7, style, false);
-        addNewCell(usageRow, timeUsage.getDuration().toString(), 8, styleAlignRight, true);
-        addNewCell(usageRow, timeUsage.getRegisteredTime().toString(), 9, styleAlignRight, true);
-    }
-
-    private void addNewCell(HSSFRow row, String value, int column, HSSFCellStyle style, boolean numeric) {
-        HSSFCell cell = row.createCell(column);
-        cell.setCellStyle(style);
-        if(numeric){
-            cell.setCellType(Cell.CELL_TYPE_NUMERIC);
-            cell.setCellValue(Integer.valueOf(value));
-        } else {
-            cell.setCellValue(value);
+            isFirst = false;
         }
-
-
     }
 
-    private HSSFCellStyle getStyle(final HSSFWorkbook workbook, boolean isFirst, TimeUsageDTO usage, boolean isLeft) {
-        reportStyleFactory.setFirst(isFirst);
-        if (isLeft) {
-            reportStyleFactory.setLeftAligned();
-        } else {
-            reportStyleFactory.setRightAligned();
+    private void addNewRow(SpreadsheetRow usageRow, TimeUsageDTO timeUsage, Locale locale, SpreadsheetStyle style,
+            SpreadsheetStyle styleAlignRight) {
+        usageRow.setValue(0, timeUsage.getWorker(), style);
+        usageRow.setValue(1, getDateOnly(timeUsage.getStartDate()), styleAlignRight);
+        usageRow.setValue(2, timeUsage.getNumber(), style);
+        usageRow.setValue(3, translationService.translate(timeUsage.getType(), locale), style);
+        usageRow.setValue(4, translationService.translate(timeUsage.getState(), locale), style);
+        usageRow.setValue(5, timeUsage.getObject(), style);
+        usageRow.setValue(6, timeUsage.getParts(), style);
+        usageRow.setValue(7, timeUsage.getDescription(), style);
+        usageRow.setValue(8, timeUsage.getDuration(), styleAlignRight);
+        usageRow.setValue(9, timeUsage.getRegisteredTime(), styleAlignRight);
+    }
+
+    private SpreadsheetStyle getStyle(boolean isFirst, TimeUsageDTO usage, short alignment) {
+        SpreadsheetStyle style = SpreadsheetStyle.DEFAULT.withAlignment(alignment);
+        if (isFirst) {
+            style = style.withBorderTop();
         }
         if ("maintenance".equals(usage.getEventType())) {
             if (usage.getRegisteredTime() - 5 <= usage.getDuration() && usage.getDuration() <= usage.getRegisteredTime() + 15) {
-                reportStyleFactory.setGreen();
+                style = style.withFillColor(IndexedColors.LIME.getIndex());
             } else {
-                reportStyleFactory.setRed();
+                style = style.withFillColor(IndexedColors.RED.getIndex());
             }
-        } else {
-            reportStyleFactory.setWhite();
         }
-        return reportStyleFactory.getStyle();
-    }
-
-    private HSSFCellStyle getRightAlignedStyle(final HSSFWorkbook workbook, boolean isFirst, TimeUsageDTO usage) {
-        return getStyle(workbook, isFirst, usage, false);
-    }
-
-    private HSSFCellStyle getLeftAlignedStyle(final HSSFWorkbook workbook, boolean isFirst, TimeUsageDTO usage) {
-        return getStyle(workbook, isFirst, usage, true);
+        return style;
     }
 
     private String getDateValue(Date date) {
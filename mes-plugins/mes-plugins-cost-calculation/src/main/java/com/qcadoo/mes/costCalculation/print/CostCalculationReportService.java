@@ -23,16 +23,18 @@
  */
 package com.qcadoo.mes.costCalculation.print;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.function.IntConsumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
-import com.lowagie.text.DocumentException;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -47,7 +49,10 @@ import com.qcadoo.view.api.components.FieldComponent;
 import com.qcadoo.view.api.components.FormComponent;
 
 @Service
-public class CostCalculationReportService {
+public class CostCalculationReportService implements ReportJobHandler {
+
+    public static final String REPORT_TYPE = CostCalculationConstants.PLUGIN_IDENTIFIER + "."
+            + CostCalculationConstants.MODEL_COST_CALCULATION;
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
@@ -61,7 +66,14 @@ public class CostCalculationReportService {
     @Autowired
     private CostCalculationPdfService costCalculationPdfService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void printCostCalculationReport(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], CostCalculationConstants.PLUGIN_IDENTIFIER,
                 CostCalculationConstants.MODEL_COST_CALCULATION });
     }
@@ -102,17 +114,10 @@ public class CostCalculationReportService {
                 return;
             }
 
-            costCalculation = getCostCalculation((Long) state.getFieldValue());
-
-            try {
-                generateCostCalculationDocuments(state, costCalculation);
+            reportJobService.submit(REPORT_TYPE, (Long) state.getFieldValue(), null, state.getLocale());
 
-                state.performEvent(view, "reset", new String[0]);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            } catch (DocumentException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+            state.performEvent(view, "reset", new String[0]);
+            state.addMessage("basic.reportJob.submitted", MessageType.INFO);
         }
     }
 
@@ -121,12 +126,31 @@ public class CostCalculationReportService {
                 CostCalculationConstants.MODEL_COST_CALCULATION).get(costCalculationId);
     }
 
-    private void generateCostCalculationDocuments(final ComponentState state, final Entity costCalculation) throws IOException,
-            DocumentException {
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity costCalculation = getCostCalculation(entityId);
+
         Entity costCalculationWithFileName = fileService.updateReportFileName(costCalculation, CostCalculationFields.DATE,
                 "costCalculation.costCalculation.report.fileName");
 
-        costCalculationPdfService.generateDocument(costCalculationWithFileName, state.getLocale());
+        costCalculationPdfService.generateDocument(costCalculationWithFileName, locale);
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity costCalculation = getCostCalculation(entityId);
+
+        if (costCalculation != null) {
+            costCalculation.setField(CostCalculationFields.GENERATED, false);
+            costCalculation.setField(CostCalculationFields.DATE, null);
+
+            costCalculation.getDataDefinition().save(costCalculation);
+        }
     }
 
 }
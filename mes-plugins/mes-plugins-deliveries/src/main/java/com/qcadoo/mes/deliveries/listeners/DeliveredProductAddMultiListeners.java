@@ -38,6 +38,7 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.constants.ProductFields;
@@ -52,6 +53,7 @@ import com.qcadoo.mes.deliveries.constants.DeliveryFields;
 import com.qcadoo.mes.deliveries.helpers.DeliveredMultiProduct;
 import com.qcadoo.mes.deliveries.helpers.DeliveredMultiProductContainer;
 import com.qcadoo.mes.deliveries.hooks.DeliveredProductAddMultiHooks;
+import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
 import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -94,6 +96,9 @@ public class DeliveredProductAddMultiListeners {
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private PalletValidatorService palletValidatorService;
+
     public void createDeliveredProducts(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         FormComponent deliveredProductMultiForm = (FormComponent) view.getComponentByReference(L_FORM);
 
@@ -138,22 +143,38 @@ public class DeliveredProductAddMultiListeners {
     public void trySaveDeliveredProducts(final Entity deliveredProductMulti, final List<Entity> deliveredProductMultiPositions) {
         Entity delivery = deliveredProductMulti.getBelongsToField(DeliveredProductMultiFields.DELIVERY);
 
+        List<Entity> deliveredProducts = Lists.newArrayList();
+
         for (Entity position : deliveredProductMultiPositions) {
             Entity deliveredProduct = createDeliveredProduct(position, getDeliveredProductDD());
 
             setStorageLocationFields(deliveredProduct, deliveredProductMulti);
 
             deliveredProduct.setField(DeliveredProductFields.DELIVERY, delivery);
+
+            deliveredProducts.add(deliveredProduct);
+        }
+
+        // pallet of all delivered products is validated at once, instead of on save of each of them
+        if (!palletValidatorService.validatePalletsForDeliveredProducts(delivery.getBelongsToField(DeliveryFields.LOCATION),
+                deliveredProducts)) {
+            for (int index = 0; index < deliveredProducts.size(); index++) {
+                copyErrors(deliveredProducts.get(index), deliveredProductMultiPositions.get(index));
+            }
+
+            deliveredProductMulti.addGlobalError("deliveries.deliveredProductMulti.error.invalid");
+
+            throw new IllegalStateException("Undone saved delivered product");
+        }
+
+        for (int index = 0; index < deliveredProducts.size(); index++) {
+            Entity deliveredProduct = deliveredProducts.get(index);
+
+            deliveredProduct.setField(DeliveredProductFields.VALIDATE_PALLET, false);
             deliveredProduct = deliveredProduct.getDataDefinition().save(deliveredProduct);
 
             if (!deliveredProduct.isValid()) {
-                for (Map.Entry<String, ErrorMessage> entry : deliveredProduct.getErrors().entrySet()) {
-                    if (position.getDataDefinition().getField(entry.getKey()) != null) {
-                        position.addError(position.getDataDefinition().getField(entry.getKey()), entry.getValue().getMessage());
-                    } else {
-                        position.addGlobalError(entry.getValue().getMessage(), false);
-                    }
-                }
+                copyErrors(deliveredProduct, deliveredProductMultiPositions.get(index));
 
                 deliveredProductMulti.addGlobalError("deliveries.deliveredProductMulti.error.invalid");
 
@@ -162,6 +183,16 @@ public class DeliveredProductAddMultiListeners {
         }
     }
 
+    private void copyErrors(final Entity deliveredProduct, final Entity position) {
+        for (Map.Entry<String, ErrorMessage> entry : deliveredProduct.getErrors().entrySet()) {
+            if (position.getDataDefinition().getField(entry.getKey()) != null) {
+                position.addError(position.getDataDefinition().getField(entry.getKey()), entry.getValue().getMessage());
+            } else {
+                position.addGlobalError(entry.getValue().getMessage(), false);
+            }
+        }
+    }
+
     private void setStorageLocationFields(Entity deliveredProduct, Entity deliveredProductMulti) {
         deliveredProduct.setField(DeliveredProductFields.PALLET_NUMBER,
                 deliveredProductMulti.getBelongsToField(DeliveredProductMultiFields.PALLET_NUMBER));
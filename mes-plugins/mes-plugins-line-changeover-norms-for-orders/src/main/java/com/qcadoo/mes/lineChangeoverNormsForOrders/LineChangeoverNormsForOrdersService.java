@@ -45,4 +45,14 @@ public interface LineChangeoverNormsForOrdersService {
 
     Entity getPreviousOrderFromDB(final Entity order);
 
+    /**
+     * Resolves changeover norms between adjacent orders of given sequence, with one lookup for the whole sequence.
+     *
+     * @param orders
+     *            orders in sequence of production
+     * @return norms of changeover to each order from the preceding one, on production line of the order; null for the first
+     *         order and where no norm matches
+     */
+    List<Entity> getChangeoverNormsForOrders(final List<Entity> orders);
+
 }
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.lineChangeoverNormsForOrders;
 
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -32,8 +33,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.lineChangeoverNorms.Changeover;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsSearchService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.states.constants.OrderState;
@@ -68,6 +72,9 @@ public class LineChangeoverNormsForOrdersServiceImpl implements LineChangeoverNo
     @Autowired
     private TranslationService translationService;
 
+    @Autowired
+    private ChangeoverNormsSearchService changeoverNormsSearchService;
+
     @Override
     public void fillOrderForm(final ViewDefinitionState view, final List<String> orderFields) {
         LookupComponent orderLookup = (LookupComponent) view.getComponentByReference(orderFields.get(0));
@@ -224,4 +231,33 @@ public class LineChangeoverNormsForOrdersServiceImpl implements LineChangeoverNo
                 .addOrder(SearchOrders.desc(OrderFields.FINISH_DATE)).setMaxResults(1).uniqueResult();
     }
 
+    @Override
+    public List<Entity> getChangeoverNormsForOrders(final List<Entity> orders) {
+        List<Changeover> changeovers = Lists.newArrayList();
+        List<Integer> changeoverIndexes = Lists.newArrayList();
+
+        for (int index = 1; index < orders.size(); index++) {
+            Entity fromTechnology = orders.get(index - 1).getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+            Entity toTechnology = orders.get(index).getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+
+            if (fromTechnology != null && toTechnology != null) {
+                changeovers.add(Changeover.of(fromTechnology, toTechnology,
+                        orders.get(index).getBelongsToField(OrderFields.PRODUCTION_LINE)));
+                changeoverIndexes.add(index);
+            }
+        }
+
+        List<Entity> changeoverNorms = Lists.newArrayList(Collections.nCopies(orders.size(), (Entity) null));
+
+        if (!changeovers.isEmpty()) {
+            List<Entity> matchingChangeoverNorms = changeoverNormsSearchService.findBestMatching(changeovers);
+
+            for (int index = 0; index < changeoverIndexes.size(); index++) {
+                changeoverNorms.set(changeoverIndexes.get(index), matchingChangeoverNorms.get(index));
+            }
+        }
+
+        return changeoverNorms;
+    }
+
 }
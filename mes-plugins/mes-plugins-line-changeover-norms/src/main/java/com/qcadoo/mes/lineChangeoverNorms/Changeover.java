@@ -0,0 +1,92 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Changeover between two technologies on production line, used to search matching changeover norms.
+ */
+public final class Changeover {
+
+    private final Long fromTechnologyId;
+
+    private final Long fromTechnologyGroupId;
+
+    private final Long toTechnologyId;
+
+    private final Long toTechnologyGroupId;
+
+    private final Long productionLineId;
+
+    public Changeover(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
+            final Long toTechnologyGroupId, final Long productionLineId) {
+        this.fromTechnologyId = fromTechnologyId;
+        this.fromTechnologyGroupId = fromTechnologyGroupId;
+        this.toTechnologyId = toTechnologyId;
+        this.toTechnologyGroupId = toTechnologyGroupId;
+        this.productionLineId = productionLineId;
+    }
+
+    public static Changeover of(final Entity fromTechnology, final Entity toTechnology, final Entity productionLine) {
+        return new Changeover(getIdOrNull(fromTechnology), getTechnologyGroupId(fromTechnology), getIdOrNull(toTechnology),
+                getTechnologyGroupId(toTechnology), getIdOrNull(productionLine));
+    }
+
+    private static Long getTechnologyGroupId(final Entity technology) {
+        if (technology == null) {
+            return null;
+        }
+        return getIdOrNull(technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP));
+    }
+
+    private static Long getIdOrNull(final Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+        return entity.getId();
+    }
+
+    public Long getFromTechnologyId() {
+        return fromTechnologyId;
+    }
+
+    public Long getFromTechnologyGroupId() {
+        return fromTechnologyGroupId;
+    }
+
+    public Long getToTechnologyId() {
+        return toTechnologyId;
+    }
+
+    public Long getToTechnologyGroupId() {
+        return toTechnologyGroupId;
+    }
+
+    public Long getProductionLineId() {
+        return productionLineId;
+    }
+
+}
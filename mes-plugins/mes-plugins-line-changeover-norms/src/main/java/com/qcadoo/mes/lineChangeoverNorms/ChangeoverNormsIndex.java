@@ -0,0 +1,110 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Changeover norms indexed by (from, to, production line) separately for technologies and technology groups, with norms
+ * for any production line kept under null line. Best matching norm is chosen from at most four candidates in the same
+ * order as in database search: norms for technologies first, then norms with production line defined, then the newest one.
+ */
+public class ChangeoverNormsIndex {
+
+    private static final Comparator<NormEntry> BEST_MATCHING_FIRST = Comparator
+            .comparing((NormEntry entry) -> entry.changeoverType, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(entry -> entry.hasProductionLine, Comparator.reverseOrder())
+            .thenComparing(entry -> entry.id, Comparator.reverseOrder());
+
+    private final Map<List<Long>, NormEntry> technologyNorms = Maps.newHashMap();
+
+    private final Map<List<Long>, NormEntry> technologyGroupNorms = Maps.newHashMap();
+
+    public void add(final Long id, final String changeoverType, final Long fromTechnologyId, final Long toTechnologyId,
+            final Long fromTechnologyGroupId, final Long toTechnologyGroupId, final Long productionLineId) {
+        NormEntry entry = new NormEntry(id, changeoverType, productionLineId != null);
+
+        if (fromTechnologyId != null && toTechnologyId != null) {
+            technologyNorms.merge(Arrays.asList(fromTechnologyId, toTechnologyId, productionLineId), entry,
+                    ChangeoverNormsIndex::better);
+        }
+        if (fromTechnologyGroupId != null && toTechnologyGroupId != null) {
+            technologyGroupNorms.merge(Arrays.asList(fromTechnologyGroupId, toTechnologyGroupId, productionLineId), entry,
+                    ChangeoverNormsIndex::better);
+        }
+    }
+
+    /**
+     * @return id of best matching changeover norm
+     */
+    public Optional<Long> findBestMatching(final Changeover changeover) {
+        Long productionLineId = changeover.getProductionLineId();
+
+        return Stream
+                .of(findNorm(technologyNorms, changeover.getFromTechnologyId(), changeover.getToTechnologyId(),
+                        productionLineId),
+                        findNorm(technologyNorms, changeover.getFromTechnologyId(), changeover.getToTechnologyId(), null),
+                        findNorm(technologyGroupNorms, changeover.getFromTechnologyGroupId(),
+                                changeover.getToTechnologyGroupId(), productionLineId),
+                        findNorm(technologyGroupNorms, changeover.getFromTechnologyGroupId(),
+                                changeover.getToTechnologyGroupId(), null)).filter(entry -> entry != null)
+                .min(BEST_MATCHING_FIRST).map(entry -> entry.id);
+    }
+
+    private NormEntry findNorm(final Map<List<Long>, NormEntry> norms, final Long fromId, final Long toId,
+            final Long productionLineId) {
+        if (fromId == null || toId == null) {
+            return null;
+        }
+        return norms.get(Arrays.asList(fromId, toId, productionLineId));
+    }
+
+    private static NormEntry better(final NormEntry first, final NormEntry second) {
+        return BEST_MATCHING_FIRST.compare(first, second) <= 0 ? first : second;
+    }
+
+    private static final class NormEntry {
+
+        private final Long id;
+
+        private final String changeoverType;
+
+        private final Boolean hasProductionLine;
+
+        NormEntry(final Long id, final String changeoverType, final Boolean hasProductionLine) {
+            this.id = id;
+            this.changeoverType = changeoverType;
+            this.hasProductionLine = hasProductionLine;
+        }
+
+    }
+
+}
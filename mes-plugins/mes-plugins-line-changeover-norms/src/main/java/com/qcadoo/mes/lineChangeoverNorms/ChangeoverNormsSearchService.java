@@ -23,6 +23,8 @@
  */
 package com.qcadoo.mes.lineChangeoverNorms;
 
+import java.util.List;
+
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.model.api.Entity;
@@ -33,6 +35,20 @@ public interface ChangeoverNormsSearchService {
     Entity findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
             final Long toTechnologyGroupId, final Long productionLineId);
 
+    /**
+     * Finds best matching changeover norms for many changeovers at once, matching norms are loaded with one query.
+     *
+     * @param changeovers
+     *            changeovers
+     * @return norms in order of given changeovers, null if no norm matches changeover
+     */
+    List<Entity> findBestMatching(final List<Changeover> changeovers);
+
+    /**
+     * Clears changeover norms index, called by changeover norm hooks.
+     */
+    void invalidateChangeoverNorms();
+
     Entity searchMatchingChangeroverNormsForTechnologyWithLine(final Entity fromTechnology, final Entity toTechnology,
             final Entity productionLine);
 
@@ -23,89 +23,152 @@
  */
 package com.qcadoo.mes.lineChangeoverNorms;
 
-import static com.qcadoo.model.api.search.SearchRestrictions.and;
-import static com.qcadoo.model.api.search.SearchRestrictions.eq;
-import static com.qcadoo.model.api.search.SearchRestrictions.isNull;
-import static com.qcadoo.model.api.search.SearchRestrictions.or;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsConstants;
 import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchCriterion;
-import com.qcadoo.model.api.search.SearchDisjunction;
-import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchProjectionList;
+import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 
 @Service
 public class ChangeoverNormsSearchServiceImpl implements ChangeoverNormsSearchService {
 
     private static final String DOT_ID = ".id";
 
+    private static final List<String> BELONGS_TO_FIELDS = Lists.newArrayList(LineChangeoverNormsFields.FROM_TECHNOLOGY,
+            LineChangeoverNormsFields.TO_TECHNOLOGY, LineChangeoverNormsFields.FROM_TECHNOLOGY_GROUP,
+            LineChangeoverNormsFields.TO_TECHNOLOGY_GROUP, LineChangeoverNormsFields.PRODUCTION_LINE);
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    private final ConcurrentMap<Integer, CachedIndex> cachedIndexes = new ConcurrentHashMap<>();
+
     @Override
     public Entity findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
             final Long toTechnologyGroupId, final Long productionLineId) {
-        SearchCriteriaBuilder scb = getChangeoverDataDef().find();
+        checkTechnologies(fromTechnologyId, fromTechnologyGroupId, toTechnologyId, toTechnologyGroupId);
+
+        Optional<Long> changeoverNormId = getChangeoverNormsIndex().findBestMatching(
+                new Changeover(fromTechnologyId, fromTechnologyGroupId, toTechnologyId, toTechnologyGroupId, productionLineId));
+
+        return changeoverNormId.map(id -> getChangeoverDataDef().get(id)).orElse(null);
+    }
+
+    @Override
+    public List<Entity> findBestMatching(final List<Changeover> changeovers) {
+        ChangeoverNormsIndex index = getChangeoverNormsIndex();
+
+        List<Long> changeoverNormIds = Lists.newArrayListWithCapacity(changeovers.size());
+
+        for (Changeover changeover : changeovers) {
+            checkTechnologies(changeover.getFromTechnologyId(), changeover.getFromTechnologyGroupId(),
+                    changeover.getToTechnologyId(), changeover.getToTechnologyGroupId());
 
-        scb.add(getTechnologiesRestrictions(fromTechnologyId, fromTechnologyGroupId, toTechnologyId, toTechnologyGroupId));
-        scb.add(getProductionLineRestrictions(productionLineId));
+            changeoverNormIds.add(index.findBestMatching(changeover).orElse(null));
+        }
+
+        Set<Long> ids = changeoverNormIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
 
-        // for specific technologies first
-        scb.addOrder(SearchOrders.asc(LineChangeoverNormsFields.CHANGEOVER_TYPE));
-        // with production line defined first
-        scb.addOrder(SearchOrders.asc(LineChangeoverNormsFields.PRODUCTION_LINE));
-        // newest wins
-        scb.addOrder(SearchOrders.desc("id"));
+        Map<Long, Entity> changeoverNorms = Maps.newHashMap();
 
-        return scb.setMaxResults(1).uniqueResult();
+        if (!ids.isEmpty()) {
+            for (Entity changeoverNorm : getChangeoverDataDef().find().add(SearchRestrictions.in("id", ids)).list()
+                    .getEntities()) {
+                changeoverNorms.put(changeoverNorm.getId(), changeoverNorm);
+            }
+        }
+
+        return changeoverNormIds.stream().map(id -> id == null ? null : changeoverNorms.get(id)).collect(Collectors.toList());
     }
 
-    private SearchCriterion getProductionLineRestrictions(final Long productionLineId) {
-        SearchCriterion matchProductionLine = eq(LineChangeoverNormsFields.PRODUCTION_LINE + DOT_ID, productionLineId);
-        SearchCriterion productionLineIsNull = isNull(LineChangeoverNormsFields.PRODUCTION_LINE);
+    @Override
+    public void invalidateChangeoverNorms() {
+        CachedIndex cachedIndex = getCachedIndex();
+
+        cachedIndex.clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    cachedIndex.clear();
+                }
 
-        return or(matchProductionLine, productionLineIsNull);
+            });
+        }
     }
 
-    private SearchCriterion getTechnologiesRestrictions(final Long fromTechnologyId, final Long fromTechnologyGroupId,
-            final Long toTechnologyId, final Long toTechnologyGroupId) {
-        SearchCriterion matchTechnologies = getPairRestriction(LineChangeoverNormsFields.FROM_TECHNOLOGY, fromTechnologyId,
-                LineChangeoverNormsFields.TO_TECHNOLOGY, toTechnologyId);
-        SearchCriterion matchTechnologyGroups = getPairRestriction(LineChangeoverNormsFields.FROM_TECHNOLOGY_GROUP,
-                fromTechnologyGroupId, LineChangeoverNormsFields.TO_TECHNOLOGY_GROUP, toTechnologyGroupId);
+    private ChangeoverNormsIndex getChangeoverNormsIndex() {
+        return getCachedIndex().getIndex();
+    }
 
-        Preconditions.checkArgument(matchTechnologies != null || matchTechnologyGroups != null,
-                "you have to provide pair of technologies or pair of technology groups.");
+    private CachedIndex getCachedIndex() {
+        return cachedIndexes.computeIfAbsent(getCurrentTenantId(), tenantId -> new CachedIndex());
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private ChangeoverNormsIndex loadChangeoverNormsIndex() {
+        SearchProjectionList projections = SearchProjections.list();
 
-        SearchDisjunction disjunction = SearchRestrictions.disjunction();
+        projections.add(SearchProjections.alias(SearchProjections.id(), "id"));
+        projections.add(projection(LineChangeoverNormsFields.CHANGEOVER_TYPE, LineChangeoverNormsFields.CHANGEOVER_TYPE));
 
-        if (matchTechnologies != null) {
-            disjunction.add(matchTechnologies);
+        for (String field : BELONGS_TO_FIELDS) {
+            projections.add(projection(field + DOT_ID, field));
         }
 
-        if (matchTechnologyGroups != null) {
-            disjunction.add(matchTechnologyGroups);
+        List<Entity> changeoverNorms = getChangeoverDataDef().find().setProjection(projections).list().getEntities();
+
+        ChangeoverNormsIndex index = new ChangeoverNormsIndex();
+
+        for (Entity changeoverNorm : changeoverNorms) {
+            index.add((Long) changeoverNorm.getField("id"),
+                    changeoverNorm.getStringField(LineChangeoverNormsFields.CHANGEOVER_TYPE),
+                    (Long) changeoverNorm.getField(LineChangeoverNormsFields.FROM_TECHNOLOGY),
+                    (Long) changeoverNorm.getField(LineChangeoverNormsFields.TO_TECHNOLOGY),
+                    (Long) changeoverNorm.getField(LineChangeoverNormsFields.FROM_TECHNOLOGY_GROUP),
+                    (Long) changeoverNorm.getField(LineChangeoverNormsFields.TO_TECHNOLOGY_GROUP),
+                    (Long) changeoverNorm.getField(LineChangeoverNormsFields.PRODUCTION_LINE));
         }
 
-        return disjunction;
+        return index;
     }
 
-    private SearchCriterion getPairRestriction(final String leftFieldName, final Long leftId, final String rightFieldName,
-            final Long rightId) {
-        if (leftId == null || rightId == null) {
-            return null;
-        }
+    private SearchProjection projection(final String field, final String alias) {
+        return SearchProjections.alias(SearchProjections.field(field), alias);
+    }
 
-        return and(eq(leftFieldName + DOT_ID, leftId), eq(rightFieldName + DOT_ID, rightId));
+    private void checkTechnologies(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
+            final Long toTechnologyGroupId) {
+        Preconditions.checkArgument((fromTechnologyId != null && toTechnologyId != null)
+                || (fromTechnologyGroupId != null && toTechnologyGroupId != null),
+                "you have to provide pair of technologies or pair of technology groups.");
     }
 
     @Override
@@ -142,4 +205,42 @@ public class ChangeoverNormsSearchServiceImpl implements ChangeoverNormsSearchSe
                 LineChangeoverNormsConstants.MODEL_LINE_CHANGEOVER_NORMS);
     }
 
+    /**
+     * Changeover norms index of one tenant, index loaded while it was cleared is not cached.
+     */
+    private final class CachedIndex {
+
+        private ChangeoverNormsIndex index;
+
+        private long generation;
+
+        ChangeoverNormsIndex getIndex() {
+            long loadedGeneration;
+
+            synchronized (this) {
+                if (index != null) {
+                    return index;
+                }
+
+                loadedGeneration = generation;
+            }
+
+            ChangeoverNormsIndex loadedIndex = loadChangeoverNormsIndex();
+
+            synchronized (this) {
+                if (loadedGeneration == generation) {
+                    index = loadedIndex;
+                }
+            }
+
+            return loadedIndex;
+        }
+
+        synchronized void clear() {
+            generation++;
+            index = null;
+        }
+
+    }
+
 }
@@ -0,0 +1,118 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.lineChangeoverNorms.constants.ChangeoverType;
+
+public class ChangeoverNormsIndexTest {
+
+    private static final String FOR_TECHNOLOGY = ChangeoverType.FOR_TECHNOLOGY.getStringValue();
+
+    private static final String FOR_TECHNOLOGY_GROUP = ChangeoverType.FOR_TECHNOLOGY_GROUP.getStringValue();
+
+    private static final Long FROM_TECH_ID = 1L;
+
+    private static final Long TO_TECH_ID = 2L;
+
+    private static final Long FROM_TECH_GROUP_ID = 101L;
+
+    private static final Long TO_TECH_GROUP_ID = 202L;
+
+    private static final Long PRODUCTION_LINE_ID = 1001L;
+
+    private static final Long OTHER_PRODUCTION_LINE_ID = 1002L;
+
+    private ChangeoverNormsIndex index;
+
+    @Before
+    public void init() {
+        index = new ChangeoverNormsIndex();
+    }
+
+    @Test
+    public void shouldPreferNormForTechnologiesOverNormForTechnologyGroups() {
+        // given
+        index.add(10L, FOR_TECHNOLOGY_GROUP, null, null, FROM_TECH_GROUP_ID, TO_TECH_GROUP_ID, PRODUCTION_LINE_ID);
+        index.add(5L, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, null);
+
+        // when
+        Optional<Long> norm = index.findBestMatching(changeover(PRODUCTION_LINE_ID));
+
+        // then
+        assertEquals(Optional.of(5L), norm);
+    }
+
+    @Test
+    public void shouldPreferNormForGivenProductionLineOverNormForAnyLine() {
+        // given
+        index.add(5L, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, PRODUCTION_LINE_ID);
+        index.add(10L, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, null);
+        index.add(15L, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, OTHER_PRODUCTION_LINE_ID);
+
+        // when
+        Optional<Long> norm = index.findBestMatching(changeover(PRODUCTION_LINE_ID));
+
+        // then
+        assertEquals(Optional.of(5L), norm);
+    }
+
+    @Test
+    public void shouldPreferNewestNormWhenOthersAreEqual() {
+        // given
+        index.add(5L, FOR_TECHNOLOGY_GROUP, null, null, FROM_TECH_GROUP_ID, TO_TECH_GROUP_ID, null);
+        index.add(10L, FOR_TECHNOLOGY_GROUP, null, null, FROM_TECH_GROUP_ID, TO_TECH_GROUP_ID, null);
+
+        // when
+        Optional<Long> norm = index.findBestMatching(changeover(null));
+
+        // then
+        assertEquals(Optional.of(10L), norm);
+    }
+
+    @Test
+    public void shouldNotMatchNormForOtherProductionLineOrTechnologies() {
+        // given
+        index.add(5L, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, OTHER_PRODUCTION_LINE_ID);
+        index.add(10L, FOR_TECHNOLOGY, TO_TECH_ID, FROM_TECH_ID, null, null, null);
+
+        // when
+        Optional<Long> norm = index.findBestMatching(changeover(PRODUCTION_LINE_ID));
+
+        // then
+        assertFalse(norm.isPresent());
+    }
+
+    private Changeover changeover(final Long productionLineId) {
+        return new Changeover(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID, productionLineId);
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.lineChangeoverNorms.constants.ChangeoverType;
+import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsConstants;
+import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class ChangeoverNormsSearchServiceImplTest {
+
+    private static final Long FROM_TECH_ID = 1L;
+
+    private static final Long TO_TECH_ID = 2L;
+
+    private static final Long CHANGEOVER_ID = 11L;
+
+    private ChangeoverNormsSearchServiceImpl changeoverNormsSearchService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition changeoverDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private Entity changeover;
+
+    private final Map<Integer, List<Entity>> changeoverNormsByTenant = Maps.newHashMap();
+
+    private int tenantId = 1;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        changeoverNormsSearchService = spy(new ChangeoverNormsSearchServiceImpl());
+
+        ReflectionTestUtils.setField(changeoverNormsSearchService, "dataDefinitionService", dataDefinitionService);
+
+        switchTenant(1);
+
+        given(dataDefinitionService.get(LineChangeoverNormsConstants.PLUGIN_IDENTIFIER,
+                LineChangeoverNormsConstants.MODEL_LINE_CHANGEOVER_NORMS)).willReturn(changeoverDD);
+        given(changeoverDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.setProjection(any(SearchProjection.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willAnswer(invocation -> {
+            SearchResult searchResult = mock(SearchResult.class);
+
+            given(searchResult.getEntities()).willReturn(changeoverNormsByTenant.get(tenantId));
+
+            return searchResult;
+        });
+        given(changeoverDD.get(CHANGEOVER_ID)).willReturn(changeover);
+
+        changeoverNormsByTenant.put(1, Lists.newArrayList(mockChangeoverNorm()));
+        changeoverNormsByTenant.put(2, Collections.emptyList());
+    }
+
+    private Entity mockChangeoverNorm() {
+        Entity changeoverNorm = mock(Entity.class);
+
+        given(changeoverNorm.getField("id")).willReturn(CHANGEOVER_ID);
+        given(changeoverNorm.getStringField(LineChangeoverNormsFields.CHANGEOVER_TYPE)).willReturn(
+                ChangeoverType.FOR_TECHNOLOGY.getStringValue());
+        given(changeoverNorm.getField(LineChangeoverNormsFields.FROM_TECHNOLOGY)).willReturn(FROM_TECH_ID);
+        given(changeoverNorm.getField(LineChangeoverNormsFields.TO_TECHNOLOGY)).willReturn(TO_TECH_ID);
+
+        return changeoverNorm;
+    }
+
+    private void switchTenant(final int tenantId) {
+        this.tenantId = tenantId;
+
+        doReturn(tenantId).when(changeoverNormsSearchService).getCurrentTenantId();
+    }
+
+    @Test
+    public void shouldKeepChangeoverNormsPerTenant() {
+        // when
+        Entity matchingChangeover = changeoverNormsSearchService.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        switchTenant(2);
+
+        Entity matchingChangeoverInOtherTenant = changeoverNormsSearchService.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID,
+                null, null);
+
+        // then
+        assertEquals(changeover, matchingChangeover);
+        assertNull(matchingChangeoverInOtherTenant);
+
+        verify(searchCriteriaBuilder, times(2)).list();
+    }
+
+    @Test
+    public void shouldInvalidateChangeoverNormsOfCurrentTenantOnly() {
+        // given
+        changeoverNormsSearchService.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        switchTenant(2);
+
+        changeoverNormsSearchService.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        // when
+        changeoverNormsSearchService.invalidateChangeoverNorms();
+
+        switchTenant(1);
+
+        Entity matchingChangeover = changeoverNormsSearchService.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        // then
+        assertEquals(changeover, matchingChangeover);
+
+        verify(searchCriteriaBuilder, times(2)).list();
+    }
+
+}
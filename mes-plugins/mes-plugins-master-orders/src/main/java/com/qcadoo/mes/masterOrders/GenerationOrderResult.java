@@ -23,23 +23,42 @@ public class GenerationOrderResult {
 
     private List<String> ordersWithoutGeneratedSubOrders = Lists.newArrayList();
 
-    public void addNotGeneratedProductError(MasterOrderProductErrorContainer err) {
+    private int plannedOrders;
+
+    private int processedOrders;
+
+    // orders are generated by many workers at once, so all changes of result are synchronized
+
+    public synchronized void addNotGeneratedProductError(MasterOrderProductErrorContainer err) {
         productOrderErrors.add(err);
     }
 
-    public void addGeneratedOrderNumber(String number) {
+    public synchronized void addGeneratedOrderNumber(String number) {
         generatedOrderNumbers.add(number);
     }
 
-    public void addOrderWithoutPps(String number) {
+    public synchronized void addOrderWithoutPps(String number) {
         ordersWithoutPps.add(number);
     }
 
-    public void addOrderWithoutGeneratedSubOrders(String number) {
+    public synchronized void addOrderWithoutGeneratedSubOrders(String number) {
         ordersWithoutGeneratedSubOrders.add(number);
     }
 
-    public void showMessage(ViewDefinitionState view) {
+    public synchronized void setPlannedOrders(int plannedOrders) {
+        this.plannedOrders = plannedOrders;
+    }
+
+    public synchronized void addProcessedOrder() {
+        processedOrders++;
+    }
+
+    public synchronized void showMessage(ViewDefinitionState view) {
+        if (plannedOrders > 0) {
+            view.addMessage("masterOrders.masterOrder.generationOrder.processedOrders", ComponentState.MessageType.INFO, false,
+                    String.valueOf(processedOrders), String.valueOf(plannedOrders));
+        }
+
         if (!generatedOrderNumbers.isEmpty()) {
             view.addMessage("masterOrders.masterOrder.generationOrder.generatedOrderNumbers", ComponentState.MessageType.INFO,
                     false, String.join(", ", generatedOrderNumbers));
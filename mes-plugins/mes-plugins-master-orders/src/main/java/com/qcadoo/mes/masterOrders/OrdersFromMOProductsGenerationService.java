@@ -1,7 +1,11 @@
 package com.qcadoo.mes.masterOrders;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.NumberAllocator;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -27,27 +31,64 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.view.api.utils.NumberGeneratorService;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContext;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PreDestroy;
+
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
 import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
 
+/**
+ * Generates orders for master order products in stages: numbers of all orders are reserved first, then orders are created
+ * by a bounded pool of workers, and at last production per shift is scheduled for generated orders, sequentially within
+ * groups of orders sharing production lines.
+ *
+ * Saving an order updates its master order, so all orders of one master order are created by one worker, one after another,
+ * each top level order (with its sub orders) in its own transaction.
+ */
 @Service
 public class OrdersFromMOProductsGenerationService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersFromMOProductsGenerationService.class);
+
+    private static final int L_WORKERS = 4;
+
+    private static final Long L_NO_PRODUCTION_LINE = 0L;
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(L_WORKERS,
+            new ThreadFactoryBuilder().setNameFormat("orders-generation-%d").setDaemon(true).build());
+
     private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
             "registerQuantityOutProduct", "registerProductionTime", "registerPiecework", "justOne", "allowToClose",
             "autoCloseOrder", "typeOfProductionRecording");
@@ -66,7 +107,7 @@ public class OrdersFromMOProductsGenerationService {
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private NumberGeneratorService numberGeneratorService;
+    private NumberAllocator numberAllocator;
 
     @Autowired
     private OrderService orderService;
@@ -83,83 +124,266 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private ShiftsService shiftsService;
 
+    @Autowired
+    private MultiTenantService multiTenantService;
+
     public GenerationOrderResult generateOrders(List<Entity> masterOrderProducts, boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService);
         boolean automaticPps = parameterService.getParameter().getBooleanField("ppsIsAutomatic");
+        Map<Long, Iterator<String>> orderNumbers = reserveOrderNumbers(masterOrderProducts);
+        Map<Long, List<PlannedOrder>> plannedOrdersByMasterOrder = Maps.newLinkedHashMap();
         masterOrderProducts.forEach(masterOrderProduct -> {
             Optional<Entity> dtoEntity = Optional.ofNullable(masterOrderProduct.getDataDefinition().getMasterModelEntity(
                     masterOrderProduct.getId()));
-            if (dtoEntity.isPresent()) {
-                generateOrder(generatePPS, automaticPps, result, dtoEntity.get());
-            } else {
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct);
-            }
+            Long masterOrderId = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER).getId();
+            String orderNumber = orderNumbers.get(masterOrderId).next();
+            plannedOrdersByMasterOrder.computeIfAbsent(masterOrderId, key -> Lists.newArrayList()).add(
+                    new PlannedOrder(dtoEntity.orElse(masterOrderProduct), orderNumber));
         });
 
+        result.setPlannedOrders(masterOrderProducts.size());
+
+        List<Future<List<Entity>>> generatedOrderFutures = Lists.newArrayList();
+
+        for (List<PlannedOrder> plannedOrders : plannedOrdersByMasterOrder.values()) {
+            generatedOrderFutures.add(submit(() -> generateOrders(result, plannedOrders)));
+        }
+
+        List<Entity> generatedOrders = Lists.newArrayList();
+
+        for (Future<List<Entity>> generatedOrderFuture : generatedOrderFutures) {
+            waitFor(generatedOrderFuture).ifPresent(generatedOrders::addAll);
+        }
+
+        Entity parameter = parameterService.getParameter();
+
+        if (generatePPS && automaticPps && !parameter.getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
+            generatePpsForOrders(result, generatedOrders);
+        }
+
         return result;
 
     }
 
-    private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result, Entity masterOrderProduct) {
-        Entity order = createOrder(masterOrderProduct);
-        order = getOrderDD().save(order);
-        if (!order.isValid()) {
-            MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
-            productErrorContainer.setProduct(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)
-                    .getStringField(ProductFields.NUMBER));
-            productErrorContainer.setMasterOrder(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)
-                    .getStringField(MasterOrderFields.NUMBER));
-            productErrorContainer.setQuantity(order.getDecimalField(OrderFields.PLANNED_QUANTITY));
-            productErrorContainer.setErrorMessages(order.getGlobalErrors());
-            result.addNotGeneratedProductError(productErrorContainer);
-        } else {
-            result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
+    /**
+     * Reserves numbers of all generated orders at once, in one block per master order.
+     */
+    private Map<Long, Iterator<String>> reserveOrderNumbers(final List<Entity> masterOrderProducts) {
+        Map<Long, Entity> masterOrders = Maps.newHashMap();
+        Map<Long, Integer> quantities = Maps.newHashMap();
+
+        for (Entity masterOrderProduct : masterOrderProducts) {
+            Entity masterOrder = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER);
+
+            masterOrders.put(masterOrder.getId(), masterOrder);
+            quantities.merge(masterOrder.getId(), 1, Integer::sum);
         }
-        Entity parameter = parameterService.getParameter();
+
+        Map<Long, Iterator<String>> orderNumbers = Maps.newHashMap();
+
+        for (Map.Entry<Long, Entity> masterOrder : masterOrders.entrySet()) {
+            orderNumbers.put(masterOrder.getKey(), numberAllocator.reserveNumbers(OrdersConstants.PLUGIN_IDENTIFIER,
+                    OrdersConstants.MODEL_ORDER, 3, getOrderNumberPrefix(masterOrder.getValue()),
+                    quantities.get(masterOrder.getKey())).iterator());
+        }
+
+        return orderNumbers;
+    }
+
+    private List<Entity> generateOrders(final GenerationOrderResult result, final List<PlannedOrder> plannedOrders) {
+        List<Entity> generatedOrders = Lists.newArrayList();
+
+        for (PlannedOrder plannedOrder : plannedOrders) {
+            generateOrder(result, plannedOrder).ifPresent(generatedOrders::add);
+
+            result.addProcessedOrder();
+        }
+
+        return generatedOrders;
+    }
+
+    private Optional<Entity> generateOrder(final GenerationOrderResult result, final PlannedOrder plannedOrder) {
+        Entity masterOrderProduct = plannedOrder.getMasterOrderProduct();
+
+        try {
+            Entity order = saveOrderWithSubOrders(result, masterOrderProduct, plannedOrder.getOrderNumber());
+
+            if (order.isValid()) {
+                result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
+
+                return Optional.of(order);
+            }
+
+            result.addNotGeneratedProductError(createErrorContainer(masterOrderProduct,
+                    order.getDecimalField(OrderFields.PLANNED_QUANTITY), order.getGlobalErrors()));
+        } catch (Exception e) {
+            LOG.warn("Failed to generate order " + plannedOrder.getOrderNumber(), e);
+
+            result.addNotGeneratedProductError(createErrorContainer(masterOrderProduct,
+                    masterOrderProduct.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY),
+                    Lists.newArrayList(new ErrorMessage("masterOrders.masterOrder.generationOrder.generationFailed"))));
+        }
+
+        return Optional.empty();
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private Entity saveOrderWithSubOrders(final GenerationOrderResult result, final Entity masterOrderProduct,
+            final String orderNumber) {
+        Entity order = getOrderDD().save(createOrder(masterOrderProduct, orderNumber));
 
         generateSubOrders(result, order);
 
-        if (order.isValid() && generatePPS && automaticPps && !parameter.getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
-           List<Entity> orders = getOrderAndSubOrders(order.getId());
+        return order;
+    }
+
+    private MasterOrderProductErrorContainer createErrorContainer(final Entity masterOrderProduct, final BigDecimal quantity,
+            final List<ErrorMessage> errorMessages) {
+        MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
+        productErrorContainer.setProduct(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)
+                .getStringField(ProductFields.NUMBER));
+        productErrorContainer.setMasterOrder(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)
+                .getStringField(MasterOrderFields.NUMBER));
+        productErrorContainer.setQuantity(convertNullToZero(quantity));
+        productErrorContainer.setErrorMessages(errorMessages);
+        return productErrorContainer;
+    }
+
+    /**
+     * Schedules production per shift of generated orders. Start dates depend on previous orders of the same production line,
+     * so order trees sharing any production line are scheduled one after another, in generation order, and only independent
+     * groups are scheduled in parallel.
+     */
+    private void generatePpsForOrders(final GenerationOrderResult result, final List<Entity> generatedOrders) {
+        List<List<Entity>> orderTrees = Lists.newArrayList();
+        List<List<Integer>> orderTreeGroups = Lists.newArrayList();
+        List<Set<Long>> productionLineGroups = Lists.newArrayList();
+
+        for (Entity generatedOrder : generatedOrders) {
+            List<Entity> orders = getOrderAndSubOrders(generatedOrder.getId());
             Collections.reverse(orders);
-            Integer lastLevel = null;
-            Date lastDate = null;
-            for (Entity ord : orders) {
-                if(Objects.isNull(lastLevel)) {
 
+            Set<Long> productionLineIds = Sets.newHashSet();
+
+            for (Entity order : orders) {
+                Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+                productionLineIds.add(Objects.isNull(productionLine) ? L_NO_PRODUCTION_LINE : productionLine.getId());
+            }
+
+            List<Integer> orderTreeGroup = Lists.newArrayList();
+            orderTreeGroup.add(orderTrees.size());
+
+            for (int i = productionLineGroups.size() - 1; i >= 0; i--) {
+                if (!Collections.disjoint(productionLineGroups.get(i), productionLineIds)) {
+                    productionLineIds.addAll(productionLineGroups.remove(i));
+                    orderTreeGroup.addAll(orderTreeGroups.remove(i));
                 }
-                Date calculatedOrderStartDate = null;
-                if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
-                    Optional<Entity> maybeOrder = findLastOrder(ord);
-                    if(maybeOrder.isPresent()) {
-                        calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
-                    } else {
-                        calculatedOrderStartDate = new DateTime().toDate();
-                    }
+            }
+
+            Collections.sort(orderTreeGroup);
+
+            orderTrees.add(orders);
+            productionLineGroups.add(productionLineIds);
+            orderTreeGroups.add(orderTreeGroup);
+        }
+
+        List<Future<Boolean>> ppsFutures = Lists.newArrayList();
+
+        for (List<Integer> orderTreeGroup : orderTreeGroups) {
+            ppsFutures.add(submit(() -> {
+                orderTreeGroup.forEach(index -> generatePpsForOrderTree(result, orderTrees.get(index)));
+
+                return true;
+            }));
+        }
+
+        ppsFutures.forEach(this::waitFor);
+    }
+
+    private void generatePpsForOrderTree(final GenerationOrderResult result, final List<Entity> orders) {
+        Map<List<Long>, Entity> changeoverNorms = getChangeoverNorms(orders);
+        Date lastDate = null;
+        for (Entity ord : orders) {
+            Date calculatedOrderStartDate = null;
+            if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
+                Optional<Entity> maybeOrder = findLastOrder(ord);
+                if(maybeOrder.isPresent()) {
+                    calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
                 } else {
-                    Optional<Entity> maybeOrder = findPreviousOrder(ord);
-                    if(maybeOrder.isPresent()) {
-                        calculatedOrderStartDate = maybeOrder.get().getDateField(OrderFields.FINISH_DATE);
+                    calculatedOrderStartDate = new DateTime().toDate();
+                }
+            } else {
+                Optional<Entity> maybeOrder = findPreviousOrder(ord);
+                if(maybeOrder.isPresent()) {
+                    calculatedOrderStartDate = maybeOrder.get().getDateField(OrderFields.FINISH_DATE);
 
-                    } else {
-                        calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
-                    }
+                } else {
+                    calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
                 }
+            }
 
-                try {
-                    Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate);
-                    if(Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
-                        lastDate = finishDate;
-                    } else if(Objects.isNull(lastDate)) {
-                        lastDate = finishDate;
-                    }
-                } catch (Exception ex) {
-                    result.addOrderWithoutPps(ord.getStringField(OrderFields.NUMBER));
-                    break;
+            try {
+                Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate, changeoverNorms);
+                if(Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
+                    lastDate = finishDate;
+                } else if(Objects.isNull(lastDate)) {
+                    lastDate = finishDate;
                 }
+            } catch (Exception ex) {
+                result.addOrderWithoutPps(ord.getStringField(OrderFields.NUMBER));
+                break;
+            }
+
+        }
+    }
+
+    /**
+     * Runs given task on a worker, with security, locale and tenant context of the calling thread.
+     */
+    private <T> Future<T> submit(final Supplier<T> task) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        int tenantId = getCurrentTenantId();
 
+        return workers.submit(() -> {
+            AtomicReference<T> value = new AtomicReference<>();
+
+            SecurityContextHolder.setContext(securityContext);
+            LocaleContextHolder.setLocaleContext(localeContext);
+
+            try {
+                multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+                    @Override
+                    public void invoke() {
+                        value.set(task.get());
+                    }
+
+                });
+            } finally {
+                SecurityContextHolder.clearContext();
+                LocaleContextHolder.resetLocaleContext();
             }
 
+            return value.get();
+        });
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private <T> Optional<T> waitFor(final Future<T> future) {
+        try {
+            return Optional.ofNullable(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Orders generation was interrupted", e);
+        } catch (ExecutionException e) {
+            LOG.error("Orders generation failed", e.getCause());
+
+            return Optional.empty();
         }
     }
 
@@ -207,8 +431,8 @@ public class OrdersFromMOProductsGenerationService {
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private Date tryGeneratePPS(final Entity order, Date date) {
-        Date startDate = findStartDate(order, date);
+    private Date tryGeneratePPS(final Entity order, Date date, final Map<List<Long>, Entity> changeoverNorms) {
+        Date startDate = findStartDate(order, date, changeoverNorms);
         generateEmptyPpsForOrder(order);
         order.setField("generatePPS", true);
         order.setField(OrderFields.START_DATE, startDate);
@@ -257,14 +481,14 @@ public class OrdersFromMOProductsGenerationService {
         return DateTime.now().toDate();
     }
 
-    private Date findStartDate(final Entity order, Date startDate) {
+    private Date findStartDate(final Entity order, Date startDate, final Map<List<Long>, Entity> changeoverNorms) {
         if (Objects.nonNull(order.getDateField(OrderFields.START_DATE))) {
             return order.getDateField(OrderFields.START_DATE);
         }
 
         Optional<Entity> previousOrder = findPreviousOrder(order);
         if (previousOrder.isPresent()) {
-            Integer changeoverDurationInMillis = getChangeoverDurationInMillis(previousOrder.get(), order);
+            Integer changeoverDurationInMillis = getChangeoverDurationInMillis(previousOrder.get(), order, changeoverNorms);
             List<Entity> shifts = getAllShifts();
             Optional<DateTime> maybeDate = shiftsService.getNearestWorkingDate(
                     new DateTime(startDate),
@@ -297,6 +521,19 @@ public class OrdersFromMOProductsGenerationService {
         Entity toTechnology = nextOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
         Entity productionLine = nextOrder.getBelongsToField(PRODUCTION_LINE);
         Entity changeover = changeoverNormsService.getMatchingChangeoverNorms(fromTechnology, toTechnology, productionLine);
+        return getChangeoverDurationInMillis(changeover);
+    }
+
+    private Integer getChangeoverDurationInMillis(final Entity previousOrder, final Entity nextOrder,
+            final Map<List<Long>, Entity> changeoverNorms) {
+        List<Long> orderIds = Arrays.asList(previousOrder.getId(), nextOrder.getId());
+        if (!changeoverNorms.containsKey(orderIds)) {
+            return getChangeoverDurationInMillis(previousOrder, nextOrder);
+        }
+        return getChangeoverDurationInMillis(changeoverNorms.get(orderIds));
+    }
+
+    private Integer getChangeoverDurationInMillis(final Entity changeover) {
         if (changeover != null) {
             Integer duration = changeover.getIntegerField(LineChangeoverNormsFields.DURATION);
             if (duration == null) {
@@ -307,7 +544,52 @@ public class OrdersFromMOProductsGenerationService {
         return 0;
     }
 
+    /**
+     * Resolves changeover norms between orders of order tree expected to follow each other on production lines, starting from
+     * the last order already planned on each line, with one lookup per line.
+     *
+     * @return changeover norms by ids of previous and next order, norms of other pairs are searched when order is planned
+     */
+    private Map<List<Long>, Entity> getChangeoverNorms(final List<Entity> orders) {
+        Map<Long, List<Entity>> ordersByProductionLine = Maps.newLinkedHashMap();
+
+        for (Entity order : orders) {
+            if (Objects.isNull(order.getDateField(OrderFields.START_DATE))) {
+                Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+                ordersByProductionLine.computeIfAbsent(Objects.isNull(productionLine) ? L_NO_PRODUCTION_LINE
+                        : productionLine.getId(), productionLineId -> Lists.newArrayList()).add(order);
+            }
+        }
+
+        Map<List<Long>, Entity> changeoverNorms = Maps.newHashMap();
+
+        for (List<Entity> lineOrders : ordersByProductionLine.values()) {
+            List<Entity> sequence = Lists.newArrayList();
+            findPreviousOrder(lineOrders.get(0)).ifPresent(sequence::add);
+            sequence.addAll(lineOrders);
+
+            List<Entity> sequenceChangeoverNorms = lineChangeoverNormsForOrdersService.getChangeoverNormsForOrders(sequence);
+
+            for (int index = 1; index < sequence.size(); index++) {
+                Entity previousOrder = sequence.get(index - 1);
+                Entity nextOrder = sequence.get(index);
+                if (Objects.nonNull(previousOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE))
+                        && Objects.nonNull(nextOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE))) {
+                    changeoverNorms.put(Arrays.asList(previousOrder.getId(), nextOrder.getId()),
+                            sequenceChangeoverNorms.get(index));
+                }
+            }
+        }
+
+        return changeoverNorms;
+    }
+
     public Entity createOrder(final Entity masterOrderProduct) {
+        return createOrder(masterOrderProduct,
+                generateOrderNumber(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)));
+    }
+
+    private Entity createOrder(final Entity masterOrderProduct, final String orderNumber) {
         Entity parameter = parameterService.getParameter();
         Entity masterOrder = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER);
         Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
@@ -317,7 +599,7 @@ public class OrdersFromMOProductsGenerationService {
         Date masterOrderFinishDate = masterOrder.getDateField(MasterOrderFields.FINISH_DATE);
 
         Entity order = getOrderDD().create();
-        order.setField(OrderFields.NUMBER, generateOrderNumber(parameter, masterOrder));
+        order.setField(OrderFields.NUMBER, orderNumber);
         order.setField(OrderFields.NAME, generateOrderName(product, technology));
         order.setField(OrderFields.COMPANY, masterOrder.getBelongsToField(MasterOrderFields.COMPANY));
         order.setField(OrderFields.ADDRESS, masterOrder.getBelongsToField(MasterOrderFields.ADDRESS));
@@ -363,9 +645,13 @@ public class OrdersFromMOProductsGenerationService {
         return orderService.makeDefaultName(product, technology, LocaleContextHolder.getLocale());
     }
 
-    private String generateOrderNumber(final Entity parameter, final Entity masterOrder) {
-        return numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
-                masterOrder.getStringField(MasterOrderFields.NUMBER) + "-");
+    private String generateOrderNumber(final Entity masterOrder) {
+        return numberAllocator.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
+                getOrderNumberPrefix(masterOrder));
+    }
+
+    private String getOrderNumberPrefix(final Entity masterOrder) {
+        return masterOrder.getStringField(MasterOrderFields.NUMBER) + "-";
     }
 
     public Entity getProductionLine(final Entity technology) {
@@ -423,4 +709,31 @@ public class OrdersFromMOProductsGenerationService {
     private DataDefinition getShiftDataDefinition() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT);
     }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static class PlannedOrder {
+
+        private final Entity masterOrderProduct;
+
+        private final String orderNumber;
+
+        PlannedOrder(final Entity masterOrderProduct, final String orderNumber) {
+            this.masterOrderProduct = masterOrderProduct;
+            this.orderNumber = orderNumber;
+        }
+
+        Entity getMasterOrderProduct() {
+            return masterOrderProduct;
+        }
+
+        String getOrderNumber() {
+            return orderNumber;
+        }
+
+    }
+
 }
@@ -32,6 +32,7 @@ import org.springframework.stereotype.Service;
 
 import com.google.common.base.Strings;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.NumberAllocator;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
@@ -53,7 +54,6 @@ import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FieldComponent;
 import com.qcadoo.view.api.components.FormComponent;
 import com.qcadoo.view.api.components.LookupComponent;
-import com.qcadoo.view.api.utils.NumberGeneratorService;
 
 @Service
 public class OrderDetailsHooksMO {
@@ -67,7 +67,7 @@ public class OrderDetailsHooksMO {
     private NumberService numberService;
 
     @Autowired
-    private NumberGeneratorService numberGeneratorService;
+    private NumberAllocator numberAllocator;
 
     @Autowired
     private ParameterService parameterService;
@@ -147,18 +147,19 @@ public class OrderDetailsHooksMO {
 
             BigDecimal plannedQuantity = masterOrderQuantity.subtract(cumulatedOrderQuantity, numberService.getMathContext());
 
-            String generatedNumber;
+            String number = (String) numberField.getFieldValue();
+            String numberPrefix = masterOrderNumber + "-";
 
             if (parameter.getBooleanField(ParameterFieldsMO.SAME_ORDER_NUMBER)) {
-                generatedNumber = masterOrderNumber;
-            } else {
-                generatedNumber = numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER,
-                        OrdersConstants.MODEL_ORDER, 3, masterOrderNumber + "-");
+                numberField.setFieldValue(masterOrderNumber);
+                numberField.requestComponentUpdateState();
+            } else if (!StringUtils.startsWith(number, numberPrefix)) {
+                // allocated once per form - field keeps it between renders, so every render doesn't take next number
+                numberField.setFieldValue(numberAllocator.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER,
+                        OrdersConstants.MODEL_ORDER, 3, numberPrefix));
+                numberField.requestComponentUpdateState();
             }
 
-            numberField.setFieldValue(generatedNumber);
-            numberField.requestComponentUpdateState();
-
             if ((companyLookup.getEntity() == null) && (masterOrderCompany != null)) {
                 companyLookup.setFieldValue(masterOrderCompany.getId());
                 companyLookup.requestComponentUpdateState();
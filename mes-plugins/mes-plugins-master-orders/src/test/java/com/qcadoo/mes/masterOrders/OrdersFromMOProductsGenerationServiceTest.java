@@ -0,0 +1,267 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.NumberAllocator;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+
+public class OrdersFromMOProductsGenerationServiceTest {
+
+    private static final int L_TENANT_ID = 7;
+
+    private OrdersFromMOProductsGenerationService ordersFromMOProductsGenerationService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberAllocator numberAllocator;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private DataDefinition orderDD, masterOrderProductDtoDD, masterOrderProductDD;
+
+    @Mock
+    private Entity parameter, masterOrderProductDto, product, technology;
+
+    private final Map<Entity, String> orderNumbers = new ConcurrentHashMap<>();
+
+    private final List<String> savedOrders = Collections.synchronizedList(Lists.newArrayList());
+
+    private final Map<String, String> savingThreads = new ConcurrentHashMap<>();
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersFromMOProductsGenerationService = spy(new OrdersFromMOProductsGenerationService());
+
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "translationService", translationService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "numberAllocator", numberAllocator);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "orderService", orderService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "multiTenantService", multiTenantService);
+
+        doReturn(L_TENANT_ID).when(ordersFromMOProductsGenerationService).getCurrentTenantId();
+
+        doAnswer(invocation -> {
+            ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+
+            return null;
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        given(parameterService.getParameter()).willReturn(parameter);
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+        given(dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
+                MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO)).willReturn(masterOrderProductDtoDD);
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PARAMETER)).willReturn(
+                mock(DataDefinition.class, RETURNS_DEEP_STUBS));
+
+        given(masterOrderProductDtoDD.get(anyLong())).willReturn(masterOrderProductDto);
+        given(masterOrderProductDto.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY)).willReturn(BigDecimal.TEN);
+
+        given(product.getStringField(ProductFields.NUMBER)).willReturn("P1");
+
+        given(orderDD.create()).willAnswer(invocation -> {
+            Entity order = mock(Entity.class);
+
+            doAnswer(setNumber -> orderNumbers.put(order, (String) setNumber.getArguments()[1])).when(order).setField(
+                    eq(OrderFields.NUMBER), any());
+            given(order.getStringField(OrderFields.NUMBER)).willAnswer(getNumber -> orderNumbers.get(order));
+            given(order.isValid()).willReturn(true);
+
+            return order;
+        });
+    }
+
+    @After
+    public void shutdown() {
+        ordersFromMOProductsGenerationService.shutdown();
+    }
+
+    private Entity mockMasterOrder(final Long id, final String number) {
+        Entity masterOrder = mock(Entity.class);
+
+        given(masterOrder.getId()).willReturn(id);
+        given(masterOrder.getStringField(MasterOrderFields.NUMBER)).willReturn(number);
+
+        return masterOrder;
+    }
+
+    private Entity mockMasterOrderProduct(final Long id, final Entity masterOrder) {
+        Entity masterOrderProduct = mock(Entity.class);
+
+        given(masterOrderProduct.getId()).willReturn(id);
+        given(masterOrderProduct.getDataDefinition()).willReturn(masterOrderProductDD);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)).willReturn(masterOrder);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)).willReturn(product);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY)).willReturn(technology);
+
+        return masterOrderProduct;
+    }
+
+    private void givenOrderNumbers(final String prefix, final String... numbers) {
+        given(numberAllocator.reserveNumbers(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3, prefix,
+                numbers.length)).willReturn(Lists.newArrayList(numbers));
+    }
+
+    private void givenSavedOrdersAreRecorded() {
+        given(orderDD.save(any(Entity.class))).willAnswer(invocation -> {
+            Entity order = (Entity) invocation.getArguments()[0];
+            String number = orderNumbers.get(order);
+
+            savedOrders.add(number);
+            savingThreads.put(number, Thread.currentThread().getName());
+
+            return order;
+        });
+    }
+
+    @Test
+    public void shouldGenerateOrdersOfMasterOrderOnOneWorkerInTurn() {
+        // given
+        Entity masterOrder = mockMasterOrder(1L, "MO1");
+        Entity otherMasterOrder = mockMasterOrder(2L, "MO2");
+
+        givenOrderNumbers("MO1-", "MO1-001", "MO1-002", "MO1-003");
+        givenOrderNumbers("MO2-", "MO2-001");
+        givenSavedOrdersAreRecorded();
+
+        List<Entity> masterOrderProducts = Lists.newArrayList(mockMasterOrderProduct(11L, masterOrder),
+                mockMasterOrderProduct(21L, otherMasterOrder), mockMasterOrderProduct(12L, masterOrder),
+                mockMasterOrderProduct(13L, masterOrder));
+
+        // when
+        ordersFromMOProductsGenerationService.generateOrders(masterOrderProducts, false);
+
+        // then
+        assertEquals(4, savedOrders.size());
+
+        List<String> masterOrderOrders = Lists.newArrayList(savedOrders);
+        masterOrderOrders.remove("MO2-001");
+
+        assertEquals(Lists.newArrayList("MO1-001", "MO1-002", "MO1-003"), masterOrderOrders);
+        assertEquals(savingThreads.get("MO1-001"), savingThreads.get("MO1-002"));
+        assertEquals(savingThreads.get("MO1-001"), savingThreads.get("MO1-003"));
+        assertTrue(savingThreads.get("MO2-001").startsWith("orders-generation-"));
+
+        verify(multiTenantService, times(2)).doInMultiTenantContext(eq(L_TENANT_ID), any(MultiTenantCallback.class));
+        verify(multiTenantService, never()).doInMultiTenantContext(any(MultiTenantCallback.class));
+    }
+
+    @Test
+    public void shouldGenerateNextOrdersOfMasterOrderWhenOneFails() {
+        // given
+        Entity masterOrder = mockMasterOrder(1L, "MO1");
+
+        givenOrderNumbers("MO1-", "MO1-001", "MO1-002");
+
+        given(orderDD.save(any(Entity.class))).willAnswer(invocation -> {
+            Entity order = (Entity) invocation.getArguments()[0];
+
+            if ("MO1-001".equals(orderNumbers.get(order))) {
+                throw new IllegalStateException("Order can't be saved");
+            }
+
+            return order;
+        });
+
+        List<Entity> masterOrderProducts = Lists.newArrayList(mockMasterOrderProduct(11L, masterOrder),
+                mockMasterOrderProduct(12L, masterOrder));
+
+        ViewDefinitionState view = mock(ViewDefinitionState.class);
+
+        // when
+        GenerationOrderResult result = ordersFromMOProductsGenerationService.generateOrders(masterOrderProducts, false);
+
+        // then
+        result.showMessage(view);
+
+        verify(view).addMessage("masterOrders.masterOrder.generationOrder.processedOrders", ComponentState.MessageType.INFO,
+                false, "2", "2");
+        verify(view).addMessage("masterOrders.masterOrder.generationOrder.generatedOrderNumbers",
+                ComponentState.MessageType.INFO, false, "MO1-002");
+        verify(view).addTranslatedMessage(any(String.class), eq(ComponentState.MessageType.INFO), eq(false));
+    }
+
+}
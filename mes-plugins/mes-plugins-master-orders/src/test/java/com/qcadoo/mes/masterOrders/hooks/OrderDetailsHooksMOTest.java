@@ -0,0 +1,169 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.masterOrders.hooks;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.NumberAllocator;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderPositionDtoFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
+import com.qcadoo.mes.masterOrders.constants.OrderFieldsMO;
+import com.qcadoo.mes.masterOrders.constants.ParameterFieldsMO;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.FieldComponent;
+import com.qcadoo.view.api.components.FormComponent;
+import com.qcadoo.view.api.components.LookupComponent;
+
+public class OrderDetailsHooksMOTest {
+
+    private static final String L_FORM = "form";
+
+    private static final Long L_MASTER_ORDER_ID = 1L;
+
+    private static final String L_MASTER_ORDER_NUMBER = "MO1";
+
+    private OrderDetailsHooksMO orderDetailsHooksMO;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private NumberAllocator numberAllocator;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private ViewDefinitionState view;
+
+    @Mock
+    private FormComponent orderForm;
+
+    @Mock
+    private FieldComponent numberField;
+
+    @Mock
+    private LookupComponent otherField;
+
+    @Mock
+    private Entity order, masterOrder, parameter;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Entity masterOrderProductComponent;
+
+    @Before
+    public void init() {
+        orderDetailsHooksMO = new OrderDetailsHooksMO();
+
+        MockitoAnnotations.initMocks(this);
+
+        ReflectionTestUtils.setField(orderDetailsHooksMO, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(orderDetailsHooksMO, "numberService", numberService);
+        ReflectionTestUtils.setField(orderDetailsHooksMO, "numberAllocator", numberAllocator);
+        ReflectionTestUtils.setField(orderDetailsHooksMO, "parameterService", parameterService);
+        ReflectionTestUtils.setField(orderDetailsHooksMO, "orderService", orderService);
+
+        given(view.getComponentByReference(anyString())).willReturn(otherField);
+        given(view.getComponentByReference(L_FORM)).willReturn(orderForm);
+        given(view.getComponentByReference(OrderFields.NUMBER)).willReturn(numberField);
+
+        given(orderForm.getEntity()).willReturn(order);
+        given(order.getId()).willReturn(null);
+        given(order.getBelongsToField(OrderFieldsMO.MASTER_ORDER)).willReturn(masterOrder);
+        given(order.getBelongsToField(OrderFieldsMO.MASTER_ORDER_PRODUCT_COMPONENT)).willReturn(masterOrderProductComponent);
+
+        given(masterOrder.getId()).willReturn(L_MASTER_ORDER_ID);
+        given(masterOrder.getStringField(MasterOrderFields.NUMBER)).willReturn(L_MASTER_ORDER_NUMBER);
+        given(dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER, MasterOrdersConstants.MODEL_MASTER_ORDER)
+                .get(L_MASTER_ORDER_ID)).willReturn(masterOrder);
+        given(masterOrderProductComponent.getId()).willReturn(2L);
+        given(masterOrderProductComponent.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY)).willReturn(
+                BigDecimal.TEN);
+        given(dataDefinitionService
+                .get(MasterOrdersConstants.PLUGIN_IDENTIFIER, MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO).get(2L)
+                .getDecimalField(MasterOrderPositionDtoFields.CUMULATED_MASTER_ORDER_QUANTITY)).willReturn(BigDecimal.ONE);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBooleanField(ParameterFieldsMO.SAME_ORDER_NUMBER)).willReturn(false);
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+    }
+
+    @Test
+    public final void shouldAllocateNumberWithMasterOrderPrefix() {
+        // given
+        given(numberField.getFieldValue()).willReturn("000005");
+        given(numberAllocator.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
+                L_MASTER_ORDER_NUMBER + "-")).willReturn("MO1-001");
+
+        // when
+        orderDetailsHooksMO.fillMasterOrderFields(view);
+
+        // then
+        verify(numberField).setFieldValue("MO1-001");
+    }
+
+    @Test
+    public final void shouldNotAllocateNumberAgainWhenFormIsRenderedAgain() {
+        // given
+        given(numberField.getFieldValue()).willReturn("MO1-001");
+
+        // when
+        orderDetailsHooksMO.fillMasterOrderFields(view);
+
+        // then
+        verify(numberAllocator, never()).generateNumberWithPrefix(anyString(), anyString(), anyInt(), anyString());
+        verify(numberField, never()).setFieldValue(any());
+    }
+
+}
@@ -10,13 +10,20 @@ public class DocumentPositionResourcesHelper {
     private WarehouseMethodOfDisposalService warehouseMethodOfDisposalService;
 
     public String getResourceQuery(final Long document, boolean query, boolean useAdditionalCode) {
+        return getUnorderedResourceQuery(query, useAdditionalCode) + getResourceOrderBy(document);
+    }
+
+    public String getUnorderedResourceQuery(boolean query, boolean useAdditionalCode) {
         StringBuilder queryBuilder = new StringBuilder();
         queryBuilder.append("select number, batch, availablequantity from materialflowresources_resource");
         appendWhereClause(queryBuilder, query, useAdditionalCode);
-        queryBuilder.append(warehouseMethodOfDisposalService.getSqlOrderByForResource(document));
         return queryBuilder.toString();
     }
 
+    public String getResourceOrderBy(final Long document) {
+        return warehouseMethodOfDisposalService.getSqlOrderByForResource(document);
+    }
+
     public String getMethodOfDisposalQuery(final Long document, boolean query, boolean useAdditionalCode) {
         StringBuilder queryBuilder = new StringBuilder();
         queryBuilder.append(warehouseMethodOfDisposalService.getSqlConditionForResource(document));
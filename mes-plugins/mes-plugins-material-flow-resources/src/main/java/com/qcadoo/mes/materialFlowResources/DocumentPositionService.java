@@ -11,7 +11,6 @@ import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
@@ -19,9 +18,11 @@ import org.springframework.util.StringUtils;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.GridPaging;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.LookupUtils;
 import com.qcadoo.mes.basic.controllers.dataProvider.DataProvider;
+import com.qcadoo.mes.basic.controllers.dataProvider.TypeaheadSearchService;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
@@ -44,6 +45,9 @@ public class DocumentPositionService {
     @Autowired
     private DataProvider dataProvider;
 
+    @Autowired
+    private TypeaheadSearchService typeaheadSearchService;
+
     @Autowired
     private DocumentPositionResourcesHelper positionResourcesHelper;
 
@@ -52,6 +56,11 @@ public class DocumentPositionService {
 
     public GridResponse<DocumentPositionDTO> findAll(final Long documentId, final String _sidx, final String _sord, int page,
             int perPage, final DocumentPositionDTO position) {
+        return findAll(documentId, _sidx, _sord, page, perPage, position, GridPaging.offset());
+    }
+
+    public GridResponse<DocumentPositionDTO> findAll(final Long documentId, final String _sidx, final String _sord, int page,
+            int perPage, final DocumentPositionDTO position, final GridPaging paging) {
         String query = "SELECT %s FROM ( SELECT p.*, p.document_id AS document, product.number AS product, product.name AS productName, product.unit, additionalcode.code AS additionalcode, "
                 + "palletnumber.number AS palletnumber, location.number AS storagelocation, resource.number AS resource, \n"
                 + "(coalesce(r1.resourcesCount,0) < 2 AND p.quantity >= coalesce(resource.quantity,0)) AS lastResource "
@@ -67,7 +76,7 @@ public class DocumentPositionService {
 
         parameters.put("documentId", documentId);
 
-        return lookupUtils.getGridResponse(query, _sidx, _sord, page, perPage, position, parameters);
+        return lookupUtils.getGridResponse(query, _sidx, _sord, page, perPage, position, parameters, paging);
     }
 
     public void delete(final Long id) {
@@ -132,19 +141,15 @@ public class DocumentPositionService {
         jdbcTemplate.update(query, params);
     }
 
-    private List<StorageLocationDTO> getStorageLocations(String preparedQuery, String q, Map<String, Object> paramMap) {
+    public DataResponse getStorageLocationsResponse(final String q, String product, String document) {
         if (Strings.isNullOrEmpty(q)) {
-            return Lists.newArrayList();
-        } else {
-            MapSqlParameterSource queryParameters = new MapSqlParameterSource(paramMap).addValue("query", '%' + q + '%');
-            preparedQuery = preparedQuery.substring(0, preparedQuery.length() - 1); // remove trailing ';' char
-            preparedQuery = preparedQuery + " LIMIT " + DataProvider.MAX_RESULTS + ';';
-            return jdbcTemplate.query(preparedQuery, queryParameters,
-                    BeanPropertyRowMapper.newInstance(StorageLocationDTO.class));
+            DataResponse dataResponse = new DataResponse(Lists.newArrayList(), 0);
+
+            dataResponse.setHasMoreResults(true);
+
+            return dataResponse;
         }
-    }
 
-    public DataResponse getStorageLocationsResponse(final String q, String product, String document) {
         String preparedQuery;
 
         Map<String, Object> paramMap = Maps.newHashMap();
@@ -153,18 +158,18 @@ public class DocumentPositionService {
         if (Strings.isNullOrEmpty(product)) {
             preparedQuery = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :query "
                     + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = :document) "
-                    + "AND active = true;";
+                    + "AND active = true";
         } else {
 
             preparedQuery = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :query "
                     + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = :document) "
                     + "AND (product_id IN (SELECT id FROM basic_product WHERE number LIKE :product) OR product_id IS NULL) "
-                    + "AND active = true;";
+                    + "AND active = true";
             paramMap.put("product", product);
         }
-        List<StorageLocationDTO> entities = getStorageLocations(preparedQuery, q, paramMap);
 
-        return dataProvider.getDataResponse(q, preparedQuery, entities, paramMap);
+        return typeaheadSearchService.search("storageLocations", preparedQuery, "number", q, paramMap, StorageLocationDTO.class,
+                StorageLocationDTO::getNumber);
     }
 
     public Map<String, Object> getGridConfig(final Long documentId) {
@@ -464,6 +469,16 @@ public class DocumentPositionService {
 
         boolean useAdditionalCode = org.apache.commons.lang3.StringUtils.isNotEmpty(additionalCode);
 
+        if (shouldCheckMaxResults) {
+            DataResponse dataResponse = searchResources(document, q, product, conversion, useAdditionalCode, additionalCode);
+
+            if (dataResponse.getEntities().isEmpty() && useAdditionalCode) {
+                dataResponse = searchResources(document, q, product, conversion, false, additionalCode);
+            }
+
+            return dataResponse;
+        }
+
         String query = '%' + q + '%';
 
         List<AbstractDTO> entities = getResources(document, query, product, conversion, useAdditionalCode, additionalCode);
@@ -489,6 +504,23 @@ public class DocumentPositionService {
         return dataProvider.getDataResponse(query, preparedQuery, entities, paramMap, shouldCheckMaxResults);
     }
 
+    private DataResponse searchResources(final Long document, final String q, final String product,
+            final BigDecimal conversion, final boolean useAdditionalCode, final String additionalCode) {
+        Map<String, Object> paramMap = Maps.newHashMap();
+
+        paramMap.put("product", product);
+        paramMap.put("conversion", conversion);
+        paramMap.put("context", document);
+
+        if (useAdditionalCode) {
+            paramMap.put("add_code", additionalCode);
+        }
+
+        return typeaheadSearchService.search("resources", positionResourcesHelper.getUnorderedResourceQuery(true,
+                useAdditionalCode), "number", positionResourcesHelper.getResourceOrderBy(document), q, paramMap,
+                ResourceDTO.class, ResourceDTO::getNumber);
+    }
+
     public ResourceDTO getResourceByNumber(final String resource) {
         String query = "SELECT r.*, sl.number AS storageLocation, pn.number AS palletNumber, ac.code AS additionalCode, \n"
                 + "coalesce(r1.resourcesCount,0) < 2 AS lastResource "
@@ -512,13 +544,19 @@ public class DocumentPositionService {
     }
 
     public void deletePositions(final String ids) {
-        List<String> items = Arrays.asList(ids.split("\\s*,\\s*"));
+        List<Long> positionIds = Arrays.stream(ids.split("\\s*,\\s*")).map(Long::valueOf).collect(Collectors.toList());
+
+        positionIds.forEach(validator::validateBeforeDelete);
+
+        Long documentId = findDocumentByPosition(positionIds.get(0));
+
+        Map<String, Object> params = Collections.singletonMap("ids", positionIds);
 
-        Long documentId = findDocumentByPosition(Long.valueOf(items.stream().findFirst().get()));
+        List<Map<String, Object>> positions = jdbcTemplate.queryForList(
+                "SELECT id, product_id, resource_id, quantity FROM materialflowresources_position WHERE id IN (:ids)", params);
 
-        items.forEach(id -> {
-            delete(Long.valueOf(id));
-        });
+        reservationsService.deleteReservationsFromDocumentPositions(documentId, positions);
+        jdbcTemplate.update("DELETE FROM materialflowresources_position WHERE id IN (:ids)", params);
 
         updateDocumentPositionsNumbers(documentId);
     }
@@ -8,6 +8,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.SqlIndexesLoader;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -18,20 +19,31 @@ import com.qcadoo.plugin.api.Module;
 @Component
 public class MaterialFlowResourcesOnStartupService extends Module {
 
+    private static final String L_TYPEAHEAD_INDEXES = "/materialFlowResources/model/data/typeaheadIndexes.sql";
+
+    private static final String L_POSITION_NUMBER_SEQUENCE = "/materialFlowResources/model/data/positionNumberSequence.sql";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private SqlIndexesLoader sqlIndexesLoader;
+
     @Override
     public void enableOnStartup() {
         setDocumentPositionParameters();
+        sqlIndexesLoader.loadSql(L_TYPEAHEAD_INDEXES);
+        sqlIndexesLoader.loadSql(L_POSITION_NUMBER_SEQUENCE);
     }
 
     @Override
     public void enable() {
         setDocumentPositionParameters();
+        sqlIndexesLoader.loadSql(L_TYPEAHEAD_INDEXES);
+        sqlIndexesLoader.loadSql(L_POSITION_NUMBER_SEQUENCE);
     }
 
     @Transactional
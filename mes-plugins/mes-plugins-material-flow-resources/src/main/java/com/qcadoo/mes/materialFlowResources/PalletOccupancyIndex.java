@@ -0,0 +1,103 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Optional;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Occupancy of pallets of one location - storage locations and pallet types under which pallet numbers are used by resources,
+ * positions of draft documents and delivered products of open deliveries.
+ *
+ * Index is loaded for all pallet numbers of validated rows at once (see
+ * {@link PalletValidatorService#getPalletOccupancyIndex(Long, Collection)}) and rows accepted by validation are placed in it,
+ * so rows of one document or delivery are checked against each other too.
+ */
+public class PalletOccupancyIndex {
+
+    private final Multimap<String, PalletPlacement> placements = ArrayListMultimap.create();
+
+    void place(final String palletNumber, final PalletPlacement placement) {
+        Collection<PalletPlacement> palletPlacements = placements.get(palletNumber);
+
+        if (placement.getId() != null) {
+            palletPlacements.removeIf(placement::isSameRow);
+        }
+
+        palletPlacements.add(placement);
+    }
+
+    /**
+     * @return placement of given pallet number in other storage location or with other pallet type, resources go first, then
+     *         positions and delivered products
+     */
+    public Optional<PalletPlacement> findConflicting(final String palletNumber, final PalletPlacement placement) {
+        return placements.get(palletNumber).stream().filter(other -> !other.isSameRow(placement))
+                .filter(other -> other.conflictsWith(placement)).min(Comparator.comparing(PalletPlacement::getSource));
+    }
+
+    public enum PalletPlacementSource {
+
+        RESOURCE("documentGrid.error.position.existsOtherResourceForPalletAndStorageLocation"),
+
+        POSITION("documentGrid.error.position.existsOtherPositionForPalletAndStorageLocation"),
+
+        DELIVERED_PRODUCT("documentGrid.error.position.existsOtherDeliveredProductForPalletAndStorageLocation");
+
+        private final String errorMessage;
+
+        PalletPlacementSource(final String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+    }
+
+    public static class PalletPlacement {
+
+        private final PalletPlacementSource source;
+
+        private final Long id;
+
+        private final String storageLocationNumber;
+
+        private final String palletType;
+
+        public PalletPlacement(final PalletPlacementSource source, final Long id, final String storageLocationNumber,
+                final String palletType) {
+            this.source = source;
+            this.id = id;
+            this.storageLocationNumber = storageLocationNumber;
+            this.palletType = palletType;
+        }
+
+        public PalletPlacementSource getSource() {
+            return source;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        boolean isSameRow(final PalletPlacement other) {
+            return id != null && source == other.source && id.equals(other.id);
+        }
+
+        // same as "storageLocation.number <> :storageLocation OR typeOfPallet <> :palletType" in queries, nulls never differ
+        boolean conflictsWith(final PalletPlacement other) {
+            return differs(storageLocationNumber, other.storageLocationNumber) || differs(palletType, other.palletType);
+        }
+
+        private static boolean differs(final String value, final String otherValue) {
+            return value != null && otherValue != null && !Objects.equals(value, otherValue);
+        }
+
+    }
+
+}
@@ -1,157 +1,189 @@
 package com.qcadoo.mes.materialFlowResources;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.constants.PalletNumberFields;
-import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancyIndex.PalletPlacement;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancyIndex.PalletPlacementSource;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
 import com.qcadoo.mes.materialFlowResources.constants.StorageLocationFields;
-import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchQueryBuilder;
 
 @Service
 public class PalletValidatorService {
 
+    private static final String L_PALLET_NUMBER = "palletNumber";
+
+    private static final String L_STORAGE_LOCATION = "storageLocation";
+
+    private static final String L_PALLET_TYPE = "palletType";
+
+    private static final String L_VALIDATE_PALLET = "validatePallet";
+
     @Autowired
-    private DataDefinitionService dataDefinitionService;
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     public boolean validatePalletForDeliveredProduct(Entity deliveredProduct) {
         Entity location = deliveredProduct.getBelongsToField("delivery").getBelongsToField("location");
-        if (location == null) {
-            return true;
-        }
-        Entity palletNumberEntity = deliveredProduct.getBelongsToField("palletNumber");
-        Entity storageLocationEntity = deliveredProduct.getBelongsToField("storageLocation");
-        String palletType = deliveredProduct.getStringField("palletType");
-        String palletNumber = palletNumberEntity != null ? palletNumberEntity.getStringField(PalletNumberFields.NUMBER) : null;
-        String storageLocation = storageLocationEntity != null ? storageLocationEntity
-                .getStringField(StorageLocationFields.NUMBER) : null;
-        return validatePallet(palletNumber, palletType, storageLocation, deliveredProduct, location);
+        return validatePalletsForDeliveredProducts(location, Collections.singletonList(deliveredProduct));
     }
 
     public boolean validatePalletForResource(Entity resource) {
-        Entity palletNumberEntity = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-        Entity storageLocationEntity = resource.getBelongsToField(ResourceFields.STORAGE_LOCATION);
-        String palletType = resource.getStringField(ResourceFields.TYPE_OF_PALLET);
-
-        String palletNumber = palletNumberEntity != null ? palletNumberEntity.getStringField(PalletNumberFields.NUMBER) : null;
-        String storageLocation = storageLocationEntity != null ? storageLocationEntity
-                .getStringField(StorageLocationFields.NUMBER) : null;
         Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
-        return validatePallet(palletNumber, palletType, storageLocation, resource, location);
+        return validatePallets(location, Collections.singletonList(resource), PalletPlacementSource.RESOURCE, Entity::getId,
+                ResourceFields.TYPE_OF_PALLET);
     }
 
-    private boolean validatePallet(String palletNumber, String palletType, String storageLocation, Entity entity, Entity location) {
-        if (entity.getField("validatePallet") != null && !entity.getBooleanField("validatePallet")) {
+    /**
+     * Validates pallets of delivered products of one delivery at once, all conflicts are reported as errors of delivered
+     * products.
+     *
+     * @param location
+     *            location of delivery
+     * @param deliveredProducts
+     *            delivered products
+     * @return true if none of pallets is placed in other storage location or has other type
+     */
+    public boolean validatePalletsForDeliveredProducts(final Entity location, final List<Entity> deliveredProducts) {
+        if (location == null) {
             return true;
         }
-        return !existsOtherResourceForPalletNumber(palletNumber, palletType, storageLocation, entity, location)
-                && !existsOtherPositionForPalletNumber(palletNumber, palletType, storageLocation, entity, location)
-                && !existsOtherDeliveredProductForPalletNumber(palletNumber, palletType, storageLocation, entity, location);
-
+        return validatePallets(location, deliveredProducts, PalletPlacementSource.DELIVERED_PRODUCT, Entity::getId,
+                L_PALLET_TYPE);
     }
 
-    private boolean existsOtherPositionForPalletNumber(String palletNumber, String palletType, String storageLocation,
-            Entity entity, Entity location) {
-        StringBuilder query = new StringBuilder();
-        query.append("select count(dp) as cnt from #materialFlowResources_position dp JOIN dp.palletNumber as pallet ");
-        query.append("JOIN dp.document as document ");
-        query.append("JOIN document.locationTo as location ");
-        query.append("LEFT JOIN dp.storageLocation storageLocation ");
-        query.append("WHERE pallet.number = :palletNumber ");
-        query.append("AND document.state = '01draft' ");
-        query.append("AND (storageLocation.number <> :storageLocation OR dp.typeOfPallet <> :palletType) ");
-        query.append("AND location.id = :locationId ");
-        if (entity.getId() != null) {
-            query.append("AND dp.id <> :dpId ");
-        }
-        SearchQueryBuilder find = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowResourcesConstants.MODEL_POSITION).find(query.toString());
-        find.setString("palletType", palletType);
-        find.setString("palletNumber", palletNumber);
-        find.setString("storageLocation", storageLocation);
-        find.setLong("locationId", location.getId());
-        if (entity.getId() != null) {
-            find.setLong("dpId", entity.getId());
-        }
-        Entity countResults = find.uniqueResult();
+    /**
+     * Validates pallets of many new resources of given location at once, all conflicts are reported as errors of given
+     * entities. Resources are checked against existing resources, draft positions and open deliveries, and against each other.
+     *
+     * @param location
+     *            location of resources
+     * @param resources
+     *            new resources, or positions they are created from
+     * @return true if none of pallets is placed in other storage location or has other type
+     */
+    public boolean validatePalletsForResources(final Entity location, final List<Entity> resources) {
+        return validatePallets(location, resources, PalletPlacementSource.RESOURCE, resource -> null,
+                ResourceFields.TYPE_OF_PALLET);
+    }
 
-        boolean exists = ((Long) countResults.getField("cnt")) > 0L;
-        if (exists) {
-            entity.addError(entity.getDataDefinition().getField("palletNumber"),
-                    "documentGrid.error.position.existsOtherPositionForPalletAndStorageLocation");
+    /**
+     * Loads occupancy of given pallet numbers in location, with one query for resources, positions of draft documents and
+     * delivered products of open deliveries.
+     */
+    public PalletOccupancyIndex getPalletOccupancyIndex(final Long locationId, final Collection<String> palletNumbers) {
+        PalletOccupancyIndex index = new PalletOccupancyIndex();
 
+        if (palletNumbers.isEmpty()) {
+            return index;
         }
-        return exists;
-    }
 
-    private boolean existsOtherResourceForPalletNumber(String palletNumber, String palletType, String storageLocation,
-            Entity entity, Entity location) {
         StringBuilder query = new StringBuilder();
-        query.append("select count(dp) as cnt from #materialFlowResources_resource dp JOIN dp.palletNumber as pallet ");
-        query.append("JOIN dp.location AS location ");
-        query.append("LEFT JOIN dp.storageLocation storageLocation ");
-        query.append("WHERE pallet.number = :palletNumber ");
-        query.append("AND (storageLocation.number <> :storageLocation OR dp.typeOfPallet <> :palletType) ");
-        query.append("AND location.id = :locationId ");
-        if (entity.getId() != null) {
-            query.append("AND dp.id <> :resourceId ");
+        query.append("SELECT 'RESOURCE' AS source, resource.id, pallet.number AS palletnumber, ");
+        query.append("storagelocation.number AS storagelocationnumber, resource.typeofpallet AS pallettype ");
+        query.append("FROM materialflowresources_resource resource ");
+        query.append("JOIN basic_palletnumber pallet ON pallet.id = resource.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = resource.storagelocation_id ");
+        query.append("WHERE resource.location_id = :locationId AND pallet.number IN (:palletNumbers) ");
+        query.append("UNION ALL ");
+        query.append("SELECT 'POSITION', position.id, pallet.number, storagelocation.number, position.typeofpallet ");
+        query.append("FROM materialflowresources_position position ");
+        query.append("JOIN materialflowresources_document document ON document.id = position.document_id ");
+        query.append("JOIN basic_palletnumber pallet ON pallet.id = position.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = position.storagelocation_id ");
+        query.append("WHERE document.state = '01draft' AND document.locationto_id = :locationId ");
+        query.append("AND pallet.number IN (:palletNumbers) ");
+        query.append("UNION ALL ");
+        query.append("SELECT 'DELIVERED_PRODUCT', deliveredproduct.id, pallet.number, storagelocation.number, ");
+        query.append("deliveredproduct.pallettype ");
+        query.append("FROM deliveries_deliveredproduct deliveredproduct ");
+        query.append("JOIN deliveries_delivery delivery ON delivery.id = deliveredproduct.delivery_id ");
+        query.append("JOIN basic_palletnumber pallet ON pallet.id = deliveredproduct.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = deliveredproduct.storagelocation_id ");
+        query.append("WHERE delivery.state <> '06received' AND delivery.state <> '04declined' ");
+        query.append("AND delivery.location_id = :locationId AND pallet.number IN (:palletNumbers)");
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("locationId", locationId);
+        params.addValue("palletNumbers", palletNumbers);
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> index.place(rs.getString("palletnumber"),
+                new PalletPlacement(PalletPlacementSource.valueOf(rs.getString("source")), rs.getLong("id"),
+                        rs.getString("storagelocationnumber"), rs.getString("pallettype"))));
+
+        return index;
+    }
+
+    private boolean validatePallets(final Entity location, final List<Entity> entities, final PalletPlacementSource source,
+            final Function<Entity, Long> idProvider, final String palletTypeField) {
+        Collection<String> palletNumbers = Sets.newHashSet();
 
+        for (Entity entity : entities) {
+            getPalletNumber(entity).ifPresent(palletNumbers::add);
         }
-        SearchQueryBuilder find = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowResourcesConstants.MODEL_RESOURCE).find(query.toString());
-        find.setString("palletType", palletType);
-        find.setString("palletNumber", palletNumber);
-        find.setString("storageLocation", storageLocation);
-        find.setLong("locationId", location.getId());
-        if (entity.getId() != null) {
-            find.setLong("resourceId", entity.getId());
+
+        if (palletNumbers.isEmpty()) {
+            return true;
         }
-        Entity countResults = find.uniqueResult();
 
-        boolean exists = ((Long) countResults.getField("cnt")) > 0L;
-        if (exists) {
-            entity.addError(entity.getDataDefinition().getField("palletNumber"),
-                    "documentGrid.error.position.existsOtherResourceForPalletAndStorageLocation");
+        PalletOccupancyIndex index = getPalletOccupancyIndex(location.getId(), palletNumbers);
+
+        boolean isValid = true;
+
+        for (Entity entity : entities) {
+            Optional<String> palletNumber = getPalletNumber(entity);
+
+            if (!palletNumber.isPresent()) {
+                continue;
+            }
+
+            PalletPlacement placement = new PalletPlacement(source, idProvider.apply(entity), getStorageLocationNumber(entity),
+                    entity.getStringField(palletTypeField));
 
+            Optional<PalletPlacement> conflicting = index.findConflicting(palletNumber.get(), placement);
+
+            if (conflicting.isPresent()) {
+                entity.addError(entity.getDataDefinition().getField(L_PALLET_NUMBER), conflicting.get().getSource()
+                        .getErrorMessage());
+
+                isValid = false;
+            } else {
+                index.place(palletNumber.get(), placement);
+            }
         }
-        return exists;
+
+        return isValid;
     }
 
-    private boolean existsOtherDeliveredProductForPalletNumber(String palletNumber, String palletType, String storageLocation,
-            Entity entity, Entity location) {
-        StringBuilder query = new StringBuilder();
-        query.append("select count(dp) as cnt from #deliveries_deliveredProduct dp JOIN dp.palletNumber as pallet ");
-        query.append("JOIN dp.delivery delivery ");
-        query.append("JOIN delivery.location AS location ");
-        query.append("LEFT JOIN dp.storageLocation storageLocation ");
-        query.append("WHERE pallet.number = :palletNumber ");
-        query.append("AND delivery.state <> '06received' AND delivery.state <> '04declined' ");
-        query.append("AND (storageLocation.number <> :storageLocation OR dp.palletType <> :palletType) ");
-        query.append("AND location.id = :locationId ");
-        if (entity.getId() != null) {
-            query.append("AND dp.id <> :dpId ");
-        }
-        SearchQueryBuilder find = dataDefinitionService.get("deliveries", "deliveredProduct").find(query.toString());
-        find.setString("palletType", palletType);
-        find.setString("palletNumber", palletNumber);
-        find.setString("storageLocation", storageLocation);
-        find.setLong("locationId", location.getId());
-        if (entity.getId() != null) {
-            find.setLong("dpId", entity.getId());
+    private Optional<String> getPalletNumber(final Entity entity) {
+        if (entity.getField(L_VALIDATE_PALLET) != null && !entity.getBooleanField(L_VALIDATE_PALLET)) {
+            return Optional.empty();
         }
 
-        Entity countResults = find.uniqueResult();
+        Entity palletNumber = entity.getBelongsToField(L_PALLET_NUMBER);
+
+        return palletNumber != null ? Optional.ofNullable(palletNumber.getStringField(PalletNumberFields.NUMBER)) : Optional
+                .empty();
+    }
 
-        boolean exists = ((Long) countResults.getField("cnt")) > 0L;
-        if (exists) {
-            entity.addError(entity.getDataDefinition().getField("palletNumber"),
-                    "documentGrid.error.position.existsOtherDeliveredProductForPalletAndStorageLocation");
+    private String getStorageLocationNumber(final Entity entity) {
+        Entity storageLocation = entity.getBelongsToField(L_STORAGE_LOCATION);
 
-        }
-        return exists;
+        return storageLocation != null ? storageLocation.getStringField(StorageLocationFields.NUMBER) : null;
     }
 
 }
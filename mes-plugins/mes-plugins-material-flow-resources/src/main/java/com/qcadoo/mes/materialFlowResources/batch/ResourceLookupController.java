@@ -17,6 +17,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.BasicLookupController;
+import com.qcadoo.mes.basic.GridPaging;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.LookupUtils;
 import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
@@ -45,14 +46,16 @@ public class ResourceLookupController extends BasicLookupController<ResourceDTO>
     public GridResponse<ResourceDTO> getRecords(@RequestParam String sidx, @RequestParam String sord,
             @RequestParam(defaultValue = "1", required = false, value = "page") Integer page,
             @RequestParam(value = "rows") int perPage,
-            @RequestParam(defaultValue = "0", required = false, value = "context") Long context, ResourceDTO record) {
+            @RequestParam(defaultValue = "0", required = false, value = "context") Long context,
+            @RequestParam(required = false, value = "keysetValue") String keysetValue,
+            @RequestParam(required = false, value = "keysetId") Long keysetId, ResourceDTO record) {
 
-        return getResponse(sidx, sord, page, perPage, record, context);
+        return getResponse(sidx, sord, page, perPage, record, context, GridPaging.keyset(keysetValue, keysetId));
 
     }
 
     private GridResponse<ResourceDTO> getResponse(String sidx, String sord, Integer page, int perPage, ResourceDTO record,
-            Long context) {
+            Long context, GridPaging paging) {
         String additionalCode = record.getAc();
         boolean useAdditionalCode = org.apache.commons.lang3.StringUtils.isNotEmpty(additionalCode);
         Map<String, Object> parameters = geParameters(context, record, useAdditionalCode, additionalCode);
@@ -67,12 +70,12 @@ public class ResourceLookupController extends BasicLookupController<ResourceDTO>
         }
         String query = getQuery(context, useAdditionalCode, !properFilter, !properFilterLastResource);
 
-        GridResponse<ResourceDTO> response = lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, parameters);
+        GridResponse<ResourceDTO> response = lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, parameters, paging);
 
         if (response.getRows().isEmpty() && useAdditionalCode) {
             parameters = geParameters(context, record, false, additionalCode);
             query = getQuery(context, false, !properFilter, !properFilterLastResource);
-            response = lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, parameters);
+            response = lookupUtils.getGridResponse(query, sidx, sord, page, perPage, record, parameters, paging);
         }
         setTranslatedWasteFlag(response);
         setTranslatedLastResourceFlag(response);
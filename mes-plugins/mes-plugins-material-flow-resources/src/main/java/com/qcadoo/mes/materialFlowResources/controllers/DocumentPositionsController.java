@@ -24,6 +24,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import com.google.common.io.BaseEncoding;
+import com.qcadoo.mes.basic.GridPaging;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
@@ -43,8 +44,11 @@ public class DocumentPositionsController {
     @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
     public GridResponse<DocumentPositionDTO> findAll(@PathVariable Long id, @RequestParam String sidx, @RequestParam String sord,
             @RequestParam(defaultValue = "1", required = false, value = "page") Integer page,
-            @RequestParam(value = "rows") int perPage, DocumentPositionDTO positionDTO) {
-        return documentPositionService.findAll(id, sidx, sord, page, perPage, positionDTO);
+            @RequestParam(value = "rows") int perPage,
+            @RequestParam(required = false, value = "keysetValue") String keysetValue,
+            @RequestParam(required = false, value = "keysetId") Long keysetId, DocumentPositionDTO positionDTO) {
+        return documentPositionService.findAll(id, sidx, sord, page, perPage, positionDTO,
+                GridPaging.keyset(keysetValue, keysetId).withCachedCount());
     }
 
     @ResponseBody
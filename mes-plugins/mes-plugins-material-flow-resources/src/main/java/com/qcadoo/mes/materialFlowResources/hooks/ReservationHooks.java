@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ReservationFields;
 import com.qcadoo.mes.materialFlowResources.service.ResourceReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedger;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
@@ -16,6 +17,9 @@ public class ReservationHooks {
     @Autowired
     private ResourceReservationsService resourceReservationsService;
 
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
     public void onSave(DataDefinition reservationDD, Entity reservation) {
         Entity newResource = reservation.getBelongsToField(ReservationFields.RESOURCE);
         Entity oldResource = null;
@@ -26,7 +30,11 @@ public class ReservationHooks {
             oldReservation = reservationDD.get(reservation.getId());
             oldQuantity = oldReservation.getDecimalField(ReservationFields.QUANTITY);
             oldResource = oldReservation.getBelongsToField(ReservationFields.RESOURCE);
+
+            markResourceStockChanged(oldReservation);
         }
+
+        markResourceStockChanged(reservation);
         BigDecimal quantityToAdd = newQuantity.subtract(oldQuantity);
 
         if (oldResource != null && newResource != null) {
@@ -43,6 +51,21 @@ public class ReservationHooks {
         }
     }
 
+    public boolean onDelete(final DataDefinition reservationDD, final Entity reservation) {
+        markResourceStockChanged(reservation);
+
+        return true;
+    }
+
+    private void markResourceStockChanged(final Entity reservation) {
+        Entity location = reservation.getBelongsToField(ReservationFields.LOCATION);
+        Entity product = reservation.getBelongsToField(ReservationFields.PRODUCT);
+
+        if (location != null && product != null) {
+            resourceStockLedger.markChanged(location.getId(), product.getId());
+        }
+    }
+
     public void onCopy(DataDefinition reservationDD, Entity reservation) {
         reservation.setField(ReservationFields.RESOURCE, null);
     }
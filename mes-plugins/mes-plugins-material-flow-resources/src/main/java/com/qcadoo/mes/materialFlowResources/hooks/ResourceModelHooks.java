@@ -25,6 +25,7 @@ package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedger;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -52,7 +53,12 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
     public void onSave(final DataDefinition resourceDD, final Entity resource) {
+        markResourceStockChanged(resource);
+
         if (StringUtils.isEmpty(resource.getStringField(ResourceFields.NUMBER))) {
             Date time = resource.getDateField(ResourceFields.TIME);
             if (time == null) {
@@ -66,6 +72,21 @@ public class ResourceModelHooks {
         }
     }
 
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        markResourceStockChanged(resource);
+
+        return true;
+    }
+
+    private void markResourceStockChanged(final Entity resource) {
+        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
+        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
+
+        if (location != null && product != null) {
+            resourceStockLedger.markChanged(location.getId(), product.getId());
+        }
+    }
+
     public void onCreate(final DataDefinition resourceDD, final Entity resource) {
         resource.setField(ResourceFields.IS_CORRECTED, false);
         if (resource.getField(ResourceFields.WASTE) == null) {
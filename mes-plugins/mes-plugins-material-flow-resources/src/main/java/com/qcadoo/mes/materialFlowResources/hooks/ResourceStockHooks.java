@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ResourceStockFields;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedger;
 import com.qcadoo.mes.materialFlowResources.service.ResourceStockService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -16,14 +17,18 @@ public class ResourceStockHooks {
     @Autowired
     private ResourceStockService resourceStockService;
 
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
     public boolean onDelete(final DataDefinition resourceStockDD, final Entity resourceStock) {
-        BigDecimal quantity = resourceStockService.getResourceStockQuantity(
-                resourceStock.getBelongsToField(ResourceStockFields.PRODUCT),
-                resourceStock.getBelongsToField(ResourceStockFields.LOCATION));
+        Entity product = resourceStock.getBelongsToField(ResourceStockFields.PRODUCT);
+        Entity location = resourceStock.getBelongsToField(ResourceStockFields.LOCATION);
+        BigDecimal quantity = resourceStockService.getResourceStockQuantity(product, location);
         if (quantity.compareTo(BigDecimal.ZERO) != 0) {
             resourceStock.addGlobalError("materialFlowResources.resourceStock.delete.error");
             return false;
         }
+        resourceStockLedger.markChanged(location.getId(), product.getId());
         return true;
     }
 }
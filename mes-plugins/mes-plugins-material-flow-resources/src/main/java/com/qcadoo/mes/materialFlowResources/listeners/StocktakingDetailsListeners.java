@@ -1,10 +1,12 @@
 package com.qcadoo.mes.materialFlowResources.listeners;
 
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.materialFlowResources.constants.StocktakingFields;
 import com.qcadoo.mes.materialFlowResources.print.StocktakingReportService;
 import com.qcadoo.mes.materialFlowResources.print.helper.ResourceDataProvider;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FormComponent;
 import org.slf4j.Logger;
@@ -27,6 +29,9 @@ public class StocktakingDetailsListeners {
     @Autowired
     private StocktakingReportService reportService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void generate(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         state.performEvent(view, "save", new String[0]);
 
@@ -39,17 +44,18 @@ public class StocktakingDetailsListeners {
         reportDb.setField(StocktakingFields.GENERATED, Boolean.TRUE);
         reportDb.setField("generationDate", new Date());
         reportDb = reportDb.getDataDefinition().save(reportDb);
-        try {
-            reportService.generateReport(state, reportDb);
-        } catch (Exception e) {
-            LOG.error("Error when generate stocktaking report", e);
-            throw new IllegalStateException(e.getMessage(), e);
-        }
+        reportJobService.submit(StocktakingReportService.REPORT_TYPE, reportDb.getId(), null, state.getLocale());
+
         state.performEvent(view, "reset", new String[0]);
+        state.addMessage("basic.reportJob.submitted", MessageType.INFO);
 
     }
 
     public void print(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, StocktakingReportService.REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printReport(view, state);
     }
 
@@ -1,9 +1,11 @@
 package com.qcadoo.mes.materialFlowResources.listeners;
 
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.materialFlowResources.print.WarehouseStockReportService;
 import com.qcadoo.mes.materialFlowResources.print.helper.ResourceDataProvider;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FormComponent;
 import org.slf4j.Logger;
@@ -25,6 +27,9 @@ public class WarehouseStockReportDetailsListeners {
     @Autowired
     private WarehouseStockReportService reportService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void generate(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         state.performEvent(view, "save", new String[0]);
 
@@ -37,16 +42,17 @@ public class WarehouseStockReportDetailsListeners {
         reportDb.setField("generated", Boolean.TRUE);
         reportDb.setField("generationDate", new Date());
         reportDb = reportDb.getDataDefinition().save(reportDb);
-        try {
-            reportService.generateReport(state, reportDb);
-        } catch (Exception e) {
-            LOG.error("Error when generate stocktaking report", e);
-            throw new IllegalStateException(e.getMessage(), e);
-        }
+        reportJobService.submit(WarehouseStockReportService.REPORT_TYPE, reportDb.getId(), null, state.getLocale());
+
         state.performEvent(view, "reset", new String[0]);
+        state.addMessage("basic.reportJob.submitted", MessageType.INFO);
     }
 
     public void print(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, WarehouseStockReportService.REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printReport(view, state);
 
     }
@@ -41,6 +41,9 @@ public class StocktakingPdfReportService extends PdfDocumentService {
 
     private static final Logger LOG = LoggerFactory.getLogger(StocktakingPdfReportService.class);
 
+    // rows added to the table are written out and released every so often, so large stocks are not kept in memory
+    private static final int FLUSHED_ROWS = 500;
+
     @Autowired
     private TranslationService translationService;
 
@@ -69,48 +72,66 @@ public class StocktakingPdfReportService extends PdfDocumentService {
         if (!storageLocations.isEmpty()) {
             storageLocationIdsToQuery = storageLocations.stream().map(e -> e.getId()).collect(Collectors.toList());
         }
-        String currentStorageLocation = StringUtils.EMPTY;
-        List<Resource> resources = resourceDataProvider.findResourcesAndGroup(entity
-                .getBelongsToField(StocktakingFields.LOCATION).getId(), storageLocationIdsToQuery, entity
-                .getStringField("category"), entity.getStringField("wasteMode"), true);
-        int counter = 1;
-        for (Resource resource : resources) {
-
-            dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_RIGHT);
-
-            String storageLocation = Strings.nullToEmpty(resource.getStorageLocationNumber());
-            if (!storageLocation.equals(currentStorageLocation)) {
-                currentStorageLocation = storageLocation;
-                if (counter == 1) {
-                    dataTable.getDefaultCell().disableBorderSide(PdfPCell.BOTTOM);
-                }
-                dataTable.addCell(new Phrase(currentStorageLocation, FontUtils.getDejavuBold9Dark()));
-
-            } else {
-                dataTable.getDefaultCell().disableBorderSide(PdfPCell.TOP);
-                dataTable.getDefaultCell().disableBorderSide(PdfPCell.BOTTOM);
+        dataTable.setComplete(false);
+        String[] currentStorageLocation = { StringUtils.EMPTY };
+        int[] counter = { 1 };
+        resourceDataProvider.processResourcesAndGroup(entity.getBelongsToField(StocktakingFields.LOCATION).getId(),
+                storageLocationIdsToQuery, entity.getStringField("category"), entity.getStringField("wasteMode"), resource -> {
+                    String storageLocation = Strings.nullToEmpty(resource.getStorageLocationNumber());
+                    boolean newStorageLocation = !storageLocation.equals(currentStorageLocation[0]);
+                    currentStorageLocation[0] = storageLocation;
+
+                    addResourceRow(dataTable, resource, newStorageLocation, counter[0] == 1);
+
+                    if (counter[0] % FLUSHED_ROWS == 0) {
+                        flushCompletedRows(document, dataTable);
+                    }
+                    counter[0]++;
+                });
+        dataTable.setComplete(true);
+        document.add(dataTable);
+
+    }
+
+    private void addResourceRow(final PdfPTable dataTable, final Resource resource, final boolean newStorageLocation,
+            final boolean first) {
+        dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_RIGHT);
 
-                dataTable.addCell(new Phrase("", FontUtils.getDejavuBold9Dark()));
+        if (newStorageLocation) {
+            if (first) {
+                dataTable.getDefaultCell().disableBorderSide(PdfPCell.BOTTOM);
             }
-            dataTable.getDefaultCell().enableBorderSide(PdfPCell.TOP);
-
-            dataTable.addCell(new Phrase(extractPalletNumber(resource), FontUtils.getDejavuRegular10Dark()));
-            dataTable.addCell(new Phrase(extractProductNumberAndCode(resource), FontUtils.getDejavuRegular10Dark()));
-            dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_LEFT);
-            dataTable.addCell(new Phrase(extractProductName(resource), FontUtils.getDejavuRegular10Dark()));
-            dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_RIGHT);
-            dataTable.addCell(new Phrase(extractConversion(resource), FontUtils.getDejavuRegular10Dark()));
-            dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_LEFT);
-            dataTable.addCell(new Phrase(extractExpirationDate(resource), FontUtils.getDejavuRegular10Dark()));
-            dataTable.getDefaultCell().enableBorderSide(Rectangle.LEFT);
-            dataTable.getDefaultCell().enableBorderSide(Rectangle.RIGHT);
-            dataTable.addCell(new Phrase("", FontUtils.getDejavuRegular10Dark()));
-            dataTable.getDefaultCell().disableBorderSide(Rectangle.LEFT);
-            dataTable.getDefaultCell().disableBorderSide(Rectangle.RIGHT);
-            counter++;
+            dataTable.addCell(new Phrase(Strings.nullToEmpty(resource.getStorageLocationNumber()), FontUtils.getDejavuBold9Dark()));
+
+        } else {
+            dataTable.getDefaultCell().disableBorderSide(PdfPCell.TOP);
+            dataTable.getDefaultCell().disableBorderSide(PdfPCell.BOTTOM);
+
+            dataTable.addCell(new Phrase("", FontUtils.getDejavuBold9Dark()));
         }
-        document.add(dataTable);
+        dataTable.getDefaultCell().enableBorderSide(PdfPCell.TOP);
+
+        dataTable.addCell(new Phrase(extractPalletNumber(resource), FontUtils.getDejavuRegular10Dark()));
+        dataTable.addCell(new Phrase(extractProductNumberAndCode(resource), FontUtils.getDejavuRegular10Dark()));
+        dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_LEFT);
+        dataTable.addCell(new Phrase(extractProductName(resource), FontUtils.getDejavuRegular10Dark()));
+        dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_RIGHT);
+        dataTable.addCell(new Phrase(extractConversion(resource), FontUtils.getDejavuRegular10Dark()));
+        dataTable.getDefaultCell().setHorizontalAlignment(Element.ALIGN_LEFT);
+        dataTable.addCell(new Phrase(extractExpirationDate(resource), FontUtils.getDejavuRegular10Dark()));
+        dataTable.getDefaultCell().enableBorderSide(Rectangle.LEFT);
+        dataTable.getDefaultCell().enableBorderSide(Rectangle.RIGHT);
+        dataTable.addCell(new Phrase("", FontUtils.getDejavuRegular10Dark()));
+        dataTable.getDefaultCell().disableBorderSide(Rectangle.LEFT);
+        dataTable.getDefaultCell().disableBorderSide(Rectangle.RIGHT);
+    }
 
+    private void flushCompletedRows(final Document document, final PdfPTable dataTable) {
+        try {
+            document.add(dataTable);
+        } catch (DocumentException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
     }
 
     private String extractExpirationDate(Resource resource) {
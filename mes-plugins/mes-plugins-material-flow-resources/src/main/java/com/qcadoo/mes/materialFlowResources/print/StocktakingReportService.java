@@ -1,7 +1,9 @@
 package com.qcadoo.mes.materialFlowResources.print;
 
-import com.lowagie.text.DocumentException;
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.StocktakingFields;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.report.api.ReportService;
@@ -10,13 +12,17 @@ import com.qcadoo.view.api.ViewDefinitionState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
+import java.util.Locale;
+import java.util.function.IntConsumer;
 
 @Service
-public class StocktakingReportService {
+public class StocktakingReportService implements ReportJobHandler {
 
     public static final String GENERATION_DATE = "generationDate";
 
+    public static final String REPORT_TYPE = MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER + "."
+            + MaterialFlowResourcesConstants.MODEL_STOCKTAKING;
+
     @Autowired
     private StocktakingPdfReportService stocktakingPdfReportService;
 
@@ -26,9 +32,36 @@ public class StocktakingReportService {
     @Autowired
     private ReportService reportService;
 
-    public void generateReport(final ComponentState state, final Entity stocktakingReport) throws IOException, DocumentException {
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity stocktakingReport = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_STOCKTAKING)
+                .get(entityId);
+
         stocktakingPdfReportService.generateDocument(fileService.updateReportFileName(stocktakingReport,
-                GENERATION_DATE, "materialFlowResources.stocktaking.report.fileName"), state.getLocale());
+                GENERATION_DATE, "materialFlowResources.stocktaking.report.fileName"), locale);
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity report = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_STOCKTAKING)
+                .get(entityId);
+
+        if (report != null) {
+            report.setField(StocktakingFields.GENERATED, false);
+            report.setField(GENERATION_DATE, null);
+
+            report.getDataDefinition().save(report);
+        }
     }
 
     public void printReport(final ViewDefinitionState view, final ComponentState state) {
@@ -1,7 +1,9 @@
 package com.qcadoo.mes.materialFlowResources.print;
 
-import com.lowagie.text.DocumentException;
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseStockReportFields;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.report.api.ReportService;
@@ -10,13 +12,17 @@ import com.qcadoo.view.api.ViewDefinitionState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
+import java.util.Locale;
+import java.util.function.IntConsumer;
 
 @Service
-public class WarehouseStockReportService {
+public class WarehouseStockReportService implements ReportJobHandler {
 
     public static final String GENERATION_DATE = "generationDate";
 
+    public static final String REPORT_TYPE = MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER + "."
+            + MaterialFlowResourcesConstants.MODEL_WAREHOUSE_STOCK_REPORT;
+
     @Autowired
     private WarehouseStockPdfReportService warehouseStockPdfReportService;
 
@@ -26,8 +32,35 @@ public class WarehouseStockReportService {
     @Autowired
     private ReportService reportService;
 
-    public void generateReport(final ComponentState state, final Entity report) throws IOException, DocumentException {
-        warehouseStockPdfReportService.generateDocument(fileService.updateReportFileName(report, GENERATION_DATE, "materialFlowResources.warehouseStockReport.report.fileName"), state.getLocale());
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity report = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_WAREHOUSE_STOCK_REPORT)
+                .get(entityId);
+
+        warehouseStockPdfReportService.generateDocument(fileService.updateReportFileName(report, GENERATION_DATE, "materialFlowResources.warehouseStockReport.report.fileName"), locale);
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity report = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_WAREHOUSE_STOCK_REPORT)
+                .get(entityId);
+
+        if (report != null) {
+            report.setField(WarehouseStockReportFields.GENERATED, false);
+            report.setField(GENERATION_DATE, null);
+
+            report.getDataDefinition().save(report);
+        }
     }
 
     public void printReport(final ViewDefinitionState view, final ComponentState state) {
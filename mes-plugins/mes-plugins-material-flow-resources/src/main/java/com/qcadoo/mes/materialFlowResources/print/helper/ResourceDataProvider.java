@@ -1,17 +1,17 @@
 package com.qcadoo.mes.materialFlowResources.print.helper;
 
-import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.print.spreadsheet.StreamingQueryService;
 import com.qcadoo.model.api.NumberService;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class ResourceDataProvider {
@@ -21,36 +21,53 @@ public class ResourceDataProvider {
     private static final String WASTE_MODE_NO = "03no";
 
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private NumberService numberService;
 
     @Autowired
-    private NumberService numberService;
+    private StreamingQueryService streamingQueryService;
+
+    /**
+     * Passes on resources one by one, read from a database cursor in order of storage location, pallet and product numbers.
+     * Resources of the same product, additional code, pallet, storage location, expiration date and conversion are merged
+     * into one, with summed quantities.
+     */
+    public void processResourcesAndGroup(final Long locationId, final List<Long> storageLocationIds, final String category,
+            final String wasteMode, final Consumer<Resource> resourceConsumer) {
+        Resource[] current = new Resource[1];
+
+        streamingQueryService.query(buildQuery(!storageLocationIds.isEmpty(), category, wasteMode),
+                buildQueryParameters(locationId, storageLocationIds, category, wasteMode),
+                BeanPropertyRowMapper.newInstance(ResourceDto.class), resourceDto -> {
+                    Resource resource = new Resource(resourceDto);
+
+                    if (resource.equals(current[0])) {
+                        addQuantities(current[0], resource);
+                    } else {
+                        if (current[0] != null) {
+                            resourceConsumer.accept(current[0]);
+                        }
+
+                        current[0] = resource;
+                    }
+                });
 
-    public List<Resource> findResourcesAndGroup(final Long locationId, List<Long> storageLocationIds, String category,
-            String wasteMode, boolean appendOrderBy) {
-        List<ResourceDto> resourceDtos = findResources(locationId, storageLocationIds, category, wasteMode, appendOrderBy);
-        List<Resource> resources = Lists.newArrayList();
-        resourceDtos.forEach(rdto -> {
-            Resource resource = new Resource(rdto);
-            if (resources.contains(resource)) {
-                Resource containedResource = resources.get(resources.indexOf(resource));
-                BigDecimal quantity = containedResource.getQuantity();
-                quantity = quantity.add(resource.getQuantity(), numberService.getMathContext());
-                BigDecimal quantityInAdditionalUnit = containedResource.getQuantityInAdditionalUnit();
-                quantityInAdditionalUnit = quantityInAdditionalUnit.add(resource.getQuantityInAdditionalUnit(),
-                        numberService.getMathContext());
-                containedResource.setQuantity(quantity);
-                containedResource.setQuantityInAdditionalUnit(quantityInAdditionalUnit);
-            } else {
-                resources.add(resource);
-            }
-
-        });
-        return resources;
+        if (current[0] != null) {
+            resourceConsumer.accept(current[0]);
+        }
+    }
+
+    private void addQuantities(final Resource containedResource, final Resource resource) {
+        BigDecimal quantity = containedResource.getQuantity();
+        quantity = quantity.add(resource.getQuantity(), numberService.getMathContext());
+        BigDecimal quantityInAdditionalUnit = containedResource.getQuantityInAdditionalUnit();
+        quantityInAdditionalUnit = quantityInAdditionalUnit.add(resource.getQuantityInAdditionalUnit(),
+                numberService.getMathContext());
+        containedResource.setQuantity(quantity);
+        containedResource.setQuantityInAdditionalUnit(quantityInAdditionalUnit);
     }
 
-    public List<ResourceDto> findResources(final Long locationId, List<Long> storageLocationIds, String category,
-            String wasteMode, boolean appendOrderBy) {
+    private Map<String, Object> buildQueryParameters(final Long locationId, final List<Long> storageLocationIds,
+            final String category, final String wasteMode) {
         Map<String, Object> queryParameters = new HashMap<String, Object>();
         queryParameters.put("location", locationId);
         if (!storageLocationIds.isEmpty()) {
@@ -65,11 +82,10 @@ public class ResourceDataProvider {
         } else if (WASTE_MODE_YES.equals(wasteMode)) {
             queryParameters.put("wasteMode", true);
         }
-        return jdbcTemplate.query(buildQuery(!storageLocationIds.isEmpty(), category, wasteMode, appendOrderBy), queryParameters,
-                BeanPropertyRowMapper.newInstance(ResourceDto.class));
+        return queryParameters;
     }
 
-    private String buildQuery(boolean appendStorageLocationIds, String category, String wasteMode, boolean appendOrderBy) {
+    private String buildQuery(boolean appendStorageLocationIds, String category, String wasteMode) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT resource.id, resource.number, ");
         query.append("resource.quantity, resource.price, ");
@@ -102,10 +118,9 @@ public class ResourceDataProvider {
         if (WASTE_MODE_NO.equals(wasteMode) || WASTE_MODE_YES.equals(wasteMode)) {
             query.append(" AND resource.waste = :wasteMode");
         }
-        if (appendOrderBy) {
-            query.append(" ORDER BY storagelocation.number NULLS FIRST, palletnumber.number NULLS FIRST, product.number NULLS FIRST");
-
-        }
+        query.append(" ORDER BY storagelocation.number NULLS FIRST, palletnumber.number NULLS FIRST, product.number NULLS FIRST");
+        // resources merged together have to come one after another
+        query.append(", additionalcode.id NULLS FIRST, resource.expirationdate NULLS FIRST, resource.conversion NULLS FIRST");
         return query.toString();
     }
 }
@@ -1,16 +1,27 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import static com.qcadoo.model.api.search.SearchRestrictions.eq;
-import static com.qcadoo.model.api.search.SearchRestrictions.in;
+import static com.qcadoo.model.api.search.SearchRestrictions.gt;
 import static com.qcadoo.model.api.search.SearchRestrictions.isNull;
-import static com.qcadoo.model.api.search.SearchRestrictions.or;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.util.NotifiedEntitiesIndex;
 import com.qcadoo.mes.materialFlow.constants.UserFieldsMF;
 import com.qcadoo.mes.materialFlow.constants.UserLocationFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
@@ -20,26 +31,46 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
-import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchConjunction;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.security.constants.QcadooSecurityConstants;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
 
+/**
+ * Draft documents are kept in memory with ids of their locations, updated by document hooks after commit and reloaded
+ * periodically, so notification polls of users do not query documents.
+ */
 @Service
 public class DraftDocumentsNotificationService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DraftDocumentsNotificationService.class);
+
     static final String ROLE_DOCUMENTS_NOTIFICATION = "ROLE_DOCUMENTS_NOTIFICATION";
 
+    private static final String L_ORDER = "order";
+
     private final SecurityService securityService;
 
     private final DataDefinitionService dataDefinitionService;
 
+    private final MultiTenantService multiTenantService;
+
+    // counted by user's locations
+    private final NotifiedEntitiesIndex<Set<Long>, Set<Long>> draftDocuments = new NotifiedEntitiesIndex<>(
+            this::loadDraftDocuments, (locationIds, documentLocationIds) -> locationIds.isEmpty()
+                    || !Collections.disjoint(locationIds, documentLocationIds));
+
+    private final Cache<Long, Set<Long>> userLocations = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.MINUTES).build();
+
     @Autowired
-    public DraftDocumentsNotificationService(SecurityService securityService, DataDefinitionService dataDefinitionService) {
+    public DraftDocumentsNotificationService(SecurityService securityService, DataDefinitionService dataDefinitionService,
+            MultiTenantService multiTenantService) {
         this.securityService = securityService;
         this.dataDefinitionService = dataDefinitionService;
+        this.multiTenantService = multiTenantService;
     }
 
     private DataDefinition userDataDefinition() {
@@ -58,23 +89,85 @@ public class DraftDocumentsNotificationService {
     }
 
     int countDraftDocumentsForUser(Long currentUserId) {
-        EntityList userLocations = userDataDefinition().get(currentUserId).getHasManyField(UserFieldsMF.USER_LOCATIONS);
+        return draftDocuments.count(getUserLocationIds(currentUserId));
+    }
+
+    /**
+     * Updates draft documents after commit of saved document, called by its hooks.
+     */
+    public void updateDraftDocument(final Entity document) {
+        boolean isDraft = DocumentState.DRAFT.getStringValue().equals(document.getStringField(DocumentFields.STATE))
+                && document.getBooleanField(DocumentFields.ACTIVE) && Objects.isNull(document.getField(L_ORDER));
+
+        if (Objects.isNull(document.getId())) {
+            if (isDraft) {
+                draftDocuments.loadCreated();
+            }
+        } else if (isDraft) {
+            draftDocuments.put(document.getId(), getLocationIds(document));
+        } else {
+            draftDocuments.remove(document.getId());
+        }
+    }
+
+    public void removeDraftDocument(final Entity document) {
+        draftDocuments.remove(document.getId());
+    }
+
+    public void reloadDraftDocumentsTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                if (draftDocuments.reload()) {
+                    LOG.warn("Draft documents to notification differed from database, reloaded");
+                }
+            }
+
+        });
+    }
+
+    private Map<Long, Set<Long>> loadDraftDocuments(final Long createdAfterId) {
         SearchConjunction conjunction = SearchRestrictions.conjunction();
         conjunction.add(eq(DocumentFields.STATE, DocumentState.DRAFT.getStringValue()));
         conjunction.add(eq(DocumentFields.ACTIVE, Boolean.TRUE));
         conjunction.add(isNull("order.id"));
+        conjunction.add(gt("id", createdAfterId));
+
+        Map<Long, Set<Long>> documents = Maps.newHashMap();
+
+        for (Entity document : documentDataDefinition().find().add(conjunction).list().getEntities()) {
+            documents.put(document.getId(), getLocationIds(document));
+        }
+
+        return documents;
+    }
+
+    private Set<Long> getLocationIds(final Entity document) {
+        Set<Long> locationIds = Sets.newHashSet();
+
+        for (String locationField : new String[] { DocumentFields.LOCATION_FROM, DocumentFields.LOCATION_TO }) {
+            Entity location = document.getBelongsToField(locationField);
+
+            if (Objects.nonNull(location)) {
+                locationIds.add(location.getId());
+            }
+        }
+
+        return locationIds;
+    }
 
-        SearchCriteriaBuilder criteriaBuilder = documentDataDefinition().find();
-        if (!userLocations.isEmpty()) {
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_FROM, "locFrom", JoinType.LEFT);
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_TO, "locTo", JoinType.LEFT);
+    private Set<Long> getUserLocationIds(final Long userId) {
+        try {
+            return userLocations.get(userId, () -> {
+                EntityList locations = userDataDefinition().get(userId).getHasManyField(UserFieldsMF.USER_LOCATIONS);
 
-            Set<Long> locationIds = userLocations.stream().map(ul -> ul.getBelongsToField(UserLocationFields.LOCATION))
-                    .map(Entity::getId).collect(Collectors.toSet());
-            conjunction.add(or(in("locFrom.id", locationIds), in("locTo.id", locationIds)));
+                return locations.stream().map(ul -> ul.getBelongsToField(UserLocationFields.LOCATION)).map(Entity::getId)
+                        .collect(Collectors.toSet());
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
         }
-        criteriaBuilder.add(conjunction);
-        return criteriaBuilder.list().getTotalNumberOfEntities();
     }
 
 }
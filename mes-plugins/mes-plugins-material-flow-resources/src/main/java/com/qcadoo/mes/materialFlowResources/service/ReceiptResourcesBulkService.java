@@ -0,0 +1,360 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlow.constants.LocationFields;
+import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Creates positions and resources of new, accepted receipt documents with JDBC batches, instead of saving every resource and
+ * position through its data definition.
+ *
+ * Positions and resources built from them are validated up front with validators of their models, except pallets, which
+ * are checked for the whole document with one query. Resource numbers and ids are taken in blocks, and missing resource stocks
+ * are inserted in one batch. Position hooks only handle reservations of outbound documents, so they are not needed here.
+ */
+@Service
+public class ReceiptResourcesBulkService {
+
+    private static final String L_FIRST_NAME = "firstName";
+
+    private static final String L_LAST_NAME = "lastName";
+
+    private static final String L_WAREHOUSE = "02warehouse";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private PalletValidatorService palletValidatorService;
+
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
+    /**
+     * Bulk path is used for documents which positions are not saved yet and have positive quantities, others are left to
+     * entity based path, which reports field errors of positions.
+     */
+    boolean canCreateInBulk(final List<Entity> positions) {
+        return !positions.isEmpty() && positions.stream().allMatch(position -> position.getId() == null
+                && position.getDecimalField(PositionFields.QUANTITY) != null
+                && position.getDecimalField(PositionFields.QUANTITY).signum() > 0);
+    }
+
+    void createPositionsAndResources(final Entity document, final List<Entity> positions) {
+        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_TO);
+
+        if (!L_WAREHOUSE.equals(warehouse.getStringField(LocationFields.TYPE))) {
+            document.addGlobalError("materialFlowResources.validate.global.error.locationIsNotWarehouse");
+            document.setNotValid();
+
+            return;
+        }
+
+        Date time = Optional.ofNullable(document.getDateField(DocumentFields.TIME)).orElseGet(Date::new);
+        List<Entity> resources = positions.stream().map(position -> buildResource(document, warehouse, position, time))
+                .collect(Collectors.toList());
+
+        boolean isValid = validatePallets(document, warehouse, positions);
+
+        isValid = validate(document, positions, resources) && isValid;
+
+        if (!isValid) {
+            return;
+        }
+
+        List<Long> resourceIds = getNextIds("materialflowresources_resource_id_seq", positions.size());
+        List<Long> positionIds = getNextIds("materialflowresources_position_id_seq", positions.size());
+        List<String> resourceNumbers = generateResourceNumbers(time, positions.size());
+
+        createResourceStocks(warehouse.getId(), positions);
+
+        List<SqlParameterSource> resourcesParams = Lists.newArrayList();
+        List<SqlParameterSource> positionsParams = Lists.newArrayList();
+
+        for (int index = 0; index < positions.size(); index++) {
+            Entity position = positions.get(index);
+            Long resourceId = resourceIds.get(index);
+
+            resourcesParams.add(getResourceParams(resources.get(index), resourceId, resourceNumbers.get(index)));
+            positionsParams.add(getPositionParams(document, position, positionIds.get(index), index + 1, resourceId));
+
+            position.setId(positionIds.get(index));
+            position.setField(PositionFields.NUMBER, index + 1);
+            position.setField(PositionFields.RESOURCE_RECEIPT_DOCUMENT, resourceId.toString());
+        }
+
+        jdbcTemplate.batchUpdate(buildResourceInsert(), resourcesParams.toArray(new SqlParameterSource[0]));
+        jdbcTemplate.batchUpdate(buildPositionInsert(), positionsParams.toArray(new SqlParameterSource[0]));
+
+        resourceStockLedger.markChanged(warehouse.getId(), getProductIds(positions));
+    }
+
+    /**
+     * Validates pallets of positions of accepted receipt document with one query, errors are copied to document. Used by both
+     * bulk and entity based path - resources created from positions skip their own pallet validation.
+     */
+    boolean validatePallets(final Entity document, final Entity warehouse, final List<Entity> positions) {
+        if (palletValidatorService.validatePalletsForResources(warehouse, positions)) {
+            return true;
+        }
+
+        document.setNotValid();
+
+        positions.forEach(position -> copyErrors(position, document));
+
+        return false;
+    }
+
+    private boolean validate(final Entity document, final List<Entity> positions, final List<Entity> resources) {
+        DataDefinition positionDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_POSITION);
+        DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+
+        boolean isValid = true;
+
+        for (int index = 0; index < positions.size(); index++) {
+            Entity position = positions.get(index);
+            Entity resource = resources.get(index);
+
+            if (!positionDD.callValidators(position)) {
+                isValid = false;
+
+                copyErrors(position, document);
+            } else if (!resourceDD.callValidators(resource)) {
+                isValid = false;
+
+                copyErrors(resource, document);
+            }
+        }
+
+        if (!isValid) {
+            document.setNotValid();
+        }
+
+        return isValid;
+    }
+
+    private void copyErrors(final Entity entity, final Entity document) {
+        entity.getGlobalErrors().forEach(e -> document.addGlobalError(e.getMessage(), e.getAutoClose(), e.getVars()));
+        entity.getErrors().values().forEach(e -> document.addGlobalError(e.getMessage(), e.getAutoClose(), e.getVars()));
+    }
+
+    // same fields as resources created by ResourceManagementServiceImpl.createResource, saved only after validation
+    private Entity buildResource(final Entity document, final Entity warehouse, final Entity position, final Date time) {
+        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+        Entity user = document.getBelongsToField(DocumentFields.USER);
+        Entity delivery = document.getBelongsToField(ResourceFields.DELIVERY);
+        BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
+
+        Entity resource = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE).create();
+
+        resource.setField(ResourceFields.USER_NAME, user.getStringField(L_FIRST_NAME) + " " + user.getStringField(L_LAST_NAME));
+        resource.setField(ResourceFields.TIME, time);
+        resource.setField(ResourceFields.LOCATION, warehouse);
+        resource.setField(ResourceFields.PRODUCT, product);
+        resource.setField(ResourceFields.QUANTITY, quantity);
+        resource.setField(ResourceFields.RESERVED_QUANTITY, BigDecimal.ZERO);
+        resource.setField(ResourceFields.AVAILABLE_QUANTITY, quantity);
+        resource.setField(ResourceFields.PRICE, position.getField(PositionFields.PRICE));
+        resource.setField(ResourceFields.BATCH, position.getField(PositionFields.BATCH));
+        resource.setField(ResourceFields.EXPIRATION_DATE, position.getField(PositionFields.EXPIRATION_DATE));
+        resource.setField(ResourceFields.PRODUCTION_DATE, position.getField(PositionFields.PRODUCTION_DATE));
+        resource.setField(ResourceFields.STORAGE_LOCATION, position.getField(PositionFields.STORAGE_LOCATION));
+        resource.setField(ResourceFields.ADDITIONAL_CODE, position.getField(PositionFields.ADDITIONAL_CODE));
+        resource.setField(ResourceFields.PALLET_NUMBER, position.getField(PositionFields.PALLET_NUMBER));
+        resource.setField(ResourceFields.TYPE_OF_PALLET, position.getField(PositionFields.TYPE_OF_PALLET));
+        resource.setField(ResourceFields.WASTE, position.getBooleanField(PositionFields.WASTE));
+        resource.setField(ResourceFields.VALIDATE_PALLET, false);
+
+        if (delivery != null) {
+            resource.setField(ResourceFields.DELIVERY_NUMBER, delivery.getStringField("number"));
+        }
+
+        if (StringUtils.isEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            resource.setField(ResourceFields.GIVEN_UNIT, product.getField(ProductFields.UNIT));
+            resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantity);
+            resource.setField(ResourceFields.CONVERSION, BigDecimal.ONE);
+        } else {
+            resource.setField(ResourceFields.GIVEN_UNIT, position.getField(PositionFields.GIVEN_UNIT));
+            resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, position.getField(PositionFields.GIVEN_QUANTITY));
+            resource.setField(ResourceFields.CONVERSION, position.getField(PositionFields.CONVERSION));
+        }
+
+        return resource;
+    }
+
+    private List<Long> getNextIds(final String sequenceName, final int count) {
+        return jdbcTemplate.queryForList("SELECT nextval('" + sequenceName + "') FROM generate_series(1, :count)",
+                new MapSqlParameterSource("count", count), Long.class);
+    }
+
+    private List<String> generateResourceNumbers(final Date time, final int count) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("date", time);
+        params.addValue("count", count);
+
+        return jdbcTemplate.queryForList("SELECT generate_and_set_resource_number(:date) FROM generate_series(1, :count)",
+                params, String.class);
+    }
+
+    private void createResourceStocks(final Long warehouseId, final List<Entity> positions) {
+        Map<Long, Optional<ResourceStockDto>> resourceStocks = resourceStockLedger.getResourceStocks(warehouseId,
+                getProductIds(positions));
+
+        SqlParameterSource[] params = resourceStocks.entrySet().stream().filter(entry -> !entry.getValue().isPresent())
+                .map(entry -> new MapSqlParameterSource("locationId", warehouseId).addValue("productId", entry.getKey()))
+                .toArray(SqlParameterSource[]::new);
+
+        if (params.length > 0) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO materialflowresources_resourcestock (location_id, product_id) VALUES (:locationId, :productId)",
+                    params);
+        }
+    }
+
+    private Set<Long> getProductIds(final List<Entity> positions) {
+        return positions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                .collect(Collectors.toSet());
+    }
+
+    private SqlParameterSource getResourceParams(final Entity resource, final Long resourceId, final String resourceNumber) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("id", resourceId);
+        params.addValue("number", resourceNumber);
+        params.addValue("locationId", getId(resource, ResourceFields.LOCATION));
+        params.addValue("productId", getId(resource, ResourceFields.PRODUCT));
+        params.addValue("quantity", resource.getDecimalField(ResourceFields.QUANTITY));
+        params.addValue("availableQuantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        params.addValue("price", resource.getDecimalField(ResourceFields.PRICE));
+        params.addValue("batch", resource.getStringField(ResourceFields.BATCH));
+        params.addValue("time", resource.getDateField(ResourceFields.TIME));
+        params.addValue("productionDate", resource.getDateField(ResourceFields.PRODUCTION_DATE));
+        params.addValue("expirationDate", resource.getDateField(ResourceFields.EXPIRATION_DATE));
+        params.addValue("storageLocationId", getId(resource, ResourceFields.STORAGE_LOCATION));
+        params.addValue("additionalCodeId", getId(resource, ResourceFields.ADDITIONAL_CODE));
+        params.addValue("palletNumberId", getId(resource, ResourceFields.PALLET_NUMBER));
+        params.addValue("typeOfPallet", resource.getStringField(ResourceFields.TYPE_OF_PALLET));
+        params.addValue("userName", resource.getStringField(ResourceFields.USER_NAME));
+        params.addValue("waste", resource.getBooleanField(ResourceFields.WASTE));
+        params.addValue("deliveryNumber", resource.getStringField(ResourceFields.DELIVERY_NUMBER));
+        params.addValue("givenUnit", resource.getStringField(ResourceFields.GIVEN_UNIT));
+        params.addValue("quantityInAdditionalUnit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT));
+        params.addValue("conversion", resource.getDecimalField(ResourceFields.CONVERSION));
+
+        return params;
+    }
+
+    private SqlParameterSource getPositionParams(final Entity document, final Entity position, final Long positionId,
+            final int number, final Long resourceId) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("id", positionId);
+        params.addValue("documentId", document.getId());
+        params.addValue("productId", position.getBelongsToField(PositionFields.PRODUCT).getId());
+        params.addValue("quantity", position.getDecimalField(PositionFields.QUANTITY));
+        params.addValue("givenQuantity", position.getDecimalField(PositionFields.GIVEN_QUANTITY));
+        params.addValue("givenUnit", position.getStringField(PositionFields.GIVEN_UNIT));
+        params.addValue("conversion", position.getDecimalField(PositionFields.CONVERSION));
+        params.addValue("price", position.getDecimalField(PositionFields.PRICE));
+        params.addValue("batch", position.getStringField(PositionFields.BATCH));
+        params.addValue("productionDate", position.getDateField(PositionFields.PRODUCTION_DATE));
+        params.addValue("expirationDate", position.getDateField(PositionFields.EXPIRATION_DATE));
+        params.addValue("number", number);
+        params.addValue("resourceReceiptDocument", resourceId.toString());
+        params.addValue("storageLocationId", getId(position, PositionFields.STORAGE_LOCATION));
+        params.addValue("additionalCodeId", getId(position, PositionFields.ADDITIONAL_CODE));
+        params.addValue("palletNumberId", getId(position, PositionFields.PALLET_NUMBER));
+        params.addValue("typeOfPallet", position.getStringField(PositionFields.TYPE_OF_PALLET));
+        params.addValue("waste", position.getBooleanField(PositionFields.WASTE));
+
+        return params;
+    }
+
+    private Long getId(final Entity entity, final String belongsToField) {
+        Entity value = entity.getBelongsToField(belongsToField);
+
+        return value != null ? value.getId() : null;
+    }
+
+    private String buildResourceInsert() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("INSERT INTO materialflowresources_resource (id, number, location_id, product_id, quantity, ");
+        query.append("availablequantity, reservedquantity, price, batch, time, productiondate, expirationdate, iscorrected, ");
+        query.append("storagelocation_id, quantityinadditionalunit, additionalcode_id, conversion, palletnumber_id, ");
+        query.append("typeofpallet, givenunit, username, waste, deliverynumber) ");
+        query.append("VALUES (:id, :number, :locationId, :productId, :quantity, ");
+        query.append(":availableQuantity, 0, :price, :batch, :time, :productionDate, :expirationDate, false, ");
+        query.append(":storageLocationId, :quantityInAdditionalUnit, :additionalCodeId, :conversion, :palletNumberId, ");
+        query.append(":typeOfPallet, :givenUnit, :userName, :waste, :deliveryNumber)");
+
+        return query.toString();
+    }
+
+    private String buildPositionInsert() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("INSERT INTO materialflowresources_position (id, document_id, product_id, quantity, givenquantity, ");
+        query.append("givenunit, conversion, price, batch, productiondate, expirationdate, number, ");
+        query.append("resourcereceiptdocument, storagelocation_id, additionalcode_id, palletnumber_id, typeofpallet, waste) ");
+        query.append("VALUES (:id, :documentId, :productId, :quantity, :givenQuantity, ");
+        query.append(":givenUnit, :conversion, :price, :batch, :productionDate, :expirationDate, :number, ");
+        query.append(":resourceReceiptDocument, :storageLocationId, :additionalCodeId, :palletNumberId, :typeOfPallet, :waste)");
+
+        return query.toString();
+    }
+
+}
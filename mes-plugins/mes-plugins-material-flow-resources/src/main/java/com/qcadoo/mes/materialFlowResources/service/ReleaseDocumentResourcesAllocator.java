@@ -0,0 +1,944 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.CalculationQuantityService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageCopyToEntityHelper;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolder;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolderFactory;
+import com.qcadoo.mes.materialFlowResources.validators.PositionValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Set-based counterpart of the per-position release algorithm of {@link ResourceManagementServiceImpl}.
+ *
+ * All candidate resources of the document products are loaded with one query, positions are matched against them in memory
+ * using the warehouse algorithm (FIFO, LIFO, FEFO, LEFO) and the resulting resource and position changes are written back
+ * with JDBC batches. Matching rules, resource ordering and generated positions are the same as in the per-position path.
+ *
+ * Candidate resources are locked (SELECT ... FOR UPDATE) while they are loaded. Positions are not saved through the model,
+ * so reservation changes made by position model hooks ({@link com.qcadoo.mes.materialFlowResources.hooks.PositionModelHooks})
+ * are applied here explicitly.
+ */
+@Service
+public class ReleaseDocumentResourcesAllocator {
+
+    private static final String L_ID = "id";
+
+    private static final Long L_EMPTY_ID = -1L;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Autowired
+    private CalculationQuantityService calculationQuantityService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private ReservationsService reservationsService;
+
+    @Autowired
+    private ResourceReservationsService resourceReservationsService;
+
+    @Autowired
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
+    @Autowired
+    private NotEnoughResourcesErrorMessageHolderFactory notEnoughResourcesErrorMessageHolderFactory;
+
+    @Autowired
+    private PositionValidators positionValidators;
+
+    public void updateResourcesForReleaseDocument(final Entity document) {
+        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
+
+        WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
+                .getStringField(LocationFieldsMFR.ALGORITHM));
+
+        List<Entity> positions = Lists.newArrayList(document.getHasManyField(DocumentFields.POSITIONS));
+
+        AllocationContext context = createContext(document, warehouse, warehouseAlgorithm, positions);
+
+        Map<Long, BigDecimal> quantitiesInWarehouse = getQuantitiesInWarehouse(context, positions);
+
+        NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
+
+        boolean enoughResources = true;
+
+        List<Entity> resultPositions = Lists.newArrayList();
+        List<Entity> positionsToUpdate = Lists.newArrayList();
+        List<Entity> positionsToInsert = Lists.newArrayList();
+        List<Long> positionsToDelete = Lists.newArrayList();
+
+        for (Entity position : positions) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+
+            List<Entity> generatedPositions = allocate(context, position);
+
+            enoughResources = enoughResources && position.isValid();
+
+            if (!position.isValid()) {
+                BigDecimal quantityInWarehouse = quantitiesInWarehouse.getOrDefault(product.getId(), BigDecimal.ZERO);
+
+                BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
+
+                errorMessageHolder.addErrorEntry(product, quantity.subtract(quantityInWarehouse, numberService.getMathContext()));
+            } else if (generatedPositions.size() > 1) {
+                if (Objects.nonNull(position.getId())) {
+                    positionsToDelete.add(position.getId());
+                }
+
+                for (Entity newPosition : generatedPositions) {
+                    newPosition.setField(PositionFields.DOCUMENT, document);
+
+                    positionsToInsert.add(newPosition);
+                    resultPositions.add(newPosition);
+                }
+            } else {
+                copyPositionValues(position, generatedPositions.get(0));
+
+                if (Objects.isNull(position.getId())) {
+                    position.setField(PositionFields.DOCUMENT, document);
+
+                    positionsToInsert.add(position);
+                } else {
+                    positionsToUpdate.add(position);
+                }
+
+                resultPositions.add(position);
+            }
+        }
+
+        if (!enoughResources) {
+            NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouse, errorMessageHolder);
+
+            // document is invalid, callers roll back the transaction so there is nothing worth writing
+            return;
+        }
+
+        if (!validatePositions(document, resultPositions)) {
+            return;
+        }
+
+        deleteReservations(context);
+        writeResources(context);
+        writePositions(context, document, resultPositions, positionsToUpdate, positionsToInsert, positionsToDelete);
+        disposePalletNumbers(context);
+
+        document.setField(DocumentFields.POSITIONS, resultPositions);
+    }
+
+    // positions are written with JDBC, so position model validators are run here before anything is written
+    private boolean validatePositions(final Entity document, final List<Entity> positions) {
+        boolean isValid = true;
+
+        for (Entity position : positions) {
+            DataDefinition positionDD = position.getDataDefinition();
+
+            boolean isPositionValid = positionValidators.checkAttributesRequirement(positionDD, position);
+            isPositionValid = positionValidators.validateDates(positionDD, position) && isPositionValid;
+
+            if (Objects.isNull(position.getId())) {
+                // PositionModelHooks.onCreate
+                isPositionValid = positionValidators.validateAvailableQuantity(positionDD, position) && isPositionValid;
+            }
+
+            if (!isPositionValid) {
+                isValid = false;
+
+                document.setNotValid();
+                document.addGlobalError("materialFlow.document.fillResources.global.error.positionNotValid", false, position
+                        .getBelongsToField(PositionFields.PRODUCT).getStringField(ProductFields.NUMBER));
+            }
+        }
+
+        return isValid;
+    }
+
+    private AllocationContext createContext(final Entity document, final Entity warehouse,
+            final WarehouseAlgorithm warehouseAlgorithm, final List<Entity> positions) {
+        AllocationContext context = new AllocationContext(warehouse, warehouseAlgorithm);
+
+        Set<Long> productIds = Sets.newHashSet();
+        Set<Long> resourceIds = Sets.newHashSet();
+        Set<Long> positionIds = Sets.newHashSet();
+
+        for (Entity position : positions) {
+            productIds.add(position.getBelongsToField(PositionFields.PRODUCT).getId());
+
+            Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+            if (Objects.nonNull(resource) && Objects.nonNull(resource.getId())) {
+                resourceIds.add(resource.getId());
+            }
+            if (Objects.nonNull(position.getId())) {
+                positionIds.add(position.getId());
+            }
+        }
+
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        context.fillResourceIrrespectiveOfConversion = documentPositionParameters
+                .getBooleanField("fillResourceIrrespectiveOfConversion");
+        context.reservationsEnabled = reservationsService.reservationsEnabledForDocumentPositions(document);
+
+        loadResources(context, productIds, resourceIds);
+
+        if (context.reservationsEnabled && !positionIds.isEmpty()) {
+            loadReservations(context, positionIds);
+        }
+
+        loadReferencedEntities(context);
+
+        return context;
+    }
+
+    private void loadResources(final AllocationContext context, final Set<Long> productIds, final Set<Long> resourceIds) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT r.id, r.number, r.location_id, r.product_id, r.quantity, r.availablequantity, ");
+        query.append("r.reservedquantity, r.conversion, r.givenunit, r.price, r.batch, r.productiondate, r.expirationdate, r.time, r.storagelocation_id, ");
+        query.append("r.additionalcode_id, r.palletnumber_id, r.typeofpallet, r.waste, ");
+        query.append("(r.location_id = :locationId AND r.product_id IN (:productIds) AND r.availablequantity > 0) AS candidate ");
+        query.append("FROM materialflowresources_resource r ");
+        query.append("WHERE (r.location_id = :locationId AND r.product_id IN (:productIds) AND r.availablequantity > 0) ");
+        query.append("OR r.id IN (:resourceIds) ");
+        query.append("ORDER BY r.id FOR UPDATE");
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("locationId", context.warehouse.getId());
+        params.addValue("productIds", productIds.isEmpty() ? Collections.singleton(L_EMPTY_ID) : productIds);
+        params.addValue("resourceIds", resourceIds.isEmpty() ? Collections.singleton(L_EMPTY_ID) : resourceIds);
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> {
+            ResourceRow row = new ResourceRow(rs);
+
+            context.resources.put(row.id, row);
+
+            if (rs.getBoolean("candidate")) {
+                context.resourcesByProduct.put(row.productId, row);
+            }
+        });
+    }
+
+    private void loadReservations(final AllocationContext context, final Set<Long> positionIds) {
+        String query = "SELECT position_id, quantity FROM materialflowresources_reservation WHERE position_id IN (:positionIds)";
+
+        jdbcTemplate.query(query, Collections.singletonMap("positionIds", positionIds), (RowCallbackHandler) rs -> {
+            context.reservations.putIfAbsent(rs.getLong("position_id"), rs.getBigDecimal("quantity"));
+        });
+    }
+
+    private void loadReferencedEntities(final AllocationContext context) {
+        Set<Long> storageLocationIds = Sets.newHashSet();
+        Set<Long> additionalCodeIds = Sets.newHashSet();
+        Set<Long> palletNumberIds = Sets.newHashSet();
+
+        for (ResourceRow row : context.resources.values()) {
+            addIfNotNull(storageLocationIds, row.storageLocationId);
+            addIfNotNull(additionalCodeIds, row.additionalCodeId);
+            addIfNotNull(palletNumberIds, row.palletNumberId);
+        }
+
+        context.storageLocations = getEntitiesByIds(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_STORAGE_LOCATION, storageLocationIds);
+        context.additionalCodes = getEntitiesByIds(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_ADDITIONAL_CODE,
+                additionalCodeIds);
+        context.palletNumbers = getEntitiesByIds(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PALLET_NUMBER,
+                palletNumberIds);
+    }
+
+    private void addIfNotNull(final Set<Long> ids, final Long id) {
+        if (Objects.nonNull(id)) {
+            ids.add(id);
+        }
+    }
+
+    private Map<Long, Entity> getEntitiesByIds(final String pluginIdentifier, final String modelName, final Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Maps.newHashMap();
+        }
+
+        return dataDefinitionService.get(pluginIdentifier, modelName).find().add(SearchRestrictions.in(L_ID, ids)).list()
+                .getEntities().stream().collect(Collectors.toMap(Entity::getId, entity -> entity));
+    }
+
+    private Map<Long, BigDecimal> getQuantitiesInWarehouse(final AllocationContext context, final List<Entity> positions) {
+        Map<Long, BigDecimal> quantities = Maps.newHashMap();
+
+        for (Entity position : positions) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+            BigDecimal conversion = getConversion(product, position);
+
+            BigDecimal quantity = context.resourcesByProduct.get(product.getId()).stream()
+                    .filter(row -> row.isAvailable() && row.conversion.compareTo(conversion) == 0)
+                    .map(row -> row.availableQuantity).reduce(BigDecimal.ZERO, BigDecimal::add);
+
+            quantities.merge(product.getId(), quantity, BigDecimal::add);
+        }
+
+        return quantities;
+    }
+
+    private BigDecimal getConversion(final Entity product, final Entity position) {
+        if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            return position.getDecimalField(PositionFields.CONVERSION);
+        }
+
+        return BigDecimal.ONE;
+    }
+
+    private List<Entity> allocate(final AllocationContext context, final Entity position) {
+        List<Entity> newPositions = Lists.newArrayList();
+
+        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+
+        List<ResourceRow> resources = getResources(context, product, position);
+
+        BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
+        BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
+        String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
+
+        for (ResourceRow resource : resources) {
+            Entity newPosition = createNewPosition(context, position, product, resource);
+
+            quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.conversion,
+                    product.getStringField(ProductFields.UNIT));
+            conversion = resource.conversion;
+            givenUnit = resource.givenUnit;
+            BigDecimal resourceQuantity = resource.quantity;
+            BigDecimal resourceAvailableQuantity = resource.availableQuantity;
+            BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion, givenUnit);
+            BigDecimal givenResourceAvailableQuantity = calculationQuantityService.calculateAdditionalQuantity(
+                    resourceAvailableQuantity, conversion, givenUnit);
+
+            if (position.getBelongsToField(PositionFields.RESOURCE) != null
+                    && context.warehouse.getBooleanField(LocationFieldsMFR.DRAFT_MAKES_RESERVATION)) {
+                resource.reservedQuantity = resource.reservedQuantity.subtract(quantity, numberService.getMathContext());
+            }
+
+            if (quantity.compareTo(resourceAvailableQuantity) >= 0
+                    || givenQuantity.compareTo(givenResourceAvailableQuantity) == 0) {
+                quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
+
+                if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
+                    resource.deleted = true;
+                } else {
+                    BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
+
+                    resource.availableQuantity = BigDecimal.ZERO;
+                    resource.quantity = newResourceQuantity;
+                    resource.quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
+                            newResourceQuantity, conversion, givenUnit);
+
+                    markAsChanged(context, resource, product);
+                }
+
+                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceAvailableQuantity));
+                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenResourceAvailableQuantity);
+
+                newPositions.add(newPosition);
+
+                if (BigDecimal.ZERO.compareTo(quantity) == 0
+                        || BigDecimal.ZERO.compareTo(calculationQuantityService.calculateAdditionalQuantity(quantity, conversion,
+                                givenUnit)) == 0) {
+                    return newPositions;
+                }
+            } else {
+                resourceQuantity = resourceQuantity.subtract(quantity, numberService.getMathContext());
+                resourceAvailableQuantity = resourceAvailableQuantity.subtract(quantity, numberService.getMathContext());
+
+                resource.quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(resourceQuantity,
+                        conversion, givenUnit);
+                resource.quantity = numberService.setScaleWithDefaultMathContext(resourceQuantity);
+                resource.availableQuantity = resourceAvailableQuantity;
+
+                markAsChanged(context, resource, product);
+
+                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
+                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
+
+                newPositions.add(newPosition);
+
+                return newPositions;
+            }
+        }
+
+        position.addError(position.getDataDefinition().getField(PositionFields.QUANTITY),
+                "materialFlow.error.position.quantity.notEnough");
+
+        return Lists.newArrayList(position);
+    }
+
+    private void markAsChanged(final AllocationContext context, final ResourceRow resource, final Entity product) {
+        if (resource.quantity.compareTo(BigDecimal.ZERO) <= 0 || resource.availableQuantity.compareTo(BigDecimal.ZERO) < 0
+                || resource.reservedQuantity.compareTo(BigDecimal.ZERO) < 0) {
+            throw new InvalidResourceException(resource.toEntity(context, product, dataDefinitionService));
+        }
+
+        resource.changed = true;
+    }
+
+    private List<ResourceRow> getResources(final AllocationContext context, final Entity product, final Entity position) {
+        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+        if (resource != null && resource.getId() != null) {
+            ResourceRow row = context.resources.get(resource.getId());
+
+            if (row != null && !row.deleted) {
+                BigDecimal reservationQuantity = context.reservations.get(position.getId());
+
+                if (reservationQuantity != null) {
+                    row.availableQuantity = row.availableQuantity.add(reservationQuantity);
+                }
+
+                return Lists.newArrayList(row);
+            }
+        }
+
+        Entity additionalCode = position.getBelongsToField(PositionFields.ADDITIONAL_CODE);
+        Long additionalCodeId = Objects.isNull(additionalCode) ? null : additionalCode.getId();
+        BigDecimal conversion = getConversion(product, position);
+
+        Comparator<ResourceRow> comparator = getComparator(context.warehouseAlgorithm);
+
+        List<ResourceRow> available = context.resourcesByProduct.get(product.getId()).stream().filter(ResourceRow::isAvailable)
+                .collect(Collectors.toList());
+
+        List<ResourceRow> resources = getResourcesForConversion(available, additionalCodeId, comparator,
+                row -> row.conversion.compareTo(conversion) == 0);
+
+        if (context.fillResourceIrrespectiveOfConversion) {
+            resources.addAll(getResourcesForConversion(available, additionalCodeId, comparator,
+                    row -> row.conversion.compareTo(conversion) != 0));
+        }
+
+        return resources;
+    }
+
+    private List<ResourceRow> getResourcesForConversion(final List<ResourceRow> available, final Long additionalCodeId,
+            final Comparator<ResourceRow> comparator, final Predicate<ResourceRow> conversionMatches) {
+        List<ResourceRow> matching = available.stream().filter(conversionMatches).collect(Collectors.toList());
+
+        List<ResourceRow> resources = Lists.newArrayList();
+
+        if (additionalCodeId != null) {
+            matching.stream().filter(row -> additionalCodeId.equals(row.additionalCodeId)).sorted(comparator)
+                    .forEach(resources::add);
+            matching.stream().filter(row -> !additionalCodeId.equals(row.additionalCodeId)).sorted(comparator)
+                    .forEach(resources::add);
+        }
+
+        if (resources.isEmpty()) {
+            matching.stream().sorted(comparator).forEach(resources::add);
+        }
+
+        return resources;
+    }
+
+    private Comparator<ResourceRow> getComparator(final WarehouseAlgorithm warehouseAlgorithm) {
+        // null ordering follows the PostgreSQL defaults used by the per-position queries: last when ascending, first when
+        // descending
+        Comparator<ResourceRow> comparator;
+
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing((ResourceRow row) -> row.time, Comparator.nullsLast(Comparator.<Date> naturalOrder()))
+                    .reversed();
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator.comparing((ResourceRow row) -> row.expirationDate,
+                    Comparator.nullsLast(Comparator.<Date> naturalOrder())).thenComparing(row -> row.availableQuantity);
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            comparator = Comparator
+                    .comparing((ResourceRow row) -> row.expirationDate, Comparator.nullsLast(Comparator.<Date> naturalOrder()))
+                    .reversed().thenComparing(row -> row.availableQuantity);
+        } else {
+            comparator = Comparator.comparing((ResourceRow row) -> row.time, Comparator.nullsLast(Comparator.<Date> naturalOrder()));
+        }
+
+        return comparator.thenComparing(row -> row.id);
+    }
+
+    private Entity createNewPosition(final AllocationContext context, final Entity position, final Entity product,
+            final ResourceRow resource) {
+        Entity newPosition = position.getDataDefinition().create();
+
+        newPosition.setField(PositionFields.PRODUCT, product);
+        newPosition.setField(PositionFields.GIVEN_UNIT, resource.givenUnit);
+        newPosition.setField(PositionFields.PRICE, resource.price);
+        newPosition.setField(PositionFields.BATCH, resource.batch);
+        newPosition.setField(PositionFields.PRODUCTION_DATE, resource.productionDate);
+        newPosition.setField(PositionFields.EXPIRATION_DATE, resource.expirationDate);
+        newPosition.setField(PositionFields.RESOURCE, null);
+        newPosition.setField(PositionFields.RESOURCE_NUMBER, resource.number);
+        newPosition.setField(PositionFields.STORAGE_LOCATION, context.storageLocations.get(resource.storageLocationId));
+        newPosition.setField(PositionFields.ADDITIONAL_CODE, context.additionalCodes.get(resource.additionalCodeId));
+        newPosition.setField(PositionFields.CONVERSION, resource.conversion);
+        newPosition.setField(PositionFields.PALLET_NUMBER, context.palletNumbers.get(resource.palletNumberId));
+        newPosition.setField(PositionFields.TYPE_OF_PALLET, resource.typeOfPallet);
+        newPosition.setField(PositionFields.WASTE, resource.waste);
+
+        return newPosition;
+    }
+
+    private void copyPositionValues(final Entity position, final Entity newPosition) {
+        position.setField(PositionFields.PRICE, newPosition.getField(PositionFields.PRICE));
+        position.setField(PositionFields.BATCH, newPosition.getField(PositionFields.BATCH));
+        position.setField(PositionFields.PRODUCTION_DATE, newPosition.getField(PositionFields.PRODUCTION_DATE));
+        position.setField(PositionFields.EXPIRATION_DATE, newPosition.getField(PositionFields.EXPIRATION_DATE));
+        position.setField(PositionFields.RESOURCE, newPosition.getField(PositionFields.RESOURCE));
+        position.setField(PositionFields.RESOURCE_NUMBER, newPosition.getField(PositionFields.RESOURCE_NUMBER));
+        position.setField(PositionFields.STORAGE_LOCATION, newPosition.getField(PositionFields.STORAGE_LOCATION));
+        position.setField(PositionFields.ADDITIONAL_CODE, newPosition.getField(PositionFields.ADDITIONAL_CODE));
+        position.setField(PositionFields.CONVERSION, newPosition.getField(PositionFields.CONVERSION));
+        position.setField(PositionFields.PALLET_NUMBER, newPosition.getField(PositionFields.PALLET_NUMBER));
+        position.setField(PositionFields.TYPE_OF_PALLET, newPosition.getField(PositionFields.TYPE_OF_PALLET));
+        position.setField(PositionFields.WASTE, newPosition.getField(PositionFields.WASTE));
+        position.setField(PositionFields.QUANTITY, newPosition.getField(PositionFields.QUANTITY));
+        position.setField(PositionFields.GIVEN_QUANTITY, newPosition.getField(PositionFields.GIVEN_QUANTITY));
+    }
+
+    private BigDecimal recalculateQuantity(final BigDecimal quantity, final BigDecimal conversion, final String givenUnit,
+            final BigDecimal resourceConversion, final String unit) {
+        if (conversion.compareTo(resourceConversion) != 0) {
+            BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion, givenUnit);
+
+            return calculationQuantityService.calculateQuantity(givenQuantity, resourceConversion, unit);
+        }
+
+        return quantity;
+    }
+
+    private void deleteReservations(final AllocationContext context) {
+        if (!context.reservations.isEmpty()) {
+            jdbcTemplate.query(
+                    "DELETE FROM materialflowresources_reservation WHERE position_id IN (:positionIds) "
+                            + "RETURNING location_id, product_id",
+                    Collections.singletonMap("positionIds", context.reservations.keySet()),
+                    (RowCallbackHandler) rs -> resourceStockLedger.markChanged(rs.getLong("location_id"),
+                            rs.getLong("product_id")));
+        }
+    }
+
+    private void writeResources(final AllocationContext context) {
+        List<SqlParameterSource> updates = Lists.newArrayList();
+        Set<Long> deletedIds = Sets.newHashSet();
+
+        for (ResourceRow row : context.resources.values()) {
+            if (row.deleted || row.changed) {
+                resourceStockLedger.markChanged(row.locationId, row.productId);
+            }
+
+            if (row.deleted) {
+                deletedIds.add(row.id);
+            } else if (row.changed) {
+                updates.add(new MapSqlParameterSource().addValue(L_ID, row.id).addValue("quantity", row.quantity)
+                        .addValue("availableQuantity", row.availableQuantity).addValue("reservedQuantity", row.reservedQuantity)
+                        .addValue("quantityInAdditionalUnit", row.quantityInAdditionalUnit));
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE materialflowresources_resource SET quantity = :quantity, "
+                    + "availablequantity = :availableQuantity, reservedquantity = :reservedQuantity, "
+                    + "quantityinadditionalunit = :quantityInAdditionalUnit WHERE id = :id",
+                    updates.toArray(new SqlParameterSource[updates.size()]));
+        }
+
+        if (!deletedIds.isEmpty()) {
+            // same cascades as declared in resource model: reservations are deleted, positions and corrections nullified
+            Map<String, Object> params = Collections.singletonMap("ids", deletedIds);
+
+            jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE resource_id IN (:ids)", params);
+            jdbcTemplate.update("UPDATE materialflowresources_position SET resource_id = NULL WHERE resource_id IN (:ids)",
+                    params);
+            jdbcTemplate.update(
+                    "UPDATE materialflowresources_resourcecorrection SET resource_id = NULL WHERE resource_id IN (:ids)", params);
+            jdbcTemplate.update("DELETE FROM materialflowresources_resource WHERE id IN (:ids)", params);
+        }
+    }
+
+    private void writePositions(final AllocationContext context, final Entity document, final List<Entity> resultPositions,
+            final List<Entity> positionsToUpdate, final List<Entity> positionsToInsert, final List<Long> positionsToDelete) {
+        if (!positionsToDelete.isEmpty()) {
+            deletePositions(positionsToDelete);
+        }
+
+        // PositionModelHooks.onSave updates reservation of saved position, but reservations of all document positions are
+        // already deleted in deleteReservations, so there is nothing to update for positionsToUpdate
+        if (!positionsToUpdate.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE materialflowresources_position SET quantity = :quantity, "
+                    + "givenquantity = :givenQuantity, givenunit = :givenUnit, price = :price, batch = :batch, "
+                    + "productiondate = :productionDate, expirationdate = :expirationDate, resource_id = :resourceId, "
+                    + "resourcenumber = :resourceNumber, storagelocation_id = :storageLocationId, "
+                    + "additionalcode_id = :additionalCodeId, conversion = :conversion, palletnumber_id = :palletNumberId, "
+                    + "typeofpallet = :typeOfPallet, waste = :waste WHERE id = :id",
+                    positionsToUpdate.stream().map(this::toParameters).toArray(SqlParameterSource[]::new));
+        }
+
+        if (!positionsToInsert.isEmpty()) {
+            insertPositions(document, positionsToInsert);
+            createReservations(context, document, positionsToInsert);
+        }
+
+        if (!positionsToDelete.isEmpty() || !positionsToInsert.isEmpty()) {
+            renumberPositions(document, resultPositions, positionsToInsert);
+        }
+    }
+
+    // same as deleting through the model: reservations are deleted with positions and PositionModelHooks.onDelete releases
+    // quantity of position resource
+    private void deletePositions(final List<Long> positionIds) {
+        Map<String, Object> params = Collections.singletonMap("ids", positionIds);
+
+        jdbcTemplate.query("DELETE FROM materialflowresources_reservation WHERE position_id IN (:ids) "
+                + "RETURNING location_id, product_id", params, (RowCallbackHandler) rs -> resourceStockLedger.markChanged(
+                rs.getLong("location_id"), rs.getLong("product_id")));
+
+        Map<Long, BigDecimal> quantitiesToAdd = Maps.newHashMap();
+
+        jdbcTemplate.query("DELETE FROM materialflowresources_position WHERE id IN (:ids) RETURNING resource_id, quantity",
+                params, (RowCallbackHandler) rs -> {
+                    Long resourceId = ResourceRow.getLong(rs, "resource_id");
+
+                    if (Objects.nonNull(resourceId)) {
+                        quantitiesToAdd.merge(resourceId, rs.getBigDecimal("quantity").negate(), BigDecimal::add);
+                    }
+                });
+
+        resourceReservationsService.updateResourceQuantites(quantitiesToAdd);
+    }
+
+    private void insertPositions(final Entity document, final List<Entity> positionsToInsert) {
+        Map<String, Object> countParams = Collections.singletonMap("count", positionsToInsert.size());
+
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT nextval('materialflowresources_position_id_seq') FROM generate_series(1, :count)", countParams,
+                Long.class);
+
+        // numbers are taken from a sequence, so positions inserted concurrently never get the same number, and are renumbered
+        // in document afterwards
+        List<Integer> numbers = jdbcTemplate.queryForList(
+                "SELECT nextval('materialflowresources_position_number_seq')::integer FROM generate_series(1, :count)",
+                countParams, Integer.class);
+
+        List<SqlParameterSource> inserts = Lists.newArrayList();
+
+        for (int index = 0; index < positionsToInsert.size(); index++) {
+            Entity position = positionsToInsert.get(index);
+
+            position.setId(ids.get(index));
+            position.setField(PositionFields.NUMBER, numbers.get(index));
+
+            inserts.add(toParameters(position).addValue("documentId", document.getId()).addValue("productId",
+                    position.getBelongsToField(PositionFields.PRODUCT).getId()).addValue("number",
+                    position.getField(PositionFields.NUMBER)));
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO materialflowresources_position (id, document_id, product_id, number, "
+                + "quantity, givenquantity, givenunit, price, batch, productiondate, expirationdate, resource_id, "
+                + "resourcenumber, storagelocation_id, additionalcode_id, conversion, palletnumber_id, typeofpallet, waste) "
+                + "VALUES (:id, :documentId, :productId, :number, :quantity, :givenQuantity, :givenUnit, :price, :batch, "
+                + ":productionDate, :expirationDate, :resourceId, :resourceNumber, :storageLocationId, :additionalCodeId, "
+                + ":conversion, :palletNumberId, :typeOfPallet, :waste)",
+                inserts.toArray(new SqlParameterSource[inserts.size()]));
+    }
+
+    // PositionModelHooks.onCreate, reservations are made only by positions of draft documents
+    private void createReservations(final AllocationContext context, final Entity document, final List<Entity> positions) {
+        if (!context.reservationsEnabled || DocumentState.ACCEPTED.equals(DocumentState.of(document))) {
+            return;
+        }
+
+        List<Map<String, Object>> reservations = Lists.newArrayList();
+
+        for (Entity position : positions) {
+            Map<String, Object> reservation = Maps.newHashMap();
+
+            reservation.put(L_ID, position.getId());
+            reservation.put("product_id", position.getBelongsToField(PositionFields.PRODUCT).getId());
+            reservation.put("resource_id", getId(position.getBelongsToField(PositionFields.RESOURCE)));
+            reservation.put("quantity", position.getDecimalField(PositionFields.QUANTITY));
+
+            reservations.add(reservation);
+        }
+
+        reservationsService.createReservationsFromDocumentPositions(document.getId(), reservations);
+    }
+
+    // inserted positions go after existing ones, in order of their numbers, and removed positions leave no gaps, the same way
+    // as saving and deleting through the model does
+    private void renumberPositions(final Entity document, final List<Entity> resultPositions,
+            final List<Entity> insertedPositions) {
+        Set<Long> insertedIds = insertedPositions.stream().map(Entity::getId).collect(Collectors.toSet());
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("documentId", document.getId());
+        params.addValue("insertedIds", insertedIds.isEmpty() ? Collections.singleton(L_EMPTY_ID) : insertedIds);
+
+        Map<Long, Integer> numbers = Maps.newHashMap();
+
+        jdbcTemplate.query("UPDATE materialflowresources_position p SET number = n.rn FROM (SELECT id, "
+                + "row_number() OVER (ORDER BY id IN (:insertedIds), number, id) AS rn FROM materialflowresources_position "
+                + "WHERE document_id = :documentId) n WHERE p.id = n.id AND p.number IS DISTINCT FROM n.rn "
+                + "RETURNING p.id, p.number", params,
+                (RowCallbackHandler) rs -> numbers.put(rs.getLong(L_ID), rs.getInt("number")));
+
+        for (Entity position : resultPositions) {
+            Integer number = numbers.get(position.getId());
+
+            if (Objects.nonNull(number)) {
+                position.setField(PositionFields.NUMBER, number);
+            }
+        }
+    }
+
+    private MapSqlParameterSource toParameters(final Entity position) {
+        return new MapSqlParameterSource().addValue(L_ID, position.getId())
+                .addValue("quantity", position.getDecimalField(PositionFields.QUANTITY))
+                .addValue("givenQuantity", position.getDecimalField(PositionFields.GIVEN_QUANTITY))
+                .addValue("givenUnit", position.getStringField(PositionFields.GIVEN_UNIT))
+                .addValue("price", position.getDecimalField(PositionFields.PRICE))
+                .addValue("batch", position.getStringField(PositionFields.BATCH))
+                .addValue("productionDate", position.getDateField(PositionFields.PRODUCTION_DATE))
+                .addValue("expirationDate", position.getDateField(PositionFields.EXPIRATION_DATE))
+                .addValue("resourceId", getId(position.getBelongsToField(PositionFields.RESOURCE)))
+                .addValue("resourceNumber", position.getStringField(PositionFields.RESOURCE_NUMBER))
+                .addValue("storageLocationId", getId(position.getBelongsToField(PositionFields.STORAGE_LOCATION)))
+                .addValue("additionalCodeId", getId(position.getBelongsToField(PositionFields.ADDITIONAL_CODE)))
+                .addValue("conversion", position.getDecimalField(PositionFields.CONVERSION))
+                .addValue("palletNumberId", getId(position.getBelongsToField(PositionFields.PALLET_NUMBER)))
+                .addValue("typeOfPallet", position.getStringField(PositionFields.TYPE_OF_PALLET))
+                .addValue("waste", position.getBooleanField(PositionFields.WASTE));
+    }
+
+    private Long getId(final Entity entity) {
+        return Objects.isNull(entity) ? null : entity.getId();
+    }
+
+    private void disposePalletNumbers(final AllocationContext context) {
+        Set<Long> palletNumberIds = context.resources.values().stream()
+                .filter(row -> row.deleted && Objects.nonNull(row.palletNumberId)).map(row -> row.palletNumberId)
+                .collect(Collectors.toSet());
+
+        if (palletNumberIds.isEmpty()) {
+            return;
+        }
+
+        List<Long> occupiedPalletNumberIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT palletnumber_id FROM materialflowresources_resource WHERE palletnumber_id IN (:ids)",
+                Collections.singletonMap("ids", palletNumberIds), Long.class);
+
+        palletNumberIds.removeAll(occupiedPalletNumberIds);
+
+        palletNumberIds.stream().map(context.palletNumbers::get).filter(Objects::nonNull)
+                .forEach(palletNumberDisposalService::tryToDispose);
+    }
+
+    private static class AllocationContext {
+
+        private final Entity warehouse;
+
+        private final WarehouseAlgorithm warehouseAlgorithm;
+
+        private final Map<Long, ResourceRow> resources = Maps.newLinkedHashMap();
+
+        private final Multimap<Long, ResourceRow> resourcesByProduct = ArrayListMultimap.create();
+
+        private final Map<Long, BigDecimal> reservations = Maps.newHashMap();
+
+        private Map<Long, Entity> storageLocations;
+
+        private Map<Long, Entity> additionalCodes;
+
+        private Map<Long, Entity> palletNumbers;
+
+        private boolean fillResourceIrrespectiveOfConversion;
+
+        private boolean reservationsEnabled;
+
+        private AllocationContext(final Entity warehouse, final WarehouseAlgorithm warehouseAlgorithm) {
+            this.warehouse = warehouse;
+            this.warehouseAlgorithm = warehouseAlgorithm;
+        }
+
+    }
+
+    private static class ResourceRow {
+
+        private final Long id;
+
+        private final String number;
+
+        private final Long locationId;
+
+        private final Long productId;
+
+        private final BigDecimal conversion;
+
+        private final String givenUnit;
+
+        private final BigDecimal price;
+
+        private final String batch;
+
+        private final Date productionDate;
+
+        private final Date expirationDate;
+
+        private final Date time;
+
+        private final Long storageLocationId;
+
+        private final Long additionalCodeId;
+
+        private final Long palletNumberId;
+
+        private final String typeOfPallet;
+
+        private final boolean waste;
+
+        private BigDecimal quantity;
+
+        private BigDecimal availableQuantity;
+
+        private BigDecimal reservedQuantity;
+
+        private BigDecimal quantityInAdditionalUnit;
+
+        private boolean changed;
+
+        private boolean deleted;
+
+        private ResourceRow(final ResultSet rs) throws SQLException {
+            id = rs.getLong("id");
+            number = rs.getString("number");
+            locationId = rs.getLong("location_id");
+            productId = rs.getLong("product_id");
+            quantity = rs.getBigDecimal("quantity");
+            availableQuantity = rs.getBigDecimal("availablequantity");
+            reservedQuantity = Objects.isNull(rs.getBigDecimal("reservedquantity")) ? BigDecimal.ZERO : rs
+                    .getBigDecimal("reservedquantity");
+            conversion = rs.getBigDecimal("conversion");
+            givenUnit = rs.getString("givenunit");
+            price = rs.getBigDecimal("price");
+            batch = rs.getString("batch");
+            productionDate = rs.getDate("productiondate");
+            expirationDate = rs.getDate("expirationdate");
+            time = rs.getTimestamp("time");
+            storageLocationId = getLong(rs, "storagelocation_id");
+            additionalCodeId = getLong(rs, "additionalcode_id");
+            palletNumberId = getLong(rs, "palletnumber_id");
+            typeOfPallet = rs.getString("typeofpallet");
+            waste = rs.getBoolean("waste");
+        }
+
+        private static Long getLong(final ResultSet rs, final String column) throws SQLException {
+            long value = rs.getLong(column);
+
+            return rs.wasNull() ? null : value;
+        }
+
+        private boolean isAvailable() {
+            return !deleted && availableQuantity.compareTo(BigDecimal.ZERO) > 0;
+        }
+
+        private Entity toEntity(final AllocationContext context, final Entity product,
+                final DataDefinitionService dataDefinitionService) {
+            DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                    MaterialFlowResourcesConstants.MODEL_RESOURCE);
+
+            Entity resource = resourceDD.create();
+
+            resource.setId(id);
+
+            resource.setField(ResourceFields.NUMBER, number);
+            resource.setField(ResourceFields.PRODUCT, product);
+            resource.setField(ResourceFields.LOCATION, context.warehouse);
+            resource.setField(ResourceFields.QUANTITY, quantity);
+            resource.setField(ResourceFields.AVAILABLE_QUANTITY, availableQuantity);
+            resource.setField(ResourceFields.RESERVED_QUANTITY, reservedQuantity);
+            resource.addGlobalError("materialFlow.error.correction.invalidQuantity");
+
+            return resource;
+        }
+
+    }
+
+}
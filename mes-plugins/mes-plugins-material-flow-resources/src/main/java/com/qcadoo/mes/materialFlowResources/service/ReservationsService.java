@@ -4,16 +4,22 @@ import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
@@ -45,6 +51,14 @@ public class ReservationsService {
 
     private final static String L_QUANTITY = "quantity";
 
+    private final static String L_ID = "id";
+
+    private final static String L_RESOURCE_ID = "resource_id";
+
+    private final static String L_PRODUCT_ID = "product_id";
+
+    private final static String L_DOCUMENT_ID = "document_id";
+
     public void cleanReservationsTrigger() {
         multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
 
@@ -83,12 +97,59 @@ public class ReservationsService {
             return;
         }
         String query = "INSERT INTO materialflowresources_reservation (location_id, product_id, quantity, position_id, resource_id) "
-                + "VALUES ((SELECT locationfrom_id FROM materialflowresources_document WHERE id=:document_id), :product_id, :quantity, :id, :resource_id)";
+                + "VALUES ((SELECT locationfrom_id FROM materialflowresources_document WHERE id=:document_id), :product_id, :quantity, :id, :resource_id) "
+                + "RETURNING location_id, product_id";
 
-        jdbcTemplate.update(query, params);
+        resourceReservationsService.updateReservations(query, params);
         resourceReservationsService.updateResourceQuantites(params, BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)));
     }
 
+    /**
+     * Creates reservations for many new positions of one document at once and updates resource stock. Uses jdbcTemplate.
+     *
+     * Reservations are inserted with one batch and net change of reserved quantity is applied once per resource, in order of
+     * resource ids, so creating many positions doesn't update the same resource many times and doesn't deadlock with
+     * concurrent changes.
+     *
+     * Warning! If logic in this method is changed, it should also be applied to corresponding single position method.
+     *
+     * @param documentId
+     *            id of document of all given positions
+     * @param positions
+     *            maps containing keys: id (position id), quantity, product_id, resource_id
+     * @see ReservationsService#createReservationFromDocumentPosition(Map)
+     */
+    public void createReservationsFromDocumentPositions(final Long documentId, final List<Map<String, Object>> positions) {
+        if (positions.isEmpty()
+                || !reservationsEnabledForDocumentPositions(Collections.singletonMap(L_DOCUMENT_ID, documentId))) {
+            return;
+        }
+
+        List<SqlParameterSource> reservations = Lists.newArrayList();
+        Map<Long, BigDecimal> quantitiesToAdd = Maps.newHashMap();
+        Set<Long> productIds = Sets.newHashSet();
+
+        for (Map<String, Object> position : positions) {
+            BigDecimal quantity = BigDecimalUtils.convertNullToZero(position.get(L_QUANTITY));
+
+            reservations.add(new MapSqlParameterSource(position).addValue(L_DOCUMENT_ID, documentId));
+
+            addQuantityToResource(quantitiesToAdd, position.get(L_RESOURCE_ID), quantity);
+
+            if (position.get(L_PRODUCT_ID) != null) {
+                productIds.add(((Number) position.get(L_PRODUCT_ID)).longValue());
+            }
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO materialflowresources_reservation (location_id, product_id, quantity, position_id, "
+                + "resource_id) VALUES ((SELECT locationfrom_id FROM materialflowresources_document WHERE id = :document_id), "
+                + ":product_id, :quantity, :id, :resource_id)",
+                reservations.toArray(new SqlParameterSource[reservations.size()]));
+
+        resourceReservationsService.updateResourceQuantites(quantitiesToAdd);
+        resourceReservationsService.markReservationsChanged(documentId, productIds);
+    }
+
     /**
      * Creates new reservation for position and updates resource stock. Uses framework.
      *
@@ -143,40 +204,31 @@ public class ReservationsService {
                             Map<String, Object> result = Maps.newHashMap();
                             if (rs.next()) {
                                 result.put("product_id", rs.getLong("product_id"));
-                                result.put("resource_id", rs.getLong("resource_id"));
+                                result.put("resource_id", rs.getObject("resource_id"));
                                 result.put("quantity", rs.getBigDecimal("quantity"));
                             }
                             return result;
                         }
                     });
-            Long newResourceId = (Long) params.get("resource_id");
-            Long oldResourceId = (Long) oldPosition.get("resource_id");
             BigDecimal oldPositionQuantity = (BigDecimal) oldPosition.get("quantity");
-
             BigDecimal newQuantity = BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY));
-            BigDecimal quantityToAdd = newQuantity.subtract(oldPositionQuantity);
             String query = "UPDATE materialflowresources_reservation SET "
                     + "location_id = (SELECT locationfrom_id FROM materialflowresources_document WHERE id=:document_id), "
-                    + "product_id = :product_id, quantity = :quantity, resource_id = :resource_id WHERE position_id = :id";
-
-            jdbcTemplate.update(query, params);
-
-            if (oldResourceId != null && newResourceId != null) {
-                if (oldResourceId.compareTo(newResourceId) != 0) {
-                    resourceReservationsService.updateResourceQuantites(params, newQuantity);
-                    Map<String, Object> paramsForOld = Maps.newHashMap(params);
-                    paramsForOld.put("resource_id", oldResourceId);
-                    resourceReservationsService.updateResourceQuantites(paramsForOld, oldPositionQuantity.negate());
-                } else {
-                    resourceReservationsService.updateResourceQuantites(params, quantityToAdd);
-                }
-            } else if (oldResourceId == null && newResourceId != null) {
-                resourceReservationsService.updateResourceQuantites(params, newQuantity);
-            } else if (oldResourceId != null) {
-                Map<String, Object> paramsForOld = Maps.newHashMap(params);
-                paramsForOld.put("resource_id", oldResourceId);
-                resourceReservationsService.updateResourceQuantites(paramsForOld, oldPositionQuantity.negate());
+                    + "product_id = :product_id, quantity = :quantity, resource_id = :resource_id WHERE position_id = :id "
+                    + "RETURNING location_id, product_id";
+
+            resourceReservationsService.updateReservations(query, params, (Long) oldPosition.get("product_id"));
+
+            // net change per resource - one update when resource is kept, old and new resource locked in order of ids
+            Map<Long, BigDecimal> quantitiesToAdd = Maps.newHashMap();
+
+            if (oldPositionQuantity != null) {
+                addQuantityToResource(quantitiesToAdd, oldPosition.get(L_RESOURCE_ID), oldPositionQuantity.negate());
             }
+
+            addQuantityToResource(quantitiesToAdd, params.get(L_RESOURCE_ID), newQuantity);
+
+            resourceReservationsService.updateResourceQuantites(quantitiesToAdd);
         }
 
     }
@@ -222,8 +274,8 @@ public class ReservationsService {
         if (!reservationsEnabledForDocumentPositions(params)) {
             return;
         }
-        String query = "DELETE FROM materialflowresources_reservation WHERE position_id = :id";
-        jdbcTemplate.update(query, params);
+        String query = "DELETE FROM materialflowresources_reservation WHERE position_id = :id RETURNING location_id, product_id";
+        resourceReservationsService.updateReservations(query, params);
         resourceReservationsService.updateResourceQuantites(params,
                 BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)).negate());
     }
@@ -247,6 +299,52 @@ public class ReservationsService {
         }
     }
 
+    /**
+     * Deletes reservations for many positions of one document at once and updates resource stock. Uses jdbcTemplate.
+     *
+     * Reservations are deleted with one statement and net change of reserved quantity is applied once per resource, in order
+     * of resource ids, so deleting many positions doesn't update the same resource many times and doesn't deadlock with
+     * concurrent changes.
+     *
+     * Warning! If logic in this method is changed, it should also be applied to corresponding single position method.
+     *
+     * @param documentId
+     *            id of document of all given positions
+     * @param positions
+     *            maps containing keys: id (position id), quantity, product_id, resource_id
+     * @see ReservationsService#deleteReservationFromDocumentPosition(Map)
+     */
+    public void deleteReservationsFromDocumentPositions(final Long documentId, final List<Map<String, Object>> positions) {
+        if (positions.isEmpty() || !reservationsEnabledForDocumentPositions(Collections.singletonMap(L_DOCUMENT_ID, documentId))) {
+            return;
+        }
+
+        jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE position_id IN (:ids)", Collections.singletonMap(
+                "ids", positions.stream().map(position -> position.get(L_ID)).collect(Collectors.toList())));
+
+        Map<Long, BigDecimal> quantitiesToAdd = Maps.newHashMap();
+        Set<Long> productIds = Sets.newHashSet();
+
+        for (Map<String, Object> position : positions) {
+            addQuantityToResource(quantitiesToAdd, position.get(L_RESOURCE_ID),
+                    BigDecimalUtils.convertNullToZero(position.get(L_QUANTITY)).negate());
+
+            if (position.get(L_PRODUCT_ID) != null) {
+                productIds.add(((Number) position.get(L_PRODUCT_ID)).longValue());
+            }
+        }
+
+        resourceReservationsService.updateResourceQuantites(quantitiesToAdd);
+        resourceReservationsService.markReservationsChanged(documentId, productIds);
+    }
+
+    private void addQuantityToResource(final Map<Long, BigDecimal> quantitiesToAdd, final Object resourceId,
+            final BigDecimal quantity) {
+        if (resourceId != null) {
+            quantitiesToAdd.merge(((Number) resourceId).longValue(), quantity, BigDecimal::add);
+        }
+    }
+
     public Boolean reservationsEnabledForDocumentPositions(Map<String, Object> params) {
         String queryForDocumentType = "SELECT type, inBuffer, locationfrom_id FROM materialflowresources_document WHERE id = :document_id";
         Map<String, Object> documentMap = jdbcTemplate.queryForMap(queryForDocumentType, params);
@@ -111,6 +111,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private ReleaseDocumentResourcesAllocator releaseDocumentResourcesAllocator;
+
+    @Autowired
+    private ReceiptResourcesBulkService receiptResourcesBulkService;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -134,7 +140,20 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Object date = document.getField(DocumentFields.TIME);
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        if (receiptResourcesBulkService.canCreateInBulk(positions)) {
+            receiptResourcesBulkService.createPositionsAndResources(document, positions);
+
+            return;
+        }
+
+        // pallets of all positions are validated with one query, so resources skip their own pallet validation
+        if (!receiptResourcesBulkService.validatePallets(document, warehouse, positions)) {
+            return;
+        }
+
+        for (Entity position : positions) {
             createResource(document, warehouse, position, date);
 
             position = position.getDataDefinition().save(position);
@@ -174,6 +193,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         resource.setField(ResourceFields.PALLET_NUMBER, position.getField(PositionFields.PALLET_NUMBER));
         resource.setField(ResourceFields.TYPE_OF_PALLET, position.getField(PositionFields.TYPE_OF_PALLET));
         resource.setField(ResourceFields.WASTE, position.getField(PositionFields.WASTE));
+        resource.setField(ResourceFields.VALIDATE_PALLET, false);
 
         if (delivery != null) {
             resource.setField(ResourceFields.DELIVERY_NUMBER, delivery.getStringField("number"));
@@ -351,52 +371,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private void updateResourcesForReleaseDocuments(final Entity document) {
-        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
-
-        WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
-                .getStringField(LocationFieldsMFR.ALGORITHM));
-
-        boolean enoughResources = true;
-
-        NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
-
-        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse,
-                getProductsAndPositionsFromDocument(document));
-
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
-            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
-
-            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm);
-
-            enoughResources = enoughResources && position.isValid();
-
-            if (!position.isValid()) {
-                BigDecimal quantityInWarehouse = getQuantityOfProductFromMultimap(quantitiesForWarehouse, product);
-
-                BigDecimal quantity = position.getDecimalField(QUANTITY);
-
-                errorMessageHolder.addErrorEntry(product, quantity.subtract(quantityInWarehouse, numberService.getMathContext()));
-            } else {
-                if (generatedPositions.size() > 1) {
-                    if (Objects.nonNull(position.getId())) {
-                        position.getDataDefinition().delete(position.getId());
-                    }
-                    for (Entity newPosition : generatedPositions) {
-                        newPosition.setField(PositionFields.DOCUMENT, document);
-                        Entity saved = newPosition.getDataDefinition().save(newPosition);
-                        addPositionErrors(document, saved);
-                    }
-                } else {
-                    copyPositionValues(position, generatedPositions.get(0));
-                    Entity saved = position.getDataDefinition().save(position);
-                    addPositionErrors(document, saved);
-                }
-            }
-        }
-
-        if (!enoughResources) {
-            NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouse, errorMessageHolder);
-        }
+        releaseDocumentResourcesAllocator.updateResourcesForReleaseDocument(document);
     }
 
     private void addPositionErrors(final Entity document, final Entity saved) {
@@ -429,110 +404,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         position.setField(PositionFields.GIVEN_QUANTITY, newPosition.getField(PositionFields.GIVEN_QUANTITY));
     }
 
-    private List<Entity> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm) {
-        List<Entity> newPositions = Lists.newArrayList();
-
-        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
-
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
-
-        reservationsService.deleteReservationFromDocumentPosition(position);
-
-        BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
-        BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
-        String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
-
-        for (Entity resource : resources) {
-            Entity newPosition = createNewPosition(position, product, resource);
-
-            quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.getDecimalField(ResourceFields.CONVERSION),
-                    product.getStringField(ProductFields.UNIT));
-            conversion = resource.getDecimalField(ResourceFields.CONVERSION);
-            givenUnit = resource.getStringField(ResourceFields.GIVEN_UNIT);
-            BigDecimal resourceQuantity = resource.getDecimalField(ResourceFields.QUANTITY);
-            BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
-            BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion, givenUnit);
-            BigDecimal givenResourceAvailableQuantity = calculationQuantityService.calculateAdditionalQuantity(
-                    resourceAvailableQuantity, conversion, givenUnit);
-
-            if (position.getBelongsToField(PositionFields.RESOURCE) != null
-                    && warehouse.getBooleanField(LocationFieldsMFR.DRAFT_MAKES_RESERVATION)) {
-                BigDecimal reservedQuantity = resource.getDecimalField(ResourceFields.RESERVED_QUANTITY).subtract(quantity,
-                        numberService.getMathContext());
-                resource.setField(ResourceFields.RESERVED_QUANTITY, reservedQuantity);
-            }
-
-            if (quantity.compareTo(resourceAvailableQuantity) >= 0
-                    || givenQuantity.compareTo(givenResourceAvailableQuantity) == 0) {
-                quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
-
-                if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
-                } else {
-                    BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
-                    BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
-                            newResourceQuantity, conversion, givenUnit);
-
-                    resource.setField(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO);
-                    resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
-                    resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
-
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
-                }
-
-                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceAvailableQuantity));
-
-                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenResourceAvailableQuantity);
-
-                newPositions.add(newPosition);
-
-                if (BigDecimal.ZERO.compareTo(quantity) == 0
-                        || BigDecimal.ZERO.compareTo(calculationQuantityService.calculateAdditionalQuantity(quantity, conversion,
-                                givenUnit)) == 0) {
-                    return newPositions;
-                }
-            } else {
-                resourceQuantity = resourceQuantity.subtract(quantity, numberService.getMathContext());
-                resourceAvailableQuantity = resourceAvailableQuantity.subtract(quantity, numberService.getMathContext());
-
-                BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(resourceQuantity,
-                        conversion, givenUnit);
-
-                resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
-                resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
-                resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
-
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
-
-                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
-
-                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
-
-                newPositions.add(newPosition);
-
-                return newPositions;
-            }
-        }
-
-        position.addError(position.getDataDefinition().getField(PositionFields.QUANTITY),
-                "materialFlow.error.position.quantity.notEnough");
-
-        return Lists.newArrayList(position);
-    }
-
     private void moveResourcesForTransferDocument(final Entity document) {
         Entity warehouseFrom = document.getBelongsToField(DocumentFields.LOCATION_FROM);
         Entity warehouseTo = document.getBelongsToField(DocumentFields.LOCATION_TO);
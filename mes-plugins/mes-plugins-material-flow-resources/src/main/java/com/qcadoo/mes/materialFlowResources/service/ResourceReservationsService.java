@@ -1,17 +1,25 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
 
 @Service
 public class ResourceReservationsService {
@@ -22,15 +30,98 @@ public class ResourceReservationsService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    /**
+     * Executes given reservation statement, which returns location_id and product_id of changed reservations, and marks resource
+     * stock of them as changed. Reserved quantity of reservations without resource changes available stock too.
+     *
+     * @param oldProductIds
+     *            ids of products which reservations had before the statement
+     */
+    void updateReservations(final String query, final Map<String, Object> params, final Long... oldProductIds) {
+        jdbcTemplate.query(query, params, (RowCallbackHandler) rs -> {
+            Long locationId = rs.getLong("location_id");
+
+            resourceStockLedger.markChanged(locationId, rs.getLong("product_id"));
+            resourceStockLedger.markChanged(locationId, Arrays.asList(oldProductIds));
+        });
+    }
+
+    void markReservationsChanged(final Long documentId, final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        Long locationId = jdbcTemplate.queryForObject(
+                "SELECT locationfrom_id FROM materialflowresources_document WHERE id = :document_id",
+                Collections.singletonMap("document_id", documentId), Long.class);
+
+        resourceStockLedger.markChanged(locationId, productIds);
+    }
+
     void updateResourceQuantites(Map<String, Object> params, BigDecimal quantityToAdd) {
         if (params.get("resource_id") != null) {
             params.put("quantity_to_add", quantityToAdd);
             String query = "UPDATE materialflowresources_resource SET reservedquantity = reservedquantity + :quantity_to_add, "
-                    + "availablequantity = availablequantity - :quantity_to_add WHERE id = :resource_id";
-            jdbcTemplate.update(query, params);
+                    + "availablequantity = availablequantity - :quantity_to_add WHERE id = :resource_id "
+                    + "RETURNING location_id, product_id";
+            jdbcTemplate.query(query, params, (RowCallbackHandler) rs -> resourceStockLedger.markChanged(
+                    rs.getLong("location_id"), rs.getLong("product_id")));
         }
     }
 
+    /**
+     * Applies net changes of reserved quantity to resources, one statement per resource. Resources are updated in order of their
+     * ids, so concurrent reservation changes lock them in the same order and don't deadlock.
+     *
+     * @param quantitiesToAdd
+     *            map of resource id to reserved quantity to add (negative to release)
+     */
+    void updateResourceQuantites(final Map<Long, BigDecimal> quantitiesToAdd) {
+        for (Map.Entry<Long, BigDecimal> quantityToAdd : new TreeMap<>(quantitiesToAdd).entrySet()) {
+            if (quantityToAdd.getValue().signum() != 0) {
+                Map<String, Object> params = Maps.newHashMap();
+
+                params.put("resource_id", quantityToAdd.getKey());
+
+                updateResourceQuantites(params, quantityToAdd.getValue());
+            }
+        }
+    }
+
+    public void reconcileReservedQuantitiesTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                reconcileReservedQuantities();
+            }
+
+        });
+    }
+
+    /**
+     * Rebuilds reserved and available quantities of resources from materialflowresources_reservation, as a safety net for
+     * incremental updates which went out of sync. Only resources whose reserved quantity differs are updated.
+     */
+    public void reconcileReservedQuantities() {
+        String query = "UPDATE materialflowresources_resource resource "
+                + "SET reservedquantity = COALESCE(reserved.quantity, 0), "
+                + "availablequantity = resource.quantity - COALESCE(reserved.quantity, 0) "
+                + "FROM materialflowresources_resource current LEFT JOIN ("
+                + "SELECT resource_id, SUM(quantity) AS quantity FROM materialflowresources_reservation "
+                + "WHERE resource_id IS NOT NULL GROUP BY resource_id) reserved ON reserved.resource_id = current.id "
+                + "WHERE resource.id = current.id AND resource.reservedquantity IS DISTINCT FROM COALESCE(reserved.quantity, 0) "
+                + "RETURNING resource.location_id, resource.product_id";
+        jdbcTemplate.query(query, Collections.emptyMap(), (RowCallbackHandler) rs -> resourceStockLedger.markChanged(
+                rs.getLong("location_id"), rs.getLong("product_id")));
+    }
+
     public void updateResourceQuantites(Entity position, BigDecimal quantityToAdd) {
         Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
         if (resource != null) {
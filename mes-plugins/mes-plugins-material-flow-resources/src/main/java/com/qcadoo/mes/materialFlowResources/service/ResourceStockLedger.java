@@ -0,0 +1,320 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * In-memory ledger of resource stock (quantity and available quantity) per tenant, location and product, backed by the
+ * materialflowresources_resourcestockdto view.
+ *
+ * Entries are loaded lazily from the view and dropped after commit of every transaction which changed resources of the given
+ * location and product, so they are reloaded with the next read. Inside such transaction reads go straight to the view, to see
+ * uncommitted changes. Evictions are versioned per lock stripe, so a value loaded concurrently with an eviction is never
+ * cached. The ledger is reconciled with the view periodically, as a safety net for changes made outside of hooks.
+ */
+@Service
+public class ResourceStockLedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceStockLedger.class);
+
+    private static final int L_LOCK_STRIPES = 64;
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private final ConcurrentMap<StockKey, Optional<ResourceStockDto>> stocks = new ConcurrentHashMap<>();
+
+    private final Lock[] locks = new Lock[L_LOCK_STRIPES];
+
+    private final long[] generations = new long[L_LOCK_STRIPES];
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    public ResourceStockLedger() {
+        for (int stripe = 0; stripe < L_LOCK_STRIPES; stripe++) {
+            locks[stripe] = new ReentrantLock();
+        }
+    }
+
+    public Optional<ResourceStockDto> getResourceStock(final Long locationId, final Long productId) {
+        return getResourceStocks(locationId, Sets.newHashSet(productId)).get(productId);
+    }
+
+    public Map<Long, Optional<ResourceStockDto>> getResourceStocks(final Long locationId, final Collection<Long> productIds) {
+        Map<Long, Optional<ResourceStockDto>> result = Maps.newHashMap();
+
+        Set<StockKey> changedInTransaction = getChangedInTransaction();
+        Set<Long> productIdsToLoad = Sets.newHashSet();
+
+        for (Long productId : productIds) {
+            StockKey key = StockKey.of(locationId, productId);
+
+            Optional<ResourceStockDto> stock = changedInTransaction.contains(key) ? null : stocks.get(key);
+
+            if (Objects.isNull(stock)) {
+                productIdsToLoad.add(productId);
+            } else {
+                result.put(productId, stock);
+            }
+        }
+
+        if (!productIdsToLoad.isEmpty()) {
+            Map<StockKey, Long> loadGenerations = productIdsToLoad.stream().map(productId -> StockKey.of(locationId, productId))
+                    .collect(Collectors.toMap(key -> key, this::getGeneration));
+
+            Map<Long, Optional<ResourceStockDto>> loaded = loadResourceStocks(locationId, productIdsToLoad);
+
+            for (Map.Entry<Long, Optional<ResourceStockDto>> entry : loaded.entrySet()) {
+                StockKey key = StockKey.of(locationId, entry.getKey());
+
+                if (!changedInTransaction.contains(key)) {
+                    putIfNotEvicted(key, entry.getValue(), loadGenerations.get(key));
+                }
+
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Marks stock of given location and product as changed in current transaction. Cached entry is dropped after the
+     * transaction completes, or immediately when called outside of transaction.
+     */
+    public void markChanged(final Long locationId, final Long productId) {
+        if (Objects.isNull(locationId) || Objects.isNull(productId)) {
+            return;
+        }
+
+        StockKey key = StockKey.of(locationId, productId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getOrBindChangedInTransaction().add(key);
+        } else {
+            evict(key);
+        }
+    }
+
+    public void markChanged(final Long locationId, final Collection<Long> productIds) {
+        productIds.forEach(productId -> markChanged(locationId, productId));
+    }
+
+    public void reconcileTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                reconcile();
+            }
+
+        });
+    }
+
+    public void reconcile() {
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+
+        Map<Long, Set<Long>> cachedProductsByLocation = stocks.keySet().stream().filter(key -> key.tenantId == tenantId)
+                .collect(Collectors.groupingBy(key -> key.locationId,
+                        Collectors.mapping(key -> key.productId, Collectors.toSet())));
+
+        int drifted = 0;
+
+        for (Map.Entry<Long, Set<Long>> entry : cachedProductsByLocation.entrySet()) {
+            Map<Long, Optional<ResourceStockDto>> actual = loadResourceStocks(entry.getKey(), entry.getValue());
+
+            for (Map.Entry<Long, Optional<ResourceStockDto>> actualEntry : actual.entrySet()) {
+                StockKey key = new StockKey(tenantId, entry.getKey(), actualEntry.getKey());
+
+                Optional<ResourceStockDto> cached = stocks.get(key);
+
+                if (Objects.nonNull(cached) && !cached.equals(actualEntry.getValue())) {
+                    evict(key);
+
+                    drifted++;
+                }
+            }
+        }
+
+        if (drifted > 0) {
+            LOG.warn("Resource stock ledger reconciled, " + drifted + " entries differed from database");
+        }
+    }
+
+    private Map<Long, Optional<ResourceStockDto>> loadResourceStocks(final Long locationId, final Collection<Long> productIds) {
+        Map<Long, Optional<ResourceStockDto>> result = Maps.newHashMap();
+
+        productIds.forEach(productId -> result.put(productId, Optional.empty()));
+
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT rs.product_id, rs.quantity, rs.availablequantity ");
+        query.append("FROM materialflowresources_resourcestockdto rs ");
+        query.append("WHERE rs.location_id = :locationId AND rs.product_id IN (:productIds)");
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue(L_LOCATION_ID, locationId.intValue());
+        params.addValue(L_PRODUCT_IDS, productIds.stream().map(Long::intValue).collect(Collectors.toSet()));
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> {
+            ResourceStockDto stock = new ResourceStockDto();
+
+            stock.setQuantity(rs.getBigDecimal("quantity"));
+            stock.setAvailableQuantity(rs.getBigDecimal("availablequantity"));
+
+            result.computeIfPresent(rs.getLong("product_id"), (productId, current) -> current.isPresent() ? current
+                    : Optional.of(stock));
+        });
+
+        return result;
+    }
+
+    private long getGeneration(final StockKey key) {
+        int stripe = getStripe(key);
+
+        locks[stripe].lock();
+
+        try {
+            return generations[stripe];
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    private void putIfNotEvicted(final StockKey key, final Optional<ResourceStockDto> stock, final long loadGeneration) {
+        int stripe = getStripe(key);
+
+        locks[stripe].lock();
+
+        try {
+            // value loaded before a concurrent eviction may already be stale, so it is not cached
+            if (generations[stripe] == loadGeneration) {
+                stocks.putIfAbsent(key, stock);
+            }
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    private void evict(final StockKey key) {
+        int stripe = getStripe(key);
+
+        locks[stripe].lock();
+
+        try {
+            generations[stripe]++;
+
+            stocks.remove(key);
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    private int getStripe(final StockKey key) {
+        return Math.floorMod(key.hashCode(), L_LOCK_STRIPES);
+    }
+
+    private Set<StockKey> getChangedInTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return Sets.newHashSet();
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<StockKey> changed = (Set<StockKey>) TransactionSynchronizationManager.getResource(this);
+
+        return Objects.isNull(changed) ? Sets.newHashSet() : changed;
+    }
+
+    private Set<StockKey> getOrBindChangedInTransaction() {
+        @SuppressWarnings("unchecked")
+        Set<StockKey> changed = (Set<StockKey>) TransactionSynchronizationManager.getResource(this);
+
+        if (Objects.isNull(changed)) {
+            Set<StockKey> changedKeys = Sets.newHashSet();
+
+            TransactionSynchronizationManager.bindResource(this, changedKeys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ResourceStockLedger.this);
+
+                    changedKeys.forEach(ResourceStockLedger.this::evict);
+                }
+
+            });
+
+            changed = changedKeys;
+        }
+
+        return changed;
+    }
+
+    private static final class StockKey {
+
+        private final int tenantId;
+
+        private final Long locationId;
+
+        private final Long productId;
+
+        private StockKey(final int tenantId, final Long locationId, final Long productId) {
+            this.tenantId = tenantId;
+            this.locationId = locationId;
+            this.productId = productId;
+        }
+
+        private static StockKey of(final Long locationId, final Long productId) {
+            return new StockKey(MultiTenantUtil.getCurrentTenantId(), locationId, productId);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            StockKey that = (StockKey) o;
+            return tenantId == that.tenantId && Objects.equals(locationId, that.locationId)
+                    && Objects.equals(productId, that.productId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenantId, locationId, productId);
+        }
+
+    }
+
+}
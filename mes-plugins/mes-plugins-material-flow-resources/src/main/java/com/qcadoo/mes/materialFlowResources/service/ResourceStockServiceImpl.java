@@ -8,12 +8,9 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
@@ -33,7 +30,7 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private ResourceStockLedger resourceStockLedger;
 
     @Override
     public void createResourceStock(final Entity resource) {
@@ -47,6 +44,8 @@ public class ResourceStockServiceImpl implements ResourceStockService {
             stock.setField(ResourceStockFields.LOCATION, location);
             stock.setField(ResourceStockFields.PRODUCT, product);
             resourceStockDD.save(stock);
+
+            resourceStockLedger.markChanged(location.getId(), product.getId());
         }
     }
 
@@ -71,32 +70,21 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     }
 
     private Optional<ResourceStockDto> getResourceStockForProductAndLocation(Entity product, Entity location) {
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT rs.* ");
-        query.append("FROM materialflowresources_resourcestockdto rs ");
-        query.append("WHERE rs.location_id = :locationId AND rs.product_id = :productId ");
-        query.append("LIMIT 1");
-
-        Map<String, Object> params = Maps.newHashMap();
-        params.put("locationId", location.getId().intValue());
-        params.put("productId", product.getId().intValue());
-        List<ResourceStockDto> resourceStock = jdbcTemplate.query(query.toString(), params,
-                BeanPropertyRowMapper.newInstance(ResourceStockDto.class));
-        if (resourceStock.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(resourceStock.get(0));
-        }
+        return resourceStockLedger.getResourceStock(location.getId(), product.getId());
     }
 
     @Override
     public void checkResourcesStock(Entity document) {
         List<String> invalidProducts = new ArrayList<>();
         List<Entity> mergedPositions = mergePositionsBeforeValidation(document.getHasManyField(DocumentFields.POSITIONS));
+        Entity locationFrom = document.getBelongsToField(DocumentFields.LOCATION_FROM);
+        Map<Long, Optional<ResourceStockDto>> resourceStocks = resourceStockLedger.getResourceStocks(locationFrom.getId(),
+                mergedPositions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                        .collect(Collectors.toSet()));
         for (Entity position : mergedPositions) {
-            if ((position.getDecimalField(PositionFields.QUANTITY)
-                    .compareTo(getResourceStockAvailableQuantity(position.getBelongsToField(PositionFields.PRODUCT),
-                            document.getBelongsToField(DocumentFields.LOCATION_FROM))) > 0)) {
+            BigDecimal availableQuantity = resourceStocks.get(position.getBelongsToField(PositionFields.PRODUCT).getId())
+                    .map(ResourceStockDto::getAvailableQuantity).orElse(BigDecimal.ZERO);
+            if ((position.getDecimalField(PositionFields.QUANTITY).compareTo(availableQuantity) > 0)) {
                 Entity product = position.getBelongsToField(PositionFields.PRODUCT);
                 invalidProducts.add(product.getStringField(ProductFields.NUMBER));
             }
@@ -3,6 +3,8 @@ package com.qcadoo.mes.materialFlowResources.storagelocation.imports;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedger;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.view.api.ComponentState;
@@ -14,6 +16,7 @@ import org.apache.poi.ss.usermodel.Row;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,6 +44,9 @@ public class ImportStorageLocationService {
     @Autowired
     private FileService fileService;
 
+    @Autowired
+    private ResourceStockLedger resourceStockLedger;
+
     @Transactional
     public ImportStorageLocationsResult importPositionsFromFile(final Entity entity, final ViewDefinitionState view) {
         ImportStorageLocationsResult result = new ImportStorageLocationsResult();
@@ -105,16 +111,21 @@ public class ImportStorageLocationService {
                 .forEach(result::addNotExcitingProduct);
     }
 
-    private int updateStorageLocationInResource(Long warehouse) {
+    private void updateStorageLocationInResource(Long warehouse) {
         StringBuilder query = new StringBuilder();
         query.append("UPDATE materialflowresources_resource res ");
         query.append("SET storagelocation_id= ");
         query.append("(SELECT sl.id FROM materialflowresources_storagelocation sl WHERE sl.location_id =:location_id ");
         query.append("AND sl.product_id=res.product_id AND active = true LIMIT 1) ");
-        query.append("WHERE res.location_id=:location_id");
+        query.append("WHERE res.location_id=:location_id ");
+        query.append("RETURNING res.product_id");
         Map<String, Object> parameters = new HashMap<String, Object>();
         parameters.put("location_id", warehouse);
-        return jdbcTemplate.update(query.toString(), parameters);
+
+        // resources are changed without hooks, so stock of their products has to be dropped from the ledger here
+        Set<Long> productIds = Sets.newHashSet();
+        jdbcTemplate.query(query.toString(), parameters, (RowCallbackHandler) rs -> productIds.add(rs.getLong("product_id")));
+        resourceStockLedger.markChanged(warehouse, productIds);
     }
 
     private Set<String> findStorageLocationsToClearProduct(Set<String> storageLocationsDB,
@@ -47,6 +47,7 @@ String ctx = request.getContextPath();
         </c:otherwise>
     </c:choose>
 
+    <script src="/basic/public/js/gridKeysetPaging.js?ver=${buildNumber}"></script>
     <script src="/materialFlowResources/public/js/gridOptions.js?ver=${buildNumber}"></script>
     <script src="/materialFlowResources/public/js/base64.js?ver=${buildNumber}"></script>
     
@@ -0,0 +1,3 @@
+-- Sequence ordering document positions inserted by set-based release of resources, before they are renumbered in document.
+
+CREATE SEQUENCE IF NOT EXISTS materialflowresources_position_number_seq;
@@ -0,0 +1,9 @@
+-- Indexes supporting storage location and resource typeahead and lookup grid searches.
+-- pg_trgm extension is created by basic plugin.
+
+CREATE INDEX IF NOT EXISTS materialflowresources_storagelocation_number_trgm_idx ON materialflowresources_storagelocation USING gin (number gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS materialflowresources_storagelocation_lower_number_trgm_idx ON materialflowresources_storagelocation USING gin (lower(number) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS materialflowresources_resource_number_trgm_idx ON materialflowresources_resource USING gin (number gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS materialflowresources_resource_lower_number_trgm_idx ON materialflowresources_resource USING gin (lower(number) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS materialflowresources_resource_lower_batch_trgm_idx ON materialflowresources_resource USING gin (lower(batch) gin_trgm_ops);
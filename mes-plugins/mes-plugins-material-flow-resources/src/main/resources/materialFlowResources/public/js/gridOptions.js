@@ -489,7 +489,13 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                     } catch (e) {
                     }
                     xhr = getJsonByQuery(url, $.extend({query: query}, parameters), function (data) {
-                        if (data.numberOfResults === 0) {
+                        if (data.hasMoreResults) {
+                            autoCompleteResult = true;
+                            response(data.entities.concat([{
+                                    id: 0,
+                                    code: QCD.translate('documentGrid.autocomplete.tooManyResults')
+                                }]));
+                        } else if (data.numberOfResults === 0) {
                             autoCompleteResult = false;
                             response([{
                                     id: 0,
@@ -513,7 +519,7 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                     // escape special characters
                     search = search.replace(/[-\/\\^$*+?.()|[\]{}]/g, '\\$&');
                     var re = new RegExp("(" + search.split(' ').join('|') + ")", "gi");
-                    if (autoCompleteResult) {
+                    if (autoCompleteResult && id !== 0) {
                         return '<div class="autocomplete-suggestion" data-id="' + id + '" data-val="' + code + '">' + code.replace(re, "<b>$1</b>") + '</div>';
                     } else {
                         return '<div class="autocomplete-no-result" data-id="' + id + '" data-val="' + code + '">' + code.replace(re, "<b>$1</b>") + '</div>';
@@ -1752,6 +1758,8 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
             }
         };
 
+        angular.extend(config, keysetPagingOptions());
+
         function prepareGridConfig(config) {
             var c = $.cookie("jqgrid_conf");
             if (c){
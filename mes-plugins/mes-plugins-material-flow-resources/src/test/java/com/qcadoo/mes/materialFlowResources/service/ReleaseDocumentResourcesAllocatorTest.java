@@ -0,0 +1,316 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static com.qcadoo.testing.model.EntityTestUtils.stubHasManyField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.CalculationQuantityService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolder;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolderFactory;
+import com.qcadoo.mes.materialFlowResources.validators.PositionValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Expected positions and resources are the ones saved by the per-position release (ResourceManagementServiceImpl
+ * updateResources) for the same document and stock.
+ */
+public class ReleaseDocumentResourcesAllocatorTest {
+
+    private static final Long L_DOCUMENT_ID = 1L;
+
+    private static final Long L_WAREHOUSE_ID = 2L;
+
+    private static final Long L_PRODUCT_ID = 3L;
+
+    private static final Long L_POSITION_ID = 201L;
+
+    private ReleaseDocumentResourcesAllocator releaseDocumentResourcesAllocator;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private CalculationQuantityService calculationQuantityService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private ReservationsService reservationsService;
+
+    @Mock
+    private ResourceReservationsService resourceReservationsService;
+
+    @Mock
+    private ResourceStockLedger resourceStockLedger;
+
+    @Mock
+    private NotEnoughResourcesErrorMessageHolderFactory notEnoughResourcesErrorMessageHolderFactory;
+
+    @Mock
+    private PositionValidators positionValidators;
+
+    @Mock
+    private DataDefinition positionDD;
+
+    @Mock
+    private Entity document, warehouse, product, parameter, documentPositionParameters;
+
+    private final List<ResultSet> resources = Lists.newArrayList();
+
+    @Before
+    public void init() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+
+        releaseDocumentResourcesAllocator = new ReleaseDocumentResourcesAllocator();
+
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "numberService", numberService);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "calculationQuantityService", calculationQuantityService);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "parameterService", parameterService);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "reservationsService", reservationsService);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "resourceReservationsService",
+                resourceReservationsService);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "resourceStockLedger", resourceStockLedger);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "notEnoughResourcesErrorMessageHolderFactory",
+                notEnoughResourcesErrorMessageHolderFactory);
+        ReflectionTestUtils.setField(releaseDocumentResourcesAllocator, "positionValidators", positionValidators);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class))).willAnswer(
+                invocation -> invocation.getArguments()[0]);
+        given(calculationQuantityService.calculateAdditionalQuantity(any(BigDecimal.class), any(BigDecimal.class),
+                anyString())).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).multiply((BigDecimal) invocation.getArguments()[1]));
+        given(notEnoughResourcesErrorMessageHolderFactory.create()).willReturn(mock(NotEnoughResourcesErrorMessageHolder.class));
+        given(positionValidators.checkAttributesRequirement(any(DataDefinition.class), any(Entity.class))).willReturn(true);
+        given(positionValidators.validateDates(any(DataDefinition.class), any(Entity.class))).willReturn(true);
+        given(positionValidators.validateAvailableQuantity(any(DataDefinition.class), any(Entity.class))).willReturn(true);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBelongsToField(ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS)).willReturn(
+                documentPositionParameters);
+
+        given(document.getId()).willReturn(L_DOCUMENT_ID);
+        given(document.getBelongsToField(DocumentFields.LOCATION_FROM)).willReturn(warehouse);
+        given(document.getStringField(DocumentFields.STATE)).willReturn(DocumentState.ACCEPTED.getStringValue());
+
+        given(warehouse.getId()).willReturn(L_WAREHOUSE_ID);
+        given(warehouse.getStringField(LocationFieldsMFR.ALGORITHM)).willReturn(WarehouseAlgorithm.FIFO.getStringValue());
+
+        given(product.getId()).willReturn(L_PRODUCT_ID);
+        given(product.getStringField(ProductFields.UNIT)).willReturn("szt");
+        given(product.getStringField(ProductFields.NUMBER)).willReturn("P1");
+
+        given(positionDD.create()).willAnswer(invocation -> mockPosition(null));
+
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            for (ResultSet resource : resources) {
+                handler.processRow(resource);
+            }
+
+            return null;
+        }).when(jdbcTemplate).query(contains("FROM materialflowresources_resource r"), any(SqlParameterSource.class),
+                any(RowCallbackHandler.class));
+    }
+
+    private Entity mockPosition(final Long id) {
+        Map<String, Object> fields = Maps.newHashMap();
+        Entity position = mock(Entity.class);
+
+        fields.put("id", id);
+
+        doAnswer(invocation -> fields.put("id", invocation.getArguments()[0])).when(position).setId(any(Long.class));
+        doAnswer(invocation -> fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1])).when(position)
+                .setField(anyString(), any());
+
+        given(position.getId()).willAnswer(invocation -> fields.get("id"));
+        given(position.getField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(position.getDecimalField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(position.getStringField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(position.getBelongsToField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(position.getDateField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(position.getBooleanField(anyString())).willAnswer(
+                invocation -> Boolean.TRUE.equals(fields.get(invocation.getArguments()[0])));
+        given(position.getDataDefinition()).willReturn(positionDD);
+        given(position.isValid()).willReturn(true);
+
+        return position;
+    }
+
+    private Entity givenPosition(final int quantity) {
+        Entity position = mockPosition(L_POSITION_ID);
+
+        position.setField(PositionFields.PRODUCT, product);
+        position.setField(PositionFields.QUANTITY, new BigDecimal(quantity));
+        position.setField(PositionFields.CONVERSION, BigDecimal.ONE);
+        position.setField(PositionFields.GIVEN_UNIT, "szt");
+        position.setField(PositionFields.NUMBER, 1);
+
+        stubHasManyField(document, DocumentFields.POSITIONS, Lists.newArrayList(position));
+
+        return position;
+    }
+
+    private void givenResource(final Long id, final String number, final int quantity, final long time) throws SQLException {
+        ResultSet resource = mock(ResultSet.class);
+
+        given(resource.getLong("id")).willReturn(id);
+        given(resource.getString("number")).willReturn(number);
+        given(resource.getLong("location_id")).willReturn(L_WAREHOUSE_ID);
+        given(resource.getLong("product_id")).willReturn(L_PRODUCT_ID);
+        given(resource.getBigDecimal("quantity")).willReturn(new BigDecimal(quantity));
+        given(resource.getBigDecimal("availablequantity")).willReturn(new BigDecimal(quantity));
+        given(resource.getBigDecimal("reservedquantity")).willReturn(BigDecimal.ZERO);
+        given(resource.getBigDecimal("conversion")).willReturn(BigDecimal.ONE);
+        given(resource.getString("givenunit")).willReturn("szt");
+        given(resource.getTimestamp("time")).willReturn(new Timestamp(time));
+        given(resource.getBoolean("candidate")).willReturn(true);
+        given(resource.wasNull()).willReturn(true);
+
+        resources.add(resource);
+    }
+
+    private SqlParameterSource[] captureBatch(final String sqlPrefix) {
+        ArgumentCaptor<SqlParameterSource[]> captor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith(sqlPrefix), captor.capture());
+
+        return captor.getValue();
+    }
+
+    private void assertDecimal(final int expected, final Object actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo((BigDecimal) actual));
+    }
+
+    @Test
+    public void shouldSplitPositionOverResourcesLikePerPositionRelease() throws SQLException {
+        // given
+        givenPosition(7);
+        givenResource(101L, "R1", 3, 1000L);
+        givenResource(102L, "R2", 3, 2000L);
+        givenResource(103L, "R3", 5, 3000L);
+
+        given(jdbcTemplate.queryForList(contains("materialflowresources_position_id_seq"), anyMapOf(String.class, Object.class),
+                eq(Long.class))).willReturn(Lists.newArrayList(301L, 302L, 303L));
+        given(jdbcTemplate.queryForList(contains("materialflowresources_position_number_seq"),
+                anyMapOf(String.class, Object.class), eq(Integer.class))).willReturn(Lists.newArrayList(1001, 1002, 1003));
+
+        // when
+        releaseDocumentResourcesAllocator.updateResourcesForReleaseDocument(document);
+
+        // then
+        verify(jdbcTemplate).query(contains("ORDER BY r.id FOR UPDATE"), any(SqlParameterSource.class),
+                any(RowCallbackHandler.class));
+
+        SqlParameterSource[] resourceUpdates = captureBatch("UPDATE materialflowresources_resource");
+
+        assertEquals(1, resourceUpdates.length);
+        assertEquals(103L, resourceUpdates[0].getValue("id"));
+        assertDecimal(4, resourceUpdates[0].getValue("quantity"));
+        assertDecimal(4, resourceUpdates[0].getValue("availableQuantity"));
+
+        verify(jdbcTemplate).update("DELETE FROM materialflowresources_resource WHERE id IN (:ids)",
+                Collections.singletonMap("ids", Sets.newHashSet(101L, 102L)));
+        verify(jdbcTemplate).query(startsWith("DELETE FROM materialflowresources_position"),
+                eq(Collections.singletonMap("ids", Lists.newArrayList(L_POSITION_ID))), any(RowCallbackHandler.class));
+
+        SqlParameterSource[] insertedPositions = captureBatch("INSERT INTO materialflowresources_position");
+
+        assertEquals(3, insertedPositions.length);
+        assertDecimal(3, insertedPositions[0].getValue("quantity"));
+        assertEquals("R1", insertedPositions[0].getValue("resourceNumber"));
+        assertEquals(1001, insertedPositions[0].getValue("number"));
+        assertDecimal(3, insertedPositions[1].getValue("quantity"));
+        assertEquals("R2", insertedPositions[1].getValue("resourceNumber"));
+        assertEquals(1002, insertedPositions[1].getValue("number"));
+        assertDecimal(1, insertedPositions[2].getValue("quantity"));
+        assertEquals("R3", insertedPositions[2].getValue("resourceNumber"));
+        assertEquals(1003, insertedPositions[2].getValue("number"));
+
+        verify(jdbcTemplate).query(startsWith("UPDATE materialflowresources_position p SET number"),
+                any(SqlParameterSource.class), any(RowCallbackHandler.class));
+        verify(reservationsService, never()).createReservationsFromDocumentPositions(anyLong(), any(List.class));
+    }
+
+    @Test
+    public void shouldUpdatePositionTakenFromOneResourceLikePerPositionRelease() throws SQLException {
+        // given
+        Entity position = givenPosition(2);
+        givenResource(101L, "R1", 3, 1000L);
+        givenResource(102L, "R2", 3, 2000L);
+
+        // when
+        releaseDocumentResourcesAllocator.updateResourcesForReleaseDocument(document);
+
+        // then
+        SqlParameterSource[] resourceUpdates = captureBatch("UPDATE materialflowresources_resource");
+
+        assertEquals(1, resourceUpdates.length);
+        assertEquals(101L, resourceUpdates[0].getValue("id"));
+        assertDecimal(1, resourceUpdates[0].getValue("quantity"));
+        assertDecimal(1, resourceUpdates[0].getValue("availableQuantity"));
+
+        SqlParameterSource[] updatedPositions = captureBatch("UPDATE materialflowresources_position SET quantity");
+
+        assertEquals(1, updatedPositions.length);
+        assertEquals(L_POSITION_ID, updatedPositions[0].getValue("id"));
+        assertDecimal(2, updatedPositions[0].getValue("quantity"));
+        assertEquals("R1", updatedPositions[0].getValue("resourceNumber"));
+        assertEquals(1, position.getField(PositionFields.NUMBER));
+
+        verify(jdbcTemplate, never()).batchUpdate(startsWith("INSERT INTO materialflowresources_position"),
+                any(SqlParameterSource[].class));
+        verify(jdbcTemplate, never()).query(startsWith("UPDATE materialflowresources_position p SET number"),
+                any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+
+}
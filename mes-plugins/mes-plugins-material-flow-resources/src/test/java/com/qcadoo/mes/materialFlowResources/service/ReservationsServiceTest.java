@@ -0,0 +1,250 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class ReservationsServiceTest {
+
+    private static final Long L_DOCUMENT_ID = 1L;
+
+    private static final Long L_LOCATION_ID = 2L;
+
+    private ReservationsService reservationsService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ResourceReservationsService resourceReservationsService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        reservationsService = new ReservationsService();
+
+        ReflectionTestUtils.setField(reservationsService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(reservationsService, "resourceReservationsService", resourceReservationsService);
+    }
+
+    private void givenDocument(final String type, final boolean draftMakesReservation) {
+        Map<String, Object> document = Maps.newHashMap();
+
+        document.put("type", type);
+        document.put("inBuffer", false);
+        document.put("locationfrom_id", L_LOCATION_ID);
+
+        given(jdbcTemplate.queryForMap(anyString(), anyMapOf(String.class, Object.class))).willReturn(document);
+        given(jdbcTemplate.queryForObject(anyString(), eq(Collections.singletonMap("location_id", L_LOCATION_ID)),
+                eq(Boolean.class))).willReturn(draftMakesReservation);
+    }
+
+    private Map<String, Object> position(final Long id, final Long productId, final Long resourceId, final int quantity) {
+        Map<String, Object> position = Maps.newHashMap();
+
+        position.put("id", id);
+        position.put("product_id", productId);
+        position.put("resource_id", resourceId);
+        position.put("quantity", new BigDecimal(quantity));
+
+        return position;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldDeleteReservationsAndApplyNetQuantityOncePerResource() {
+        // given
+        givenDocument("04release", true);
+
+        List<Map<String, Object>> positions = Lists.newArrayList(position(11L, 21L, 31L, 2), position(12L, 21L, 31L, 3),
+                position(13L, 22L, 32L, 1), position(14L, 22L, null, 4));
+
+        // when
+        reservationsService.deleteReservationsFromDocumentPositions(L_DOCUMENT_ID, positions);
+
+        // then
+        verify(jdbcTemplate).update("DELETE FROM materialflowresources_reservation WHERE position_id IN (:ids)",
+                Collections.singletonMap("ids", Lists.newArrayList(11L, 12L, 13L, 14L)));
+
+        ArgumentCaptor<Map> quantitiesCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(resourceReservationsService).updateResourceQuantites(quantitiesCaptor.capture());
+
+        Map<Long, BigDecimal> quantities = quantitiesCaptor.getValue();
+
+        assertEquals(2, quantities.size());
+        assertEquals(0, new BigDecimal(-5).compareTo(quantities.get(31L)));
+        assertEquals(0, new BigDecimal(-1).compareTo(quantities.get(32L)));
+
+        verify(resourceReservationsService).markReservationsChanged(L_DOCUMENT_ID, Sets.newHashSet(21L, 22L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldCreateReservationsWithOneBatchAndApplyNetQuantityOncePerResource() {
+        // given
+        givenDocument("04release", true);
+
+        List<Map<String, Object>> positions = Lists.newArrayList(position(11L, 21L, 31L, 2), position(12L, 21L, 31L, 3),
+                position(13L, 22L, 32L, 1), position(14L, 22L, null, 4));
+
+        // when
+        reservationsService.createReservationsFromDocumentPositions(L_DOCUMENT_ID, positions);
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> reservationsCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), reservationsCaptor.capture());
+
+        SqlParameterSource[] reservations = reservationsCaptor.getValue();
+
+        assertEquals(4, reservations.length);
+        assertEquals(11L, reservations[0].getValue("id"));
+        assertEquals(L_DOCUMENT_ID, reservations[0].getValue("document_id"));
+        assertEquals(null, reservations[3].getValue("resource_id"));
+
+        ArgumentCaptor<Map> quantitiesCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(resourceReservationsService).updateResourceQuantites(quantitiesCaptor.capture());
+
+        Map<Long, BigDecimal> quantities = quantitiesCaptor.getValue();
+
+        assertEquals(2, quantities.size());
+        assertEquals(0, new BigDecimal(5).compareTo(quantities.get(31L)));
+        assertEquals(0, new BigDecimal(1).compareTo(quantities.get(32L)));
+
+        verify(resourceReservationsService).markReservationsChanged(L_DOCUMENT_ID, Sets.newHashSet(21L, 22L));
+    }
+
+    @Test
+    public void shouldNotCreateReservationsWhenDocumentDoesNotMakeReservations() {
+        // given
+        givenDocument("04release", false);
+
+        // when
+        reservationsService.createReservationsFromDocumentPositions(L_DOCUMENT_ID,
+                Lists.newArrayList(position(11L, 21L, 31L, 2)));
+
+        // then
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        verifyZeroInteractions(resourceReservationsService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldApplyNetQuantityToOldAndNewResourceOnUpdate() {
+        // given
+        givenDocument("04release", true);
+
+        Map<String, Object> oldPosition = position(11L, 21L, 31L, 2);
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(ResultSetExtractor.class)))
+                .willReturn(oldPosition);
+
+        Map<String, Object> params = position(11L, 21L, 32L, 3);
+        params.put("document_id", L_DOCUMENT_ID);
+
+        // when
+        reservationsService.updateReservationFromDocumentPosition(params);
+
+        // then
+        ArgumentCaptor<Map> quantitiesCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(resourceReservationsService).updateResourceQuantites(quantitiesCaptor.capture());
+
+        Map<Long, BigDecimal> quantities = quantitiesCaptor.getValue();
+
+        assertEquals(2, quantities.size());
+        assertEquals(0, new BigDecimal(-2).compareTo(quantities.get(31L)));
+        assertEquals(0, new BigDecimal(3).compareTo(quantities.get(32L)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldApplyQuantityDifferenceOnceWhenResourceIsKeptOnUpdate() {
+        // given
+        givenDocument("04release", true);
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(ResultSetExtractor.class)))
+                .willReturn(position(11L, 21L, 31L, 2));
+
+        Map<String, Object> params = position(11L, 21L, 31L, 5);
+        params.put("document_id", L_DOCUMENT_ID);
+
+        // when
+        reservationsService.updateReservationFromDocumentPosition(params);
+
+        // then
+        ArgumentCaptor<Map> quantitiesCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(resourceReservationsService).updateResourceQuantites(quantitiesCaptor.capture());
+
+        Map<Long, BigDecimal> quantities = quantitiesCaptor.getValue();
+
+        assertEquals(1, quantities.size());
+        assertEquals(0, new BigDecimal(3).compareTo(quantities.get(31L)));
+    }
+
+    @Test
+    public void shouldNotDeleteReservationsWhenDocumentDoesNotMakeReservations() {
+        // given
+        givenDocument("04release", false);
+
+        // when
+        reservationsService.deleteReservationsFromDocumentPositions(L_DOCUMENT_ID,
+                Lists.newArrayList(position(11L, 21L, 31L, 2)));
+
+        // then
+        verify(jdbcTemplate, never()).update(anyString(), anyMapOf(String.class, Object.class));
+        verifyZeroInteractions(resourceReservationsService);
+    }
+
+    @Test
+    public void shouldNotDeleteReservationsForInboundDocument() {
+        // given
+        givenDocument("01receipt", true);
+
+        // when
+        reservationsService.deleteReservationsFromDocumentPositions(L_DOCUMENT_ID,
+                Lists.newArrayList(position(11L, 21L, 31L, 2)));
+
+        // then
+        verifyZeroInteractions(resourceReservationsService);
+    }
+
+    @Test
+    public void shouldDoNothingForNoPositions() {
+        // when
+        reservationsService.deleteReservationsFromDocumentPositions(L_DOCUMENT_ID, Collections.<Map<String, Object>> emptyList());
+
+        // then
+        verifyZeroInteractions(jdbcTemplate, resourceReservationsService);
+    }
+
+}
@@ -23,7 +23,6 @@
  */
 package com.qcadoo.mes.materialRequirements.listeners;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -34,10 +33,10 @@ import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.lowagie.text.DocumentException;
 import com.qcadoo.localization.api.utils.DateUtils;
-import com.qcadoo.mes.materialRequirements.MaterialRequirementService;
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
+import com.qcadoo.mes.materialRequirements.print.MaterialRequirementReportJobHandler;
 import com.qcadoo.mes.orders.util.OrderHelperService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -61,12 +60,16 @@ public class MaterialRequirementDetailsListeners {
     private ReportService reportService;
 
     @Autowired
-    private MaterialRequirementService materialRequirementService;
+    private ReportJobService reportJobService;
 
     @Autowired
     private OrderHelperService orderHelperService;
 
     public void printMaterialRequirement(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, MaterialRequirementReportJobHandler.REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
                 MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
     }
@@ -127,14 +130,11 @@ public class MaterialRequirementDetailsListeners {
             materialRequirement = dataDefinitionService.get(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
                     MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT).get((Long) state.getFieldValue());
 
-            try {
-                materialRequirementService.generateMaterialRequirementDocuments(state, materialRequirement);
-                state.performEvent(view, "reset", new String[0]);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            } catch (DocumentException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+            reportJobService.submit(MaterialRequirementReportJobHandler.REPORT_TYPE, materialRequirement.getId(), null,
+                    state.getLocale());
+
+            state.performEvent(view, "reset", new String[0]);
+            state.addMessage("basic.reportJob.submitted", MessageType.INFO);
         }
     }
 
@@ -26,7 +26,9 @@ package com.qcadoo.mes.materialRequirements.listeners;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
+import com.qcadoo.mes.materialRequirements.print.MaterialRequirementReportJobHandler;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
@@ -37,7 +39,14 @@ public class MaterialRequirementsListListeners {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void printMaterialRequirement(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, MaterialRequirementReportJobHandler.REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
                 MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
     }
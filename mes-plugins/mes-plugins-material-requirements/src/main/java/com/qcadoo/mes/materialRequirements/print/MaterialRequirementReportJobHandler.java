@@ -0,0 +1,96 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialRequirements.print;
+
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
+import com.qcadoo.mes.materialRequirements.print.pdf.MaterialRequirementPdfService;
+import com.qcadoo.mes.materialRequirements.print.xls.MaterialRequirementXlsService;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.file.FileService;
+
+@Service
+public class MaterialRequirementReportJobHandler implements ReportJobHandler {
+
+    public static final String REPORT_TYPE = MaterialRequirementsConstants.PLUGIN_IDENTIFIER + "."
+            + MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private MaterialRequirementPdfService materialRequirementPdfService;
+
+    @Autowired
+    private MaterialRequirementXlsService materialRequirementXlsService;
+
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity materialRequirement = getMaterialRequirement(entityId);
+
+        Entity materialRequirementWithFileName = fileService.updateReportFileName(materialRequirement,
+                MaterialRequirementFields.DATE, "materialRequirements.materialRequirement.report.fileName");
+
+        materialRequirementPdfService.generateDocument(materialRequirementWithFileName, locale);
+
+        progress.accept(50);
+
+        materialRequirementXlsService.generateDocument(materialRequirementWithFileName, locale);
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity materialRequirement = getMaterialRequirement(entityId);
+
+        if (materialRequirement != null) {
+            materialRequirement.setField(MaterialRequirementFields.WORKER, null);
+            materialRequirement.setField(MaterialRequirementFields.GENERATED, false);
+            materialRequirement.setField(MaterialRequirementFields.DATE, null);
+
+            materialRequirement.getDataDefinition().save(materialRequirement);
+        }
+    }
+
+    private Entity getMaterialRequirement(final Long materialRequirementId) {
+        return dataDefinitionService.get(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT).get(materialRequirementId);
+    }
+
+}
@@ -91,7 +91,7 @@ public class TechnologyServiceO {
                 if (technologyPrototype == null) {
                     removeTechnologyFromOrder(order);
                 } else {
-                    createOrUpdateTechnologyForWithPatternTechnology(order, technologyPrototype, true);
+                    createOrUpdateTechnologyForWithPatternTechnology(order, technologyPrototype);
                 }
             } else if (orderType == OrderType.WITH_OWN_TECHNOLOGY) {
                 createOrUpdateForOwnTechnology(order, technologyPrototype);
@@ -102,7 +102,7 @@ public class TechnologyServiceO {
                 if (technologyPrototype == null) {
                     removeTechnologyFromOrder(order);
                 } else {
-                    createOrUpdateTechnologyForWithPatternTechnology(order, technologyPrototype, false);
+                    createOrUpdateTechnologyForWithPatternTechnology(order, technologyPrototype);
                 }
             } else {
                 throw new IllegalStateException("Without pkt orderType must be set to WITH_PATTERN_TECHNOLOGY");
@@ -110,16 +110,20 @@ public class TechnologyServiceO {
         }
     }
 
+    /**
+     * Orders with pattern technology share technology prototype until their technology is edited for the first time, then
+     * prototype is copied and the copy is assigned to the order.
+     */
     @Transactional
-    public Entity createTechnologyIfPktDisabled(final DataDefinition orderDD, Entity order) {
+    public Entity createTechnologyIfNotCopied(final DataDefinition orderDD, Entity order) {
         OrderType orderType = OrderType.of(order);
         Entity technologyPrototype = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
 
-        if (!orderService.isPktEnabled() && !isTechnologyCopied(order)) {
+        if (!isTechnologyCopied(order)) {
             if (orderType == OrderType.WITH_PATTERN_TECHNOLOGY) {
                 order = createTechnologyForWithPatternTechnology(order, technologyPrototype, false);
                 order = order.getDataDefinition().save(order);
-            } else {
+            } else if (!orderService.isPktEnabled()) {
                 throw new IllegalStateException("Without pkt orderType must be set to WITH_PATTERN_TECHNOLOGY");
             }
         }
@@ -139,7 +143,7 @@ public class TechnologyServiceO {
         return order;
     }
 
-    private void createOrUpdateTechnologyForWithPatternTechnology(final Entity order, final Entity technologyPrototype, boolean changeTechnologyStateToChecked) {
+    private void createOrUpdateTechnologyForWithPatternTechnology(final Entity order, final Entity technologyPrototype) {
         Entity existingOrder = getExistingOrder(order);
 
         if (isTechnologyCopied(order)) {
@@ -148,7 +152,7 @@ public class TechnologyServiceO {
 
                 deleteTechnology(technology);
 
-                order.setField(OrderFields.TECHNOLOGY, copyTechnology(order, technologyPrototype, changeTechnologyStateToChecked));
+                order.setField(OrderFields.TECHNOLOGY, technologyPrototype);
                 barcodeOperationComponentService.removeBarcode(order);
 
             } else if (technologyWasChanged(order)) {
@@ -156,20 +160,11 @@ public class TechnologyServiceO {
 
                 deleteTechnology(technology);
 
-                if (orderService.isPktEnabled()) {
-                    order.setField(OrderFields.TECHNOLOGY, copyTechnology(order, technologyPrototype, changeTechnologyStateToChecked));
-                } else {
-                    order.setField(OrderFields.TECHNOLOGY, technologyPrototype);
-                }
+                order.setField(OrderFields.TECHNOLOGY, technologyPrototype);
                 barcodeOperationComponentService.removeBarcode(order);
             }
         } else {
-                if (orderService.isPktEnabled()) {
-                    order.setField(OrderFields.TECHNOLOGY, copyTechnology(order, technologyPrototype,
-                            changeTechnologyStateToChecked));
-                } else {
-                    order.setField(OrderFields.TECHNOLOGY, technologyPrototype);
-                }
+            order.setField(OrderFields.TECHNOLOGY, technologyPrototype);
         }
     }
 
@@ -198,7 +193,7 @@ public class TechnologyServiceO {
                 if (technologyPrototype != null) {
                     order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, null);
                 }
-            } else if (existingOrder.getBelongsToField(OrderFields.TECHNOLOGY) == null) {
+            } else if (!isTechnologyCopied(existingOrder)) {
                 order.setField(OrderFields.TECHNOLOGY, createTechnology(order));
 
                 if (technologyPrototype != null) {
@@ -216,7 +211,10 @@ public class TechnologyServiceO {
         return order.getDataDefinition().get(order.getId());
     }
 
-    private boolean isTechnologyCopied(final Entity order) {
+    /**
+     * @return false if order has no technology or still shares technology prototype
+     */
+    public boolean isTechnologyCopied(final Entity order) {
         Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
         Entity technologyPrototype = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
 
@@ -224,13 +222,38 @@ public class TechnologyServiceO {
             return false;
         }
 
-        if (Objects.equals(technology.getId(), technologyPrototype.getId())) {
+        if ((technologyPrototype != null) && Objects.equals(technology.getId(), technologyPrototype.getId())) {
             return false;
         }
 
         return true;
     }
 
+    /**
+     * Shared technology prototype is copied before its state is changed, so accepting an order never changes the prototype.
+     *
+     * @return order technology which should be accepted together with the order or null if there is nothing to accept
+     */
+    public Entity getTechnologyToAccept(final Entity order) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        if ((technology == null) || !isTechnologyToAccept(technology)) {
+            return null;
+        }
+
+        if (!isTechnologyCopied(order)) {
+            technology = createTechnologyIfNotCopied(order.getDataDefinition(), order).getBelongsToField(OrderFields.TECHNOLOGY);
+        }
+
+        return technology;
+    }
+
+    private boolean isTechnologyToAccept(final Entity technology) {
+        String state = technology.getStringField(TechnologyFields.STATE);
+
+        return TechnologyStateStringValues.DRAFT.equals(state) || TechnologyStateStringValues.CHECKED.equals(state);
+    }
+
     private boolean isTechnologySet(final Entity order) {
         Entity existingOrder = getExistingOrder(order);
 
@@ -31,6 +31,7 @@ import org.springframework.stereotype.Service;
 import com.google.common.collect.Lists;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrderType;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
@@ -76,6 +77,10 @@ public class CopyOfTechnologyHooks {
 
     private static final String L_CHECK_TECHNOLOGY = "checkTechnology";
 
+    private static final String L_ORDERS = "orders";
+
+    private static final String L_ORDER_ID_CONTEXT = "window.mainTab.technology.orderId";
+
     private static final List<String> STATES_TO_EDIT_GROUP = Lists.newArrayList(OrderState.IN_PROGRESS.getStringValue(),
             OrderState.ACCEPTED.getStringValue(), OrderState.PENDING.getStringValue(), OrderState.INTERRUPTED.getStringValue());
 
@@ -91,6 +96,9 @@ public class CopyOfTechnologyHooks {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private TechnologyServiceO technologyServiceO;
+
     public final void onBeforeRender(final ViewDefinitionState view) {
         final FormComponent technologyForm = (FormComponent) view.getComponentByReference(L_FORM);
 
@@ -103,6 +111,12 @@ public class CopyOfTechnologyHooks {
         Entity technology = technologyForm.getEntity().getDataDefinition().get(technologyId);
         Entity order = getOrderForTechnology(view);
 
+        if (order == null) {
+            disableTechnology(view);
+
+            return;
+        }
+
         String orderType = order.getStringField(OrderFields.ORDER_TYPE);
 
         enableFileds(view, orderType);
@@ -116,18 +130,26 @@ public class CopyOfTechnologyHooks {
         enableGroupField(view, order);
     }
 
-    private Entity getOrderForTechnology(final ViewDefinitionState state) {
+    private Entity getOrderForTechnology(final ViewDefinitionState view) {
         DataDefinition orderDD = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
         String orderId = null;
-       try {
-           orderId = state.getJsonContext().getString("window.mainTab.technology.orderId");
+
+        try {
+            orderId = view.getJsonContext().getString(L_ORDER_ID_CONTEXT);
         } catch (JSONException ex) {
-           // throw new RuntimeException(ex);
-           EntityList entities = ((FormComponent) state.getComponentByReference(L_FORM)).getPersistedEntityWithIncludedFormValues().getHasManyField("orders");
-           if(!entities.isEmpty()){
-               orderId = String.valueOf(entities.get(0).getId());
-           }
+            FormComponent technologyForm = (FormComponent) view.getComponentByReference(L_FORM);
+            EntityList orders = technologyForm.getPersistedEntityWithIncludedFormValues().getHasManyField(L_ORDERS);
+
+            // technology prototype can be shared by many orders, so only technology used by single order points to it
+            if (orders.size() == 1) {
+                orderId = String.valueOf(orders.get(0).getId());
+            }
+        }
+
+        if (orderId == null) {
+            return null;
         }
+
         return orderDD.get(Long.valueOf(orderId));
     }
 
@@ -149,6 +171,10 @@ public class CopyOfTechnologyHooks {
             if (TechnologyState.CHECKED.getStringValue().equals(technolgyState) || TechnologyState.ACCEPTED.getStringValue().equals(technolgyState)) {
                 isDisabled = true;
             }
+
+            if (!technologyServiceO.isTechnologyCopied(order)) {
+                isDisabled = true;
+            }
         }
 
         technologyForm.setFormEnabled(!isDisabled);
@@ -160,6 +186,23 @@ public class CopyOfTechnologyHooks {
         }
     }
 
+    private void disableTechnology(final ViewDefinitionState view) {
+        FormComponent technologyForm = (FormComponent) view.getComponentByReference(L_FORM);
+        WindowComponent window = (WindowComponent) view.getComponentByReference(L_WINDOW);
+        Ribbon ribbon = window.getRibbon();
+
+        technologyForm.setFormEnabled(false);
+        technologyDetailsViewHooks.setTreeTabEditable(view, false);
+
+        for (RibbonActionItem ribbonActionItem : Lists.newArrayList(
+                ribbon.getGroupByName(L_TECHNOLOGY).getItemByName(L_CLEAR_AND_LOAD_PATTERN_TECHNOLOGY),
+                ribbon.getGroupByName(L_TECHNOLOGY).getItemByName(L_CLEAR_TECHNOLOGY),
+                ribbon.getGroupByName(L_STATUS).getItemByName(L_CHECK_TECHNOLOGY))) {
+            ribbonActionItem.setEnabled(false);
+            ribbonActionItem.requestUpdate(true);
+        }
+    }
+
     private void setCriteriaModifierParameters(final ViewDefinitionState view, final Entity order) {
         LookupComponent patternTechnologyLookup = (LookupComponent) view
                 .getComponentByReference(TechnologyFields.TECHNOLOGY_PROTOTYPE);
@@ -230,7 +273,7 @@ public class CopyOfTechnologyHooks {
     private void enableGroupField(final ViewDefinitionState view, final Entity order) {
         String orderState = order.getStringField(OrderFields.STATE);
 
-        if (STATES_TO_EDIT_GROUP.contains(orderState)) {
+        if (STATES_TO_EDIT_GROUP.contains(orderState) && technologyServiceO.isTechnologyCopied(order)) {
             LookupComponent technologyGroup = (LookupComponent) view.getComponentByReference(TechnologyFields.TECHNOLOGY_GROUP);
             technologyGroup.setEnabled(true);
             technologyGroup.requestComponentUpdateState();
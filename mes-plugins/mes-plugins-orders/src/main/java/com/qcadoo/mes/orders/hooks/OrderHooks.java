@@ -241,7 +241,7 @@ public class OrderHooks {
 
     private void backupTechnology(final Entity order) {
         Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-        if (technology != null && orderService.isPktEnabled()) {
+        if (technology != null && orderService.isPktEnabled() && technologyServiceO.isTechnologyCopied(order)) {
             String bNumber = BACKUP_TECHNOLOGY_PREFIX + new Date().getTime() + "_"
                     + technology.getStringField(TechnologyFields.NUMBER);
             bNumber = bNumber.substring(0, Math.min(bNumber.length(), 255));
@@ -626,7 +626,9 @@ public class OrderHooks {
 
     void setCopyOfTechnology(final Entity order) {
         if (orderService.isPktEnabled()) {
-            order.setField(OrderFields.TECHNOLOGY, copyTechnology(order).orNull());
+            if (technologyServiceO.isTechnologyCopied(order)) {
+                order.setField(OrderFields.TECHNOLOGY, copyTechnology(order).orNull());
+            }
         } else {
             Entity prototypeTechnology = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
             if (prototypeTechnology != null && TechnologyState.of(prototypeTechnology).compareTo(TechnologyState.ACCEPTED) == 0) {
@@ -70,11 +70,16 @@ public class CopyOfTechnologyDetailsListeners {
             Entity technology = technologyServiceO.getTechnologyDD().get(technologyId);
             Entity order = getOrderWithTechnology(view);
 
+            if (order == null) {
+                return;
+            }
+
             Entity orderTechnologyPrototype = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
 
             Entity technologyPrototype = technologyPrototypeLookup.getEntity();
 
             if (technologyAndOrderPrototypesAreDifferent(orderTechnologyPrototype, technologyPrototype)) {
+                boolean isTechnologyCopied = technologyServiceO.isTechnologyCopied(order);
                 Entity copyOfTechnology = copyTechnology(technologyPrototype, order);
 
                 if (copyOfTechnology.isValid()) {
@@ -82,7 +87,9 @@ public class CopyOfTechnologyDetailsListeners {
 
                     order = order.getDataDefinition().save(order);
 
-                    deleteTechnology(technology);
+                    if (isTechnologyCopied) {
+                        deleteTechnology(technology);
+                    }
 
                     order.setField(OrderFields.TECHNOLOGY, copyOfTechnology);
                     order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, technologyPrototype);
@@ -112,7 +119,11 @@ public class CopyOfTechnologyDetailsListeners {
             Entity technology1 = technologyServiceO.getTechnologyDD().get(technologyId);
             Entity order = getOrderWithTechnology(view);
 
-            order = technologyServiceO.createTechnologyIfPktDisabled(order.getDataDefinition(), order);
+            if (order == null) {
+                return;
+            }
+
+            order = technologyServiceO.createTechnologyIfNotCopied(order.getDataDefinition(), order);
 
             Entity technology2 = order.getBelongsToField(OrderFields.TECHNOLOGY);
 
@@ -135,6 +146,11 @@ public class CopyOfTechnologyDetailsListeners {
         Long technologyId = (Long) state.getFieldValue();
         Entity technology = technologyServiceO.getTechnologyDD().get(technologyId);
         Entity order = getOrderWithTechnology(view);
+
+        if (order == null) {
+            return;
+        }
+
         parameters.put("form.id", order.getId());
 
         String url = "../page/orders/orderDetails.html";
@@ -151,6 +167,11 @@ public class CopyOfTechnologyDetailsListeners {
             Entity technology = technologyServiceO.getTechnologyDD().get(technologyId);
             Entity order = getOrderWithTechnology(view);
 
+            if (order == null) {
+                return;
+            }
+
+            boolean isTechnologyCopied = technologyServiceO.isTechnologyCopied(order);
             Entity newTechnology = createTechnology(order);
 
             if (newTechnology.isValid()) {
@@ -159,7 +180,9 @@ public class CopyOfTechnologyDetailsListeners {
 
                 order = order.getDataDefinition().save(order);
 
-                deleteTechnology(technology);
+                if (isTechnologyCopied) {
+                    deleteTechnology(technology);
+                }
 
                 order.setField(OrderFields.TECHNOLOGY, newTechnology);
 
@@ -178,7 +201,12 @@ public class CopyOfTechnologyDetailsListeners {
         Entity technology = technologyForm.getPersistedEntityWithIncludedFormValues();
         Entity order = getOrderWithTechnology(view);
 
+        if (order == null) {
+            return;
+        }
+
         Entity orderTechnologyPrototype = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+        boolean isTechnologyCopied = technologyServiceO.isTechnologyCopied(order);
         Entity copyOfTechnology = copyTechnology(orderTechnologyPrototype, order);
         if (copyOfTechnology.isValid()) {
 
@@ -191,6 +219,9 @@ public class CopyOfTechnologyDetailsListeners {
                     ComponentState.MessageType.FAILURE);
             return;
         }
+        if (!isTechnologyCopied) {
+            return;
+        }
         EntityOpResult deleteResult = deleteTechnology(technology);
         if (!deleteResult.isSuccessfull()) {
             technologyForm.addMessage("orders.copyOfTechnology.reloadFromPattern.failure.deletePrevented",
@@ -202,15 +233,23 @@ public class CopyOfTechnologyDetailsListeners {
     private Entity getOrderWithTechnology(final ViewDefinitionState view) {
         DataDefinition orderDD = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
         String orderId = null;
+
         try {
             orderId = view.getJsonContext().getString("window.mainTab.technology.orderId");
         } catch (JSONException ex) {
-            // throw new RuntimeException(ex);
-            EntityList entities = ((FormComponent) view.getComponentByReference("form")).getPersistedEntityWithIncludedFormValues().getHasManyField("orders");
-            if(!entities.isEmpty()){
-                orderId = String.valueOf(entities.get(0).getId());
+            EntityList orders = ((FormComponent) view.getComponentByReference("form")).getPersistedEntityWithIncludedFormValues()
+                    .getHasManyField("orders");
+
+            // technology prototype can be shared by many orders, so only technology used by single order points to it
+            if (orders.size() == 1) {
+                orderId = String.valueOf(orders.get(0).getId());
             }
         }
+
+        if (orderId == null) {
+            return null;
+        }
+
         return orderDD.get(Long.valueOf(orderId));
     }
 
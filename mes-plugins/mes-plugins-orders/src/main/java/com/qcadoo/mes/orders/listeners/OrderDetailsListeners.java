@@ -144,6 +144,10 @@ public class OrderDetailsListeners {
                 }
             }
 
+            if (OrderState.PENDING.getStringValue().equals(order.getStringField(OrderFields.STATE))) {
+                order = technologyServiceO.createTechnologyIfNotCopied(order.getDataDefinition(), order);
+            }
+
             Long technologyId = order.getBelongsToField(OrderFields.TECHNOLOGY).getId();
             Map<String, Object> parameters = Maps.newHashMap();
             parameters.put("form.id", technologyId);
@@ -310,7 +314,7 @@ public class OrderDetailsListeners {
         state.performEvent(view, "save", args);
         FormComponent formComponent = (FormComponent) view.getComponentByReference("form");
         Entity order = formComponent.getPersistedEntityWithIncludedFormValues();
-        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+        Entity technology = technologyServiceO.getTechnologyToAccept(order);
 
         if (technology != null) {
             if (TechnologyStateStringValues.DRAFT.equals(technology.getStringField(TechnologyFields.STATE))) {
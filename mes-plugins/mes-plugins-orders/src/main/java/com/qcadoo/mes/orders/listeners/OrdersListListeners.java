@@ -27,7 +27,6 @@ import com.qcadoo.mes.orders.TechnologyServiceO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.states.client.OrderStateChangeViewClient;
 import com.qcadoo.mes.states.service.client.util.ViewContextHolder;
@@ -60,11 +59,13 @@ public class OrdersListListeners {
         GridComponent gridComponent = (GridComponent) view.getComponentByReference("grid");
         for (Long orderId : gridComponent.getSelectedEntitiesIds()) {
             Entity order = getOrderDD().get(orderId);
-            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-            if (TechnologyStateStringValues.DRAFT.equals(technology.getStringField(TechnologyFields.STATE))) {
-                technologyStateChangeViewClient.changeState(new ViewContextHolder(view, state), TechnologyStateStringValues.ACCEPTED, technology);
-            } else if (TechnologyStateStringValues.CHECKED.equals(technology.getStringField(TechnologyFields.STATE))) {
-                technologyServiceO.changeTechnologyStateToAccepted(technology);
+            Entity technology = technologyServiceO.getTechnologyToAccept(order);
+            if (technology != null) {
+                if (TechnologyStateStringValues.DRAFT.equals(technology.getStringField(TechnologyFields.STATE))) {
+                    technologyStateChangeViewClient.changeState(new ViewContextHolder(view, state), TechnologyStateStringValues.ACCEPTED, technology);
+                } else if (TechnologyStateStringValues.CHECKED.equals(technology.getStringField(TechnologyFields.STATE))) {
+                    technologyServiceO.changeTechnologyStateToAccepted(technology);
+                }
             }
             orderStateChangeViewClient.changeState(new ViewContextHolder(view, state), args[0], order);
         }
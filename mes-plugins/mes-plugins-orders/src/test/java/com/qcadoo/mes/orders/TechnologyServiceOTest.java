@@ -0,0 +1,114 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+public class TechnologyServiceOTest {
+
+    private TechnologyServiceO technologyServiceO;
+
+    @Mock
+    private DataDefinition orderDD;
+
+    @Mock
+    private Entity order, orderWithCopy, technologyPrototype, copyOfTechnology;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        technologyServiceO = spy(new TechnologyServiceO());
+
+        given(order.getDataDefinition()).willReturn(orderDD);
+        given(technologyPrototype.getId()).willReturn(1L);
+        given(copyOfTechnology.getId()).willReturn(2L);
+        given(orderWithCopy.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(copyOfTechnology);
+        doReturn(orderWithCopy).when(technologyServiceO).createTechnologyIfNotCopied(orderDD, order);
+    }
+
+    @Test
+    public void shouldCopySharedTechnologyPrototypeBeforeAcceptingIt() {
+        // given
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technologyPrototype);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)).willReturn(technologyPrototype);
+        given(technologyPrototype.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.CHECKED);
+
+        // when
+        Entity technology = technologyServiceO.getTechnologyToAccept(order);
+
+        // then
+        assertEquals(copyOfTechnology, technology);
+        verify(technologyServiceO).createTechnologyIfNotCopied(orderDD, order);
+    }
+
+    @Test
+    public void shouldNotCopySharedTechnologyPrototypeWhichIsAccepted() {
+        // given
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technologyPrototype);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)).willReturn(technologyPrototype);
+        given(technologyPrototype.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.ACCEPTED);
+
+        // when
+        Entity technology = technologyServiceO.getTechnologyToAccept(order);
+
+        // then
+        assertNull(technology);
+        verify(technologyServiceO, never()).createTechnologyIfNotCopied(any(DataDefinition.class), any(Entity.class));
+    }
+
+    @Test
+    public void shouldReturnCopyOfTechnologyWithoutCopyingItAgain() {
+        // given
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(copyOfTechnology);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)).willReturn(technologyPrototype);
+        given(copyOfTechnology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.DRAFT);
+
+        // when
+        Entity technology = technologyServiceO.getTechnologyToAccept(order);
+
+        // then
+        assertEquals(copyOfTechnology, technology);
+        verify(technologyServiceO, never()).createTechnologyIfNotCopied(any(DataDefinition.class), any(Entity.class));
+    }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders.hooks;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrderType;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.constants.ParameterFieldsO;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.hooks.TechnologyDetailsViewHooks;
+import com.qcadoo.mes.technologies.listeners.TechnologyDetailsListeners;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.FormComponent;
+import com.qcadoo.view.api.components.LookupComponent;
+import com.qcadoo.view.api.components.lookup.FilterValueHolder;
+import com.qcadoo.view.api.ribbon.Ribbon;
+import com.qcadoo.view.api.ribbon.RibbonActionItem;
+import com.qcadoo.view.api.ribbon.RibbonGroup;
+import com.qcadoo.view.internal.components.window.WindowComponentState;
+
+public class CopyOfTechnologyHooksTest {
+
+    private static final long L_TECHNOLOGY_ID = 1L;
+
+    private static final long L_ORDER_ID = 2L;
+
+    private static final String L_ORDER_ID_CONTEXT = "window.mainTab.technology.orderId";
+
+    private CopyOfTechnologyHooks copyOfTechnologyHooks;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private TechnologyDetailsViewHooks technologyDetailsViewHooks;
+
+    @Mock
+    private TechnologyDetailsListeners technologyDetailsListeners;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private TechnologyServiceO technologyServiceO;
+
+    @Mock
+    private ViewDefinitionState view;
+
+    @Mock
+    private JSONObject jsonContext;
+
+    @Mock
+    private FormComponent technologyForm;
+
+    @Mock
+    private LookupComponent technologyPrototypeLookup, technologyGroupLookup;
+
+    @Mock
+    private FilterValueHolder filterValueHolder;
+
+    @Mock
+    private WindowComponentState window;
+
+    @Mock
+    private Ribbon ribbon;
+
+    @Mock
+    private RibbonGroup technologyRibbonGroup, statusRibbonGroup;
+
+    @Mock
+    private RibbonActionItem clearAndLoadPatternTechnology, clearTechnology, checkTechnology;
+
+    @Mock
+    private DataDefinition orderDD, technologyDD;
+
+    @Mock
+    private Entity technology, order, product, parameter;
+
+    @Mock
+    private EntityList orders;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        copyOfTechnologyHooks = new CopyOfTechnologyHooks();
+
+        setField(copyOfTechnologyHooks, "dataDefinitionService", dataDefinitionService);
+        setField(copyOfTechnologyHooks, "technologyDetailsViewHooks", technologyDetailsViewHooks);
+        setField(copyOfTechnologyHooks, "technologyDetailsListeners", technologyDetailsListeners);
+        setField(copyOfTechnologyHooks, "parameterService", parameterService);
+        setField(copyOfTechnologyHooks, "technologyServiceO", technologyServiceO);
+
+        given(view.getComponentByReference("form")).willReturn(technologyForm);
+        given(view.getComponentByReference("window")).willReturn((ComponentState) window);
+        given(view.getComponentByReference(TechnologyFields.TECHNOLOGY_PROTOTYPE)).willReturn(technologyPrototypeLookup);
+        given(view.getComponentByReference(TechnologyFields.TECHNOLOGY_GROUP)).willReturn(technologyGroupLookup);
+        given(view.getJsonContext()).willReturn(jsonContext);
+
+        given(window.getRibbon()).willReturn(ribbon);
+        given(ribbon.getGroupByName("technology")).willReturn(technologyRibbonGroup);
+        given(ribbon.getGroupByName("status")).willReturn(statusRibbonGroup);
+        given(technologyRibbonGroup.getItemByName("clearAndLoadPatternTechnology")).willReturn(clearAndLoadPatternTechnology);
+        given(technologyRibbonGroup.getItemByName("clearTechnology")).willReturn(clearTechnology);
+        given(statusRibbonGroup.getItemByName("checkTechnology")).willReturn(checkTechnology);
+
+        given(technologyPrototypeLookup.getFilterValue()).willReturn(filterValueHolder);
+
+        given(technologyForm.getEntityId()).willReturn(L_TECHNOLOGY_ID);
+        given(technologyForm.getEntity()).willReturn(technology);
+        given(technologyForm.getPersistedEntityWithIncludedFormValues()).willReturn(technology);
+        given(technology.getDataDefinition()).willReturn(technologyDD);
+        given(technologyDD.get(L_TECHNOLOGY_ID)).willReturn(technology);
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyState.DRAFT.getStringValue());
+        given(technology.getHasManyField("orders")).willReturn(orders);
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+        given(orderDD.get(L_ORDER_ID)).willReturn(order);
+        given(order.getStringField(OrderFields.ORDER_TYPE)).willReturn(OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
+        given(order.getStringField(OrderFields.STATE)).willReturn(OrderState.PENDING.getStringValue());
+        given(order.getBelongsToField(OrderFields.PRODUCT)).willReturn(product);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBooleanField(ParameterFieldsO.LOCK_TECHNOLOGY_TREE)).willReturn(false);
+    }
+
+    @Test
+    public void shouldKeepTechnologyEditableWhenOrderHasOwnCopy() throws JSONException {
+        // given
+        given(jsonContext.getString(L_ORDER_ID_CONTEXT)).willReturn(String.valueOf(L_ORDER_ID));
+        given(technologyServiceO.isTechnologyCopied(order)).willReturn(true);
+
+        // when
+        copyOfTechnologyHooks.onBeforeRender(view);
+
+        // then
+        verify(technologyForm).setFormEnabled(true);
+        verify(technologyDetailsViewHooks).setTreeTabEditable(view, true);
+        verify(technologyGroupLookup).setEnabled(true);
+    }
+
+    @Test
+    public void shouldKeepSharedTechnologyPrototypeReadOnly() throws JSONException {
+        // given
+        given(jsonContext.getString(L_ORDER_ID_CONTEXT)).willReturn(String.valueOf(L_ORDER_ID));
+        given(technologyServiceO.isTechnologyCopied(order)).willReturn(false);
+
+        // when
+        copyOfTechnologyHooks.onBeforeRender(view);
+
+        // then
+        verify(technologyForm).setFormEnabled(false);
+        verify(technologyDetailsViewHooks).setTreeTabEditable(view, false);
+        verify(technologyGroupLookup, never()).setEnabled(true);
+    }
+
+    @Test
+    public void shouldNotPickAnyOrderWhenTechnologyIsSharedByManyOrders() throws JSONException {
+        // given
+        given(jsonContext.getString(L_ORDER_ID_CONTEXT)).willThrow(new JSONException(L_ORDER_ID_CONTEXT));
+        given(orders.size()).willReturn(2);
+
+        // when
+        copyOfTechnologyHooks.onBeforeRender(view);
+
+        // then
+        verify(orderDD, never()).get(anyLong());
+        verify(technologyForm).setFormEnabled(false);
+        verify(technologyDetailsViewHooks).setTreeTabEditable(view, false);
+        verify(clearAndLoadPatternTechnology).setEnabled(false);
+        verify(clearTechnology).setEnabled(false);
+        verify(checkTechnology).setEnabled(false);
+        verify(technologyGroupLookup, never()).setEnabled(true);
+    }
+
+}
@@ -282,6 +282,7 @@ public class OrderHooksTest {
 
         stubBelongsToField(order, OrderFields.TECHNOLOGY, technology);
         stubStringField(order, OrderFields.ORDER_TYPE, OrderType.WITH_OWN_TECHNOLOGY.getStringValue());
+        given(technologyServiceO.isTechnologyCopied(order)).willReturn(true);
 
         // when
         orderHooks.setCopyOfTechnology(order);
@@ -291,4 +292,25 @@ public class OrderHooksTest {
         verify(order, never()).setField(OrderFields.TECHNOLOGY, technology);
         verify(technologyCopy).setField(TechnologyFields.NUMBER, generatedNumber);
     }
+
+    @Test
+    public final void shouldNotCopySharedTechnologyPrototype() {
+        // given
+        given(orderService.isPktEnabled()).willReturn(true);
+
+        DataDefinition technologyDD = mock(DataDefinition.class);
+        Entity technologyPrototype = mockEntity(technologyDD);
+
+        stubBelongsToField(order, OrderFields.TECHNOLOGY, technologyPrototype);
+        stubBelongsToField(order, OrderFields.TECHNOLOGY_PROTOTYPE, technologyPrototype);
+        stubStringField(order, OrderFields.ORDER_TYPE, OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
+        given(technologyServiceO.isTechnologyCopied(order)).willReturn(false);
+
+        // when
+        orderHooks.setCopyOfTechnology(order);
+
+        // then
+        verify(technologyDD, never()).copy(any(Long[].class));
+        verify(order, never()).setField(eq(OrderFields.TECHNOLOGY), any());
+    }
 }
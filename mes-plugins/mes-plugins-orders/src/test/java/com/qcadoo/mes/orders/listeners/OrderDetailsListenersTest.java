@@ -23,31 +23,54 @@
  */
 package com.qcadoo.mes.orders.listeners;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
+import java.util.Map;
+
 import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import com.qcadoo.mes.orders.OrderService;
 import com.qcadoo.mes.orders.TechnologyServiceO;
-import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrderType;
+import com.qcadoo.mes.orders.states.client.OrderStateChangeViewClient;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.states.service.client.util.ViewContextHolder;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.states.TechnologyStateChangeViewClient;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FieldComponent;
+import com.qcadoo.view.api.components.FormComponent;
 import com.qcadoo.view.api.components.LookupComponent;
 
 public class OrderDetailsListenersTest {
 
     private OrderDetailsListeners orderDetailsListeners;
 
-    private DataDefinitionService dataDefinitionService;
-
     private TechnologyServiceO technologyServiceO;
 
-    private LookupComponent product;
+    private OrderService orderService;
+
+    private OrderStateChangeViewClient orderStateChangeViewClient;
+
+    private TechnologyStateChangeViewClient technologyStateChangeViewClient;
 
-    private FieldComponent technologyPrototype, defaultTechnology;
+    private LookupComponent product, technologyPrototype;
+
+    private FieldComponent defaultTechnology;
 
     private ViewDefinitionState viewDefinitionState;
 
@@ -56,22 +79,78 @@ public class OrderDetailsListenersTest {
     @Before
     public void init() {
         orderDetailsListeners = new OrderDetailsListeners();
-        dataDefinitionService = mock(DataDefinitionService.class, RETURNS_DEEP_STUBS);
         technologyServiceO = mock(TechnologyServiceO.class, RETURNS_DEEP_STUBS);
+        orderService = mock(OrderService.class);
+        orderStateChangeViewClient = mock(OrderStateChangeViewClient.class);
+        technologyStateChangeViewClient = mock(TechnologyStateChangeViewClient.class);
         product = mock(LookupComponent.class);
-        technologyPrototype = mock(FieldComponent.class);
+        technologyPrototype = mock(LookupComponent.class);
         defaultTechnology = mock(FieldComponent.class);
         viewDefinitionState = mock(ViewDefinitionState.class);
         state = mock(ComponentState.class);
 
-        setField(orderDetailsListeners, "dataDefinitionService", dataDefinitionService);
         setField(orderDetailsListeners, "technologyServiceO", technologyServiceO);
+        setField(orderDetailsListeners, "orderService", orderService);
+        setField(orderDetailsListeners, "orderStateChangeViewClient", orderStateChangeViewClient);
+        setField(orderDetailsListeners, "technologyStateChangeViewClient", technologyStateChangeViewClient);
 
         given(viewDefinitionState.getComponentByReference("product")).willReturn(product);
         given(viewDefinitionState.getComponentByReference("technologyPrototype")).willReturn(technologyPrototype);
         given(viewDefinitionState.getComponentByReference("defaultTechnology")).willReturn(defaultTechnology);
     }
 
+    @Test
+    public void shouldCopySharedTechnologyPrototypeBeforeOpeningItForPendingOrder() {
+        // given
+        Entity order = mock(Entity.class);
+        Entity orderWithCopy = mock(Entity.class);
+        Entity copyOfTechnology = mock(Entity.class);
+        DataDefinition orderDD = mock(DataDefinition.class);
+
+        given(state.getFieldValue()).willReturn(2L);
+        given(orderService.getOrder(2L)).willReturn(order);
+        given(order.getDataDefinition()).willReturn(orderDD);
+        given(order.getStringField(OrderFields.ORDER_TYPE)).willReturn(OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
+        given(order.getStringField(OrderFields.STATE)).willReturn(OrderState.PENDING.getStringValue());
+        given(technologyPrototype.getEntity()).willReturn(mock(Entity.class));
+        given(technologyServiceO.createTechnologyIfNotCopied(orderDD, order)).willReturn(orderWithCopy);
+        given(orderWithCopy.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(copyOfTechnology);
+        given(orderWithCopy.getId()).willReturn(2L);
+        given(copyOfTechnology.getId()).willReturn(3L);
+
+        // when
+        orderDetailsListeners.showCopyOfTechnology(viewDefinitionState, state, new String[0]);
+
+        // then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, Object>> parameters = (ArgumentCaptor) ArgumentCaptor.forClass(Map.class);
+
+        verify(viewDefinitionState).redirectTo(eq("/page/orders/copyOfTechnologyDetails.html"), eq(false), eq(true),
+                parameters.capture());
+        assertEquals(3L, parameters.getValue().get("form.id"));
+        assertEquals(2L, parameters.getValue().get("form.orderId"));
+    }
+
+    @Test
+    public void shouldAcceptCopyOfTechnologyInsteadOfSharedTechnologyPrototype() {
+        // given
+        FormComponent orderForm = mock(FormComponent.class);
+        Entity order = mock(Entity.class);
+        Entity copyOfTechnology = mock(Entity.class);
+
+        given(viewDefinitionState.getComponentByReference("form")).willReturn(orderForm);
+        given(orderForm.getPersistedEntityWithIncludedFormValues()).willReturn(order);
+        given(technologyServiceO.getTechnologyToAccept(order)).willReturn(copyOfTechnology);
+        given(copyOfTechnology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.CHECKED);
+
+        // when
+        orderDetailsListeners.changeState(viewDefinitionState, state, new String[] { OrderState.ACCEPTED.getStringValue() });
+
+        // then
+        verify(technologyServiceO).changeTechnologyStateToAccepted(copyOfTechnology);
+        verify(orderStateChangeViewClient).changeState(any(ViewContextHolder.class), eq(OrderState.ACCEPTED.getStringValue()));
+    }
+
     /*
      * @Test public void shouldChangeOrderProductToNull() throws Exception { // given given(product.getEntity()).willReturn(null);
      * // when orderDetailsListeners.changeOrderProduct(viewDefinitionState, state, new String[0]); // then
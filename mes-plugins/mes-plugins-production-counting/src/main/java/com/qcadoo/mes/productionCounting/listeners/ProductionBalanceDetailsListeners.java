@@ -23,10 +23,8 @@
  */
 package com.qcadoo.mes.productionCounting.listeners;
 
-import java.io.IOException;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,14 +32,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.productionCounting.ProductionBalanceService;
 import com.qcadoo.mes.productionCounting.ProductionCountingService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
-import com.qcadoo.mes.productionCounting.xls.ProductionBalanceXlsService;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceReportJobHandler;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.security.api.SecurityService;
@@ -57,9 +55,6 @@ public class ProductionBalanceDetailsListeners {
     @Autowired
     private SecurityService securityService;
 
-    @Autowired
-    private FileService fileService;
-
     @Autowired
     private ReportService reportService;
 
@@ -70,7 +65,7 @@ public class ProductionBalanceDetailsListeners {
     private ProductionBalanceService productionBalanceService;
 
     @Autowired
-    private ProductionBalanceXlsService productionBalanceXlsService;
+    private ReportJobService reportJobService;
 
     @Transactional
     public void generateProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
@@ -91,22 +86,23 @@ public class ProductionBalanceDetailsListeners {
                 return;
             }
 
+            if (productionBalance.getHasManyField(ProductionBalanceFields.ORDERS).isEmpty()) {
+                state.addMessage("productionCounting.productionBalance.report.error.noOrders", MessageType.FAILURE);
+
+                return;
+            }
+
             if (!productionBalance.getBooleanField(ProductionBalanceFields.GENERATED)) {
                 fillReportValues(productionBalance);
+
+                productionBalance.getDataDefinition().save(productionBalance);
             }
 
-            if (!productionBalance.getHasManyField(ProductionBalanceFields.ORDERS).isEmpty()) {
-                generateProductionBalanceDocumentXls(productionBalance, state.getLocale());
-            } else {
-                state.addMessage("productionCounting.productionBalance.report.error.noOrders", MessageType.FAILURE);
+            reportJobService.submit(ProductionBalanceReportJobHandler.REPORT_TYPE, productionBalanceId, null, state.getLocale());
 
-                return;
-            }
             state.performEvent(view, "reset");
 
-            state.addMessage(
-                    "productionCounting.productionBalanceDetails.window.mainTab.productionBalanceDetails.generatedMessage",
-                    MessageType.SUCCESS);
+            state.addMessage("basic.reportJob.submitted", MessageType.INFO);
         }
     }
 
@@ -116,21 +112,11 @@ public class ProductionBalanceDetailsListeners {
         productionBalance.setField(ProductionBalanceFields.WORKER, securityService.getCurrentUserName());
     }
 
-    private void generateProductionBalanceDocumentXls(final Entity productionBalance, final Locale locale) {
-        String localePrefix = "productionCounting.productionBalance.report.fileName";
-
-        Entity productionBalanceWithFileName = fileService.updateReportFileName(productionBalance, ProductionBalanceFields.DATE,
-                localePrefix);
-
-        try {
-            productionBalanceXlsService.generateDocument(productionBalanceWithFileName, locale);
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Problem with saving productionBalance report", e);
+    public void printProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, ProductionBalanceReportJobHandler.REPORT_TYPE)) {
+            return;
         }
-    }
 
-    public void printProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         reportService.printGeneratedReport(view, state, new String[] { args[0], ProductionCountingConstants.PLUGIN_IDENTIFIER,
                 ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
     }
@@ -23,7 +23,6 @@
  */
 package com.qcadoo.mes.productionCounting.states.listener;
 
-import static com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields.ORDER;
 import static com.qcadoo.mes.orders.constants.OrderFields.STATE;
 import static com.qcadoo.mes.orders.states.constants.OrderState.COMPLETED;
 import static com.qcadoo.mes.states.messages.util.MessagesUtil.getArgs;
@@ -31,16 +30,20 @@ import static com.qcadoo.mes.states.messages.util.MessagesUtil.getKey;
 import static com.qcadoo.model.api.search.SearchOrders.asc;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
 import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.orders.constants.OrderFields;
@@ -57,6 +60,7 @@ import com.qcadoo.mes.productionCounting.utils.OrderClosingHelper;
 import com.qcadoo.mes.states.StateChangeContext;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.service.StateChangeContextBuilder;
+import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
@@ -71,6 +75,8 @@ public final class ProductionTrackingListenerService {
 
     private static final String L_COUNT = "count";
 
+    private static final String L_LOCK_ORDER_QUERY = "SELECT wastesquantity FROM orders_order WHERE id = :orderId FOR UPDATE";
+
     @Autowired
     private NumberService numberService;
 
@@ -80,9 +86,6 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ProductionCountingService productionCountingService;
 
-    @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
-
     @Autowired
     private OrderStateChangeAspect orderStateChangeAspect;
 
@@ -95,6 +98,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public void onChangeFromDraftToAny(final Entity productionTracking) {
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAILS, false);
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAIL_CAUSE, null);
@@ -112,14 +118,13 @@ public final class ProductionTrackingListenerService {
     }
 
     public void onAccept(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Addition());
-        setOrderDoneAndWastesQuantity(productionTracking, new Addition());
-        closeOrder(productionTracking);
+        Entity order = applyProductionTracking(productionTracking, new Addition());
+
+        closeOrder(productionTracking, order);
     }
 
     public void onChangeFromAcceptedToDeclined(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
-        setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        applyProductionTracking(productionTracking, new Substraction());
     }
 
     private void checkIfRecordOperationProductComponentsWereFilled(final Entity productionTracking) {
@@ -181,10 +186,7 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private void closeOrder(final Entity productionTracking) {
-        final Entity order = productionTracking.getBelongsToField(ORDER);
-        Entity orderFromDB = order.getDataDefinition().get(order.getId());
-
+    private void closeOrder(final Entity productionTracking, final Entity order) {
         if (!orderClosingHelper.orderShouldBeClosed(productionTracking)) {
 
             return;
@@ -196,10 +198,10 @@ public final class ProductionTrackingListenerService {
         }
 
         final StateChangeContext orderStateChangeContext = stateChangeContextBuilder
-                .build(orderStateChangeAspect.getChangeEntityDescriber(), orderFromDB, OrderState.COMPLETED.getStringValue());
+                .build(orderStateChangeAspect.getChangeEntityDescriber(), order, OrderState.COMPLETED.getStringValue());
         orderStateChangeAspect.changeState(orderStateChangeContext);
 
-        orderFromDB = order.getDataDefinition().get(orderStateChangeContext.getOwner().getId());
+        Entity orderFromDB = order.getDataDefinition().get(orderStateChangeContext.getOwner().getId());
 
         if (orderFromDB.getStringField(STATE).equals(COMPLETED.getStringValue())) {
             productionTracking.addGlobalMessage("productionCounting.order.orderClosed", false, false);
@@ -240,83 +242,132 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private void setOrderDoneAndWastesQuantity(final Entity productionTracking, final Operation operation) {
+    /**
+     * Applies quantities of given production tracking to basic production countings and to done and wastes quantities of its
+     * order.
+     *
+     * Order row is locked first, so concurrent acceptances of trackings of the same order are applied one after another instead
+     * of overwriting each other. Basic production countings of the order are loaded once, quantities of components of the same
+     * product are summed up and every changed basic production counting and the order are saved once.
+     *
+     * @return order of given production tracking, with updated quantities
+     */
+    private Entity applyProductionTracking(final Entity productionTracking, final Operation operation) {
         Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
+
+        BigDecimal orderWastesQuantity = lockOrder(order.getId());
+
         order = order.getDataDefinition().get(order.getId());
-        Entity mainProduct = order.getBelongsToField(OrderFields.PRODUCT);
-        Entity mainTrackingOperationProductOutComponent = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                .add(SearchRestrictions.belongsTo(TrackingOperationProductOutComponentFields.PRODUCT, mainProduct))
-                .setMaxResults(1).uniqueResult();
 
-        if (mainTrackingOperationProductOutComponent != null) {
-            order.setField(OrderFields.DONE_QUANTITY,
-                    basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order));
+        List<Entity> basicProductionCountings = order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS);
+        Map<Long, Entity> basicProductionCountingsByProduct = getBasicProductionCountingsByProduct(basicProductionCountings);
 
-            order.setField(OrderFields.WASTES_QUANTITY,
-                    getWastesQuantity(mainTrackingOperationProductOutComponent, order, operation));
-            order.setField("finalProductionTracking", productionTracking.getBooleanField(ProductionTrackingFields.LAST_TRACKING));
-            order.getDataDefinition().save(order);
-        }
-    }
+        List<Entity> trackingOperationProductInComponents = productionTracking
+                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS);
+        List<Entity> trackingOperationProductOutComponents = productionTracking
+                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
 
-    private BigDecimal getWastesQuantity(final Entity mainTrackingOperationProductOutComponent, final Entity order,
-            final Operation operation) {
-        BigDecimal mainWastesQuantity = mainTrackingOperationProductOutComponent
-                .getDecimalField(TrackingOperationProductOutComponentFields.WASTES_QUANTITY);
-        BigDecimal orderWastesQuantity = order.getDecimalField(OrderFields.WASTES_QUANTITY);
+        Map<Long, BigDecimal> usedQuantities = sumQuantitiesByProduct(trackingOperationProductInComponents,
+                TrackingOperationProductInComponentFields.USED_QUANTITY);
+        Map<Long, BigDecimal> producedQuantities = sumQuantitiesByProduct(trackingOperationProductOutComponents,
+                TrackingOperationProductOutComponentFields.USED_QUANTITY);
+
+        for (Map.Entry<Long, Entity> basicProductionCountingEntry : basicProductionCountingsByProduct.entrySet()) {
+            Long productId = basicProductionCountingEntry.getKey();
+            Entity basicProductionCounting = basicProductionCountingEntry.getValue();
+
+            if (!usedQuantities.containsKey(productId) && !producedQuantities.containsKey(productId)) {
+                continue;
+            }
 
-        if (orderWastesQuantity == null) {
-            orderWastesQuantity = BigDecimal.ZERO;
+            if (usedQuantities.containsKey(productId)) {
+                basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, operation.perform(
+                        basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY),
+                        usedQuantities.get(productId)));
+            }
+            if (producedQuantities.containsKey(productId)) {
+                basicProductionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, operation.perform(
+                        basicProductionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY),
+                        producedQuantities.get(productId)));
+            }
+
+            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
         }
-        if (mainWastesQuantity != null) {
 
-            return operation.perform(orderWastesQuantity, mainWastesQuantity);
+        Long mainProductId = order.getBelongsToField(OrderFields.PRODUCT).getId();
+        Entity mainTrackingOperationProductOutComponent = trackingOperationProductOutComponents.stream()
+                .filter(trackingOperationProductOutComponent -> mainProductId.equals(trackingOperationProductOutComponent
+                        .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT).getId()))
+                .findFirst().orElse(null);
+
+        if (mainTrackingOperationProductOutComponent == null) {
+            return order;
         }
 
-        return orderWastesQuantity;
+        order.setField(OrderFields.DONE_QUANTITY, getDoneQuantity(basicProductionCountings, mainProductId));
+        order.setField(OrderFields.WASTES_QUANTITY,
+                getWastesQuantity(mainTrackingOperationProductOutComponent, orderWastesQuantity, operation));
+        order.setField("finalProductionTracking", productionTracking.getBooleanField(ProductionTrackingFields.LAST_TRACKING));
+
+        return order.getDataDefinition().save(order);
     }
 
-    private void updateBasicProductionCounting(final Entity productionTracking, final Operation operation) {
-        final Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
+    private BigDecimal lockOrder(final Long orderId) {
+        List<BigDecimal> wastesQuantities = jdbcTemplate.queryForList(L_LOCK_ORDER_QUERY,
+                Collections.singletonMap("orderId", orderId), BigDecimal.class);
 
-        final List<Entity> trackingOperationProductInComponents = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS);
-        final List<Entity> trackingOperationProductOutComponents = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
+        return wastesQuantities.isEmpty() ? null : wastesQuantities.get(0);
+    }
 
-        trackingOperationProductInComponents.forEach(trackingOperationProductInComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent, order);
+    private Map<Long, Entity> getBasicProductionCountingsByProduct(final List<Entity> basicProductionCountings) {
+        Map<Long, Entity> basicProductionCountingsByProduct = Maps.newHashMap();
 
-            if (basicProductionCounting == null) {
-                return;
-            }
+        for (Entity basicProductionCounting : basicProductionCountings) {
+            basicProductionCountingsByProduct.putIfAbsent(
+                    basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId(),
+                    basicProductionCounting);
+        }
 
-            final BigDecimal usedQuantity = basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductInComponent
-                    .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
+        return basicProductionCountingsByProduct;
+    }
 
-            basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
-        });
+    private Map<Long, BigDecimal> sumQuantitiesByProduct(final List<Entity> trackingOperationProductComponents,
+            final String quantityFieldName) {
+        Map<Long, BigDecimal> quantities = Maps.newHashMap();
 
-        trackingOperationProductOutComponents.forEach(trackingOperationProductOutComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductOutComponent, order);
+        for (Entity trackingOperationProductComponent : trackingOperationProductComponents) {
+            Long productId = trackingOperationProductComponent.getBelongsToField(L_PRODUCT).getId();
+            BigDecimal quantity = BigDecimalUtils
+                    .convertNullToZero(trackingOperationProductComponent.getDecimalField(quantityFieldName));
 
-            if (basicProductionCounting == null) {
-                return;
-            }
+            quantities.merge(productId, quantity, (sum, augend) -> sum.add(augend, numberService.getMathContext()));
+        }
 
-            final BigDecimal usedQuantity = basicProductionCounting
-                    .getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductOutComponent
-                    .getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
+        return quantities;
+    }
 
-            basicProductionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
-        });
+    private BigDecimal getDoneQuantity(final List<Entity> basicProductionCountings, final Long mainProductId) {
+        BigDecimal doneQuantity = basicProductionCountings.stream()
+                .filter(basicProductionCounting -> Objects.equals(mainProductId,
+                        basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId()))
+                .map(basicProductionCounting -> BigDecimalUtils.convertNullToZero(
+                        basicProductionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY)))
+                .reduce(BigDecimal.ZERO, (sum, augend) -> sum.add(augend, numberService.getMathContext()));
+
+        return numberService.setScaleWithDefaultMathContext(doneQuantity);
+    }
+
+    private BigDecimal getWastesQuantity(final Entity mainTrackingOperationProductOutComponent, final BigDecimal orderWastesQuantity,
+            final Operation operation) {
+        BigDecimal mainWastesQuantity = mainTrackingOperationProductOutComponent
+                .getDecimalField(TrackingOperationProductOutComponentFields.WASTES_QUANTITY);
+        BigDecimal wastesQuantity = BigDecimalUtils.convertNullToZero(orderWastesQuantity);
+
+        if (mainWastesQuantity != null) {
+            return operation.perform(wastesQuantity, mainWastesQuantity);
+        }
+
+        return wastesQuantity;
     }
 
     private void checkIfTimesIsSet(final Entity productionTracking) {
@@ -342,17 +393,8 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent, final Entity order) {
-        Entity product = trackingOperationProductComponent.getBelongsToField(L_PRODUCT);
-
-        return order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).find()
-                .add(SearchRestrictions.belongsTo(BasicProductionCountingFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-    }
-
     public void onCorrected(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
-        setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        applyProductionTracking(productionTracking, new Substraction());
     }
 
     private interface Operation {
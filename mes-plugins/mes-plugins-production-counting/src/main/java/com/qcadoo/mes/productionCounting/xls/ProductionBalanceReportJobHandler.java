@@ -0,0 +1,60 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
+import com.qcadoo.mes.productionCounting.ProductionCountingService;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.file.FileService;
+
+@Service
+public class ProductionBalanceReportJobHandler implements ReportJobHandler {
+
+    public static final String REPORT_TYPE = ProductionCountingConstants.PLUGIN_IDENTIFIER + "."
+            + ProductionCountingConstants.MODEL_PRODUCTION_BALANCE;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private ProductionCountingService productionCountingService;
+
+    @Autowired
+    private ProductionBalanceXlsService productionBalanceXlsService;
+
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity productionBalance = productionCountingService.getProductionBalance(entityId);
+
+        Entity productionBalanceWithFileName = fileService.updateReportFileName(productionBalance, ProductionBalanceFields.DATE,
+                "productionCounting.productionBalance.report.fileName");
+
+        productionBalanceXlsService.generateDocument(productionBalanceWithFileName, locale);
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity productionBalance = productionCountingService.getProductionBalance(entityId);
+
+        if (productionBalance != null) {
+            productionBalance.setField(ProductionBalanceFields.GENERATED, false);
+            productionBalance.setField(ProductionBalanceFields.DATE, null);
+            productionBalance.setField(ProductionBalanceFields.WORKER, null);
+            productionBalance.setField(ProductionBalanceFields.FILE_NAME, null);
+
+            productionBalance.getDataDefinition().save(productionBalance);
+        }
+    }
+
+}
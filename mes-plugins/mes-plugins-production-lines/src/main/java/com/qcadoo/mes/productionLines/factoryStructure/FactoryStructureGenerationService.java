@@ -23,12 +23,25 @@
  */
 package com.qcadoo.mes.productionLines.factoryStructure;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.CompanyFields;
@@ -42,17 +55,41 @@ import com.qcadoo.mes.productionLines.constants.FactoryStructureElementFields;
 import com.qcadoo.mes.productionLines.constants.FactoryStructureElementType;
 import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
 import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.mes.productionLines.constants.WorkstationFieldsPL;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.utils.EntityTreeUtilsService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 
 @Service
 public class FactoryStructureGenerationService {
 
+    private static final String L_ID = "id";
+
+    private static final String L_ACTIVE = "active";
+
+    private static final String L_PRODUCTION_LINE = "productionLine";
+
+    private static final String L_DIVISION_ID = "divisionId";
+
+    private static final String L_PRODUCTION_LINE_ID = "productionLineId";
+
+    private static final Set<FactoryStructureElementType> CURRENT_ELEMENT_TYPES = EnumSet.of(
+            FactoryStructureElementType.PRODUCTION_LINE, FactoryStructureElementType.WORKSTATION,
+            FactoryStructureElementType.SUBASSEMBLY);
+
+    // structure is reloaded after this time also without invalidation, e.g. when it was changed by other application node
+    private static final long L_STRUCTURE_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private final ConcurrentMap<Integer, CachedStructure> cachedStructures = new ConcurrentHashMap<>();
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -114,91 +151,178 @@ public class FactoryStructureGenerationService {
     }
 
     public EntityTree generateFactoryStructureForEntity(final Entity entity, final String belongsToField) {
+        DataDefinition elementDD = dataDefinitionService.get(ProductionLinesConstants.PLUGIN_IDENTIFIER,
+                ProductionLinesConstants.MODEL_FACTORY_STRUCTURE_ELEMENT);
+
         List<Entity> factoryStructureList = Lists.newArrayList();
-        Entity root = addRoot(factoryStructureList, entity, belongsToField);
-        generateFactoryStructure(factoryStructureList, root, entity, belongsToField);
+        Entity root = addRoot(elementDD, factoryStructureList, entity, belongsToField);
+        generateFactoryStructure(elementDD, factoryStructureList, root, entity, belongsToField);
         return EntityTreeUtilsService.getDetachedEntityTree(factoryStructureList);
     }
 
-    private void generateFactoryStructure(List<Entity> tree, final Entity root, final Entity belongsToEntity,
-            final String belongsToField) {
-        List<Entity> factories = getFactories();
-        for (Entity factory : factories) {
-            if (!factory.isActive()) {
-                continue;
-            }
-            Entity factoryNode = createNode(belongsToEntity, belongsToField, factory.getStringField(FactoryFields.NUMBER),
-                    factory.getStringField(FactoryFields.NAME), FactoryStructureElementType.FACTORY, factory.getId());
-            addChild(tree, factoryNode, root);
-
-            List<Entity> divisions = getDivisionsForFactory(factory);
-            for (Entity division : divisions) {
-                if (!division.isActive()) {
-                    continue;
+    /**
+     * Clears cached factory structure of current tenant, called by hooks of factories, divisions, production lines,
+     * workstations and subassemblies. Structure is cleared again after transaction completion, so it is not reloaded with
+     * uncommitted data.
+     */
+    public void invalidateFactoryStructure() {
+        CachedStructure cachedStructure = getCachedStructure();
+
+        cachedStructure.clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    cachedStructure.clear();
                 }
-                Entity divisionNode = createNode(belongsToEntity, belongsToField, division.getStringField(DivisionFields.NUMBER),
-                        division.getStringField(DivisionFields.NAME), FactoryStructureElementType.DIVISION, division.getId());
-                addChild(tree, divisionNode, factoryNode);
 
-                List<Entity> productionLines = getProductionLinesForDivision(division);
+            });
+        }
+    }
 
-                for (Entity productionLine : productionLines) {
-                    if (!productionLine.isActive()) {
-                        continue;
-                    }
-                    Entity productionLineNode = createNode(belongsToEntity, belongsToField,
-                            productionLine.getStringField(ProductionLineFields.NUMBER),
-                            productionLine.getStringField(ProductionLineFields.NAME), FactoryStructureElementType.PRODUCTION_LINE,
-                            productionLine.getId());
-                    if (areEntitiesEqual(productionLine, belongsToEntity)) {
-                        productionLineNode.setField(FactoryStructureElementFields.CURRENT, true);
-                    }
-                    addChild(tree, productionLineNode, divisionNode);
+    private void generateFactoryStructure(final DataDefinition elementDD, final List<Entity> tree, final Entity root,
+            final Entity belongsToEntity, final String belongsToField) {
+        List<Entity> nodes = Lists.newArrayList();
 
-                    List<Entity> workstations = getWorkstationsForProductionLineAndDivision(productionLine, division);
+        for (StructureNode structureNode : getStructureNodes()) {
+            Entity node = createNode(elementDD, belongsToEntity, belongsToField, structureNode.number, structureNode.name,
+                    structureNode.type, structureNode.entityId);
+            if (isCurrent(structureNode, belongsToEntity)) {
+                node.setField(FactoryStructureElementFields.CURRENT, true);
+            }
+            addChild(tree, node, structureNode.parentIndex < 0 ? root : nodes.get(structureNode.parentIndex));
+            nodes.add(node);
+        }
+    }
 
-                    for (Entity workstation : workstations) {
-                        if (!workstation.isActive()) {
-                            continue;
-                        }
-                        Entity workstationNode = createNode(belongsToEntity, belongsToField,
-                                workstation.getStringField(WorkstationFields.NUMBER),
-                                workstation.getStringField(WorkstationFields.NAME), FactoryStructureElementType.WORKSTATION,
-                                workstation.getId());
-                        if (areEntitiesEqual(workstation, belongsToEntity)) {
-                            workstationNode.setField(FactoryStructureElementFields.CURRENT, true);
-                        }
+    private List<StructureNode> getStructureNodes() {
+        return getCachedStructure().getNodes();
+    }
 
-                        addChild(tree, workstationNode, productionLineNode);
+    private CachedStructure getCachedStructure() {
+        return cachedStructures.computeIfAbsent(getCurrentTenantId(), tenantId -> new CachedStructure());
+    }
 
-                        List<Entity> subassemblies = getSubassembliesForWorkstation(workstation);
-                        for (Entity subassembly : subassemblies) {
-                            if (!subassembly.isActive()) {
-                                continue;
-                            }
-                            Entity subassemblyNode = createNode(belongsToEntity, belongsToField,
-                                    subassembly.getStringField(SubassemblyFields.NUMBER),
-                                    subassembly.getStringField(SubassemblyFields.NAME), FactoryStructureElementType.SUBASSEMBLY,
-                                    subassembly.getId());
-                            if (areEntitiesEqual(subassembly, belongsToEntity)) {
-                                subassemblyNode.setField(FactoryStructureElementFields.CURRENT, true);
-                            }
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
 
-                            addChild(tree, subassemblyNode, workstationNode);
+    long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
 
-                        }
+    /**
+     * Loads active factories, divisions, production lines, workstations and subassemblies with one query per model and
+     * assembles them in the order of the tree.
+     */
+    private List<StructureNode> loadStructureNodes() {
+        Multimap<Long, Entity> divisionsByFactory = groupByBelongsTo(getActiveEntities(BasicConstants.PLUGIN_IDENTIFIER,
+                BasicConstants.MODEL_DIVISION), DivisionFields.FACTORY);
+        Map<Long, Entity> productionLines = Maps.uniqueIndex(getActiveEntities(ProductionLinesConstants.PLUGIN_IDENTIFIER,
+                ProductionLinesConstants.MODEL_PRODUCTION_LINE), Entity::getId);
+        Multimap<Long, Long> productionLinesByDivision = getProductionLinesByDivision();
+        Multimap<List<Long>, Entity> workstationsByProductionLineAndDivision = ArrayListMultimap.create();
+        for (Entity workstation : getActiveEntities(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_WORKSTATION)) {
+            Entity productionLine = workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE);
+            Entity division = workstation.getBelongsToField(WorkstationFields.DIVISION);
+            if (productionLine != null && division != null) {
+                workstationsByProductionLineAndDivision.put(Arrays.asList(productionLine.getId(), division.getId()),
+                        workstation);
+            }
+        }
+        Multimap<Long, Entity> subassembliesByWorkstation = groupByBelongsTo(getActiveEntities(
+                BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SUBASSEMBLY), SubassemblyFields.WORKSTATION);
+
+        List<StructureNode> nodes = Lists.newArrayList();
+
+        for (Entity factory : getActiveEntities(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_FACTORY)) {
+            int factoryIndex = addNode(nodes, -1, FactoryStructureElementType.FACTORY, factory,
+                    factory.getStringField(FactoryFields.NUMBER), factory.getStringField(FactoryFields.NAME));
 
+            for (Entity division : divisionsByFactory.get(factory.getId())) {
+                int divisionIndex = addNode(nodes, factoryIndex, FactoryStructureElementType.DIVISION, division,
+                        division.getStringField(DivisionFields.NUMBER), division.getStringField(DivisionFields.NAME));
+
+                for (Long productionLineId : productionLinesByDivision.get(division.getId())) {
+                    Entity productionLine = productionLines.get(productionLineId);
+                    if (productionLine == null) {
+                        continue;
+                    }
+                    int productionLineIndex = addNode(nodes, divisionIndex, FactoryStructureElementType.PRODUCTION_LINE,
+                            productionLine, productionLine.getStringField(ProductionLineFields.NUMBER),
+                            productionLine.getStringField(ProductionLineFields.NAME));
+
+                    for (Entity workstation : workstationsByProductionLineAndDivision.get(Arrays.asList(productionLineId,
+                            division.getId()))) {
+                        int workstationIndex = addNode(nodes, productionLineIndex, FactoryStructureElementType.WORKSTATION,
+                                workstation, workstation.getStringField(WorkstationFields.NUMBER),
+                                workstation.getStringField(WorkstationFields.NAME));
+
+                        for (Entity subassembly : subassembliesByWorkstation.get(workstation.getId())) {
+                            addNode(nodes, workstationIndex, FactoryStructureElementType.SUBASSEMBLY, subassembly,
+                                    subassembly.getStringField(SubassemblyFields.NUMBER),
+                                    subassembly.getStringField(SubassemblyFields.NAME));
+                        }
                     }
                 }
             }
         }
+
+        return Collections.unmodifiableList(nodes);
     }
 
-    private Entity addRoot(List<Entity> tree, final Entity belongsToEntity, final String belongsToField) {
+    private int addNode(final List<StructureNode> nodes, final int parentIndex, final FactoryStructureElementType type,
+            final Entity entity, final String number, final String name) {
+        nodes.add(new StructureNode(parentIndex, type, entity.getId(), number, name));
+        return nodes.size() - 1;
+    }
+
+    private List<Entity> getActiveEntities(final String pluginIdentifier, final String modelName) {
+        return dataDefinitionService.get(pluginIdentifier, modelName).find().add(SearchRestrictions.eq(L_ACTIVE, true))
+                .addOrder(SearchOrders.asc(L_ID)).list().getEntities();
+    }
+
+    private Multimap<Long, Entity> groupByBelongsTo(final List<Entity> entities, final String belongsToField) {
+        Multimap<Long, Entity> entitiesByParent = ArrayListMultimap.create();
+        for (Entity entity : entities) {
+            Entity parent = entity.getBelongsToField(belongsToField);
+            if (parent != null) {
+                entitiesByParent.put(parent.getId(), entity);
+            }
+        }
+        return entitiesByParent;
+    }
+
+    private Multimap<Long, Long> getProductionLinesByDivision() {
+        List<Entity> links = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_DIVISION).find()
+                .createAlias(DivisionFieldsPL.PRODUCTION_LINES, L_PRODUCTION_LINE, JoinType.INNER)
+                .setProjection(SearchProjections.list()
+                        .add(SearchProjections.alias(SearchProjections.field(L_ID), L_DIVISION_ID))
+                        .add(SearchProjections.alias(SearchProjections.field(L_PRODUCTION_LINE + "." + L_ID),
+                                L_PRODUCTION_LINE_ID)))
+                .addOrder(SearchOrders.asc(L_PRODUCTION_LINE + "." + L_ID)).list().getEntities();
+
+        Multimap<Long, Long> productionLinesByDivision = ArrayListMultimap.create();
+        for (Entity link : links) {
+            productionLinesByDivision.put((Long) link.getField(L_DIVISION_ID), (Long) link.getField(L_PRODUCTION_LINE_ID));
+        }
+        return productionLinesByDivision;
+    }
+
+    private boolean isCurrent(final StructureNode structureNode, final Entity belongsToEntity) {
+        return CURRENT_ELEMENT_TYPES.contains(structureNode.type)
+                && structureNode.type.getStringValue().equals(belongsToEntity.getDataDefinition().getName())
+                && structureNode.entityId.equals(belongsToEntity.getId());
+    }
+
+    private Entity addRoot(final DataDefinition elementDD, final List<Entity> tree, final Entity belongsToEntity,
+            final String belongsToField) {
 
         Entity company = parameterService.getParameter().getBelongsToField(ParameterFields.COMPANY);
 
-        Entity root = createNode(belongsToEntity, belongsToField, company.getStringField(CompanyFields.NUMBER),
+        Entity root = createNode(elementDD, belongsToEntity, belongsToField, company.getStringField(CompanyFields.NUMBER),
                 company.getStringField(CompanyFields.NAME), FactoryStructureElementType.COMPANY, company.getId());
 
         addChild(tree, root, null);
@@ -213,11 +337,8 @@ public class FactoryStructureGenerationService {
         tree.add(child);
     }
 
-    private Entity createNode(final Entity belongsToEntity, final String belongsToField, final String number, final String name,
-            final FactoryStructureElementType entityType, final Long entityId) {
-
-        DataDefinition elementDD = dataDefinitionService.get(ProductionLinesConstants.PLUGIN_IDENTIFIER,
-                ProductionLinesConstants.MODEL_FACTORY_STRUCTURE_ELEMENT);
+    private Entity createNode(final DataDefinition elementDD, final Entity belongsToEntity, final String belongsToField,
+            final String number, final String name, final FactoryStructureElementType entityType, final Long entityId) {
         Entity node = elementDD.create();
 
         node.setField(belongsToField, belongsToEntity);
@@ -229,32 +350,70 @@ public class FactoryStructureGenerationService {
         return node;
     }
 
-    private List<Entity> getFactories() {
-        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_FACTORY).find().list()
-                .getEntities();
-    }
+    /**
+     * Nodes of factories and their descendants in order of the tree, without company root. Nodes loaded while structure
+     * was cleared are not cached.
+     */
+    private final class CachedStructure {
 
-    private List<Entity> getDivisionsForFactory(final Entity factory) {
-        return factory.getHasManyField(FactoryFields.DIVISIONS);
-    }
+        private List<StructureNode> nodes;
 
-    private List<Entity> getProductionLinesForDivision(final Entity division) {
-        return division.getManyToManyField(DivisionFieldsPL.PRODUCTION_LINES);
-    }
+        private long loadedTime;
 
-    private List<Entity> getWorkstationsForProductionLineAndDivision(final Entity productionLine, final Entity division) {
-        return productionLine.getHasManyField(ProductionLineFields.WORKSTATIONS).find()
-                .add(SearchRestrictions.belongsTo(WorkstationFields.DIVISION, division)).list().getEntities();
-    }
+        private long generation;
+
+        List<StructureNode> getNodes() {
+            long currentTime = getCurrentTime();
+            long loadedGeneration;
+
+            synchronized (this) {
+                if ((nodes != null) && (currentTime - loadedTime < L_STRUCTURE_TIME_TO_LIVE)) {
+                    return nodes;
+                }
+
+                loadedGeneration = generation;
+            }
+
+            List<StructureNode> loadedNodes = loadStructureNodes();
+
+            synchronized (this) {
+                if (loadedGeneration == generation) {
+                    nodes = loadedNodes;
+                    loadedTime = currentTime;
+                }
+            }
+
+            return loadedNodes;
+        }
+
+        synchronized void clear() {
+            generation++;
+            nodes = null;
+        }
 
-    private List<Entity> getSubassembliesForWorkstation(final Entity workstation) {
-        return workstation.getHasManyField(WorkstationFields.SUBASSEMBLIES);
     }
 
-    private boolean areEntitiesEqual(final Entity firstEntity, final Entity secondEntity) {
-        return firstEntity.getDataDefinition().getName().equals(secondEntity.getDataDefinition().getName())
-                && firstEntity.getDataDefinition().getPluginIdentifier()
-                        .equals(secondEntity.getDataDefinition().getPluginIdentifier())
-                && firstEntity.getId().equals(secondEntity.getId());
+    private static final class StructureNode {
+
+        private final int parentIndex;
+
+        private final FactoryStructureElementType type;
+
+        private final Long entityId;
+
+        private final String number;
+
+        private final String name;
+
+        StructureNode(final int parentIndex, final FactoryStructureElementType type, final Long entityId, final String number,
+                final String name) {
+            this.parentIndex = parentIndex;
+            this.type = type;
+            this.entityId = entityId;
+            this.number = number;
+            this.name = name;
+        }
+
     }
+
 }
@@ -23,8 +23,10 @@
  */
 package com.qcadoo.mes.productionLines.hooks;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -32,6 +34,14 @@ import com.qcadoo.model.api.Entity;
 @Service
 public class ProductionLineHooks {
 
+    @Autowired
+    private ShiftsService shiftsService;
+
+    public void onSave(final DataDefinition dataDefinition, final Entity productionLine) {
+        // shifts assigned to production line might have changed
+        shiftsService.invalidateShiftCalendar();
+    }
+
     public boolean onDelete(final DataDefinition dataDefinition, final Entity productionLine) {
         boolean canDelete = productionLine.getManyToManyField(ProductionLineFields.DIVISIONS).isEmpty();
         if (!canDelete) {
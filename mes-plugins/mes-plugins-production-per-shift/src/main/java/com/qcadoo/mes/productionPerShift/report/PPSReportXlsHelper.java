@@ -23,12 +23,15 @@
  */
 package com.qcadoo.mes.productionPerShift.report;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.commons.dateTime.DateRange;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.shift.Shift;
-import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsService;
+import com.qcadoo.mes.lineChangeoverNorms.Changeover;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsSearchService;
 import com.qcadoo.mes.lineChangeoverNormsForOrders.LineChangeoverNormsForOrdersService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionPerShift.constants.DailyProgressFields;
@@ -51,6 +54,7 @@ import org.springframework.stereotype.Service;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
 
@@ -66,7 +70,7 @@ public class PPSReportXlsHelper {
     private UserService userService;
 
     @Autowired
-    private ChangeoverNormsService changeoverNormsService;
+    private ChangeoverNormsSearchService changeoverNormsSearchService;
 
     @Autowired
     private LineChangeoverNormsForOrdersService lineChangeoverNormsForOrdersService;
@@ -211,15 +215,45 @@ public class PPSReportXlsHelper {
         return getOrder(productionPerShift).getBelongsToField(OrderFields.PRODUCTION_LINE);
     }
 
-    public Entity getChangeover(final Entity order) {
-        Entity previousOrder = lineChangeoverNormsForOrdersService.getPreviousOrderFromDB(order);
-        if (previousOrder == null) {
-            return null;
+    /**
+     * Finds changeover norms from previous order on production line to each of given orders, matching norms of all orders are
+     * searched at once.
+     *
+     * @param orders
+     *            orders
+     * @return changeover norms by order id, without orders that have no matching norm
+     */
+    public Map<Long, Entity> getChangeovers(final List<Entity> orders) {
+        List<Long> orderIds = Lists.newArrayList();
+        List<Changeover> changeovers = Lists.newArrayList();
+
+        for (Entity order : orders) {
+            Entity previousOrder = lineChangeoverNormsForOrdersService.getPreviousOrderFromDB(order);
+            if (previousOrder == null) {
+                continue;
+            }
+            Entity fromTechnology = previousOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+            Entity toTechnology = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+            if (fromTechnology == null || toTechnology == null) {
+                continue;
+            }
+            orderIds.add(order.getId());
+            changeovers.add(Changeover.of(fromTechnology, toTechnology, order.getBelongsToField(PRODUCTION_LINE)));
+        }
+
+        Map<Long, Entity> changeoverNorms = Maps.newHashMap();
+
+        if (!changeovers.isEmpty()) {
+            List<Entity> matchingChangeoverNorms = changeoverNormsSearchService.findBestMatching(changeovers);
+
+            for (int index = 0; index < orderIds.size(); index++) {
+                if (matchingChangeoverNorms.get(index) != null) {
+                    changeoverNorms.put(orderIds.get(index), matchingChangeoverNorms.get(index));
+                }
+            }
         }
-        Entity fromTechnology = previousOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
-        Entity toTechnology = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
-        Entity productionLine = order.getBelongsToField(PRODUCTION_LINE);
-        return changeoverNormsService.getMatchingChangeoverNorms(fromTechnology, toTechnology, productionLine);
+
+        return changeoverNorms;
     }
 
 }
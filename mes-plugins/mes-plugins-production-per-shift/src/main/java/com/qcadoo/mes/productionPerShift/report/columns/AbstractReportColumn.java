@@ -48,12 +48,12 @@ public abstract class AbstractReportColumn implements ReportColumn {
     }
 
     @Override
-    public String getChangeoverValue(Entity pps) {
+    public String getChangeoverValue(Entity pps, Entity changeover) {
         return StringUtils.EMPTY;
     }
 
     @Override
-    public String getFirstRowChangeoverValue(Entity pps) {
+    public String getFirstRowChangeoverValue(Entity pps, Entity changeover) {
         return StringUtils.EMPTY;
     }
 }
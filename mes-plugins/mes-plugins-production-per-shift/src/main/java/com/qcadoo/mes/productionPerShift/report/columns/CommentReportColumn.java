@@ -39,8 +39,7 @@ public class CommentReportColumn extends AbstractReportColumn {
     }
 
     @Override
-    public String getChangeoverValue(Entity pps) {
-        Entity changeover = ppsReportXlsHelper.getChangeover(ppsReportXlsHelper.getOrder(pps));
+    public String getChangeoverValue(Entity pps, Entity changeover) {
         if (changeover == null) {
             return StringUtils.EMPTY;
         }
@@ -52,8 +51,8 @@ public class CommentReportColumn extends AbstractReportColumn {
     }
 
     @Override
-    public String getFirstRowChangeoverValue(Entity pps) {
-        return getChangeoverValue(pps);
+    public String getFirstRowChangeoverValue(Entity pps, Entity changeover) {
+        return getChangeoverValue(pps, changeover);
     }
 
     @Override
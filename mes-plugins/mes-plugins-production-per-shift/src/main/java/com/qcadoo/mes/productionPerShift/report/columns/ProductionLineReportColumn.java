@@ -38,7 +38,7 @@ public class ProductionLineReportColumn extends AbstractReportColumn {
     }
 
     @Override
-    public String getFirstRowChangeoverValue(Entity pps) {
+    public String getFirstRowChangeoverValue(Entity pps, Entity changeover) {
         return ppsReportXlsHelper.getProductionLine(pps).getStringField(ProductionLineFields.NUMBER);
     }
 
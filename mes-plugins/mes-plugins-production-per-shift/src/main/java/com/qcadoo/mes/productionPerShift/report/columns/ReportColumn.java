@@ -17,9 +17,9 @@ public interface ReportColumn {
 
     String getFirstRowValue(Entity pps);
 
-    String getFirstRowChangeoverValue(Entity pps);
+    String getFirstRowChangeoverValue(Entity pps, Entity changeover);
 
-    String getChangeoverValue(Entity pps);
+    String getChangeoverValue(Entity pps, Entity changeover);
 
     int getColumnWidth();
 
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.poi.hssf.usermodel.HSSFCell;
@@ -246,6 +247,9 @@ public class PPSReportXlsService extends XlsDocumentService {
 
         Collections.sort(productionPerShifts, new EntityProductionPerShiftsComparator());
 
+        Map<Long, Entity> changeovers = ppsReportXlsHelper.getChangeovers(productionPerShifts.stream()
+                .map(ppsReportXlsHelper::getOrder).collect(Collectors.toList()));
+
         String oldProductionLineNumber = "";
         String newProductionLineNumber;
 
@@ -256,7 +260,7 @@ public class PPSReportXlsService extends XlsDocumentService {
         for (Entity productionPerShift : productionPerShifts) {
 
             Entity order = ppsReportXlsHelper.getOrder(productionPerShift);
-            Entity changeover = ppsReportXlsHelper.getChangeover(order);
+            Entity changeover = changeovers.get(order.getId());
             Entity productionLine = ppsReportXlsHelper.getProductionLine(productionPerShift);
 
             newProductionLineNumber = productionLine.getStringField(ProductionLineFields.NUMBER);
@@ -271,9 +275,9 @@ public class PPSReportXlsService extends XlsDocumentService {
                     HSSFCell cell = row.createCell(colIndex);
 
                     if (isFirstRow) {
-                        cell.setCellValue(column.getFirstRowChangeoverValue(productionPerShift));
+                        cell.setCellValue(column.getFirstRowChangeoverValue(productionPerShift, changeover));
                     } else {
-                        cell.setCellValue(column.getChangeoverValue(productionPerShift));
+                        cell.setCellValue(column.getChangeoverValue(productionPerShift, changeover));
                     }
                     colIndex++;
                 }
@@ -29,9 +29,11 @@ import com.qcadoo.mes.basic.ShiftsServiceImpl;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTime;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
 import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrderType;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderState;
 import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
 import com.qcadoo.mes.productionScheduling.ProductionSchedulingService;
 import com.qcadoo.mes.productionScheduling.constants.OrderFieldsPS;
@@ -95,6 +97,9 @@ public class OperationDurationDetailsInOrderListeners {
     @Autowired
     private ProductionSchedulingService productionSchedulingService;
 
+    @Autowired
+    private TechnologyServiceO technologyServiceO;
+
     public void showCopyOfTechnology(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         Long orderId = (Long) state.getFieldValue();
 
@@ -108,9 +113,14 @@ public class OperationDurationDetailsInOrderListeners {
                 return;
             }
 
+            if (OrderState.PENDING.getStringValue().equals(order.getStringField(OrderFields.STATE))) {
+                order = technologyServiceO.createTechnologyIfNotCopied(order.getDataDefinition(), order);
+            }
+
             Long technologyId = order.getBelongsToField(OrderFields.TECHNOLOGY).getId();
             Map<String, Object> parameters = Maps.newHashMap();
             parameters.put("form.id", technologyId);
+            parameters.put("form.orderId", order.getId());
 
             String url = "../page/orders/copyOfTechnologyDetails.html";
             view.redirectTo(url, false, true, parameters);
@@ -188,7 +198,7 @@ public class OperationDurationDetailsInOrderListeners {
             if (startTime == null) {
                 startTimeField.addMessage("orders.validate.global.error.dateFromIsNull", MessageType.FAILURE);
             } else {
-                Date stopTime = shiftsService.findDateToForOrder(startTime, maxPathTime);
+                Date stopTime = shiftsService.findDateToForOrder(startTime, maxPathTime, productionLine);
 
                 if (stopTime == null) {
                     orderForm.addMessage("productionScheduling.timenorms.isZero", MessageType.FAILURE, false);
@@ -256,7 +256,7 @@ public class OrderTimePredictionListeners {
             if (startTime == null) {
                 dateFromField.addMessage("orders.validate.global.error.dateFromIsNull", MessageType.FAILURE);
             } else {
-                Date stopTime = shiftsService.findDateToForOrder(startTime, maxPathTime);
+                Date stopTime = shiftsService.findDateToForOrder(startTime, maxPathTime, productionLine);
 
                 if (stopTime == null) {
                     orderForm.addMessage("productionScheduling.timenorms.isZero", MessageType.FAILURE, false);
@@ -265,9 +265,9 @@ public class OrderTimePredictionListeners {
                 } else {
                     dateToField.setFieldValue(orderRealizationTimeService.setDateToField(stopTime));
 
-                    startTime = shiftsService.findDateFromForOrder(stopTime, maxPathTime);
+                    startTime = shiftsService.findDateFromForOrder(stopTime, maxPathTime, productionLine);
 
-                    scheduleOperationComponents(technology.getId(), startTime);
+                    scheduleOperationComponents(technology.getId(), startTime, productionLine);
 
                     isGenerated = true;
                 }
@@ -292,7 +292,7 @@ public class OrderTimePredictionListeners {
         }
     }
 
-    private void scheduleOperationComponents(final Long technologyId, final Date startDate) {
+    private void scheduleOperationComponents(final Long technologyId, final Date startDate, final Entity productionLine) {
         Entity technology = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_TECHNOLOGY).get(technologyId);
 
@@ -327,12 +327,12 @@ public class OrderTimePredictionListeners {
                 duration = duration + 1;
             }
 
-            Date dateFrom = shiftsService.findDateToForOrder(startDate, offset);
+            Date dateFrom = shiftsService.findDateToForOrder(startDate, offset, productionLine);
             if (dateFrom == null) {
                 continue;
             }
 
-            Date dateTo = shiftsService.findDateToForOrder(startDate, offset + duration);
+            Date dateTo = shiftsService.findDateToForOrder(startDate, offset + duration, productionLine);
             if (dateTo == null) {
                 continue;
             }
@@ -5,10 +5,12 @@ import static com.qcadoo.mes.states.constants.StateChangeStatus.PAUSED;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -18,11 +20,15 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
@@ -30,9 +36,11 @@ import com.qcadoo.mes.states.StateEnum;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.exception.AnotherChangeInProgressException;
 import com.qcadoo.mes.states.exception.StateTransitionNotAlloweException;
+import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.model.api.validators.GlobalMessage;
@@ -62,6 +70,9 @@ public class StateExecutorService {
     @Autowired
     private SecurityService securityService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     private ComponentMessagesHolder componentMessagesHolder;
 
     private static final Logger LOGGER = Logger.getLogger(StateExecutorService.class);
@@ -73,14 +84,12 @@ public class StateExecutorService {
 
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference("grid");
         if (maybeGridComponent.isPresent()) {
-            maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
-                entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
-                entity.setField(USER_CHANGE_STATE, userId);
+            StateChangeContext<M> context = buildStateChangeContext(serviceMarker, userLogin);
 
-                entity = changeState(serviceMarker, entity, userLogin, args[0]);
+            List<Entity> entities = findOwners(context.describer, maybeGridComponent.get().getSelectedEntitiesIds());
+            entities.forEach(entity -> entity.setField(USER_CHANGE_STATE, userId));
 
-                copyMessages(entity);
-            });
+            addStatusMessages(changeStates(context, entities, args[0]));
 
         } else {
             Optional<FormComponent> maybeForm = view.tryFindComponentByReference("form");
@@ -97,30 +106,107 @@ public class StateExecutorService {
     }
 
     public <M extends StateService> Entity changeState(Class<M> serviceMarker, Entity entity, String userLogin, String targetState) {
-        List<M> services = lookupChangeStateServices(serviceMarker);
-        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
-        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+        StateChangeContext<M> context = buildStateChangeContext(serviceMarker, userLogin);
+        StateChangeEntityDescriber describer = context.describer;
+
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, context.userLogin, context.shift, context.date,
+                entity.getStringField(describer.getOwnerStateFieldName()), targetState);
+
+        return changeState(context, entity, stateChangeEntity, targetState);
+    }
+
+    /**
+     * Changes state of many entities at once. Services, shift and unfinished state changes are resolved once for all entities,
+     * state change records are inserted in progress with one batch before hooks are run per entity, and their final statuses
+     * are updated with one batch after all entities are processed.
+     * 
+     * @return state change status for each entity id
+     */
+    public <M extends StateService> Map<Long, StateChangeStatus> changeStates(Class<M> serviceMarker, List<Entity> entities,
+            String userLogin, String targetState) {
+        return changeStates(buildStateChangeContext(serviceMarker, userLogin), entities, targetState);
+    }
+
+    private <M extends StateService> Map<Long, StateChangeStatus> changeStates(StateChangeContext<M> context,
+            List<Entity> entities, String targetState) {
+        StateChangeEntityDescriber describer = context.describer;
+
+        context.unfinishedOwnerIds = findOwnersWithUnfinishedStateChange(describer,
+                entities.stream().map(Entity::getId).collect(Collectors.toList()));
+        context.finishedStateChangeEntities = Lists.newArrayList();
+
+        List<Entity> stateChangeEntities = entities.stream()
+                .map(entity -> buildStateChangeEntity(describer, entity, context.userLogin, context.shift, context.date,
+                        entity.getStringField(describer.getOwnerStateFieldName()), targetState)).collect(Collectors.toList());
+
+        insertStateChangeEntities(describer, stateChangeEntities);
+
+        try {
+            for (int index = 0; index < entities.size(); index++) {
+                Entity entity = changeState(context, entities.get(index), stateChangeEntities.get(index), targetState);
+
+                copyMessages(entity);
+            }
+        } finally {
+            updateStateChangeStatuses(describer, context.finishedStateChangeEntities);
+        }
+
+        return context.statuses;
+    }
+
+    private List<Entity> findOwners(final StateChangeEntityDescriber describer, final Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        return describer.getOwnerDataDefinition().find().add(SearchRestrictions.in("id", ids)).addOrder(SearchOrders.asc("id"))
+                .list().getEntities();
+    }
 
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userLogin, sourceState, targetState);
+    private void addStatusMessages(final Map<Long, StateChangeStatus> statuses) {
+        if (statuses.containsValue(StateChangeStatus.SUCCESSFUL)) {
+            message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+        }
+        if (statuses.values().stream().anyMatch(status -> !StateChangeStatus.SUCCESSFUL.equals(status))) {
+            statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
+        }
+    }
+
+    private <M extends StateService> StateChangeContext<M> buildStateChangeContext(Class<M> serviceMarker, String userLogin) {
+        StateChangeContext<M> context = new StateChangeContext<>();
+
+        context.services = lookupChangeStateServices(serviceMarker);
+        context.describer = context.services.stream().findFirst().get().getChangeEntityDescriber();
+        context.date = new Date();
+        context.shift = shiftsService.getShiftFromDateWithTime(context.date);
+        context.userLogin = StringUtils.isEmpty(userLogin) ? securityService.getCurrentUserName() : userLogin;
+
+        return context;
+    }
+
+    private <M extends StateService> Entity changeState(StateChangeContext<M> context, Entity entity, Entity stateChangeEntity,
+            String targetState) {
+        List<M> services = context.services;
+        StateChangeEntityDescriber describer = context.describer;
+        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
 
         try {
 
-            stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
-                    StateChangeStatus.IN_PROGRESS);
+            stateChangeEntity = saveStateChangeContext(context, entity, stateChangeEntity, sourceState, targetState);
 
             entity = performChangeState(services, entity, stateChangeEntity, describer);
 
             if (entity.isValid()) {
                 copyMessages(entity);
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
-                message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.SUCCESSFUL);
+                statusMessage(context, "states.messages.change.successful", ComponentState.MessageType.SUCCESS);
                 LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S", entity
                         .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
                         .getTargetStateFieldName())));
             } else {
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+                finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.FAILURE);
                 entity = rollbackStateChange(entity, sourceState);
-                message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+                statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
                 LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S", entity
                         .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
                         .getTargetStateFieldName())));
@@ -129,28 +215,28 @@ public class StateExecutorService {
         } catch (EntityRuntimeException entityException) {
             copyMessages(entityException.getEntity(), entity);
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.FAILURE);
+            statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
             return entity;
 
         } catch (AnotherChangeInProgressException e) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.FAILURE);
+            statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("Another state change in progress. Entity name : %S id : %d. Target state : %S", entity
                     .getDataDefinition().getName(), entity.getId(), targetState));
         } catch (StateTransitionNotAlloweException e) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.FAILURE);
+            statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change - transition not allowed. Entity name : %S id : %d. Target state : %S", entity
                     .getDataDefinition().getName(), entity.getId(), targetState));
         } catch (Exception exception) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
-            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            finishStateChange(context, entity, stateChangeEntity, StateChangeStatus.FAILURE);
+            statusMessage(context, "states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change exception. Entity name : %S id : %d. Target state : %S", entity
                     .getDataDefinition().getName(), entity.getId(), targetState));
@@ -160,15 +246,35 @@ public class StateExecutorService {
         return entity;
     }
 
-    private Entity saveStateChangeContext(Entity entity, Entity stateChangeEntity, StateChangeEntityDescriber describer,
-            String _sourceState, String _targetState, StateChangeStatus status) {
+    private <M extends StateService> void finishStateChange(StateChangeContext<M> context, Entity entity,
+            Entity stateChangeEntity, StateChangeStatus status) {
+        context.statuses.put(entity.getId(), status);
+
+        if (context.isBulk()) {
+            stateChangeEntity.setField(context.describer.getStatusFieldName(), status.getStringValue());
+            context.finishedStateChangeEntities.add(stateChangeEntity);
+        } else {
+            saveStateChangeEntity(stateChangeEntity, status);
+        }
+    }
+
+    private <M extends StateService> Entity saveStateChangeContext(StateChangeContext<M> context, Entity entity,
+            Entity stateChangeEntity, String _sourceState, String _targetState) {
+        StateChangeEntityDescriber describer = context.describer;
         final StateEnum sourceState = describer.parseStateEnum(_sourceState);
         final StateEnum targetState = describer.parseStateEnum(_targetState);
         if (sourceState != null && !sourceState.canChangeTo(targetState)) {
             throw new StateTransitionNotAlloweException(sourceState, targetState);
         }
+        if (context.isBulk()) {
+            // already inserted in progress for all entities
+            if (context.unfinishedOwnerIds.contains(entity.getId())) {
+                throw new AnotherChangeInProgressException();
+            }
+            return stateChangeEntity;
+        }
         checkForUnfinishedStateChange(describer, entity);
-        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, status);
+        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.IN_PROGRESS);
         return stateChangeEntity;
     }
 
@@ -214,10 +320,17 @@ public class StateExecutorService {
 
     private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String userLogin,
             String sourceState, String targetState) {
+        Date date = new Date();
+
+        return buildStateChangeEntity(describer, owner, userLogin, shiftsService.getShiftFromDateWithTime(date), date,
+                sourceState, targetState);
+    }
+
+    private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String userLogin,
+            Entity shift, Date date, String sourceState, String targetState) {
         final Entity stateChangeEntity = describer.getDataDefinition().create();
-        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
 
-        stateChangeEntity.setField(describer.getDateTimeFieldName(), new Date());
+        stateChangeEntity.setField(describer.getDateTimeFieldName(), date);
         stateChangeEntity.setField(describer.getSourceStateFieldName(), sourceState);
         stateChangeEntity.setField(describer.getTargetStateFieldName(), targetState);
         stateChangeEntity.setField(describer.getShiftFieldName(), shift);
@@ -360,12 +473,113 @@ public class StateExecutorService {
         return saved;
     }
 
+    // in bulk mode general result is added once for all entities
+    private <M extends StateService> void statusMessage(StateChangeContext<M> context, String msg,
+            ComponentState.MessageType messageType) {
+        if (!context.isBulk()) {
+            message(msg, messageType);
+        }
+    }
+
     private void message(String msg, ComponentState.MessageType messageType) {
         if (componentMessagesHolder != null) {
             componentMessagesHolder.addMessage(msg, messageType);
         }
     }
 
+    private Set<Long> findOwnersWithUnfinishedStateChange(final StateChangeEntityDescriber describer,
+            final List<Long> ownerIds) {
+        if (ownerIds.isEmpty()) {
+            return Sets.newHashSet();
+        }
+
+        final String ownerFieldName = describer.getOwnerFieldName();
+        final String statusFieldName = describer.getStatusFieldName();
+        final Set<String> unfinishedStatuses = Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue());
+
+        final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
+        searchCriteria.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteria.add(SearchRestrictions.in(ownerFieldName + ".id", ownerIds));
+        searchCriteria.add(SearchRestrictions.in(statusFieldName, unfinishedStatuses));
+
+        return searchCriteria.list().getEntities().stream()
+                .map(stateChange -> stateChange.getBelongsToField(ownerFieldName).getId()).collect(Collectors.toSet());
+    }
+
+    private void insertStateChangeEntities(final StateChangeEntityDescriber describer, final List<Entity> stateChangeEntities) {
+        if (stateChangeEntities.isEmpty()) {
+            return;
+        }
+
+        String tableName = getTableName(describer);
+
+        List<Long> ids = jdbcTemplate.queryForList(
+                String.format("SELECT nextval('%s_id_seq') FROM generate_series(1, :count)", tableName),
+                Collections.singletonMap("count", stateChangeEntities.size()), Long.class);
+
+        List<SqlParameterSource> inserts = Lists.newArrayList();
+
+        for (int index = 0; index < stateChangeEntities.size(); index++) {
+            Entity stateChangeEntity = stateChangeEntities.get(index);
+
+            stateChangeEntity.setId(ids.get(index));
+            stateChangeEntity.setField(describer.getStatusFieldName(), IN_PROGRESS.getStringValue());
+
+            inserts.add(new MapSqlParameterSource().addValue("id", stateChangeEntity.getId())
+                    .addValue("dateAndTime", stateChangeEntity.getDateField(describer.getDateTimeFieldName()))
+                    .addValue("sourceState", stateChangeEntity.getStringField(describer.getSourceStateFieldName()))
+                    .addValue("targetState", stateChangeEntity.getStringField(describer.getTargetStateFieldName()))
+                    .addValue("status", IN_PROGRESS.getStringValue())
+                    .addValue("phase", stateChangeEntity.getField(describer.getPhaseFieldName()))
+                    .addValue("worker", stateChangeEntity.getStringField(describer.getWorkerFieldName()))
+                    .addValue("shiftId", getId(stateChangeEntity.getBelongsToField(describer.getShiftFieldName())))
+                    .addValue("ownerId", getId(stateChangeEntity.getBelongsToField(describer.getOwnerFieldName()))));
+        }
+
+        String query = String.format("INSERT INTO %s (id, %s, %s, %s, %s, %s, %s, %s_id, %s_id) VALUES (:id, :dateAndTime, "
+                + ":sourceState, :targetState, :status, :phase, :worker, :shiftId, :ownerId)", tableName,
+                getColumnName(describer.getDateTimeFieldName()), getColumnName(describer.getSourceStateFieldName()),
+                getColumnName(describer.getTargetStateFieldName()), getColumnName(describer.getStatusFieldName()),
+                getColumnName(describer.getPhaseFieldName()), getColumnName(describer.getWorkerFieldName()),
+                getColumnName(describer.getShiftFieldName()), getColumnName(describer.getOwnerFieldName()));
+
+        jdbcTemplate.batchUpdate(query, inserts.toArray(new SqlParameterSource[inserts.size()]));
+    }
+
+    private void updateStateChangeStatuses(final StateChangeEntityDescriber describer, final List<Entity> stateChangeEntities) {
+        if (stateChangeEntities.isEmpty()) {
+            return;
+        }
+
+        List<SqlParameterSource> updates = stateChangeEntities
+                .stream()
+                .map(stateChangeEntity -> new MapSqlParameterSource().addValue("id", stateChangeEntity.getId()).addValue(
+                        "status", stateChangeEntity.getStringField(describer.getStatusFieldName()))).collect(Collectors.toList());
+
+        String query = String.format("UPDATE %s SET %s = :status WHERE id = :id", getTableName(describer),
+                getColumnName(describer.getStatusFieldName()));
+
+        jdbcTemplate.batchUpdate(query, updates.toArray(new SqlParameterSource[updates.size()]));
+    }
+
+    private String getTableName(final StateChangeEntityDescriber describer) {
+        DataDefinition dataDefinition = describer.getDataDefinition();
+
+        return getColumnName(dataDefinition.getPluginIdentifier() + "_" + dataDefinition.getName());
+    }
+
+    private String getColumnName(final String fieldName) {
+        return fieldName.toLowerCase();
+    }
+
+    private Long getId(final Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+
+        return entity.getId();
+    }
+
     private void checkForUnfinishedStateChange(final StateChangeEntityDescriber describer, final Entity owner) {
         final String ownerFieldName = describer.getOwnerFieldName();
         final String statusFieldName = describer.getStatusFieldName();
@@ -379,4 +593,29 @@ public class StateExecutorService {
             throw new AnotherChangeInProgressException();
         }
     }
+
+    private static class StateChangeContext<M extends StateService> {
+
+        private List<M> services;
+
+        private StateChangeEntityDescriber describer;
+
+        private Date date;
+
+        private Entity shift;
+
+        private String userLogin;
+
+        private Set<Long> unfinishedOwnerIds;
+
+        private List<Entity> finishedStateChangeEntities;
+
+        private final Map<Long, StateChangeStatus> statuses = Maps.newLinkedHashMap();
+
+        private boolean isBulk() {
+            return finishedStateChangeEntities != null;
+        }
+
+    }
+
 }
@@ -0,0 +1,281 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.AbstractStateChangeDescriber;
+import com.qcadoo.mes.states.StateEnum;
+import com.qcadoo.mes.states.TestState;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.security.api.SecurityService;
+
+public class StateExecutorServiceTest {
+
+    private static final String L_USER_LOGIN = "user";
+
+    private StateExecutorService stateExecutorService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private StateService stateService;
+
+    @Mock
+    private DataDefinition stateChangeDD, ownerDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateExecutorService = new StateExecutorService();
+
+        ReflectionTestUtils.setField(stateExecutorService, "applicationContext", applicationContext);
+        ReflectionTestUtils.setField(stateExecutorService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(stateExecutorService, "securityService", securityService);
+        ReflectionTestUtils.setField(stateExecutorService, "jdbcTemplate", jdbcTemplate);
+
+        given(applicationContext.getBeansOfType(StateService.class)).willReturn(
+                Collections.singletonMap("stateService", stateService));
+        given(stateService.getChangeEntityDescriber()).willReturn(new TestStateChangeDescriber());
+
+        Answer<Entity> returnOwner = invocation -> (Entity) invocation.getArguments()[0];
+
+        given(stateService.onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(TestStateChangeDescriber.class))).willAnswer(returnOwner);
+        given(stateService.onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(TestStateChangeDescriber.class))).willAnswer(returnOwner);
+        given(stateService.onAfterSave(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(TestStateChangeDescriber.class))).willAnswer(returnOwner);
+
+        given(stateChangeDD.getPluginIdentifier()).willReturn("states");
+        given(stateChangeDD.getName()).willReturn("testStateChange");
+        given(stateChangeDD.create()).willAnswer(invocation -> stateChangeEntity());
+        given(stateChangeDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(Lists.<Entity> newArrayList());
+
+        given(ownerDD.save(any(Entity.class))).willAnswer(returnOwner);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class), eq(Long.class))).willReturn(
+                Lists.newArrayList(101L, 102L));
+    }
+
+    private Entity stateChangeEntity() {
+        Entity entity = mock(Entity.class);
+        Map<String, Object> fields = Maps.newHashMap();
+        Long[] id = new Long[1];
+
+        doAnswer(invocation -> fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1])).when(entity)
+                .setField(anyString(), any());
+        doAnswer(invocation -> id[0] = (Long) invocation.getArguments()[0]).when(entity).setId(any(Long.class));
+
+        Answer<Object> getField = invocation -> fields.get(invocation.getArguments()[0]);
+
+        given(entity.getField(anyString())).willAnswer(getField);
+        given(entity.getStringField(anyString())).willAnswer(getField);
+        given(entity.getBelongsToField(anyString())).willAnswer(getField);
+        given(entity.getDateField(anyString())).willAnswer(getField);
+        given(entity.getId()).willAnswer(invocation -> id[0]);
+
+        return entity;
+    }
+
+    private Entity owner(final Long id, final TestState state) {
+        Entity owner = mock(Entity.class);
+
+        given(owner.getId()).willReturn(id);
+        given(owner.getStringField("state")).willReturn(state.getStringValue());
+        given(owner.getDataDefinition()).willReturn(ownerDD);
+        given(owner.isValid()).willReturn(true);
+
+        return owner;
+    }
+
+    @Test
+    public void shouldInsertStateChangesInProgressAndUpdateStatusesWithOneBatch() {
+        // given
+        Entity firstOwner = owner(1L, TestState.DRAFT);
+        Entity secondOwner = owner(2L, TestState.DRAFT);
+
+        // when
+        Map<Long, StateChangeStatus> statuses = stateExecutorService.changeStates(StateService.class,
+                Lists.newArrayList(firstOwner, secondOwner), L_USER_LOGIN, TestState.ACCEPTED.getStringValue());
+
+        // then
+        assertEquals(StateChangeStatus.SUCCESSFUL, statuses.get(1L));
+        assertEquals(StateChangeStatus.SUCCESSFUL, statuses.get(2L));
+
+        ArgumentCaptor<SqlParameterSource[]> insertsCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO states_teststatechange"), insertsCaptor.capture());
+
+        SqlParameterSource[] inserts = insertsCaptor.getValue();
+
+        assertEquals(2, inserts.length);
+        assertEquals(101L, inserts[0].getValue("id"));
+        assertEquals(1L, inserts[0].getValue("ownerId"));
+        assertEquals(StateChangeStatus.IN_PROGRESS.getStringValue(), inserts[0].getValue("status"));
+        assertEquals(L_USER_LOGIN, inserts[0].getValue("worker"));
+        assertEquals(102L, inserts[1].getValue("id"));
+        assertEquals(2L, inserts[1].getValue("ownerId"));
+
+        ArgumentCaptor<SqlParameterSource[]> updatesCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("UPDATE states_teststatechange SET status"), updatesCaptor.capture());
+
+        SqlParameterSource[] updates = updatesCaptor.getValue();
+
+        assertEquals(2, updates.length);
+        assertEquals(StateChangeStatus.SUCCESSFUL.getStringValue(), updates[0].getValue("status"));
+        assertEquals(StateChangeStatus.SUCCESSFUL.getStringValue(), updates[1].getValue("status"));
+
+        verify(ownerDD).save(firstOwner);
+        verify(ownerDD).save(secondOwner);
+        verify(stateChangeDD, never()).save(any(Entity.class));
+    }
+
+    @Test
+    public void shouldFailOwnerWithUnfinishedStateChange() {
+        // given
+        Entity firstOwner = owner(1L, TestState.DRAFT);
+        Entity secondOwner = owner(2L, TestState.DRAFT);
+
+        Entity unfinishedStateChange = mock(Entity.class);
+        given(unfinishedStateChange.getBelongsToField("owner")).willReturn(secondOwner);
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(unfinishedStateChange));
+
+        // when
+        Map<Long, StateChangeStatus> statuses = stateExecutorService.changeStates(StateService.class,
+                Lists.newArrayList(firstOwner, secondOwner), L_USER_LOGIN, TestState.ACCEPTED.getStringValue());
+
+        // then
+        assertEquals(StateChangeStatus.SUCCESSFUL, statuses.get(1L));
+        assertEquals(StateChangeStatus.FAILURE, statuses.get(2L));
+
+        ArgumentCaptor<SqlParameterSource[]> updatesCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("UPDATE"), updatesCaptor.capture());
+
+        assertEquals(StateChangeStatus.FAILURE.getStringValue(), updatesCaptor.getValue()[1].getValue("status"));
+
+        verify(ownerDD).save(firstOwner);
+        verify(ownerDD, never()).save(secondOwner);
+    }
+
+    @Test
+    public void shouldFailNotAllowedTransitionWithoutRunningHooks() {
+        // given
+        Entity owner = owner(1L, TestState.DECLINED);
+
+        // when
+        Map<Long, StateChangeStatus> statuses = stateExecutorService.changeStates(StateService.class,
+                Lists.newArrayList(owner), L_USER_LOGIN, TestState.ACCEPTED.getStringValue());
+
+        // then
+        assertEquals(StateChangeStatus.FAILURE, statuses.get(1L));
+
+        verify(stateService, never()).onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class),
+                any(TestStateChangeDescriber.class));
+        verify(ownerDD, never()).save(any(Entity.class));
+    }
+
+    private class TestStateChangeDescriber extends AbstractStateChangeDescriber {
+
+        @Override
+        public DataDefinition getDataDefinition() {
+            return stateChangeDD;
+        }
+
+        @Override
+        public StateEnum parseStateEnum(final String stringValue) {
+            return TestState.parseString(stringValue);
+        }
+
+        @Override
+        public void checkFields() {
+        }
+
+        @Override
+        public DataDefinition getOwnerDataDefinition() {
+            return ownerDD;
+        }
+
+        @Override
+        public String getOwnerFieldName() {
+            return "owner";
+        }
+
+    }
+
+}
@@ -37,6 +37,9 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.technologies.TechnologyExpansionService.ExpandedOperation;
+import com.qcadoo.mes.technologies.TechnologyExpansionService.ExpandedProductComponent;
+import com.qcadoo.mes.technologies.TechnologyExpansionService.TechnologyExpansion;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
@@ -53,6 +56,7 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
@@ -72,6 +76,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyExpansionService technologyExpansionService;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -197,21 +204,117 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Set<OperationProductComponentHolder> nonComponents) {
         OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
 
-        EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
-        Entity root = operationComponents.getRoot();
+        TechnologyExpansion technologyExpansion = technologyExpansionService.getExpansion(technology);
+        ExpandedOperation root = technologyExpansion.getRoot();
 
         if (root != null) {
-            preloadProductQuantitiesAndOperationRuns(operationComponents, operationProductComponentWithQuantityContainer,
+            preloadProductQuantitiesAndOperationRuns(technologyExpansion, operationProductComponentWithQuantityContainer,
                     operationRuns);
-            traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, root, null,
-                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
+            traverseProductQuantitiesAndOperationRuns(givenQuantity, root, null, operationProductComponentWithQuantityContainer,
+                    nonComponents, operationRuns);
         }
 
         return operationProductComponentWithQuantityContainer;
     }
 
-    private EntityTree getOperationComponentsFromTechnology(final Entity technology) {
-        return technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+    private void preloadProductQuantitiesAndOperationRuns(final TechnologyExpansion technologyExpansion,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Map<Long, BigDecimal> operationRuns) {
+        for (ExpandedOperation operation : technologyExpansion.getPreloadedOperations()) {
+            for (ExpandedProductComponent productComponent : operation.getInComponents()) {
+                operationProductComponentWithQuantityContainer.put(productComponent.getHolder(), productComponent.getQuantity());
+            }
+            for (ExpandedProductComponent productComponent : operation.getOutComponents()) {
+                operationProductComponentWithQuantityContainer.put(productComponent.getHolder(), productComponent.getQuantity());
+            }
+
+            operationRuns.put(operation.getId(), BigDecimal.ONE);
+        }
+    }
+
+    private void traverseProductQuantitiesAndOperationRuns(final BigDecimal givenQuantity, final ExpandedOperation operation,
+            final ExpandedOperation previousOperation,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns) {
+        if (previousOperation == null) {
+            for (ExpandedProductComponent operationProductOutComponent : operation.getOutComponents()) {
+                if (operationProductOutComponent.getProductId().equals(operation.getTechnologyProductId())) {
+                    BigDecimal outQuantity = operationProductComponentWithQuantityContainer.get(operationProductOutComponent
+                            .getHolder());
+
+                    multiplyProductQuantitiesAndAddOperationRuns(operation, givenQuantity, outQuantity,
+                            operationProductComponentWithQuantityContainer, operationRuns);
+
+                    break;
+                }
+            }
+        } else {
+            for (ExpandedProductComponent operationProductInComponent : previousOperation.getInComponents()) {
+                boolean isntComponent = false;
+
+                for (ExpandedProductComponent operationProductOutComponent : operation.getOutComponents()) {
+                    if (operationProductOutComponent.getProductId().equals(operationProductInComponent.getProductId())) {
+                        isntComponent = true;
+
+                        BigDecimal outQuantity = operationProductComponentWithQuantityContainer.get(operationProductOutComponent
+                                .getHolder());
+                        BigDecimal inQuantity = operationProductComponentWithQuantityContainer.get(operationProductInComponent
+                                .getHolder());
+
+                        multiplyProductQuantitiesAndAddOperationRuns(operation, inQuantity, outQuantity,
+                                operationProductComponentWithQuantityContainer, operationRuns);
+
+                        break;
+                    }
+                }
+
+                if (isntComponent) {
+                    nonComponents.add(operationProductInComponent.getHolder());
+                }
+            }
+        }
+
+        for (ExpandedOperation child : operation.getChildren()) {
+            traverseProductQuantitiesAndOperationRuns(givenQuantity, child, operation,
+                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
+        }
+    }
+
+    private void multiplyProductQuantitiesAndAddOperationRuns(final ExpandedOperation operation, final BigDecimal needed,
+            final BigDecimal actual,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal multiplier = needed.divide(actual, numberService.getMathContext());
+
+        if (!operation.areProductQuantitiesDivisible()) {
+            // It's intentional to round up the operation runs
+            multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        BigDecimal runs = multiplier;
+
+        if (!operation.isTjDivisible()) {
+            runs = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        operationRuns.put(operation.getId(), runs);
+
+        multiplyExpandedProductComponentQuantities(operation.getInComponents(), multiplier,
+                operationProductComponentWithQuantityContainer);
+        multiplyExpandedProductComponentQuantities(operation.getOutComponents(), multiplier,
+                operationProductComponentWithQuantityContainer);
+    }
+
+    private void multiplyExpandedProductComponentQuantities(final List<ExpandedProductComponent> productComponents,
+            final BigDecimal multiplier,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer) {
+        for (ExpandedProductComponent productComponent : productComponents) {
+            BigDecimal addedQuantity = operationProductComponentWithQuantityContainer.get(productComponent.getHolder());
+            BigDecimal quantity = addedQuantity.multiply(multiplier, numberService.getMathContext());
+
+            operationProductComponentWithQuantityContainer.put(productComponent.getHolder(),
+                    quantity.setScale(5, RoundingMode.CEILING));
+        }
     }
 
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
@@ -533,6 +636,12 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Set<OperationProductComponentHolder> nonComponents, final boolean onlyComponents, final boolean onlyMaterials) {
         Map<Long, BigDecimal> productWithQuantities = Maps.newHashMap();
 
+        Set<Long> productsWithAcceptedMasterTechnology = Sets.newHashSet();
+
+        if (onlyMaterials) {
+            productsWithAcceptedMasterTechnology = getProductsWithAcceptedMasterTechnology(productComponentWithQuantities);
+        }
+
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentWithQuantities
                 .asMap().entrySet()) {
             OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
@@ -540,11 +649,8 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             if (onlyComponents && nonComponents.contains(operationProductComponentHolder)) {
                 continue;
             }
-            if (onlyMaterials) {
-                Entity product = operationProductComponentHolder.getProduct();
-                if (hasAcceptedMasterTechnology(product)) {
-                    continue;
-                }
+            if (onlyMaterials && productsWithAcceptedMasterTechnology.contains(operationProductComponentHolder.getProductId())) {
+                continue;
             }
 
             addProductQuantitiesToList(productComponentWithQuantity, productWithQuantities);
@@ -553,17 +659,34 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
         return productWithQuantities;
     }
 
-    private boolean hasAcceptedMasterTechnology(final Entity product) {
+    private Set<Long> getProductsWithAcceptedMasterTechnology(
+            final OperationProductComponentWithQuantityContainer productComponentWithQuantities) {
+        Set<Long> productIds = Sets.newHashSet();
+
+        for (OperationProductComponentHolder operationProductComponentHolder : productComponentWithQuantities.asMap().keySet()) {
+            productIds.add(operationProductComponentHolder.getProductId());
+        }
+
+        Set<Long> productsWithAcceptedMasterTechnology = Sets.newHashSet();
+
+        if (productIds.isEmpty()) {
+            return productsWithAcceptedMasterTechnology;
+        }
+
         DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_TECHNOLOGY);
-        Entity masterTechnology = technologyDD
+        List<Entity> masterTechnologies = technologyDD
                 .find()
-                .add(SearchRestrictions.and(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product),
+                .createAlias(TechnologyFields.PRODUCT, TechnologyFields.PRODUCT, JoinType.INNER)
+                .add(SearchRestrictions.and(SearchRestrictions.in(TechnologyFields.PRODUCT + ".id", productIds),
                         (SearchRestrictions.eq("state", "02accepted"))))
-                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult();
+                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).list().getEntities();
 
-        return masterTechnology != null;
+        for (Entity masterTechnology : masterTechnologies) {
+            productsWithAcceptedMasterTechnology.add(masterTechnology.getBelongsToField(TechnologyFields.PRODUCT).getId());
+        }
 
+        return productsWithAcceptedMasterTechnology;
     }
 
     @Override
@@ -571,15 +694,15 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Map<Long, BigDecimal> productWithQuantities) {
         OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
 
-        Entity product = operationProductComponentHolder.getProduct();
+        Long productId = operationProductComponentHolder.getProductId();
         BigDecimal newQuantity = productComponentWithQuantity.getValue();
 
-        BigDecimal oldQuantity = productWithQuantities.get(product.getId());
+        BigDecimal oldQuantity = productWithQuantities.get(productId);
         if (oldQuantity != null) {
             newQuantity = newQuantity.add(oldQuantity);
         }
 
-        productWithQuantities.put(product.getId(), newQuantity);
+        productWithQuantities.put(productId, newQuantity);
     }
 
     @Override
@@ -0,0 +1,326 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Keeps operation trees of accepted and checked technologies, with their product components and quantities, so quantities
+ * for many orders can be computed without walking lazy relations again. Cache is cleared on every technology state change.
+ */
+@Service
+public class TechnologyExpansionService {
+
+    private static final String L_QUANTITY = "quantity";
+
+    // keyed by tenant and technology id
+    private final Cache<String, TechnologyExpansion> expansions = CacheBuilder.newBuilder().maximumSize(500).build();
+
+    private long generation;
+
+    public TechnologyExpansion getExpansion(final Entity technology) {
+        if (technology.getId() == null || !isImmutable(technology)) {
+            return buildExpansion(technology).expansion;
+        }
+
+        String key = MultiTenantUtil.getCurrentTenantId() + "|" + technology.getId();
+
+        TechnologyExpansion expansion = expansions.getIfPresent(key);
+
+        if (expansion == null) {
+            long loadedGeneration;
+
+            synchronized (this) {
+                loadedGeneration = generation;
+            }
+
+            ExpansionBuilder builder = buildExpansion(technology);
+
+            expansion = builder.expansion;
+
+            synchronized (this) {
+                if (builder.cacheable && loadedGeneration == generation) {
+                    expansions.put(key, expansion);
+                }
+            }
+        }
+
+        return expansion;
+    }
+
+    public void invalidate() {
+        clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    clear();
+                }
+
+            });
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        expansions.invalidateAll();
+    }
+
+    private boolean isImmutable(final Entity technology) {
+        String state = technology.getStringField(TechnologyFields.STATE);
+
+        return TechnologyStateStringValues.ACCEPTED.equals(state) || TechnologyStateStringValues.CHECKED.equals(state);
+    }
+
+    private ExpansionBuilder buildExpansion(final Entity technology) {
+        ExpansionBuilder builder = new ExpansionBuilder();
+
+        builder.expansion.root = builder.expandTechnology(technology);
+
+        return builder;
+    }
+
+    private class ExpansionBuilder {
+
+        private final TechnologyExpansion expansion = new TechnologyExpansion();
+
+        private final Map<Long, ExpandedOperation> operationsById = Maps.newHashMap();
+
+        private final Map<Long, ExpandedOperation> rootsByTechnology = Maps.newHashMap();
+
+        private boolean cacheable = true;
+
+        private ExpandedOperation expandTechnology(final Entity technology) {
+            if (rootsByTechnology.containsKey(technology.getId())) {
+                return rootsByTechnology.get(technology.getId());
+            }
+
+            rootsByTechnology.put(technology.getId(), null);
+
+            EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+            if (operationComponents.getRoot() == null) {
+                return null;
+            }
+
+            Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+            for (Entity operationComponent : operationComponents) {
+                if (isReferenceTechnology(operationComponent)) {
+                    expandReferenceTechnology(operationComponent);
+                } else {
+                    expansion.preloadedOperations.add(getOperation(operationComponent, technologyProductId));
+                }
+            }
+
+            ExpandedOperation root = expandOperation(operationComponents.getRoot(), technologyProductId);
+
+            rootsByTechnology.put(technology.getId(), root);
+
+            return root;
+        }
+
+        private ExpandedOperation expandReferenceTechnology(final Entity operationComponent) {
+            Entity referenceTechnology = operationComponent
+                    .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+            cacheable &= isImmutable(referenceTechnology);
+
+            return expandTechnology(referenceTechnology);
+        }
+
+        private ExpandedOperation expandOperation(final EntityTreeNode operationComponent, final Long technologyProductId) {
+            if (isReferenceTechnology(operationComponent)) {
+                return expandReferenceTechnology(operationComponent);
+            }
+
+            ExpandedOperation operation = getOperation(operationComponent, technologyProductId);
+
+            for (EntityTreeNode child : operationComponent.getChildren()) {
+                ExpandedOperation expandedChild = expandOperation(child, technologyProductId);
+
+                if (expandedChild != null) {
+                    operation.children.add(expandedChild);
+                }
+            }
+
+            return operation;
+        }
+
+        private ExpandedOperation getOperation(final Entity operationComponent, final Long technologyProductId) {
+            ExpandedOperation operation = operationsById.get(operationComponent.getId());
+
+            if (operation == null) {
+                operation = new ExpandedOperation(operationComponent, technologyProductId);
+
+                operationsById.put(operationComponent.getId(), operation);
+            }
+
+            return operation;
+        }
+
+        private boolean isReferenceTechnology(final Entity operationComponent) {
+            return TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                    operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE));
+        }
+
+    }
+
+    public static class TechnologyExpansion {
+
+        private ExpandedOperation root;
+
+        private final List<ExpandedOperation> preloadedOperations = Lists.newArrayList();
+
+        public ExpandedOperation getRoot() {
+            return root;
+        }
+
+        public List<ExpandedOperation> getPreloadedOperations() {
+            return Collections.unmodifiableList(preloadedOperations);
+        }
+
+    }
+
+    public static class ExpandedOperation {
+
+        private final Long id;
+
+        private final Long technologyProductId;
+
+        private final boolean areProductQuantitiesDivisible;
+
+        private final boolean isTjDivisible;
+
+        private final List<ExpandedProductComponent> inComponents;
+
+        private final List<ExpandedProductComponent> outComponents;
+
+        private final List<ExpandedOperation> children = Lists.newArrayList();
+
+        ExpandedOperation(final Entity operationComponent, final Long technologyProductId) {
+            this.id = operationComponent.getId();
+            this.technologyProductId = technologyProductId;
+            this.areProductQuantitiesDivisible = operationComponent
+                    .getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE);
+            this.isTjDivisible = operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE);
+            this.inComponents = expandProductComponents(operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS));
+            this.outComponents = expandProductComponents(operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS));
+        }
+
+        private static List<ExpandedProductComponent> expandProductComponents(final List<Entity> operationProductComponents) {
+            List<ExpandedProductComponent> productComponents = Lists.newArrayList();
+
+            for (Entity operationProductComponent : operationProductComponents) {
+                productComponents.add(new ExpandedProductComponent(operationProductComponent));
+            }
+
+            return productComponents;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getTechnologyProductId() {
+            return technologyProductId;
+        }
+
+        public boolean areProductQuantitiesDivisible() {
+            return areProductQuantitiesDivisible;
+        }
+
+        public boolean isTjDivisible() {
+            return isTjDivisible;
+        }
+
+        public List<ExpandedProductComponent> getInComponents() {
+            return Collections.unmodifiableList(inComponents);
+        }
+
+        public List<ExpandedProductComponent> getOutComponents() {
+            return Collections.unmodifiableList(outComponents);
+        }
+
+        public List<ExpandedOperation> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+    }
+
+    public static class ExpandedProductComponent {
+
+        private final OperationProductComponentHolder holder;
+
+        private final Long productId;
+
+        private final BigDecimal quantity;
+
+        ExpandedProductComponent(final Entity operationProductComponent) {
+            this.holder = new OperationProductComponentHolder(operationProductComponent);
+            this.productId = operationProductComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT).getId();
+            this.quantity = operationProductComponent.getDecimalField(L_QUANTITY);
+        }
+
+        public OperationProductComponentHolder getHolder() {
+            return holder;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public BigDecimal getQuantity() {
+            return quantity;
+        }
+
+    }
+
+}
@@ -25,12 +25,19 @@ package com.qcadoo.mes.technologies.tree;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
@@ -39,6 +46,8 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.utils.EntityTreeUtilsService;
 import com.qcadoo.view.api.ComponentState.MessageType;
@@ -61,9 +70,7 @@ public class ProductStructureTreeService {
 
     private static final String L_NUMBER = "number";
 
-    private static final String L_OPERATION_PRODUCT_OUT_COMPONENTS = "operationProductOutComponents";
-
-    private static final String L_OPERATION_PRODUCT_IN_COMPONENTS = "operationProductInComponents";
+    private static final String L_ID = "id";
 
     private static final String L_FINAL_PRODUCT = "finalProduct";
 
@@ -93,94 +100,64 @@ public class ProductStructureTreeService {
         tree.add(child);
     }
 
-    private Entity findOperationForProductAndTechnology(final Entity product, final Entity technology) {
-        DataDefinition operationComponentsDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
-        List<Entity> operations = operationComponentsDD.find().add(SearchRestrictions.belongsTo(L_TECHNOLOGY, technology)).list()
-                .getEntities();
-        for (Entity operation : operations) {
+    private Entity findOperationForProductAndTechnology(final ProductStructureTreeData treeData, final Entity product,
+            final Entity technology) {
+        return findOperationForProduct(treeData, product, treeData.getOperations(technology));
+    }
 
-            Entity isResult = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                    .add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1).uniqueResult();
-            if (isResult != null) {
-                return operation;
-            }
-        }
-        return null;
+    private Entity findOperationForProductWithinChildren(final ProductStructureTreeData treeData, final Entity product,
+            final Entity toc) {
+        return findOperationForProduct(treeData, product, treeData.getChildren(toc));
     }
 
-    private Entity findOperationForProductWithinChildren(final Entity product, final Entity toc) {
-        List<Entity> operations = toc.getHasManyField(TechnologyOperationComponentFields.CHILDREN);
+    private Entity findOperationForProduct(final ProductStructureTreeData treeData, final Entity product,
+            final List<Entity> operations) {
         for (Entity operation : operations) {
-
-            Entity isResult = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                    .add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1).uniqueResult();
-            if (isResult != null) {
+            if (findProductComponent(treeData.getOutComponents(operation), product) != null) {
                 return operation;
             }
         }
         return null;
     }
 
-    private Entity findTechnologyForProduct(final Entity product) {
-        DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_TECHNOLOGY);
-        List<Entity> technologiesForProduct = technologyDD
-                .find()
-                .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
-                .add(SearchRestrictions.and(
-                        SearchRestrictions.belongsTo(L_PRODUCT, product),
-                        SearchRestrictions.or(SearchRestrictions.eq("state", "02accepted"),
-                                SearchRestrictions.eq("state", "05checked")))).list().getEntities();
-        Entity result = null;
-        for (Entity technology : technologiesForProduct) {
-            boolean isMaster = technology.getBooleanField("master");
-            if (isMaster) {
-                return technology;
-            } else if (result != null) {
-                if (result.getStringField(L_NUMBER).compareTo(technology.getStringField(L_NUMBER)) < 0) {
-                    result = technology;
-                }
-            } else {
-                result = technology;
-            }
-        }
-        return result;
-    }
-
-    private BigDecimal findQuantityOfProductInOperation(final Entity product, final Entity operation) {
-        EntityList outProducts = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS);
-
-        Entity productComponent = outProducts.find().add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
+    private BigDecimal findQuantityOfProductInOperation(final ProductStructureTreeData treeData, final Entity product,
+            final Entity operation) {
+        Entity productComponent = findProductComponent(treeData.getOutComponents(operation), product);
         if (productComponent != null) {
             return productComponent.getDecimalField(L_QUANTITY);
         }
-        EntityList inProducts = operation.getHasManyField(L_OPERATION_PRODUCT_IN_COMPONENTS);
-        productComponent = inProducts.find().add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
+        productComponent = findProductComponent(treeData.getInComponents(operation), product);
         if (productComponent != null) {
             return productComponent.getDecimalField(L_QUANTITY);
         }
         return null;
     }
 
-    private void generateTreeForSubproducts(final Entity operation, final Entity technology, final List<Entity> tree,
-            final Entity parent, final ViewDefinitionState view, final List<Long> usedTechnologies) {
-        EntityList productInComponents = operation.getHasManyField(L_OPERATION_PRODUCT_IN_COMPONENTS);
+    private Entity findProductComponent(final List<Entity> productComponents, final Entity product) {
+        for (Entity productComponent : productComponents) {
+            if (product.getId().equals(productComponent.getBelongsToField(L_PRODUCT).getId())) {
+                return productComponent;
+            }
+        }
+        return null;
+    }
+
+    private void generateTreeForSubproducts(final ProductStructureTreeData treeData, final Entity operation,
+            final Entity technology, final List<Entity> tree, final Entity parent, final ViewDefinitionState view,
+            final Set<Long> usedTechnologies) {
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
-        for (Entity productInComp : productInComponents) {
+        for (Entity productInComp : treeData.getInComponents(operation)) {
             Entity child = treeNodeDD.create();
             Entity product = productInComp.getBelongsToField(L_PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+            Entity subOperation = findOperationForProductWithinChildren(treeData, product, operation);
+            BigDecimal quantity = findQuantityOfProductInOperation(treeData, product, operation);
+            Entity subTechnology = treeData.getTechnology(product);
 
             if (subTechnology != null) {
                 if (!usedTechnologies.contains(subTechnology.getId())) {
                     if (subOperation == null) {
-                        Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
+                        Entity operationForTechnology = findOperationForProductAndTechnology(treeData, product, subTechnology);
                         Entity technologyGroup = subTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
                         BigDecimal standardPerformanceTechnology = subTechnology
                                 .getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
@@ -195,7 +172,8 @@ public class ProductStructureTreeService {
                         child.setField(L_STANDARD_PERFORMANCE_TECHNOLOGY, standardPerformanceTechnology);
                         addChild(tree, child, parent, L_COMPONENT);
                         usedTechnologies.add(subTechnology.getId());
-                        generateTreeForSubproducts(operationForTechnology, subTechnology, tree, child, view, usedTechnologies);
+                        generateTreeForSubproducts(treeData, operationForTechnology, subTechnology, tree, child, view,
+                                usedTechnologies);
                     } else {
 
                         child.setField(L_TECHNOLOGY, technology);
@@ -213,7 +191,7 @@ public class ProductStructureTreeService {
                                             MessageType.INFO, false,
                                             product.getStringField("number") + " " + product.getStringField("name"));
                         }
-                        generateTreeForSubproducts(subOperation, technology, tree, child, view, usedTechnologies);
+                        generateTreeForSubproducts(treeData, subOperation, technology, tree, child, view, usedTechnologies);
                     }
                 } else if (view != null) {
                     FormComponent productStructureForm = (FormComponent) view.getComponentByReference("productStructureForm");
@@ -238,7 +216,7 @@ public class ProductStructureTreeService {
                     child.setField(L_DIVISION, subOperation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
 
                     addChild(tree, child, parent, L_INTERMEDIATE);
-                    generateTreeForSubproducts(subOperation, technology, tree, child, view, usedTechnologies);
+                    generateTreeForSubproducts(treeData, subOperation, technology, tree, child, view, usedTechnologies);
                 } else {
                     child.setField(L_OPERATION, operation);
                     child.setField(L_DIVISION, operation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
@@ -253,12 +231,14 @@ public class ProductStructureTreeService {
     }
 
     public EntityTree generateProductStructureTree(final ViewDefinitionState view, final Entity technology) {
+        ProductStructureTreeData treeData = loadProductStructureTreeData(technology);
+
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
         Entity root = treeNodeDD.create();
         Entity product = technology.getBelongsToField(L_PRODUCT);
-        Entity operation = findOperationForProductAndTechnology(product, technology);
-        BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
+        Entity operation = findOperationForProductAndTechnology(treeData, product, technology);
+        BigDecimal quantity = findQuantityOfProductInOperation(treeData, product, operation);
         Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
         BigDecimal standardPerformanceTechnology = technology.getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
         root.setField(L_TECHNOLOGY, technology);
@@ -272,14 +252,122 @@ public class ProductStructureTreeService {
         List<Entity> productStructureList = new ArrayList<>();
         addChild(productStructureList, root, null, L_FINAL_PRODUCT);
 
-        List<Long> usedTechnologies = new ArrayList<>();
+        Set<Long> usedTechnologies = Sets.newHashSet();
         usedTechnologies.add(technology.getId());
 
-        generateTreeForSubproducts(operation, technology, productStructureList, root, view, usedTechnologies);
+        generateTreeForSubproducts(treeData, operation, technology, productStructureList, root, view, usedTechnologies);
 
         return EntityTreeUtilsService.getDetachedEntityTree(productStructureList);
     }
 
+    /**
+     * Loads operations, their product components and technologies of all products reachable from given technology. Each level
+     * of the structure costs a fixed number of queries, regardless of the number of products on it.
+     */
+    private ProductStructureTreeData loadProductStructureTreeData(final Entity technology) {
+        ProductStructureTreeData treeData = new ProductStructureTreeData();
+
+        Set<Long> technologyIds = Sets.newHashSet(technology.getId());
+
+        while (!technologyIds.isEmpty()) {
+            List<Entity> operations = getOperationsDD().find()
+                    .createAlias(TechnologyOperationComponentFields.TECHNOLOGY, L_TECHNOLOGY, JoinType.INNER)
+                    .add(SearchRestrictions.in(L_TECHNOLOGY + "." + L_ID, technologyIds)).addOrder(SearchOrders.asc(L_ID))
+                    .list().getEntities();
+
+            treeData.addOperations(technologyIds, operations);
+
+            Set<Long> operationIds = Sets.newHashSet();
+
+            for (Entity operation : operations) {
+                operationIds.add(operation.getId());
+            }
+
+            treeData.addOutComponents(findProductComponents(TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT,
+                    operationIds));
+
+            List<Entity> inComponents = findProductComponents(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT,
+                    operationIds);
+
+            treeData.addInComponents(inComponents);
+
+            Set<Long> productIds = Sets.newHashSet();
+
+            for (Entity inComponent : inComponents) {
+                Long productId = inComponent.getBelongsToField(L_PRODUCT).getId();
+
+                if (!treeData.hasTechnologyFor(productId)) {
+                    productIds.add(productId);
+                }
+            }
+
+            technologyIds = Sets.newHashSet();
+
+            for (Entity subTechnology : findTechnologiesForProducts(treeData, productIds)) {
+                if (!treeData.hasOperationsFor(subTechnology.getId())) {
+                    technologyIds.add(subTechnology.getId());
+                }
+            }
+        }
+
+        return treeData;
+    }
+
+    private List<Entity> findProductComponents(final String modelName, final Collection<Long> operationIds) {
+        if (operationIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        DataDefinition productComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, modelName);
+
+        return productComponentDD.find()
+                .createAlias(OperationProductInComponentFields.OPERATION_COMPONENT, L_OPERATION, JoinType.INNER)
+                .add(SearchRestrictions.in(L_OPERATION + "." + L_ID, operationIds)).addOrder(SearchOrders.asc(L_ID)).list()
+                .getEntities();
+    }
+
+    private Collection<Entity> findTechnologiesForProducts(final ProductStructureTreeData treeData,
+            final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY);
+        List<Entity> technologiesForProducts = technologyDD
+                .find()
+                .createAlias(L_PRODUCT, L_PRODUCT, JoinType.INNER)
+                .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
+                .add(SearchRestrictions.and(
+                        SearchRestrictions.in(L_PRODUCT + "." + L_ID, productIds),
+                        SearchRestrictions.or(SearchRestrictions.eq("state", "02accepted"),
+                                SearchRestrictions.eq("state", "05checked")))).list().getEntities();
+
+        Map<Long, Entity> technologiesByProduct = Maps.newHashMap();
+
+        for (Entity technology : technologiesForProducts) {
+            Long productId = technology.getBelongsToField(L_PRODUCT).getId();
+            Entity result = technologiesByProduct.get(productId);
+
+            if (result == null || (!result.getBooleanField(TechnologyFields.MASTER) && (technology
+                    .getBooleanField(TechnologyFields.MASTER) || result.getStringField(L_NUMBER).compareTo(
+                    technology.getStringField(L_NUMBER)) < 0))) {
+                technologiesByProduct.put(productId, technology);
+            }
+        }
+
+        for (Long productId : productIds) {
+            treeData.addTechnology(productId, technologiesByProduct.get(productId));
+        }
+
+        return technologiesByProduct.values();
+    }
+
+    private DataDefinition getOperationsDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+    }
+
     public EntityTree getOperationComponentsFromTechnology(final Entity technology) {
 
         EntityTree productStructureTree = generateProductStructureTree(null, technology);
@@ -336,4 +424,92 @@ public class ProductStructureTreeService {
         tree.add(child);
         return child;
     }
+
+    private static class ProductStructureTreeData {
+
+        private final Map<Long, List<Entity>> operationsByTechnology = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> childrenByOperation = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> outComponentsByOperation = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> inComponentsByOperation = Maps.newHashMap();
+
+        private final Map<Long, Entity> technologiesByProduct = Maps.newHashMap();
+
+        void addOperations(final Collection<Long> technologyIds, final List<Entity> operations) {
+            for (Long technologyId : technologyIds) {
+                operationsByTechnology.put(technologyId, Lists.newArrayList());
+            }
+
+            for (Entity operation : operations) {
+                operationsByTechnology.get(operation.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY).getId())
+                        .add(operation);
+
+                Entity parent = operation.getBelongsToField(TechnologyOperationComponentFields.PARENT);
+
+                if (parent != null) {
+                    childrenByOperation.computeIfAbsent(parent.getId(), id -> Lists.newArrayList()).add(operation);
+                }
+            }
+
+            Comparator<Entity> byPriority = Comparator.comparing(
+                    (Entity operation) -> operation.getIntegerField(TechnologyOperationComponentFields.PRIORITY),
+                    Comparator.nullsLast(Comparator.naturalOrder()));
+
+            for (List<Entity> children : childrenByOperation.values()) {
+                children.sort(byPriority);
+            }
+        }
+
+        void addOutComponents(final List<Entity> outComponents) {
+            groupByOperation(outComponentsByOperation, outComponents);
+        }
+
+        void addInComponents(final List<Entity> inComponents) {
+            groupByOperation(inComponentsByOperation, inComponents);
+        }
+
+        private void groupByOperation(final Map<Long, List<Entity>> componentsByOperation, final List<Entity> components) {
+            for (Entity component : components) {
+                componentsByOperation.computeIfAbsent(
+                        component.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT).getId(),
+                        id -> Lists.newArrayList()).add(component);
+            }
+        }
+
+        void addTechnology(final Long productId, final Entity technology) {
+            technologiesByProduct.put(productId, technology);
+        }
+
+        boolean hasOperationsFor(final Long technologyId) {
+            return operationsByTechnology.containsKey(technologyId);
+        }
+
+        boolean hasTechnologyFor(final Long productId) {
+            return technologiesByProduct.containsKey(productId);
+        }
+
+        List<Entity> getOperations(final Entity technology) {
+            return operationsByTechnology.getOrDefault(technology.getId(), Lists.newArrayList());
+        }
+
+        List<Entity> getChildren(final Entity operation) {
+            return childrenByOperation.getOrDefault(operation.getId(), Lists.newArrayList());
+        }
+
+        List<Entity> getOutComponents(final Entity operation) {
+            return outComponentsByOperation.getOrDefault(operation.getId(), Lists.newArrayList());
+        }
+
+        List<Entity> getInComponents(final Entity operation) {
+            return inComponentsByOperation.getOrDefault(operation.getId(), Lists.newArrayList());
+        }
+
+        Entity getTechnology(final Entity product) {
+            return technologiesByProduct.get(product.getId());
+        }
+
+    }
+
 }
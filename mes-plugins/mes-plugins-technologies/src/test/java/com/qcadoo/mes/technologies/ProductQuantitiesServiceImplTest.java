@@ -112,6 +112,7 @@ public class ProductQuantitiesServiceImplTest {
         productQuantitiesService = new ProductQuantitiesServiceImpl();
 
         ReflectionTestUtils.setField(productQuantitiesService, "numberService", numberService);
+        ReflectionTestUtils.setField(productQuantitiesService, "technologyExpansionService", new TechnologyExpansionService());
 
         when(order.getBelongsToField("technology")).thenReturn(technology);
 
@@ -174,11 +175,12 @@ public class ProductQuantitiesServiceImplTest {
 
         when(tree.getRoot()).thenReturn(operationComponent2);
 
-        EntityList operationComponent1children = mockEntityListIterator(new LinkedList<Entity>());
-        EntityList operationComponent2children = mockEntityListIterator(asList((Entity) operationComponent1));
+        when(technology.getId()).thenReturn(1L);
+        when(operationComponent1.getId()).thenReturn(1L);
+        when(operationComponent2.getId()).thenReturn(2L);
 
-        when(operationComponent1.getHasManyField("children")).thenReturn(operationComponent1children);
-        when(operationComponent2.getHasManyField("children")).thenReturn(operationComponent2children);
+        when(operationComponent1.getChildren()).thenReturn(new LinkedList<EntityTreeNode>());
+        when(operationComponent2.getChildren()).thenReturn(asList(operationComponent1));
 
         when(technology.getTreeField("operationComponents")).thenReturn(tree);
 
@@ -282,10 +284,10 @@ public class ProductQuantitiesServiceImplTest {
     public void shouldTraverseAlsoThroughReferencedTechnologies() {
         // given
         Entity refTech = mock(Entity.class);
-        Entity someOpComp = mock(Entity.class);
+        EntityTreeNode someOpComp = mock(EntityTreeNode.class);
 
-        EntityList child = mockEntityListIterator(asList(someOpComp));
-        when(operationComponent2.getHasManyField("children")).thenReturn(child);
+        when(refTech.getId()).thenReturn(2L);
+        when(operationComponent2.getChildren()).thenReturn(asList(someOpComp));
 
         when(someOpComp.getStringField("entityType")).thenReturn("referenceTechnology");
         when(someOpComp.getBelongsToField("referenceTechnology")).thenReturn(refTech);
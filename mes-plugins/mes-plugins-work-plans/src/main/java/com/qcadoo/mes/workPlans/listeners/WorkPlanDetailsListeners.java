@@ -24,21 +24,17 @@
 package com.qcadoo.mes.workPlans.listeners;
 
 import com.google.common.collect.Lists;
-import com.lowagie.text.DocumentException;
-import com.lowagie.text.PageSize;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.util.OrderHelperService;
 import com.qcadoo.mes.technologies.BarcodeOperationComponentService;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.workPlans.WorkPlansService;
 import com.qcadoo.mes.workPlans.constants.WorkPlanFields;
-import com.qcadoo.mes.workPlans.constants.WorkPlanType;
 import com.qcadoo.mes.workPlans.constants.WorkPlansConstants;
-import com.qcadoo.mes.workPlans.print.WorkPlanForDivisionPdfService;
-import com.qcadoo.mes.workPlans.print.WorkPlanPdfService;
+import com.qcadoo.mes.workPlans.print.WorkPlanReportJobHandler;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.view.api.ComponentState;
@@ -52,7 +48,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -64,9 +59,6 @@ public class WorkPlanDetailsListeners {
     @Autowired
     private SecurityService securityService;
 
-    @Autowired
-    private FileService fileService;
-
     @Autowired
     private ReportService reportService;
 
@@ -74,10 +66,7 @@ public class WorkPlanDetailsListeners {
     private WorkPlansService workPlanService;
 
     @Autowired
-    private WorkPlanPdfService workPlanPdfService;
-
-    @Autowired
-    private WorkPlanForDivisionPdfService workPlanForDivisionPdfService;
+    private ReportJobService reportJobService;
 
     @Autowired
     private OrderHelperService orderHelperService;
@@ -121,6 +110,7 @@ public class WorkPlanDetailsListeners {
                 return;
             }
 
+            // taken back by WorkPlanReportJobHandler.onFailure when generation fails
             if ("0".equals(generatedField.getFieldValue())) {
                 workerField.setFieldValue(securityService.getCurrentUserName());
                 generatedField.setFieldValue("1");
@@ -138,15 +128,11 @@ public class WorkPlanDetailsListeners {
                 return;
             }
 
-            try {
-                generateWorkPlanDocuments(state, workPlan);
-                checkIfInactiveOrders(state, orders);
-                state.performEvent(view, "reset", new String[0]);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            } catch (DocumentException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+            reportJobService.submit(WorkPlanReportJobHandler.REPORT_TYPE, workPlan.getId(), null, state.getLocale());
+
+            checkIfInactiveOrders(state, orders);
+            state.performEvent(view, "reset", new String[0]);
+            state.addMessage("basic.reportJob.submitted", MessageType.INFO);
         }
     }
 
@@ -186,22 +172,11 @@ public class WorkPlanDetailsListeners {
         return true;
     }
 
-    @Transactional
-    private void generateWorkPlanDocuments(final ComponentState state, final Entity workPlan) throws IOException,
-            DocumentException {
-        Entity workPlanWithFilename = fileService.updateReportFileName(workPlan, WorkPlanFields.DATE,
-                "workPlans.workPlan.report.fileName");
-        workPlanPdfService.generateDocument(workPlanWithFilename, state.getLocale());
-        if (workPlan.getStringField(WorkPlanFields.TYPE).compareTo(WorkPlanType.BY_DIVISION.getStringValue()) == 0) {
-            String fileNameForDivision = "workPlans.workPlan.report.fileNameForDivision";
-            Entity workPlanForDivision = fileService.updateReportFileName(workPlanWithFilename, WorkPlanFields.DATE,
-                    fileNameForDivision);
-            workPlanForDivisionPdfService.generateDocument(workPlanForDivision, state.getLocale(), fileNameForDivision,
-                    PageSize.A4.rotate());
+    public void printWorkPlan(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, WorkPlanReportJobHandler.REPORT_TYPE)) {
+            return;
         }
-    }
 
-    public void printWorkPlan(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         reportService.printGeneratedReport(view, state, new String[] { args[0], WorkPlansConstants.PLUGIN_IDENTIFIER,
                 WorkPlansConstants.MODEL_WORK_PLAN, args[1] });
     }
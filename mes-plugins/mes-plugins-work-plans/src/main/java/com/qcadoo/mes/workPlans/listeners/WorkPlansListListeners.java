@@ -23,7 +23,9 @@
  */
 package com.qcadoo.mes.workPlans.listeners;
 
+import com.qcadoo.mes.basic.reportJobs.ReportJobService;
 import com.qcadoo.mes.workPlans.constants.WorkPlansConstants;
+import com.qcadoo.mes.workPlans.print.WorkPlanReportJobHandler;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
@@ -36,7 +38,14 @@ public class WorkPlansListListeners {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void printWorkPlan(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!reportJobService.checkIfNotPending(state, WorkPlanReportJobHandler.REPORT_TYPE)) {
+            return;
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], WorkPlansConstants.PLUGIN_IDENTIFIER,
                 WorkPlansConstants.MODEL_WORK_PLAN });
     }
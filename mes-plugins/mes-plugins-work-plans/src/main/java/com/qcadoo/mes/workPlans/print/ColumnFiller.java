@@ -23,8 +23,10 @@
  */
 package com.qcadoo.mes.workPlans.print;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.model.api.Entity;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -46,4 +48,21 @@ public interface ColumnFiller {
      */
     Map<Entity, Map<String, String>> getValues(final List<Entity> orders);
 
+    /**
+     * Bulk variant of {@link #getValues(List)}, fillers should override it to fetch values of all orders at once.
+     * 
+     * @param orders
+     *            List of orders
+     * @return The Keys of the map are order ids, values are Maps productComponent -> (columnIdentifier -> columnValue)
+     */
+    default Map<Long, Map<Entity, Map<String, String>>> getValuesByOrder(final List<Entity> orders) {
+        Map<Long, Map<Entity, Map<String, String>>> values = Maps.newHashMap();
+
+        for (Entity order : orders) {
+            values.put(order.getId(), getValues(Collections.singletonList(order)));
+        }
+
+        return values;
+    }
+
 }
@@ -0,0 +1,135 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.print;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.workPlans.constants.WorkPlansConstants;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Column fillers of work plan column models, resolved once per tenant and model instead of on every fetch of column values.
+ *
+ * Fillers are resolved lazily, on first fetch of column values, and kept until {@link #invalidate()} is called by column
+ * definition hooks.
+ */
+@Service
+public class ColumnFillerRegistry {
+
+    private static final String L_COLUMN_FILLER = "columnFiller";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    // by tenant and columns model name
+    private final ConcurrentMap<String, List<ColumnFiller>> columnFillers = new ConcurrentHashMap<>();
+
+    public List<ColumnFiller> getColumnFillers(final String columnsModelName) {
+        return columnFillers.computeIfAbsent(getTenantPrefix() + columnsModelName,
+                key -> resolveColumnFillers(columnsModelName));
+    }
+
+    /**
+     * Drops fillers of current tenant, again after the transaction which changed column definitions completes.
+     */
+    public void invalidate() {
+        String tenantPrefix = getTenantPrefix();
+
+        invalidate(tenantPrefix);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    invalidate(tenantPrefix);
+                }
+
+            });
+        }
+    }
+
+    private void invalidate(final String tenantPrefix) {
+        columnFillers.keySet().removeIf(key -> key.startsWith(tenantPrefix));
+    }
+
+    private String getTenantPrefix() {
+        return MultiTenantUtil.getCurrentTenantId() + "|";
+    }
+
+    private List<ColumnFiller> resolveColumnFillers(final String columnsModelName) {
+        List<Entity> columnDefinitions = dataDefinitionService.get(WorkPlansConstants.PLUGIN_IDENTIFIER, columnsModelName)
+                .find().list().getEntities();
+
+        Set<String> classNames = Sets.newLinkedHashSet();
+
+        for (Entity columnDefinition : columnDefinitions) {
+            classNames.add(columnDefinition.getStringField(L_COLUMN_FILLER));
+        }
+
+        List<ColumnFiller> fillers = Lists.newArrayList();
+
+        for (String className : classNames) {
+            fillers.add(getColumnFiller(className));
+        }
+
+        return Collections.unmodifiableList(fillers);
+    }
+
+    private ColumnFiller getColumnFiller(final String className) {
+        Class<?> clazz;
+
+        try {
+            clazz = Thread.currentThread().getContextClassLoader().loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to find class: " + className, e);
+        }
+
+        Object bean = applicationContext.getBean(clazz);
+
+        if (!(bean instanceof ColumnFiller)) {
+            throw new IllegalStateException("Failed to find column filler bean for class: " + className);
+        }
+
+        return (ColumnFiller) bean;
+    }
+
+}
@@ -26,13 +26,19 @@ package com.qcadoo.mes.workPlans.print;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.pdf.PdfWriter;
@@ -53,6 +59,7 @@ import com.qcadoo.mes.workPlans.constants.WorkPlanFields;
 import com.qcadoo.mes.workPlans.pdf.document.WorkPlanPdf;
 import com.qcadoo.mes.workPlans.pdf.document.operation.grouping.container.GroupingContainer;
 import com.qcadoo.mes.workPlans.pdf.document.operation.grouping.factory.GroupingContainerFactory;
+import com.qcadoo.mes.workPlans.workPlansColumnExtension.WorkPlansColumnFiller;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -87,6 +94,9 @@ public class WorkPlanPdfService extends PdfDocumentWithWriterService {
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Autowired
+    private WorkPlansColumnFiller workPlansColumnFiller;
+
     @Override
     public String getReportTitle(final Locale locale) {
         return translationService.translate("workPlans.workPlan.report.title", locale);
@@ -98,12 +108,15 @@ public class WorkPlanPdfService extends PdfDocumentWithWriterService {
 
         GroupingContainer groupingContainer = groupingContainerFactory.create(workPlan, locale);
 
-        for (Entity order : orders(workPlan)) {
+        List<Entity> orders = orders(workPlan);
+        Map<String, ListMultimap<Long, Entity>> productComponents = getOperationProductComponents(orders);
+
+        for (Entity order : orders) {
             OperationProductComponentWithQuantityContainer productQuantities = productQuantitiesServiceImpl
                     .getProductComponentQuantities(order);
             removeAlreadyExistsMergesForOrder(order);
             for (Entity operationComponent : operationComponents(technology(order))) {
-                Entity updatedComponent = updateOperationProductComponents(order, operationComponent);
+                Entity updatedComponent = updateOperationProductComponents(order, operationComponent, productComponents);
                 groupingContainer.add(order, updatedComponent, productQuantities);
             }
         }
@@ -112,6 +125,51 @@ public class WorkPlanPdfService extends PdfDocumentWithWriterService {
 
     }
 
+    /**
+     * Fetches product components of operations of all orders at once, instead of loading them per operation component.
+     * 
+     * @param orders
+     *            List of orders
+     * @return The Keys of the map are operation product components fields of operation component, values are product
+     *         components by operation component id
+     */
+    public Map<String, ListMultimap<Long, Entity>> getOperationProductComponents(final List<Entity> orders) {
+        Set<Long> technologyIds = orders.stream().map(this::technology).filter(Objects::nonNull).map(Entity::getId)
+                .collect(Collectors.toSet());
+
+        ListMultimap<Long, Entity> inComponents = ArrayListMultimap.create();
+        ListMultimap<Long, Entity> outComponents = ArrayListMultimap.create();
+
+        // loaded ordered by id, one query per model
+        for (Entity productComponent : workPlansColumnFiller.loadProductComponents(technologyIds).values()) {
+            Entity operationComponent = productComponent.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT);
+            Long operationComponentId = operationComponent.getId();
+            String modelName = productComponent.getDataDefinition().getName();
+
+            if (TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT.equals(modelName)) {
+                inComponents.put(operationComponentId, productComponent);
+            } else {
+                outComponents.put(operationComponentId, productComponent);
+            }
+        }
+
+        Map<String, ListMultimap<Long, Entity>> productComponents = Maps.newHashMap();
+
+        productComponents.put(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS, inComponents);
+        productComponents.put(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS, outComponents);
+
+        return productComponents;
+    }
+
+    public Entity updateOperationProductComponents(final Entity order, final Entity operationComponent,
+            final Map<String, ListMultimap<Long, Entity>> productComponents) {
+        for (Map.Entry<String, ListMultimap<Long, Entity>> entry : productComponents.entrySet()) {
+            operationComponent.setField(entry.getKey(), Lists.newArrayList(entry.getValue().get(operationComponent.getId())));
+        }
+
+        return updateOperationProductComponents(order, operationComponent);
+    }
+
     public Entity updateOperationProductComponents(final Entity order, final Entity operationComponent) {
         if (!OrderState.PENDING.getStringValue().equals(order.getStringField(OrderFields.STATE))) {
             List<Entity> productionCountingQuantities = basicProductionCountingService
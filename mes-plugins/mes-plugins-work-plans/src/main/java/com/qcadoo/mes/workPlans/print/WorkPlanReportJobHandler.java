@@ -0,0 +1,100 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.print;
+
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.lowagie.text.PageSize;
+import com.qcadoo.mes.basic.reportJobs.ReportJobHandler;
+import com.qcadoo.mes.workPlans.WorkPlansService;
+import com.qcadoo.mes.workPlans.constants.WorkPlanFields;
+import com.qcadoo.mes.workPlans.constants.WorkPlanType;
+import com.qcadoo.mes.workPlans.constants.WorkPlansConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.file.FileService;
+
+@Service
+public class WorkPlanReportJobHandler implements ReportJobHandler {
+
+    public static final String REPORT_TYPE = WorkPlansConstants.PLUGIN_IDENTIFIER + "." + WorkPlansConstants.MODEL_WORK_PLAN;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private WorkPlansService workPlanService;
+
+    @Autowired
+    private WorkPlanPdfService workPlanPdfService;
+
+    @Autowired
+    private WorkPlanForDivisionPdfService workPlanForDivisionPdfService;
+
+    @Override
+    public String getReportType() {
+        return REPORT_TYPE;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return 2;
+    }
+
+    @Override
+    public void generate(final Long entityId, final Locale locale, final IntConsumer progress) throws Exception {
+        Entity workPlan = workPlanService.getWorkPlan(entityId);
+
+        Entity workPlanWithFilename = fileService.updateReportFileName(workPlan, WorkPlanFields.DATE,
+                "workPlans.workPlan.report.fileName");
+        workPlanPdfService.generateDocument(workPlanWithFilename, locale);
+
+        if (workPlan.getStringField(WorkPlanFields.TYPE).compareTo(WorkPlanType.BY_DIVISION.getStringValue()) == 0) {
+            progress.accept(50);
+
+            String fileNameForDivision = "workPlans.workPlan.report.fileNameForDivision";
+            Entity workPlanForDivision = fileService.updateReportFileName(workPlanWithFilename, WorkPlanFields.DATE,
+                    fileNameForDivision);
+            workPlanForDivisionPdfService.generateDocument(workPlanForDivision, locale, fileNameForDivision,
+                    PageSize.A4.rotate());
+        }
+    }
+
+    @Override
+    public void onFailure(final Long entityId) {
+        Entity workPlan = workPlanService.getWorkPlan(entityId);
+
+        if (workPlan != null) {
+            workPlan.setField(WorkPlanFields.WORKER, null);
+            workPlan.setField(WorkPlanFields.GENERATED, false);
+            workPlan.setField(WorkPlanFields.DATE, null);
+
+            workPlan.getDataDefinition().save(workPlan);
+        }
+    }
+
+}
@@ -24,28 +24,44 @@
 package com.qcadoo.mes.workPlans.workPlansColumnExtension;
 
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.workPlans.print.ColumnFiller;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Component
 public class WorkPlansColumnFiller implements ColumnFiller {
@@ -60,6 +76,15 @@ public class WorkPlansColumnFiller implements ColumnFiller {
 
     private static final String L_PRODUCT_NAME = "productName";
 
+    private static final String L_ID = "id";
+
+    private static final String L_TECHNOLOGY = "technology";
+
+    private static final String L_OPERATION = "operation";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
     @Autowired
     private NumberService numberService;
 
@@ -96,6 +121,151 @@ public class WorkPlansColumnFiller implements ColumnFiller {
         return values;
     }
 
+    @Override
+    public Map<Long, Map<Entity, Map<String, String>>> getValuesByOrder(final List<Entity> orders) {
+        Set<Long> technologyIds = Sets.newHashSet();
+
+        for (Entity order : orders) {
+            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+            if (technology != null) {
+                technologyIds.add(technology.getId());
+            }
+        }
+
+        ListMultimap<Long, Entity> productComponents = ArrayListMultimap.create();
+        Multimap<Long, Long> referenceTechnologyIds = HashMultimap.create();
+
+        loadProductComponents(technologyIds, productComponents, referenceTechnologyIds);
+
+        Map<Long, Map<Entity, Map<String, String>>> values = Maps.newHashMap();
+
+        for (Entity order : orders) {
+            Map<Entity, Map<String, String>> orderValues = new HashMap<Entity, Map<String, String>>();
+            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+            if (technology != null) {
+                OperationProductComponentWithQuantityContainer productQuantities = productQuantitiesService
+                        .getProductComponentQuantities(order);
+
+                for (Entity operationProductComponent : collectProductComponents(technology.getId(), productComponents,
+                        referenceTechnologyIds)) {
+                    initMap(orderValues, operationProductComponent);
+
+                    orderValues.get(operationProductComponent).put(L_PRODUCT_NAME,
+                            getProductNameAndNumber(operationProductComponent));
+                    orderValues.get(operationProductComponent).put(L_PLANNED_QUANTITY,
+                            getProductQuantityAndUnit(operationProductComponent, productQuantities));
+                }
+            }
+
+            values.put(order.getId(), orderValues);
+        }
+
+        return values;
+    }
+
+    /**
+     * Loads product components of given technologies and of technologies referenced by them.
+     *
+     * @return product in and out components by id of technology they belong to
+     */
+    public ListMultimap<Long, Entity> loadProductComponents(final Set<Long> technologyIds) {
+        ListMultimap<Long, Entity> productComponents = ArrayListMultimap.create();
+
+        loadProductComponents(technologyIds, productComponents, HashMultimap.create());
+
+        return productComponents;
+    }
+
+    /**
+     * Loads product components of given technologies and of technologies referenced by them. Each level of references costs
+     * a fixed number of queries, regardless of the number of technologies on it.
+     */
+    private void loadProductComponents(final Set<Long> technologyIds, final ListMultimap<Long, Entity> productComponents,
+            final Multimap<Long, Long> referenceTechnologyIds) {
+        Set<Long> loadedTechnologyIds = Sets.newHashSet();
+        Set<Long> pendingTechnologyIds = technologyIds;
+
+        while (!pendingTechnologyIds.isEmpty()) {
+            loadedTechnologyIds.addAll(pendingTechnologyIds);
+
+            DataDefinition operationComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                    TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+
+            List<Entity> operationComponents = operationComponentDD.find()
+                    .createAlias(TechnologyOperationComponentFields.TECHNOLOGY, L_TECHNOLOGY, JoinType.INNER)
+                    .add(SearchRestrictions.in(L_TECHNOLOGY + "." + L_ID, pendingTechnologyIds))
+                    .addOrder(SearchOrders.asc(L_ID)).list().getEntities();
+
+            Map<Long, Long> technologyIdsByOperationComponentId = Maps.newHashMap();
+            Set<Long> nextTechnologyIds = Sets.newHashSet();
+
+            for (Entity operationComponent : operationComponents) {
+                Long technologyId = operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY).getId();
+
+                if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                        operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+                    Long referenceTechnologyId = operationComponent.getBelongsToField(
+                            TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY).getId();
+
+                    referenceTechnologyIds.put(technologyId, referenceTechnologyId);
+
+                    if (!loadedTechnologyIds.contains(referenceTechnologyId)) {
+                        nextTechnologyIds.add(referenceTechnologyId);
+                    }
+                } else {
+                    technologyIdsByOperationComponentId.put(operationComponent.getId(), technologyId);
+                }
+            }
+
+            for (String modelName : Lists.newArrayList(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT,
+                    TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT)) {
+                for (Entity operationProductComponent : findProductComponents(modelName,
+                        technologyIdsByOperationComponentId.keySet())) {
+                    Long operationComponentId = operationProductComponent.getBelongsToField(
+                            OperationProductInComponentFields.OPERATION_COMPONENT).getId();
+
+                    productComponents.put(technologyIdsByOperationComponentId.get(operationComponentId),
+                            operationProductComponent);
+                }
+            }
+
+            pendingTechnologyIds = nextTechnologyIds;
+        }
+    }
+
+    private List<Entity> findProductComponents(final String modelName, final Collection<Long> operationComponentIds) {
+        if (operationComponentIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        DataDefinition productComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, modelName);
+
+        return productComponentDD.find()
+                .createAlias(OperationProductInComponentFields.OPERATION_COMPONENT, L_OPERATION, JoinType.INNER)
+                .add(SearchRestrictions.in(L_OPERATION + "." + L_ID, operationComponentIds)).addOrder(SearchOrders.asc(L_ID))
+                .list().getEntities();
+    }
+
+    private List<Entity> collectProductComponents(final Long technologyId, final ListMultimap<Long, Entity> productComponents,
+            final Multimap<Long, Long> referenceTechnologyIds) {
+        List<Entity> collected = Lists.newArrayList();
+        Set<Long> visitedTechnologyIds = Sets.newHashSet();
+        List<Long> technologyIds = Lists.newArrayList(technologyId);
+
+        while (!technologyIds.isEmpty()) {
+            Long currentTechnologyId = technologyIds.remove(technologyIds.size() - 1);
+
+            if (visitedTechnologyIds.add(currentTechnologyId)) {
+                collected.addAll(productComponents.get(currentTechnologyId));
+                technologyIds.addAll(referenceTechnologyIds.get(currentTechnologyId));
+            }
+        }
+
+        return collected;
+    }
+
     private void initMap(final Map<Entity, Map<String, String>> valuesMap, final Entity order) {
         if (valuesMap.get(order) == null) {
             valuesMap.put(order, new HashMap<String, String>());
@@ -26,13 +26,17 @@ package com.qcadoo.mes.workPlans.workPlansColumnExtension;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.BDDMockito.given;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -54,10 +58,16 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityT
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchOrder;
+import com.qcadoo.model.api.search.SearchResult;
 
 public class WorkPlansColumnFillerTest {
 
@@ -75,11 +85,18 @@ public class WorkPlansColumnFillerTest {
     @Mock
     private ProductQuantitiesService productQuantitiesService;
 
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
     @Mock
     private Entity order, order2, product, operationProductComponent, technology, operationComponent;
 
     @Mock
-    private DataDefinition operationProductComponentDD;
+    private Entity referenceTechnology, referenceOperationComponent;
+
+    @Mock
+    private DataDefinition operationProductComponentDD, operationComponentDD, operationProductInComponentDD,
+            operationProductOutComponentDD;
 
     private EntityTree mockEntityTree(List<Entity> list) {
         EntityTree entityTree = mock(EntityTree.class);
@@ -93,6 +110,40 @@ public class WorkPlansColumnFillerTest {
         return entityList;
     }
 
+    @SuppressWarnings("unchecked")
+    private void mockFind(final DataDefinition dataDefinition, final List<Entity>... results) {
+        SearchCriteriaBuilder searchCriteriaBuilder = mock(SearchCriteriaBuilder.class);
+        SearchResult searchResult = mock(SearchResult.class);
+
+        given(dataDefinition.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.createAlias(Mockito.anyString(), Mockito.anyString(), Mockito.any(JoinType.class)))
+                .willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(Mockito.any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.addOrder(Mockito.any(SearchOrder.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(results[0], Arrays.copyOfRange(results, 1, results.length));
+    }
+
+    private void givenOperationWithInComponent(final Entity operationTechnology) {
+        given(operationComponent.getId()).willReturn(1L);
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)).willReturn(
+                operationTechnology);
+        given(operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE)).willReturn(
+                TechnologyOperationComponentEntityType.OPERATION.getStringValue());
+
+        given(operationProductComponent.getId()).willReturn(2L);
+        given(operationProductComponent.getBelongsToField("operationComponent")).willReturn(operationComponent);
+        given(operationProductComponent.getBelongsToField(L_PRODUCT)).willReturn(product);
+        given(operationProductComponent.getDataDefinition()).willReturn(operationProductComponentDD);
+        given(operationProductComponentDD.getName()).willReturn(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+    }
+
+    private void givenQuantities(final Entity order, final int quantity) {
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+        quantities.put(operationProductComponent, new BigDecimal(quantity));
+        given(productQuantitiesService.getProductComponentQuantities(order)).willReturn(quantities);
+    }
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
@@ -101,6 +152,14 @@ public class WorkPlansColumnFillerTest {
 
         ReflectionTestUtils.setField(workPlansColumnFiller, "numberService", numberService);
         ReflectionTestUtils.setField(workPlansColumnFiller, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(workPlansColumnFiller, "dataDefinitionService", dataDefinitionService);
+
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT)).willReturn(operationComponentDD);
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT)).willReturn(operationProductInComponentDD);
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT)).willReturn(operationProductOutComponentDD);
 
         given(numberService.format(Mockito.any(BigDecimal.class))).willAnswer(new Answer<String>() {
 
@@ -116,11 +175,17 @@ public class WorkPlansColumnFillerTest {
         given(order.getStringField(OrderFields.NUMBER)).willReturn("1234");
         given(order.getField(OrderFields.PLANNED_QUANTITY)).willReturn(new BigDecimal(11));
         given(order.getBelongsToField(OrderFields.PRODUCT)).willReturn(product);
+        given(order.getId()).willReturn(101L);
         given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technology);
 
+        given(order2.getId()).willReturn(102L);
+
         given(order2.getStringField(OrderFields.NAME)).willReturn("order2");
         given(order2.getBelongsToField(OrderFields.PRODUCT)).willReturn(product);
 
+        given(technology.getId()).willReturn(10L);
+        given(referenceTechnology.getId()).willReturn(20L);
+
         given(product.getId()).willReturn(1L);
         given(product.getStringField(ProductFields.NAME)).willReturn("product");
         given(product.getStringField(ProductFields.NUMBER)).willReturn("123");
@@ -179,4 +244,83 @@ public class WorkPlansColumnFillerTest {
         assertEquals("product (123)", columnValues.get(operationProductComponent).get(L_PRODUCT_NAME));
         assertEquals("11.00000 abc", columnValues.get(operationProductComponent).get(L_PLANNED_QUANTITY));
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReturnColumnValuesByOrder() {
+        // given
+        givenOperationWithInComponent(technology);
+        givenQuantities(order, 11);
+
+        mockFind(operationComponentDD, asList(operationComponent));
+        mockFind(operationProductInComponentDD, asList(operationProductComponent));
+        mockFind(operationProductOutComponentDD, Collections.<Entity> emptyList());
+
+        // when
+        Map<Long, Map<Entity, Map<String, String>>> columnValues = workPlansColumnFiller.getValuesByOrder(asList(order, order2));
+
+        // then
+        assertEquals(2, columnValues.size());
+        assertEquals(1, columnValues.get(101L).size());
+        assertEquals("product (123)", columnValues.get(101L).get(operationProductComponent).get(L_PRODUCT_NAME));
+        assertEquals("11.00000 abc", columnValues.get(101L).get(operationProductComponent).get(L_PLANNED_QUANTITY));
+        assertTrue(columnValues.get(102L).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldLoadProductComponentsOnceForOrdersWithSameTechnology() {
+        // given
+        given(order2.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technology);
+
+        givenOperationWithInComponent(technology);
+        givenQuantities(order, 11);
+        givenQuantities(order2, 7);
+
+        mockFind(operationComponentDD, asList(operationComponent));
+        mockFind(operationProductInComponentDD, asList(operationProductComponent));
+        mockFind(operationProductOutComponentDD, Collections.<Entity> emptyList());
+
+        // when
+        Map<Long, Map<Entity, Map<String, String>>> columnValues = workPlansColumnFiller.getValuesByOrder(asList(order, order2));
+
+        // then
+        assertEquals("11.00000 abc", columnValues.get(101L).get(operationProductComponent).get(L_PLANNED_QUANTITY));
+        assertEquals("7.00000 abc", columnValues.get(102L).get(operationProductComponent).get(L_PLANNED_QUANTITY));
+
+        verify(operationComponentDD, times(1)).find();
+        verify(operationProductInComponentDD, times(1)).find();
+        verify(operationProductOutComponentDD, times(1)).find();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReturnColumnValuesOfReferencedTechnologyByOrder() {
+        // given
+        given(referenceOperationComponent.getId()).willReturn(3L);
+        given(referenceOperationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)).willReturn(
+                technology);
+        given(referenceOperationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE)).willReturn(
+                TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue());
+        given(referenceOperationComponent.getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY))
+                .willReturn(referenceTechnology);
+
+        givenOperationWithInComponent(referenceTechnology);
+        givenQuantities(order, 11);
+
+        mockFind(operationComponentDD, asList(referenceOperationComponent), asList(operationComponent));
+        mockFind(operationProductInComponentDD, asList(operationProductComponent));
+        mockFind(operationProductOutComponentDD, Collections.<Entity> emptyList());
+
+        // when
+        Map<Long, Map<Entity, Map<String, String>>> columnValues = workPlansColumnFiller.getValuesByOrder(asList(order));
+
+        // then
+        assertEquals(1, columnValues.get(101L).size());
+        assertEquals("product (123)", columnValues.get(101L).get(operationProductComponent).get(L_PRODUCT_NAME));
+        assertEquals("11.00000 abc", columnValues.get(101L).get(operationProductComponent).get(L_PLANNED_QUANTITY));
+
+        verify(operationComponentDD, times(2)).find();
+    }
+
 }